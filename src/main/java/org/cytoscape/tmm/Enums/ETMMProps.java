@@ -13,7 +13,24 @@ public enum ETMMProps {
     GROUPLABELSFILE("GroupLabelsFile"),
     GROUPCOLORSFILE("GroupColorsFile"),
     BOOTCYCLES("BootCycles"),
-    VALIDATIONMODE("ValidationMode");
+    VALIDATIONMODE("ValidationMode"),
+    PARSETHREADS("ParseThreads"),
+    MATRIXCACHE("MatrixCache"),
+    MATRIXCACHEMAXMB("MatrixCacheMaxMB"),
+    FCFLOATPRECISION("FCFloatPrecision"),
+    LAZYFCCOLUMNS("LazyFCColumns"),
+    MATERIALIZEDCOLUMNS("MaterializedFCColumns"),
+    PSFTIMEOUT("PSFTimeout"),
+    ADAPTIVEBOOTSTRAP("AdaptiveBootstrap"),
+    REFINEBOOTCYCLES("RefineBootCycles"),
+    REFINEPVALUEMIN("RefinePValueMin"),
+    REFINEPVALUEMAX("RefinePValueMax"),
+    PSFRESULTCACHE("PSFResultCache"),
+    BATCHTHREADS("BatchThreads"),
+    JOBTHREADS("JobThreads"),
+    JOBQUEUECAPACITY("JobQueueCapacity"),
+    REPORTTHREADS("ReportThreads"),
+    DENSITYTHRESHOLD("DensityThreshold");
 
     private String name;
     private boolean oldValue = true;
@@ -13,13 +13,26 @@ import org.cytoscape.model.*;
 import org.cytoscape.service.util.AbstractCyActivator;
 import org.cytoscape.session.CySessionManager;
 import org.cytoscape.tmm.Enums.ETMMProps;
+import org.cytoscape.tmm.batch.TMMJob;
+import org.cytoscape.tmm.batch.TMMJobQueue;
+import org.cytoscape.tmm.commands.BatchRunTaskFactory;
+import org.cytoscape.tmm.commands.CancelJobTaskFactory;
+import org.cytoscape.tmm.commands.JobStatusTaskFactory;
+import org.cytoscape.tmm.commands.MaterializeFCColumnsTaskFactory;
+import org.cytoscape.tmm.commands.ParseJobTaskFactory;
+import org.cytoscape.tmm.commands.StageJobTaskFactory;
+import org.cytoscape.tmm.gui.CyNodeIndex;
+import org.cytoscape.tmm.gui.MaterializedFCColumns;
+import org.cytoscape.tmm.gui.PSFVisualizer;
 import org.cytoscape.tmm.gui.TMMPanel;
 import org.cytoscape.view.model.CyNetworkViewFactory;
 import org.cytoscape.view.model.CyNetworkViewManager;
 import org.cytoscape.view.vizmap.VisualMappingFunctionFactory;
 import org.cytoscape.view.vizmap.VisualMappingManager;
 import org.cytoscape.view.vizmap.VisualStyleFactory;
+import org.cytoscape.work.ServiceProperties;
 import org.cytoscape.work.SynchronousTaskManager;
+import org.cytoscape.work.TaskFactory;
 import org.cytoscape.work.TaskManager;
 import org.cytoscape.work.swing.DialogTaskManager;
 import org.cytoscape.task.write.ExportNetworkViewTaskFactory;
@@ -56,6 +69,10 @@ public class TMMActivator extends AbstractCyActivator {
     public static CyNetworkTableManager cyNetworkTableManager;
     public static CommandExecutorTaskFactory commandExecutor;
     public static ExportNetworkViewTaskFactory exportNetworkViewTaskFactory;
+    public static CyNodeIndex cyNodeIndex;
+    public static MaterializedFCColumns materializedFCColumns;
+    public static PSFVisualizer psfVisualizer;
+    public static TMMJobQueue tmmJobQueue;
 
     public static TMMPanel tmmPanel;
     private static File TMMDir;
@@ -105,6 +122,10 @@ public class TMMActivator extends AbstractCyActivator {
         tmmPanel = new TMMPanel();
         commandExecutor = getService(bc, CommandExecutorTaskFactory.class);
         exportNetworkViewTaskFactory = getService(bc, ExportNetworkViewTaskFactory.class);
+        cyNodeIndex = new CyNodeIndex();
+        materializedFCColumns = new MaterializedFCColumns();
+        tmmJobQueue = new TMMJobQueue();
+        psfVisualizer = new PSFVisualizer();
 
         registerService(bc, cytoscapeDesktopService, CySwingApplication.class, new Properties());
         registerService(bc, taskManager, DialogTaskManager.class, new Properties());
@@ -128,6 +149,30 @@ public class TMMActivator extends AbstractCyActivator {
         registerService(bc, cyNetworkTableManager, CyNetworkTableManager.class, new Properties());
         registerService(bc, exportNetworkViewTaskFactory, ExportNetworkViewTaskFactory.class, new Properties());
         registerService(bc, tmmPanel, CytoPanelComponent.class, new Properties());
+        registerAllServices(bc, cyNodeIndex, new Properties());
+
+        registerCommand(bc, new MaterializeFCColumnsTaskFactory(), MaterializeFCColumnsTaskFactory.COMMAND,
+                MaterializeFCColumnsTaskFactory.DESCRIPTION);
+        registerCommand(bc, new BatchRunTaskFactory(), BatchRunTaskFactory.COMMAND, BatchRunTaskFactory.DESCRIPTION);
+        registerCommand(bc, new ParseJobTaskFactory(), ParseJobTaskFactory.COMMAND, ParseJobTaskFactory.DESCRIPTION);
+        for (TMMJob.Kind kind : new TMMJob.Kind[]{TMMJob.Kind.ADDFC, TMMJob.Kind.RUNPSF, TMMJob.Kind.REPORT}) {
+            StageJobTaskFactory stageJobTaskFactory = new StageJobTaskFactory(kind);
+            registerCommand(bc, stageJobTaskFactory, stageJobTaskFactory.getCommand(),
+                    stageJobTaskFactory.getDescription());
+        }
+        registerCommand(bc, new JobStatusTaskFactory(), JobStatusTaskFactory.COMMAND, JobStatusTaskFactory.DESCRIPTION);
+        registerCommand(bc, new CancelJobTaskFactory(), CancelJobTaskFactory.COMMAND, CancelJobTaskFactory.DESCRIPTION);
+    }
+
+    /**
+     * Registers a task factory as a command of the tmm namespace.
+     */
+    private void registerCommand(BundleContext bc, TaskFactory taskFactory, String command, String description) {
+        Properties commandProps = new Properties();
+        commandProps.setProperty(ServiceProperties.COMMAND_NAMESPACE, "tmm");
+        commandProps.setProperty(ServiceProperties.COMMAND, command);
+        commandProps.setProperty(ServiceProperties.COMMAND_DESCRIPTION, description);
+        registerService(bc, taskFactory, TaskFactory.class, commandProps);
     }
 
     public static Properties getTMMProps() {
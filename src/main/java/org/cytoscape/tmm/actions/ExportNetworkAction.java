@@ -37,6 +37,17 @@ public class ExportNetworkAction extends AbstractCyAction {
 
         TMMActivator.taskManager.execute(taskIterator);
     }
+
+    /**
+     * Exports the network in the calling thread, e.g. in batch runs.
+     */
+    public void exportSynchronously() {
+        TaskIterator taskIterator = TMMActivator.exportNetworkViewTaskFactory.createTaskIterator(
+                CyManager.getNetworkView(network),
+                new File(fileName));
+
+        TMMActivator.synchTaskManager.execute(taskIterator);
+    }
 }
 
 
@@ -3,12 +3,14 @@ package org.cytoscape.tmm.actions;
 import com.itextpdf.text.*;
 import com.itextpdf.text.Font;
 import org.cytoscape.application.swing.AbstractCyAction;
+import org.cytoscape.tmm.Enums.ETMMProps;
 import org.cytoscape.tmm.TMMActivator;
 import org.cytoscape.tmm.gui.DoubleFormatter;
 import org.cytoscape.tmm.gui.TMMPanel;
 import org.cytoscape.tmm.processing.ParsedFilesDirectory;
 import org.cytoscape.tmm.reports.*;
 import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.FinishStatus;
 import org.cytoscape.work.TaskIterator;
 import org.cytoscape.work.TaskMonitor;
 import org.jfree.chart.JFreeChart;
@@ -21,11 +23,19 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Lilit Nersisyan on 4/7/2017.
  */
 public class GenerateReportAction extends AbstractCyAction {
+    private static final int DEFAULTDENSITYTHRESHOLD = 5000;
     private boolean isValidationMode;
     private String iterationTitle;
     private String comment;
@@ -36,12 +46,15 @@ public class GenerateReportAction extends AbstractCyAction {
     private File pdfFile;
     private File numericFile;
     private SummaryFileHandler summaryFileHandler;
+    private ReportModel reportModel;
     private TMMLabels tmmLabels;
     private GroupLabels groupLabels;
     private SVM svm;
     private HashMap<String, HashMap<String, Double>> boxplotStats;
     private int bootCycles;
+    private int densityThreshold;
     private ParsedFilesDirectory parsedFilesDirectory;
+    private final MyTaskObserver taskObserver = new MyTaskObserver();
 
     /**
      * Standart constructor for the estimation mode.
@@ -101,13 +114,73 @@ public class GenerateReportAction extends AbstractCyAction {
     public void actionPerformed(ActionEvent e) {
         final DrawReportTask drawReportTask = new DrawReportTask();
         TaskIterator taskIterator = new TaskIterator(drawReportTask);
-        TMMActivator.taskManager.execute(taskIterator);
+        taskObserver.reset();
+        TMMActivator.taskManager.execute(taskIterator, taskObserver);
+    }
+
+    /**
+     * Waits for the report task started by actionPerformed to finish.
+     *
+     * @return the pdf file, or null if the report was not generated
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public File awaitPdfFile() throws InterruptedException {
+        taskObserver.awaitAllFinished(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        FinishStatus finishStatus = taskObserver.getFinishStatus();
+        if (finishStatus == null || finishStatus.getType() != FinishStatus.Type.SUCCEEDED || !pdfFile.exists())
+            return null;
+        return pdfFile;
     }
 
     public File getPdfFile() {
         return pdfFile;
     }
 
+    /**
+     * Generates the report in the calling thread, e.g. in batch runs.
+     *
+     * @throws Exception if the report could not be generated
+     */
+    public void generateReport(TaskMonitor taskMonitor) throws Exception {
+        new DrawReportTask().run(taskMonitor);
+    }
+
+    /**
+     * Reads the number of report threads, building and drawing the charts, from TMM properties.
+     * 0 (default) stands for the number of available processors.
+     */
+    public static int getReportThreads() {
+        String property = (String) TMMActivator.getTMMProps().get(ETMMProps.REPORTTHREADS.getName());
+        try {
+            int numThreads = Integer.parseInt(property.trim());
+            if (numThreads > 0)
+                return numThreads;
+        } catch (Exception e) {
+            // the default
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Reads the number of points above which the scatter plots are drawn as density rasters from TMM properties.
+     * 0 stands for drawing every point as a vector shape.
+     */
+    public static int getDensityThreshold() {
+        String property = (String) TMMActivator.getTMMProps().get(ETMMProps.DENSITYTHRESHOLD.getName());
+        try {
+            return Math.max(0, Integer.parseInt(property.trim()));
+        } catch (Exception e) {
+            return DEFAULTDENSITYTHRESHOLD;
+        }
+    }
+
+    /**
+     * Sets TMM labels already read from the TMM labels file, so that the report does not read them again.
+     */
+    public void setTMMLabels(TMMLabels tmmLabels) {
+        this.tmmLabels = tmmLabels;
+    }
+
     private class DrawReportTask extends AbstractTask {
 
         @Override
@@ -128,8 +201,7 @@ public class GenerateReportAction extends AbstractCyAction {
 
                 if (isValidationMode) {
                     //If tmmLabelsFile is supplied, read tmm annotations and store in TMMLabels
-                    tmmLabels = null;
-                    if (tmmLabelsFile != null) {
+                    if (tmmLabels == null && tmmLabelsFile != null) {
                         try {
                             tmmLabels = new TMMLabels(tmmLabelsFile);
                         } catch (Exception e) {
@@ -138,6 +210,16 @@ public class GenerateReportAction extends AbstractCyAction {
                     }
                 }
 
+                // the per-sample data shared by all charts
+                try {
+                    if (tmmLabels != null)
+                        reportModel = new ReportModel(summaryFileHandler, tmmLabels);
+                    else
+                        reportModel = new ReportModel(summaryFileHandler, groupLabels);
+                } catch (Exception e) {
+                    throw new Exception("Problem building the report data: " + e.getMessage());
+                }
+
                 taskMonitor.setProgress(0.2);
 
                 try {
@@ -147,99 +229,117 @@ public class GenerateReportAction extends AbstractCyAction {
                             "\n Reason: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
                 }
 
+                // the charts are built concurrently, each by its own factory
+                taskMonitor.setStatusMessage("Building charts");
+                ExecutorService executorService = Executors.newFixedThreadPool(getReportThreads());
+                densityThreshold = getDensityThreshold();
                 ArrayList<JFreeChart> charts = new ArrayList<>();
-
-                // generate 2D plots
-                TwoDPlotFactory twoDPlotFactory = null;
-
                 try {
+                    Future<JFreeChart> twoDChartFuture = executorService.submit(create2DPlot(false, true));
+                    Future<JFreeChart> logTwoDChartFuture = executorService.submit(create2DPlot(true, true));
+                    Future<JFreeChart> logTwoDChart_woLabelsFuture = executorService.submit(create2DPlot(true, false));
+                    Future<JFreeChart> twoDChart_woLabelsFuture = executorService.submit(create2DPlot(false, false));
+                    Future<SVM> svmFuture = null;
+                    HashSet<String> misclassifiedSamples = new HashSet<>();
                     if (tmmLabels != null)
-                        twoDPlotFactory = new TwoDPlotFactory(summaryFileHandler, tmmLabels);
-                    else
-                        twoDPlotFactory = new TwoDPlotFactory(summaryFileHandler, groupLabels);
-
-                    // finished with twoDplots (without svm)
-                    JFreeChart twoDChart = twoDPlotFactory.create2DPlot();
-                    twoDPlotFactory.setLogScale(true);
-                    JFreeChart logTwoDChart = twoDPlotFactory.create2DPlot();
-
-                    twoDPlotFactory.setDrawPointLabels(false);
-                    JFreeChart logTwoDChart_woLabels = twoDPlotFactory.create2DPlot();
-                    twoDPlotFactory.setLogScale(false);
-                    JFreeChart twoDChart_woLabels = twoDPlotFactory.create2DPlot();
-                    if (tmmLabels != null) {
-                        svm = new SVM(summaryFileHandler, tmmLabels);
-                        taskMonitor.setStatusMessage("Running SVM");
-                        svm.runSVM();
-                        twoDPlotFactory.setALTThreshold(twoDChart, svm.getH());
-                        twoDPlotFactory.setTelomeraseThreshold(twoDChart, svm.getV());
-                        twoDPlotFactory.setAccuracy(twoDChart, svm.getAccuracy());
-
-                        twoDPlotFactory.setALTThreshold(twoDChart_woLabels, svm.getH());
-                        twoDPlotFactory.setTelomeraseThreshold(twoDChart_woLabels, svm.getV());
-                        twoDPlotFactory.setAccuracy(twoDChart_woLabels, svm.getAccuracy());
-
-                        twoDPlotFactory.setALTThreshold(logTwoDChart,
-                                Math.log(svm.getH() + twoDPlotFactory.LOGINCREMENT));
-                        twoDPlotFactory.setTelomeraseThreshold(logTwoDChart,
-                                Math.log(svm.getV() + twoDPlotFactory.LOGINCREMENT));
-                        twoDPlotFactory.setAccuracy(logTwoDChart, svm.getAccuracy());
-
-                        twoDPlotFactory.setALTThreshold(logTwoDChart_woLabels,
-                                Math.log(svm.getH() + twoDPlotFactory.LOGINCREMENT));
-                        twoDPlotFactory.setTelomeraseThreshold(logTwoDChart_woLabels,
-                                Math.log(svm.getV() + twoDPlotFactory.LOGINCREMENT));
-                        twoDPlotFactory.setAccuracy(logTwoDChart_woLabels, svm.getAccuracy());
+                        svmFuture = executorService.submit(new Callable<SVM>() {
+                            @Override
+                            public SVM call() throws Exception {
+                                SVM svm = new SVM(summaryFileHandler, tmmLabels);
+                                svm.runSVM();
+                                return svm;
+                            }
+                        });
+                    final BoxPlotFactory altBoxPlotFactory = createBoxPlotFactory();
+                    final BoxPlotFactory telomeraseBoxPlotFactory = createBoxPlotFactory();
+                    Future<JFreeChart> altBoxplotFuture = executorService.submit(new Callable<JFreeChart>() {
+                        @Override
+                        public JFreeChart call() throws Exception {
+                            return altBoxPlotFactory.createBoxplot(SummaryFileHandler.ALTKEY);
+                        }
+                    });
+                    Future<JFreeChart> telomeraseBoxplotFuture = executorService.submit(new Callable<JFreeChart>() {
+                        @Override
+                        public JFreeChart call() throws Exception {
+                            return telomeraseBoxPlotFactory.createBoxplot(SummaryFileHandler.TELOMERASEKEY);
+                        }
+                    });
+                    Future<JFreeChart[]> volcanoChartsFuture = executorService.submit(new Callable<JFreeChart[]>() {
+                        @Override
+                        public JFreeChart[] call() throws Exception {
+                            VolcanoPlotFactory volcanoPlotFactory = new VolcanoPlotFactory(reportModel);
+                            volcanoPlotFactory.setDensityThreshold(densityThreshold);
+                            return volcanoPlotFactory.createVolcanoPlots();
+                        }
+                    });
+                    executorService.shutdown();
+
+                    try {
+                        JFreeChart twoDChart = getResult(twoDChartFuture);
+                        JFreeChart logTwoDChart = getResult(logTwoDChartFuture);
+                        JFreeChart logTwoDChart_woLabels = getResult(logTwoDChart_woLabelsFuture);
+                        JFreeChart twoDChart_woLabels = getResult(twoDChart_woLabelsFuture);
+                        if (svmFuture != null) {
+                            taskMonitor.setStatusMessage("Running SVM");
+                            svm = getResult(svmFuture);
+                            TwoDPlotFactory twoDPlotFactory = new TwoDPlotFactory(reportModel);
+                            twoDPlotFactory.setALTThreshold(twoDChart, svm.getH());
+                            twoDPlotFactory.setTelomeraseThreshold(twoDChart, svm.getV());
+                            twoDPlotFactory.setAccuracy(twoDChart, svm.getAccuracy());
+
+                            twoDPlotFactory.setALTThreshold(twoDChart_woLabels, svm.getH());
+                            twoDPlotFactory.setTelomeraseThreshold(twoDChart_woLabels, svm.getV());
+                            twoDPlotFactory.setAccuracy(twoDChart_woLabels, svm.getAccuracy());
+
+                            twoDPlotFactory.setALTThreshold(logTwoDChart,
+                                    Math.log(svm.getH() + twoDPlotFactory.LOGINCREMENT));
+                            twoDPlotFactory.setTelomeraseThreshold(logTwoDChart,
+                                    Math.log(svm.getV() + twoDPlotFactory.LOGINCREMENT));
+                            twoDPlotFactory.setAccuracy(logTwoDChart, svm.getAccuracy());
+
+                            twoDPlotFactory.setALTThreshold(logTwoDChart_woLabels,
+                                    Math.log(svm.getH() + twoDPlotFactory.LOGINCREMENT));
+                            twoDPlotFactory.setTelomeraseThreshold(logTwoDChart_woLabels,
+                                    Math.log(svm.getV() + twoDPlotFactory.LOGINCREMENT));
+                            twoDPlotFactory.setAccuracy(logTwoDChart_woLabels, svm.getAccuracy());
+
+                            // the labels of misclassified samples are placed first
+                            misclassifiedSamples = svm.getMisclassifiedSamples();
+                            PlotManager.setPrioritySamples(twoDChart, misclassifiedSamples);
+                            PlotManager.setPrioritySamples(logTwoDChart, misclassifiedSamples);
+                        }
+                        charts.add(twoDChart_woLabels);
+                        charts.add(twoDChart);
+                        charts.add(logTwoDChart_woLabels);
+                        charts.add(logTwoDChart);
+                    } catch (Exception e) {
+                        throw new Exception("Could not generate 2D plots: " + e.getMessage());
                     }
-                    charts.add(twoDChart_woLabels);
-                    charts.add(twoDChart);
-                    charts.add(logTwoDChart_woLabels);
-                    charts.add(logTwoDChart);
-
-                } catch (Exception e) {
-                    throw new Exception("Could not generate 2D plots: " + e.getMessage());
-                }
-
-
-                taskMonitor.setProgress(0.4);
-
-
-
-                // if labeled, crate boxplots
-                BoxPlotFactory boxPlotFactory;
-                if (tmmLabels != null)
-                    boxPlotFactory = new BoxPlotFactory(summaryFileHandler, tmmLabels);
-                else
-                    boxPlotFactory = new BoxPlotFactory(summaryFileHandler, groupLabels);
-                JFreeChart[] boxplots = null;
-                try {
-                    boxplots = boxPlotFactory.createBoxplots();
-                    for (int i = 0; i < boxplots.length; i++)
-                        charts.add(boxplots[i]);
-                    boxplotStats = boxPlotFactory.getBoxplotStats();
-                } catch (Exception e) {
-                    throw new Exception("Could not generate boxplots: " + e.getMessage());
-                }
-                taskMonitor.setProgress(0.6);
-                // finished with boxplots
+                    taskMonitor.setProgress(0.4);
+
+                    try {
+                        charts.add(getResult(altBoxplotFuture));
+                        charts.add(getResult(telomeraseBoxplotFuture));
+                        boxplotStats = new HashMap<>(altBoxPlotFactory.getBoxplotStats());
+                        boxplotStats.putAll(telomeraseBoxPlotFactory.getBoxplotStats());
+                    } catch (Exception e) {
+                        throw new Exception("Could not generate boxplots: " + e.getMessage());
+                    }
+                    taskMonitor.setProgress(0.6);
 
-                // Create volcano plots
-                VolcanoPlotFactory volcanoPlotFactory = null;
-                try {
-                    if (tmmLabels != null)
-                        volcanoPlotFactory = new VolcanoPlotFactory(summaryFileHandler, tmmLabels);
-                    else
-                        volcanoPlotFactory = new VolcanoPlotFactory(summaryFileHandler, groupLabels);
-                    JFreeChart[] volcanoCharts = null;
-                    volcanoCharts = volcanoPlotFactory.createVolcanoPlots();
-                    for (int i = 0; i < volcanoCharts.length; i++)
-                        charts.add(volcanoCharts[i]);
-                } catch (Exception e) {
-                    throw new Exception("Could not generate volcano plots: " + e.getMessage());
+                    try {
+                        JFreeChart[] volcanoCharts = getResult(volcanoChartsFuture);
+                        for (int i = 0; i < volcanoCharts.length; i++) {
+                            PlotManager.setPrioritySamples(volcanoCharts[i], misclassifiedSamples);
+                            charts.add(volcanoCharts[i]);
+                        }
+                    } catch (Exception e) {
+                        throw new Exception("Could not generate volcano plots: " + e.getMessage());
+                    }
+                } finally {
+                    executorService.shutdownNow();
                 }
 
-                // finished with volcano plots
-
                 taskMonitor.setProgress(0.8);
 
                 ArrayList<Paragraph> firstPage = null;
@@ -255,7 +355,7 @@ public class GenerateReportAction extends AbstractCyAction {
                 float width = 500;
                 float height = 500;
                 try {
-                    PlotManager.writeChartAsPDF(pdfFile, firstPage, charts, width, height);
+                    PlotManager.writeChartAsPDF(pdfFile, firstPage, charts, width, height, getReportThreads());
                 } catch (Exception e) {
                     throw new Exception("Could not write to PDF: " + e.getMessage());
                 }
@@ -271,22 +371,49 @@ public class GenerateReportAction extends AbstractCyAction {
             }
         }
 
+        /**
+         * Returns the task creating a 2D plot with a factory of its own, since the factory keeps the plot settings.
+         */
+        private Callable<JFreeChart> create2DPlot(final boolean logScale, final boolean drawPointLabels) {
+            return new Callable<JFreeChart>() {
+                @Override
+                public JFreeChart call() throws Exception {
+                    TwoDPlotFactory twoDPlotFactory = new TwoDPlotFactory(reportModel);
+                    twoDPlotFactory.setLogScale(logScale);
+                    twoDPlotFactory.setDrawPointLabels(drawPointLabels);
+                    twoDPlotFactory.setDensityThreshold(densityThreshold);
+                    return twoDPlotFactory.create2DPlot();
+                }
+            };
+        }
+
+        /**
+         * Returns a boxplot factory of its own for each boxplot task, as the factory collects the boxplot statistics.
+         */
+        private BoxPlotFactory createBoxPlotFactory() {
+            return new BoxPlotFactory(reportModel);
+        }
+
+        private <T> T getResult(Future<T> future) throws Exception {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                throw new Exception(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            }
+        }
+
         private void writeNumericOutput() throws FileNotFoundException {
             File numericOutputFile = new File(reportDir, "TMM_psf_summary.xls");
             PrintWriter writer = new PrintWriter(numericOutputFile);
             writer.append("Sample\tALT_PSF\tALT_pValue\tTelomerase_PSF\tTelomerase_pValue\n");
-            for (String s : summaryFileHandler.getSamples()) {
-                String line = s + "\t";
-                line += summaryFileHandler.getSummaryMap().get(SummaryFileHandler.ALTKEY).
-                        get(SummaryFileHandler.SCORESKEY).get(s) + "\t";
-                line += summaryFileHandler.getSummaryMap().get(SummaryFileHandler.ALTKEY).
-                        get(SummaryFileHandler.PVALUESKEY).get(s) + "\t";
-
-                line += summaryFileHandler.getSummaryMap().get(SummaryFileHandler.TELOMERASEKEY).
-                        get(SummaryFileHandler.SCORESKEY).get(s) + "\t";
-                line += summaryFileHandler.getSummaryMap().get(SummaryFileHandler.TELOMERASEKEY).
-                        get(SummaryFileHandler.PVALUESKEY).get(s) + "\n";
-                writer.append(line);
+            String altKey = SummaryFileHandler.ALTKEY;
+            String telomeraseKey = SummaryFileHandler.TELOMERASEKEY;
+            for (int i = 0; i < reportModel.getSampleCount(); i++) {
+                writer.append(reportModel.getSample(i)).append("\t")
+                        .append(String.valueOf(reportModel.getScore(altKey, i))).append("\t")
+                        .append(String.valueOf(reportModel.getPValue(altKey, i))).append("\t")
+                        .append(String.valueOf(reportModel.getScore(telomeraseKey, i))).append("\t")
+                        .append(String.valueOf(reportModel.getPValue(telomeraseKey, i))).append("\n");
             }
             writer.close();
         }
@@ -4,27 +4,90 @@ import org.cytoscape.work.FinishStatus;
 import org.cytoscape.work.ObservableTask;
 import org.cytoscape.work.TaskObserver;
 
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by Lilit Nersisyan on 3/7/2017.
+ * <p>
+ * Collects the results of the observed tasks and signals waiting threads when all of them are finished.
  */
 public class MyTaskObserver implements TaskObserver {
-    boolean allComplete = false;
+    volatile boolean allComplete = false;
+    private volatile CountDownLatch latch = new CountDownLatch(1);
+    private volatile FinishStatus finishStatus = null;
+    private volatile File fileResult = null;
+    private volatile String stringResult = null;
+
     @Override
     public void taskFinished(ObservableTask observableTask) {
         System.out.println("Task finished: " + observableTask.toString());
+        // tasks throw or return null for result types they do not support
+        try {
+            File file = observableTask.getResults(File.class);
+            if (file != null)
+                fileResult = file;
+        } catch (Exception e) {
+            // not a File producing task
+        }
+        try {
+            String string = observableTask.getResults(String.class);
+            if (string != null)
+                stringResult = string;
+        } catch (Exception e) {
+            // not a String producing task
+        }
     }
 
     @Override
     public void allFinished(FinishStatus finishStatus) {
         System.out.println("all complete");
+        this.finishStatus = finishStatus;
         allComplete = true;
+        latch.countDown();
     }
 
     public boolean allComplete(){
         return allComplete;
     }
 
+    /**
+     * Waits until allFinished is called, or the timeout elapses.
+     *
+     * @return true if all tasks are finished
+     * @throws InterruptedException
+     */
+    public boolean awaitAllFinished(long timeout, TimeUnit unit) throws InterruptedException {
+        return latch.await(timeout, unit);
+    }
+
+    /**
+     * @return the finish status passed to allFinished, or null if the tasks are not finished
+     */
+    public FinishStatus getFinishStatus() {
+        return finishStatus;
+    }
+
+    /**
+     * @return the last File result of the observed tasks, or null
+     */
+    public File getFileResult() {
+        return fileResult;
+    }
+
+    /**
+     * @return the last String result of the observed tasks, or null
+     */
+    public String getStringResult() {
+        return stringResult;
+    }
+
     public void reset() {
         allComplete = false;
+        finishStatus = null;
+        fileResult = null;
+        stringResult = null;
+        latch = new CountDownLatch(1);
     }
 }
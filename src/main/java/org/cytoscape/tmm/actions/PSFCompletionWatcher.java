@@ -0,0 +1,179 @@
+package org.cytoscape.tmm.actions;
+
+import org.cytoscape.tmm.Enums.ETMMProps;
+import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.work.FinishStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Public class PSFCompletionWatcher
+ * <p>
+ * Waits for a PSF run started with the "psfc run psf" command to complete, without polling the disk in a loop.
+ * Completion is signalled by the allFinished call of the task observer. If the observer is never called,
+ * a WatchService on the directory of the summary file detects it: the run is considered complete
+ * once the summary file exists and has not been modified for STABLEMILLIS.
+ * The wait ends with an exception when the timeout (PSFTimeout minutes in TMM properties, 0 for none)
+ * elapses, and returns null when the watcher is cancelled.
+ */
+public class PSFCompletionWatcher {
+    public static final long TICKMILLIS = 250;
+    public static final long STABLEMILLIS = 2000;
+    public static final long MOVEMILLIS = 30000;
+
+    private final MyTaskObserver taskObserver;
+    private final File summaryFile;
+    private volatile boolean cancelled = false;
+
+    public PSFCompletionWatcher(MyTaskObserver taskObserver, File summaryFile) {
+        this.taskObserver = taskObserver;
+        this.summaryFile = summaryFile;
+    }
+
+    /**
+     * Returns the PSF timeout in milliseconds from TMM properties, 0 if there is no timeout.
+     */
+    public static long getTimeoutMillis() {
+        String property = (String) TMMActivator.getTMMProps().get(ETMMProps.PSFTIMEOUT.getName());
+        try {
+            return Math.max(0, TimeUnit.MINUTES.toMillis(Long.parseLong(property.trim())));
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Waits until the PSF run is complete.
+     *
+     * @param timeoutMillis the timeout in milliseconds, 0 for none
+     * @return the summary file produced by PSF, or null if cancelled
+     * @throws Exception if PSF failed, or did not complete in time
+     */
+    public File await(long timeoutMillis) throws Exception {
+        long start = System.currentTimeMillis();
+        WatchService watchService = openWatchService();
+        long lastModified = -1;
+        long lastLength = -1;
+        long stableSince = -1;
+        try {
+            while (!cancelled) {
+                if (taskObserver.awaitAllFinished(TICKMILLIS, TimeUnit.MILLISECONDS))
+                    return getResult();
+                boolean changed = false;
+                if (watchService != null) {
+                    WatchKey key;
+                    while ((key = watchService.poll()) != null) {
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            Object context = event.context();
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                                    || (context != null && context.toString().equals(summaryFile.getName())))
+                                changed = true;
+                        }
+                        key.reset();
+                    }
+                }
+                // without a watch service fall back to checking the file on each tick
+                if (changed || watchService == null || stableSince >= 0) {
+                    if (summaryFile.exists()) {
+                        if (changed || summaryFile.lastModified() != lastModified
+                                || summaryFile.length() != lastLength) {
+                            lastModified = summaryFile.lastModified();
+                            lastLength = summaryFile.length();
+                            stableSince = System.currentTimeMillis();
+                        } else if (System.currentTimeMillis() - stableSince >= STABLEMILLIS)
+                            return summaryFile;
+                    } else
+                        stableSince = -1;
+                }
+                if (timeoutMillis > 0 && System.currentTimeMillis() - start > timeoutMillis)
+                    throw new Exception("PSF did not complete in " + TimeUnit.MILLISECONDS.toMinutes(timeoutMillis)
+                            + " minutes. The timeout can be changed with the "
+                            + ETMMProps.PSFTIMEOUT.getName() + " property");
+            }
+            return null;
+        } finally {
+            if (watchService != null)
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+        }
+    }
+
+    /**
+     * Moves the summary file to the target, replacing it. While PSF still holds the file the move is retried,
+     * for at most MOVEMILLIS.
+     *
+     * @return false if cancelled
+     * @throws Exception if the file could not be moved
+     */
+    public boolean moveSummaryFile(File source, File target) throws Exception {
+        long start = System.currentTimeMillis();
+        while (!cancelled) {
+            try {
+                Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return true;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() - start > MOVEMILLIS)
+                    throw new Exception("Could not move the summary file " + source.getAbsolutePath()
+                            + " to " + target.getAbsolutePath() + ": " + e.getMessage());
+                Thread.sleep(TICKMILLIS);
+            }
+        }
+        return false;
+    }
+
+    private File getResult() throws Exception {
+        FinishStatus finishStatus = taskObserver.getFinishStatus();
+        if (finishStatus != null) {
+            if (finishStatus.getType() == FinishStatus.Type.FAILED)
+                throw new Exception("Run PSF was not successful: " + (finishStatus.getException() != null ?
+                        finishStatus.getException().getMessage() : "unknown error"));
+            if (finishStatus.getType() == FinishStatus.Type.CANCELLED) {
+                cancelled = true;
+                return null;
+            }
+        }
+        // prefer the file handed over by the PSF task over the expected location
+        File fileResult = taskObserver.getFileResult();
+        if (fileResult != null && fileResult.isFile() && fileResult.getName().equals(summaryFile.getName()))
+            return fileResult;
+        if (!summaryFile.exists())
+            throw new Exception("Run PSF was not successful. Could not find summary file "
+                    + summaryFile.getAbsolutePath());
+        return summaryFile;
+    }
+
+    private WatchService openWatchService() {
+        Path dir = summaryFile.getAbsoluteFile().getParentFile().toPath();
+        try {
+            Files.createDirectories(dir);
+            WatchService watchService = FileSystems.getDefault().newWatchService();
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            return watchService;
+        } catch (IOException e) {
+            System.out.println("Could not watch " + dir + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package org.cytoscape.tmm.actions;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.tmm.Enums.ETMMProps;
+import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.tmm.gui.CyManager;
+import org.cytoscape.tmm.processing.ExpMatFileHandler;
+import org.cytoscape.tmm.processing.IterationContext;
+import org.cytoscape.tmm.processing.PSFResultCache;
+import org.cytoscape.tmm.reports.SummaryFileHandler;
+import org.cytoscape.tmm.reports.SummaryFileMerger;
+import org.cytoscape.work.TaskIterator;
+import org.cytoscape.work.TaskMonitor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Public class PSFRunner
+ * <p>
+ * Runs PSF for the samples of an iteration with the "psfc run psf" command and writes the results
+ * to psf_summary.xls in the iteration directory. The inputs are taken from the IterationContext,
+ * so that the runner serves both the TMMPanel pipeline and batch runs.
+ * As PSFC runs on the current network and reports to one summary file per network,
+ * the runs of different iterations are serialized, and the network of the iteration
+ * is made current for the time of its run.
+ */
+public class PSFRunner {
+    private static final Object PSFLOCK = new Object();
+    private static final int DEFAULTREFINEBOOTCYCLES = 2000;
+    private static final double DEFAULTREFINEPVALUEMIN = 0.01;
+    private static final double DEFAULTREFINEPVALUEMAX = 0.1;
+
+    private final IterationContext context;
+    private volatile boolean cancelled = false;
+    private final List<PSFCompletionWatcher> psfCompletionWatchers = new CopyOnWriteArrayList<>();
+
+    public PSFRunner(IterationContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Checks if the per-sample PSF result cache is enabled in TMM properties (enabled by default).
+     */
+    public static boolean isPSFResultCache() {
+        String property = (String) TMMActivator.getTMMProps().get(ETMMProps.PSFRESULTCACHE.getName());
+        return property == null || Boolean.parseBoolean(property.trim());
+    }
+
+    /**
+     * Checks if the adaptive bootstrap is enabled in TMM properties (disabled by default).
+     */
+    public static boolean isAdaptiveBootstrap() {
+        String property = (String) TMMActivator.getTMMProps().get(ETMMProps.ADAPTIVEBOOTSTRAP.getName());
+        return property != null && Boolean.parseBoolean(property.trim());
+    }
+
+    /**
+     * Returns the boot cycles of the second pass of the adaptive bootstrap from TMM properties.
+     */
+    public static int getRefineBootCycles() {
+        String property = (String) TMMActivator.getTMMProps().get(ETMMProps.REFINEBOOTCYCLES.getName());
+        try {
+            return Math.max(1, Integer.parseInt(property.trim()));
+        } catch (Exception e) {
+            return DEFAULTREFINEBOOTCYCLES;
+        }
+    }
+
+    /**
+     * Returns the [min, max] p value band of the samples refined in the adaptive bootstrap from TMM properties.
+     */
+    public static double[] getRefinePValueBand() {
+        double[] band = new double[]{DEFAULTREFINEPVALUEMIN, DEFAULTREFINEPVALUEMAX};
+        try {
+            band[0] = Double.parseDouble(((String) TMMActivator.getTMMProps()
+                    .get(ETMMProps.REFINEPVALUEMIN.getName())).trim());
+        } catch (Exception e) {
+            // keep the default
+        }
+        try {
+            band[1] = Double.parseDouble(((String) TMMActivator.getTMMProps()
+                    .get(ETMMProps.REFINEPVALUEMAX.getName())).trim());
+        } catch (Exception e) {
+            // keep the default
+        }
+        return band;
+    }
+
+    private static boolean isInBand(double pValue, double[] band) {
+        return pValue >= band[0] && pValue <= band[1];
+    }
+
+    /**
+     * Returns the summary file that PSFC writes for the network.
+     */
+    public static File getPSFSummaryFile(CyNetwork network) {
+        File psfcDir = new File(TMMActivator.getTMMDir().getParent(), "PSFC");
+        return new File(psfcDir, network.toString() + "_summary.xls");
+    }
+
+    /**
+     * Joins the samples into the comma separated nodeDataColumnNames argument of PSFC.
+     */
+    public static String joinSamples(List<String> samples) {
+        StringBuilder samplesArg = new StringBuilder();
+        for (int i = 0; i < samples.size(); i++) {
+            if (i != 0)
+                samplesArg.append(",");
+            samplesArg.append(samples.get(i));
+        }
+        return samplesArg.toString();
+    }
+
+    /**
+     * Runs PSF for the samples of the iteration, unless the results recorded in the pipeline stages
+     * are up to date, and sets the summary file of the iteration.
+     *
+     * @return the psf_summary.xls file of the iteration, or null if cancelled
+     * @throws Exception if PSF failed
+     */
+    public File run(TaskMonitor taskMonitor, PipelineStages pipelineStages) throws Exception {
+        List<String> samples = context.getSamples();
+        if (samples == null)
+            throw new Exception("No samples specified. Run Add/Update FC values before running PSF");
+        if (context.getFCFile() == null)
+            throw new Exception("FC file is null. Run Add/Update FC values before running PSF");
+        File iterationDir = context.getIterationDir();
+        File itSummaryFile = new File(iterationDir, "psf_summary.xls");
+        String psfFingerprint = PipelineStages.fingerprint(context.getFCFile(),
+                getPSFSettings(), joinSamples(samples));
+        File psfSummaryFile = pipelineStages.getValidOutput(PipelineStages.RUNPSF, psfFingerprint);
+        if (psfSummaryFile != null && psfSummaryFile.equals(itSummaryFile)) {
+            taskMonitor.setStatusMessage("PSF results are up to date");
+            context.setSummaryFile(itSummaryFile);
+            return itSummaryFile;
+        }
+        pipelineStages.invalidate(PipelineStages.RUNPSF);
+        synchronized (PSFLOCK) {
+            if (cancelled)
+                return null;
+            if (!context.getNetwork().equals(CyManager.getCurrentNetwork()))
+                TMMActivator.cyApplicationManager.setCurrentNetwork(context.getNetwork());
+            if (isPSFResultCache() && context.getExpMatFileHandler() != null)
+                psfSummaryFile = runPSFIncrementally(taskMonitor, context.getExpMatFileHandler(),
+                        iterationDir, itSummaryFile);
+            else
+                psfSummaryFile = runPSFAndRefine(taskMonitor, samples, iterationDir, itSummaryFile);
+            if (psfSummaryFile == null || cancelled)
+                return null;
+            pipelineStages.record(PipelineStages.RUNPSF, psfFingerprint, itSummaryFile);
+        }
+        context.setSummaryFile(itSummaryFile);
+        return itSummaryFile;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        for (PSFCompletionWatcher psfCompletionWatcher : psfCompletionWatchers)
+            psfCompletionWatcher.cancel();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Runs PSF on the samples and writes the summary to itSummaryFile.
+     *
+     * @return itSummaryFile, or null if cancelled
+     * @throws Exception
+     */
+    private File runPSF(TaskMonitor taskMonitor, List<String> samples, int bootCycles,
+                        File backupDir, File itSummaryFile) throws Exception {
+        File summaryFile = getPSFSummaryFile(context.getNetwork());
+        if (summaryFile.exists() && !summaryFile.delete())
+            throw new Exception("TMM Run PSF task not successful: could not delete file "
+                    + summaryFile.getAbsolutePath() + " maybe the file is in use. Please, close it and start again.");
+        taskMonitor.setStatusMessage("Running PSF");
+        return runPSFCommand(samples, bootCycles, backupDir, summaryFile, itSummaryFile);
+    }
+
+    /**
+     * Runs PSF on the samples with the boot cycles of the iteration, followed by the second pass
+     * of the adaptive bootstrap if enabled.
+     *
+     * @return summaryFile, or null if cancelled
+     */
+    private File runPSFAndRefine(TaskMonitor taskMonitor, List<String> samples,
+                                 File backupDir, File summaryFile) throws Exception {
+        if (runPSF(taskMonitor, samples, context.getBootCycles(), backupDir, summaryFile) == null || cancelled)
+            return null;
+        if (isAdaptiveBootstrap())
+            return refineBorderlineSamples(taskMonitor, summaryFile, backupDir);
+        return summaryFile;
+    }
+
+    /**
+     * Runs PSF only on the samples whose FC vector or run settings changed since the results were
+     * cached in the psf_cache directory of the iteration, and merges the cached results of the others
+     * into itSummaryFile. The cache is then replaced with the new summary.
+     *
+     * @return itSummaryFile, or null if cancelled
+     */
+    private File runPSFIncrementally(TaskMonitor taskMonitor, ExpMatFileHandler handler,
+                                     File iterationDir, File itSummaryFile) throws Exception {
+        taskMonitor.setStatusMessage("Checking the PSF result cache");
+        List<String> samples = context.getSamples();
+        PSFResultCache psfResultCache = new PSFResultCache(new File(iterationDir, "psf_cache"));
+        String settings = getPSFSettings();
+        HashMap<String, String> sampleKeys = new HashMap<>();
+        for (String sample : samples)
+            sampleKeys.put(sample, PSFResultCache.getKey(handler.getFCColumn(sample), settings));
+        ArrayList<String> cachedSamples = psfResultCache.getCachedSamples(samples, sampleKeys);
+        HashSet<String> cachedSampleSet = new HashSet<>(cachedSamples);
+        ArrayList<String> newSamples = new ArrayList<>();
+        for (String sample : samples)
+            if (!cachedSampleSet.contains(sample))
+                newSamples.add(sample);
+        // PSF is run on at least two samples: a cached one is recomputed as well
+        if (newSamples.size() == 1 && !cachedSamples.isEmpty())
+            newSamples.add(cachedSamples.remove(cachedSamples.size() - 1));
+
+        if (cachedSamples.isEmpty()) {
+            if (runPSFAndRefine(taskMonitor, samples, iterationDir, itSummaryFile) == null)
+                return null;
+        } else {
+            ArrayList<File> summaryFiles = new ArrayList<>();
+            summaryFiles.add(psfResultCache.getSummaryFile());
+            if (!newSamples.isEmpty()) {
+                taskMonitor.setStatusMessage("Running PSF for " + newSamples.size()
+                        + " new or changed samples, reusing " + cachedSamples.size());
+                File newSummaryFile = new File(psfResultCache.getCacheDir(), "psf_new_summary.xls");
+                if (runPSFAndRefine(taskMonitor, newSamples, iterationDir, newSummaryFile) == null)
+                    return null;
+                summaryFiles.add(newSummaryFile);
+            } else
+                taskMonitor.setStatusMessage("Reusing the cached PSF results of all samples");
+            try {
+                SummaryFileMerger.merge(summaryFiles, samples, itSummaryFile);
+            } catch (Exception e) {
+                // e.g. node IDs changed with the network: recompute everything
+                taskMonitor.setStatusMessage("Could not merge the cached PSF results: " + e.getMessage()
+                        + ". Running PSF for all the samples");
+                if (runPSFAndRefine(taskMonitor, samples, iterationDir, itSummaryFile) == null)
+                    return null;
+            }
+        }
+        psfResultCache.update(itSummaryFile, sampleKeys);
+        return itSummaryFile;
+    }
+
+    /**
+     * Returns what the PSF result of a sample depends on besides its FC values.
+     */
+    private String getPSFSettings() {
+        CyNetwork network = context.getNetwork();
+        String settings = network.toString() + "\t" + network.getNodeCount() + "\t" + network.getEdgeCount()
+                + "\t" + context.getBootCycles();
+        if (isAdaptiveBootstrap()) {
+            double[] band = getRefinePValueBand();
+            settings += "\t" + getRefineBootCycles() + "\t" + band[0] + "\t" + band[1];
+        }
+        return settings;
+    }
+
+    /**
+     * Second pass of the adaptive bootstrap: reruns PSF with RefineBootCycles for the samples of the summary
+     * file whose ALT or Telomerase p value falls within the band [RefinePValueMin, RefinePValueMax],
+     * and patches their columns in the summary file.
+     *
+     * @return itSummaryFile, or null if cancelled
+     * @throws Exception
+     */
+    private File refineBorderlineSamples(TaskMonitor taskMonitor, File itSummaryFile,
+                                         File iterationDir) throws Exception {
+        taskMonitor.setStatusMessage("Selecting samples with borderline p values");
+        SummaryFileHandler summaryFileHandler = new SummaryFileHandler(itSummaryFile);
+        double[] altPValues = summaryFileHandler.getPValueArray(SummaryFileHandler.ALTKEY);
+        double[] telomerasePValues = summaryFileHandler.getPValueArray(SummaryFileHandler.TELOMERASEKEY);
+        double[] band = getRefinePValueBand();
+        ArrayList<String> summarySamples = summaryFileHandler.getSamples();
+        ArrayList<String> borderlineSamples = new ArrayList<>();
+        for (int i = 0; i < summarySamples.size(); i++) {
+            if (isInBand(altPValues[i], band) || isInBand(telomerasePValues[i], band))
+                borderlineSamples.add(summarySamples.get(i));
+        }
+        if (borderlineSamples.isEmpty()) {
+            taskMonitor.setStatusMessage("No samples with p values in [" + band[0] + ", " + band[1] + "]");
+            return itSummaryFile;
+        }
+        // PSF is run on at least two samples: the extra one is refined as well
+        if (borderlineSamples.size() == 1)
+            for (String sample : summarySamples)
+                if (!borderlineSamples.contains(sample)) {
+                    borderlineSamples.add(sample);
+                    break;
+                }
+        int refineBootCycles = getRefineBootCycles();
+        taskMonitor.setStatusMessage("Running PSF with " + refineBootCycles + " boot cycles for "
+                + borderlineSamples.size() + " of " + summarySamples.size() + " samples with borderline p values");
+        File refineDir = new File(iterationDir, "psf_refine");
+        refineDir.mkdirs();
+        File refineSummaryFile = new File(refineDir, "psf_summary.xls");
+        if (runPSF(taskMonitor, borderlineSamples, refineBootCycles, refineDir, refineSummaryFile) == null
+                || cancelled)
+            return null;
+        taskMonitor.setStatusMessage("Patching the refined samples in the summary file");
+        ArrayList<File> summaryFiles = new ArrayList<>();
+        summaryFiles.add(itSummaryFile);
+        summaryFiles.add(refineSummaryFile);
+        SummaryFileMerger.merge(summaryFiles, summarySamples, itSummaryFile);
+        return itSummaryFile;
+    }
+
+    /**
+     * Starts a "psfc run psf" command, waits for it to complete and moves the summary file written by PSFC
+     * to the target file.
+     *
+     * @return the target file, or null if cancelled
+     */
+    private File runPSFCommand(List<String> samples, int bootCycles, File backupDir,
+                               File summaryFile, File targetFile) throws Exception {
+        Map<String, Object> args = new HashMap<>();
+        args.put("edgeTypeColumnName", "type");
+        args.put("nodeDataColumnNames", joinSamples(samples));
+        args.put("fcFile", context.getFCFile());
+        args.put("bootCyclesArg", bootCycles + "");
+        args.put("backupDir", backupDir);
+        MyTaskObserver taskObserver = new MyTaskObserver();
+        TaskIterator taskIterator = TMMActivator.commandExecutor.createTaskIterator(
+                "psfc", "run psf", args, taskObserver);
+
+        PSFCompletionWatcher psfCompletionWatcher = new PSFCompletionWatcher(taskObserver, summaryFile);
+        psfCompletionWatchers.add(psfCompletionWatcher);
+        if (cancelled)
+            psfCompletionWatcher.cancel();
+        TMMActivator.taskManager.execute(taskIterator, taskObserver);
+        File psfSummaryFile = psfCompletionWatcher.await(PSFCompletionWatcher.getTimeoutMillis());
+        if (psfSummaryFile == null || cancelled)
+            return null;
+        if (!psfCompletionWatcher.moveSummaryFile(psfSummaryFile, targetFile))
+            return null;
+        return targetFile;
+    }
+}
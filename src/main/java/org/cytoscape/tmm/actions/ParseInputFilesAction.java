@@ -2,30 +2,47 @@ package org.cytoscape.tmm.actions;
 
 import org.cytoscape.application.swing.AbstractCyAction;
 import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.tmm.Enums.ETMMProps;
 import org.cytoscape.tmm.TMMActivator;
 import org.cytoscape.tmm.gui.CyManager;
 import org.cytoscape.tmm.gui.TMMPanel;
+import org.cytoscape.tmm.processing.ExpMatCache;
 import org.cytoscape.tmm.processing.ExpMatFileHandler;
 import org.cytoscape.tmm.processing.ParsedFilesDirectory;
 import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.FinishStatus;
+import org.cytoscape.work.ObservableTask;
 import org.cytoscape.work.TaskIterator;
 import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.TaskObserver;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 /**
  * This class possesses functionality that parses the input files supplied to TMM.
  * It creates and keeps files and directories in an object of class ParsedFilesDirectory
  * for further reference. This object also holds error messages for invalid inputs.
+ * The inputs are read from the TMMPanel when the action is performed, the parsing runs in a task,
+ * and the results are set on the panel on the Event Dispatch Thread when the task finishes.
  */
 public class ParseInputFilesAction extends AbstractCyAction {
+    private static final long DEFAULTMATRIXCACHEMB = 2048;
     private TMMPanel tmmPanel;
-    private boolean finished = false;
+    private volatile boolean finished = false;
     private ActionEvent e;
     private ParsedFilesDirectory parsedFilesDirectory = new ParsedFilesDirectory();
+    private Runnable onFinished = null;
+    private File parentDir;
+    private File expMatFile;
+    private String iterationTitle;
+    private String geneIDName;
+    private volatile boolean expMatFileValid = false;
+    private volatile ArrayList<String> samples = null;
 
     public ParseInputFilesAction(String name, TMMPanel tmmPanel, ActionEvent e) {
         super(name);
@@ -41,27 +58,131 @@ public class ParseInputFilesAction extends AbstractCyAction {
         return parsedFilesDirectory.isAllValid();
     }
 
+    /**
+     * Sets the code run on the Event Dispatch Thread after the parsing has finished, successfully or not,
+     * and its results are set on the panel.
+     */
+    public void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
     @Override
     public void actionPerformed(ActionEvent e) {
+        // the components of the panel are read here, on the Event Dispatch Thread
+        parentDir = tmmPanel.getParentDir();
+        expMatFile = tmmPanel.getExpMatFile();
+        iterationTitle = tmmPanel.getIterationTitle();
+        geneIDName = CyManager.getCurrentNetwork() == null ? null : tmmPanel.getGeneIDName();
+        tmmPanel.setExpMatFileValid(false);
         ParseInputFilesTask parseInputFilesTask = new ParseInputFilesTask();
-        TMMActivator.taskManager.execute(new TaskIterator(parseInputFilesTask));
+        TMMActivator.taskManager.execute(new TaskIterator(parseInputFilesTask), new TaskObserver() {
+            @Override
+            public void taskFinished(ObservableTask observableTask) {
+            }
+
+            @Override
+            public void allFinished(FinishStatus finishStatus) {
+                finished = true;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        applyResults();
+                    }
+                });
+            }
+        });
+    }
+
+    private void applyResults() {
+        tmmPanel.setExpMatFileValid(expMatFileValid);
+        if (samples != null)
+            tmmPanel.setSamples(samples);
+        tmmPanel.setParsedFilesDirectory(parsedFilesDirectory);
+        if (onFinished != null)
+            onFinished.run();
+    }
+
+    /**
+     * Creates the handler of the expression matrix for the network, with the parsing threads,
+     * the matrix cache and the FC precision set from TMM properties.
+     */
+    public static ExpMatFileHandler createExpMatFileHandler(File expMatFile, File nodeTableFile,
+                                                            File fcMatFile, CyNetwork network) {
+        ExpMatFileHandler handler = new ExpMatFileHandler(expMatFile, nodeTableFile, fcMatFile, network);
+        handler.setNumThreads(getParseThreads());
+        handler.setCacheFile(getMatrixCacheFile(expMatFile));
+        handler.setCacheLimit(getMatrixCacheLimit());
+        handler.setFloatPrecision(Boolean.parseBoolean((String) TMMActivator.getTMMProps()
+                .get(ETMMProps.FCFLOATPRECISION.getName())));
+        return handler;
+    }
+
+    /**
+     * Reads the number of expression matrix parsing threads from TMM properties.
+     * 0 (default) stands for the number of available processors.
+     */
+    public static int getParseThreads() {
+        String property = (String) TMMActivator.getTMMProps().get(ETMMProps.PARSETHREADS.getName());
+        try {
+            return Integer.parseInt(property.trim());
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the cache file of the expression matrix in the TMM directory,
+     * or null if caching is disabled in TMM properties (enabled by default).
+     */
+    public static File getMatrixCacheFile(File expMatFile) {
+        String property = (String) TMMActivator.getTMMProps().get(ETMMProps.MATRIXCACHE.getName());
+        if (property != null && property.trim().equalsIgnoreCase("false"))
+            return null;
+        return ExpMatCache.getCacheFile(expMatFile, new File(TMMActivator.getTMMDir(), "cache"));
+    }
+
+    /**
+     * Reads the size limit of the matrix cache directory from TMM properties, in bytes.
+     * The default is DEFAULTMATRIXCACHEMB; 0 stands for no limit.
+     */
+    public static long getMatrixCacheLimit() {
+        String property = (String) TMMActivator.getTMMProps().get(ETMMProps.MATRIXCACHEMAXMB.getName());
+        long megabytes;
+        try {
+            megabytes = Long.parseLong(property.trim());
+        } catch (Exception e) {
+            megabytes = DEFAULTMATRIXCACHEMB;
+        }
+        return Math.max(0, megabytes) * 1024 * 1024;
+    }
+
+    /**
+     * Tells the user where the parsed matrix was cached and how large the cache is, if it was written.
+     */
+    public static void reportMatrixCache(ExpMatFileHandler handler, TaskMonitor taskMonitor) {
+        File cacheFile = handler.getWrittenCacheFile();
+        if (cacheFile == null || !cacheFile.exists())
+            return;
+        long limit = getMatrixCacheLimit();
+        String message = "Expression matrix cached to " + cacheFile.getAbsolutePath()
+                + " (" + (cacheFile.length() >> 20) + " MB). Set " + ETMMProps.MATRIXCACHE.getName()
+                + " to false in TMM properties to disable caching";
+        if (limit > 0 && cacheFile.length() > limit)
+            message += ". The cache is larger than " + ETMMProps.MATRIXCACHEMAXMB.getName()
+                    + " (" + (limit >> 20) + " MB), so the other cached matrices were removed";
+        taskMonitor.showMessage(TaskMonitor.Level.INFO, message);
     }
 
     private class ParseInputFilesTask extends AbstractTask {
 
         @Override
         public void run(TaskMonitor taskMonitor) throws Exception {
-            finished = false;
             taskMonitor.setTitle("TMM");
             taskMonitor.setStatusMessage("TMM task started");
-            tmmPanel.setExpMatFileValid(false);
             // Start of Create directories, write comment file
-            File parentDir;
             try {
                 try {
-                    parentDir = tmmPanel.getParentDir();
                     if (parentDir == null) {
-                        finished = true;
                         String error = "Parent directory is null";
                         parsedFilesDirectory.setErrorToolTip(ParsedFilesDirectory.PARENTDIR, error);
                         throw new Exception(error);
@@ -74,11 +195,8 @@ public class ParseInputFilesAction extends AbstractCyAction {
                     throw new Exception("TMM exception: " + error);
                 }
 
-                File expMatFile;
                 try {
-                    expMatFile = tmmPanel.getExpMatFile();
                     if (expMatFile == null) {
-                        finished = true;
                         String error = "Expression matrix is null";
                         parsedFilesDirectory.setErrorToolTip(ParsedFilesDirectory.EXPMATFILE, error);
                         throw new Exception(error);
@@ -86,26 +204,20 @@ public class ParseInputFilesAction extends AbstractCyAction {
                         parsedFilesDirectory.setExpMatFile(expMatFile);
                     }
                 } catch (Exception e) {
-                    finished = true;
                     String error = (e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
                     parsedFilesDirectory.setErrorToolTip(ParsedFilesDirectory.EXPMATFILE, error);
                     throw new Exception("TMM exception: " + error);
                 }
                 File iterationDir;
-                String iterationTitle;
                 try {
-                    iterationTitle = tmmPanel.getIterationTitle();
                     parsedFilesDirectory.setIterationTitle(iterationTitle);
                     iterationDir = new File(parentDir, iterationTitle);
                     parsedFilesDirectory.setIterationDir(iterationDir);
                     if (iterationDir.exists()) {
                         if (!iterationDir.isDirectory()) {
-                            JOptionPane jOptionPane = new JOptionPane();
-                            jOptionPane.showMessageDialog(TMMActivator.cytoscapeDesktopService.getJFrame(),
-                                    "There is a file with the same name as the iteration directory " + iterationDir.getName()
-                                            + ". Please, remove it and try again",
-                                    "TMM directory file exists", JOptionPane.OK_OPTION);
-                            cancel();
+                            // reported with the other invalid inputs when the task finishes
+                            throw new Exception("There is a file with the same name as the iteration directory "
+                                    + iterationDir.getName() + ". Please, remove it and try again");
                         }
                     } else {
                         boolean success = false;
@@ -131,12 +243,11 @@ public class ParseInputFilesAction extends AbstractCyAction {
                     }
 
                 } catch (Exception e) {
-                    finished = true;
-                    String error = (e.getCause() == null ? e.getCause().getMessage() : e.getMessage());
+                    String error = (e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
                     parsedFilesDirectory.setErrorToolTip(ParsedFilesDirectory.ITERATIONTITLE,
                             error);
-                    throw new Exception("TMM: problem creating directories for the iteration"
-                            + (e.getCause() == null ? e.getCause().getMessage() : e.getMessage()));
+                    throw new Exception("TMM: problem creating directories for the iteration: "
+                            + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
                 }
 
                 //export network
@@ -146,16 +257,13 @@ public class ParseInputFilesAction extends AbstractCyAction {
                             netFile.getAbsolutePath()).actionPerformed(e);
                     parsedFilesDirectory.setNetworkFile(netFile);
                 } catch (Exception e1) {
-                    finished = true;
                     throw new Exception("Problem exporting network to file. Reason: "
                             + (e1.getCause() != null ? e1.getCause().getMessage() : e1.getMessage()));
                 }
 
 
                 //export nodes table to the netDir
-                String geneIDName;
                 try {
-                    geneIDName = tmmPanel.getGeneIDName();
                     if (geneIDName == null) {
                         String error = "No proper Gene ID Column was chosen";
                         parsedFilesDirectory.setErrorToolTip(parsedFilesDirectory.GENEID,
@@ -176,7 +284,8 @@ public class ParseInputFilesAction extends AbstractCyAction {
                     }
                     try {
                         boolean valid = false;
-                        ArrayList<String> samples = ExpMatFileHandler.getFirstColumn(expMatFile);
+                        HashSet<String> samples = new HashSet<>(ExpMatFileHandler.getFirstColumn(expMatFile,
+                                getMatrixCacheFile(expMatFile)));
                         for (String value : column.getValues(String.class)) {
                             if (samples.contains(value)) {
                                 valid = true;
@@ -194,7 +303,6 @@ public class ParseInputFilesAction extends AbstractCyAction {
 
 
                 } catch (Exception e1) {
-                    finished = true;
                     throw new Exception("Gene ID column not valid: "
                             + (e1.getCause() != null ? e1.getCause().getMessage() : e1.getMessage()));
                 }
@@ -207,7 +315,6 @@ public class ParseInputFilesAction extends AbstractCyAction {
                             geneIDName, nodeTableFile);
                     parsedFilesDirectory.setNodeTableFile(nodeTableFile);
                 } catch (Exception e){
-                    finished = true;
                     throw new Exception("Problem exporting node table to file. Reason: "
                             + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
                 }
@@ -219,12 +326,13 @@ public class ParseInputFilesAction extends AbstractCyAction {
                 try {
                     File fcMatFile = new File(iterationDir,
                             "fc_" + iterationTitle + ".txt");
-                    handler = new ExpMatFileHandler(expMatFile,
-                            nodeTableFile, fcMatFile);
+                    handler = createExpMatFileHandler(expMatFile,
+                            nodeTableFile, fcMatFile, CyManager.getCurrentNetwork());
                     try{
                         handler.processExpMat();
+                        reportMatrixCache(handler, taskMonitor);
                         taskMonitor.setStatusMessage("FC values written to file: " + fcMatFile.getAbsolutePath());
-                        tmmPanel.setExpMatFileValid(true);
+                        expMatFileValid = true;
                         parsedFilesDirectory.setExpMatFileHandler(handler);
                         parsedFilesDirectory.setFcMatFile(fcMatFile);
                     } catch (Exception e){
@@ -232,7 +340,7 @@ public class ParseInputFilesAction extends AbstractCyAction {
                         throw new Exception("Expression matrix file was not valid:\n " + e.getMessage());
                     }
 
-                    tmmPanel.setSamples(handler.getSamples());
+                    samples = handler.getSamples();
                 } catch (Exception e) {
                     parsedFilesDirectory.setErrorToolTip(ParsedFilesDirectory.EXPMATFILE, e.getMessage());
                     throw new Exception("Exception parsing expression matrix file: " + e.getMessage());
@@ -240,8 +348,6 @@ public class ParseInputFilesAction extends AbstractCyAction {
             } catch (Exception e1) {
                 throw new Exception(e1.getMessage());
             } finally {
-                tmmPanel.setParsedFilesDirectory(parsedFilesDirectory);
-                finished = true;
                 System.gc();
             }
 
@@ -250,7 +356,6 @@ public class ParseInputFilesAction extends AbstractCyAction {
         @Override
         public void cancel(){
             cancelled = true;
-            finished = true;
         }
     }
 
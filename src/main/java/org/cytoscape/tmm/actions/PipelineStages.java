@@ -0,0 +1,148 @@
+package org.cytoscape.tmm.actions;
+
+import org.cytoscape.tmm.processing.ExpMatCache;
+import org.cytoscape.tmm.reports.GroupLabels;
+
+import java.awt.*;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Public class PipelineStages
+ * <p>
+ * Fingerprints of the inputs of the TMM pipeline stages (Add FC, Run PSF, Generate report)
+ * recorded in the iteration directory, so that a rerun skips the stages whose inputs have not changed
+ * since their last successful run. A fingerprint is a CRC32 of the stage inputs: files contribute their
+ * path, size and modification time (and the expression matrix its sampled content fingerprint),
+ * other inputs their string value. The output of a stage is recorded with its fingerprint,
+ * and a stage is only skipped while the output still exists.
+ */
+public class PipelineStages {
+    public static final String ADDFC = "AddFC";
+    public static final String RUNPSF = "RunPSF";
+    public static final String REPORT = "Report";
+    public static final String STAGESFILE = "tmm_stages.txt";
+
+    private final File stagesFile;
+    //stages: stage name -> {fingerprint, output path}
+    private final HashMap<String, String[]> stages = new HashMap<>();
+
+    public PipelineStages(File iterationDir) {
+        stagesFile = new File(iterationDir, STAGESFILE);
+        if (!stagesFile.exists())
+            return;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(stagesFile));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] tokens = line.split("\t");
+                    if (tokens.length == 3)
+                        stages.put(tokens[0], new String[]{tokens[1], tokens[2]});
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read " + stagesFile.getAbsolutePath() + ": " + e.getMessage());
+            stages.clear();
+        }
+    }
+
+    /**
+     * Computes the fingerprint of stage inputs. Files, GroupLabels and other objects are accepted; nulls are allowed.
+     */
+    public static String fingerprint(Object... inputs) {
+        StringBuilder builder = new StringBuilder();
+        for (Object input : inputs) {
+            if (input instanceof File) {
+                File file = (File) input;
+                builder.append(file.getAbsolutePath()).append('|').append(file.length())
+                        .append('|').append(file.lastModified());
+            } else if (input instanceof GroupLabels) {
+                builder.append(describe((GroupLabels) input));
+            } else
+                builder.append(input);
+            builder.append('\t');
+        }
+        CRC32 crc32 = new CRC32();
+        try {
+            crc32.update(builder.toString().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            crc32.update(builder.toString().getBytes());
+        }
+        return Long.toHexString(crc32.getValue()) + Integer.toHexString(builder.length());
+    }
+
+    /**
+     * Returns the content fingerprint of the expression matrix, which also detects changes
+     * that keep the size and the modification time.
+     */
+    public static String fingerprintMatrix(File expMatFile) {
+        try {
+            return Long.toHexString(ExpMatCache.fingerprint(expMatFile));
+        } catch (IOException e) {
+            return "unreadable";
+        }
+    }
+
+    /**
+     * Returns the recorded output of the stage if its fingerprint matches and the output still exists, or null.
+     */
+    public synchronized File getValidOutput(String stage, String fingerprint) {
+        String[] recorded = stages.get(stage);
+        if (recorded == null || !recorded[0].equals(fingerprint))
+            return null;
+        File output = new File(recorded[1]);
+        return output.exists() ? output : null;
+    }
+
+    /**
+     * Records a successful run of the stage.
+     *
+     * @param stage       the stage name
+     * @param fingerprint the fingerprint of its inputs
+     * @param output      the output file or directory of the stage
+     */
+    public synchronized void record(String stage, String fingerprint, File output) {
+        stages.put(stage, new String[]{fingerprint, output.getAbsolutePath()});
+        save();
+    }
+
+    /**
+     * Drops the record of the stage, so that it runs next time.
+     */
+    public synchronized void invalidate(String stage) {
+        if (stages.remove(stage) != null)
+            save();
+    }
+
+    private void save() {
+        try {
+            PrintWriter writer = new PrintWriter(stagesFile);
+            try {
+                for (String stage : stages.keySet())
+                    writer.println(stage + "\t" + stages.get(stage)[0] + "\t" + stages.get(stage)[1]);
+            } finally {
+                writer.close();
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("Could not write " + stagesFile.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    private static String describe(GroupLabels groupLabels) {
+        StringBuilder builder = new StringBuilder();
+        ArrayList<String> groups = new ArrayList<>(groupLabels.getGroupSamplesMap().keySet());
+        Collections.sort(groups);
+        for (String group : groups) {
+            Color color = groupLabels.getGroupColorsMap() == null ? null : groupLabels.getGroupColorsMap().get(group);
+            builder.append(group).append('=').append(color == null ? "" : Integer.toHexString(color.getRGB()))
+                    .append(groupLabels.getGroupSamplesMap().get(group)).append(';');
+        }
+        return builder.toString();
+    }
+}
@@ -1,20 +1,27 @@
 package org.cytoscape.tmm.actions;
 
 import org.cytoscape.application.swing.AbstractCyAction;
+import org.cytoscape.model.CyNetwork;
 import org.cytoscape.tmm.TMMActivator;
 import org.cytoscape.tmm.gui.CyManager;
+import org.cytoscape.tmm.gui.MaterializedFCColumns;
 import org.cytoscape.tmm.gui.TMMPanel;
 import org.cytoscape.tmm.processing.ExpMatFileHandler;
+import org.cytoscape.tmm.processing.IterationContext;
 import org.cytoscape.tmm.processing.ParsedFilesDirectory;
 import org.cytoscape.tmm.reports.GroupLabels;
+import org.cytoscape.tmm.reports.TMMLabels;
 import org.cytoscape.work.*;
 
-import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by Lilit Nersisyan on 3/22/2017.
@@ -23,12 +30,11 @@ public class RunPipelineAction extends AbstractCyAction {
     private boolean addFC = false;
     private boolean runPSF = false;
     private boolean generateReport = false;
-    private boolean cancelled = false;
+    private volatile boolean cancelled = false;
     private TMMPanel tmmPanel;
-    private ActionEvent e;
     private ArrayList<String> samples = null;
     private int bootCycles = 200;
-    private boolean isParsing = false;
+    private volatile PSFRunner psfRunner = null;
 
     public RunPipelineAction(String name, TMMPanel tmmPanel,
                              boolean addFC, boolean runPSF, boolean generateReport) {
@@ -47,15 +53,64 @@ public class RunPipelineAction extends AbstractCyAction {
     public void actionPerformed(ActionEvent e) {
         final RunPipelineTask runPipelineTask = new RunPipelineTask();
         TMMActivator.taskManager.execute(new TaskIterator(runPipelineTask));
-        this.e = e;
     }
 
     public void setBootCycles(int bootCycles) {
         this.bootCycles = bootCycles;
     }
 
-    public boolean parsing() {
-        return isParsing;
+    /**
+     * Maps the FC values of the parsed expression matrix to the node table of the network,
+     * unless they are up to date since the last run recorded in the pipeline stages.
+     * In the lazy FC column mode only the FC matrix is registered.
+     */
+    public static void addFCValues(CyNetwork network, ParsedFilesDirectory parsedFilesDirectory,
+                                   PipelineStages pipelineStages, TaskMonitor taskMonitor) throws Exception {
+        ExpMatFileHandler handler = parsedFilesDirectory.getExpMatFileHandler();
+        String addFCFingerprint = PipelineStages.fingerprint(
+                PipelineStages.fingerprintMatrix(parsedFilesDirectory.getExpMatFile()),
+                parsedFilesDirectory.getNodeTableFile(), handler.getFCFile(),
+                network.getSUID(), network.getNodeCount(), MaterializedFCColumns.isLazyMode());
+        if (pipelineStages.getValidOutput(PipelineStages.ADDFC, addFCFingerprint) != null
+                && hasSampleColumns(network, handler.getSamples())) {
+            taskMonitor.setStatusMessage("FC values are up to date");
+            return;
+        }
+        if (MaterializedFCColumns.isLazyMode()) {
+            // sample columns are written on visualization or with the tmm materialize command
+            TMMActivator.materializedFCColumns.refresh(network, handler);
+            taskMonitor.setStatusMessage("FC values are kept in TMM; sample columns are created on demand");
+        } else {
+            CyManager.setNodeAttributesFromMatrix(network,
+                    handler.getCyNodes(), handler.getFCMatrix(), handler.getSamples(),
+                    parsedFilesDirectory.getExpMatFile().getAbsolutePath(), taskMonitor);
+            taskMonitor.setStatusMessage("FC values were successfully imported");
+        }
+        pipelineStages.record(PipelineStages.ADDFC, addFCFingerprint, handler.getFCFile());
+    }
+
+    /**
+     * Checks that the node table of the network has a column for each sample, unless the FC columns are lazy.
+     */
+    private static boolean hasSampleColumns(CyNetwork network, List<String> samples) {
+        if (MaterializedFCColumns.isLazyMode())
+            return true;
+        for (String sample : samples)
+            if (network.getDefaultNodeTable().getColumn(sample) == null)
+                return false;
+        return true;
+    }
+
+    /**
+     * Creates a new report directory in the iteration directory, adding "+" to the name while it exists.
+     */
+    public static File createReportDir(File iterationDir, String iterationTitle) {
+        File reportDir = new File(iterationDir, iterationTitle + "_report");
+        while (reportDir.exists()) {
+            reportDir = new File(reportDir.getAbsolutePath() + "+");
+        }
+        reportDir.mkdir();
+        return reportDir;
     }
 
     private class RunPipelineTask extends AbstractTask {
@@ -68,112 +123,75 @@ public class RunPipelineAction extends AbstractCyAction {
             ParsedFilesDirectory parsedFilesDirectory = tmmPanel.getParsedFilesDirectory();
             File iterationDir = parsedFilesDirectory.getIterationDir();
             String iterationTitle = parsedFilesDirectory.getIterationTitle();
-            File expMatFile = parsedFilesDirectory.getExpMatFile();
-            File nodeTableFile = parsedFilesDirectory.getNodeTableFile();
             ExpMatFileHandler handler = parsedFilesDirectory.getExpMatFileHandler();
             File fcMatFile = parsedFilesDirectory.getFcMatFile();
             // End of create directories, write comment file
 
             if (!cancelled) {
+                PipelineStages pipelineStages = new PipelineStages(iterationDir);
+                ExecutorService sideExecutor = null;
+                Future<File> reportDirFuture = null;
                 try {
-                    taskMonitor.setStatusMessage("Parsing input files");
-                    isParsing = false;
                     if (addFC && !cancelled) {
                         taskMonitor.setStatusMessage("Mapping FC values to CyTable");
-                        for (String sample : handler.getSamples()) {
-                            CyManager.setNodeAttributesFromMap(CyManager.getCurrentNetwork(),
-                                    handler.getSamplesCyNodeFCValueMap().get(sample), sample, Double.class);
-                        }
-                        taskMonitor.setStatusMessage("FC values were successfully imported");
+                        addFCValues(CyManager.getCurrentNetwork(), parsedFilesDirectory, pipelineStages, taskMonitor);
 
                         setSamples(handler.getSamples());
                         tmmPanel.setFcFile(handler.getFCFile());
                         tmmPanel.setAddFCDone(true);
                         tmmPanel.enableButtons();
                     }
+
+                    // report inputs that do not depend on PSF are prepared while PSF is running
+                    Future<TMMLabels> tmmLabelsFuture = null;
+                    if (generateReport && !cancelled) {
+                        sideExecutor = Executors.newSingleThreadExecutor();
+                        final File labelsFile = tmmPanel.isValidationMode() ? tmmPanel.getTmmLabelsFile() : null;
+                        if (labelsFile != null)
+                            tmmLabelsFuture = sideExecutor.submit(new Callable<TMMLabels>() {
+                                @Override
+                                public TMMLabels call() throws Exception {
+                                    return new TMMLabels(labelsFile);
+                                }
+                            });
+                        final File reportParentDir = iterationDir;
+                        final String reportTitle = iterationTitle;
+                        reportDirFuture = sideExecutor.submit(new Callable<File>() {
+                            @Override
+                            public File call() throws Exception {
+                                return createReportDir(reportParentDir, reportTitle);
+                            }
+                        });
+                        sideExecutor.shutdown();
+                    }
+
                     if (runPSF && !cancelled) {
                         if (!tmmPanel.isAddFCDone())
                             throw new Exception("Please, run Add/Update FC values before running Run PSF");
                         if (samples == null)
                             throw new Exception("No samples specified. Run Add/Update FC values before running PSF");
                         taskMonitor.setStatusMessage("Running PSF");
-
-                        Map<String, Object> args = new HashMap<>();
-                        args.put("edgeTypeColumnName", "type");
-                        String samplesArg = "";
-                        for (int i = 0; i < samples.size(); i++) {
-                            samplesArg += samples.get(i);
-                            if (i != samples.size() - 1)
-                                samplesArg += ",";
-                        }
-                        args.put("nodeDataColumnNames", samplesArg);
                         if (tmmPanel.getFCFile() == null)
                             throw new Exception("FC file is null. Run Add/Update FC values before running PSF");
-                        args.put("fcFile", tmmPanel.getFCFile());
-
-                        int bootCycles = tmmPanel.getBootCycles();
-                        args.put("bootCyclesArg", bootCycles + "");
-
-                        args.put("backupDir", iterationDir);
-                        MyTaskObserver taskObserver = new MyTaskObserver();
-                        TaskIterator taskIterator = TMMActivator.commandExecutor.createTaskIterator(
-                                "psfc", "run psf", args, taskObserver);
 
                         if (samples.size() >= 2 && !cancelled) {
-                            File tmmDir = new File(TMMActivator.getTMMDir().getParent(), "PSFC");
-                            File summaryFile = new File(tmmDir, CyManager.getCurrentNetwork().toString() + "_summary.xls");
-                            boolean summaryFileOK = true;
-                            if (summaryFile.exists()) {
-                                boolean success = summaryFile.delete();
-                                if (!success) {
-                                    JOptionPane.showMessageDialog(TMMActivator.cytoscapeDesktopService.getJFrame(),
-                                            "Could not delete file"
-                                                    + summaryFile.getAbsolutePath() + " maybe the file is in use. " +
-                                                    "Please, close it and start again.", "TMM error", JOptionPane.ERROR_MESSAGE);
-                                    summaryFileOK = false;
-                                }
-                            }
-                            if (summaryFileOK) {
-                                TMMActivator.taskManager.execute(taskIterator);
-                                while (!summaryFile.exists()) {
-                                    if (cancelled)
-                                        break;
-                                }
-
-                                if (!cancelled) {
-                                    taskMonitor.setStatusMessage("Collecting results for backup");
-                                    File itSummaryFile = new File(new File(tmmPanel.getParentDir(),
-                                            tmmPanel.getIterationTitle()),
-                                            "psf_summary.xls");
-                                    boolean itSummaryFileOK = true;
-                                    if (itSummaryFile.exists()) {
-                                        itSummaryFileOK = itSummaryFile.delete();
-                                    }
-                                    if (itSummaryFileOK) {
-                                        boolean fileInUse = true;
-                                        taskMonitor.setStatusMessage("Writing results to summary file");
-                                        while (fileInUse) {
-//                                    System.out.printf("summary file in use\n");
-                                            if (cancelled)
-                                                break;
-                                            fileInUse = !summaryFile.renameTo(itSummaryFile);
-                                        }
-                                        if (itSummaryFile.exists()) {
-                                            tmmPanel.setSummaryFile(itSummaryFile);
-                                            System.out.println("summary file size: " + itSummaryFile.length());
-                                            taskMonitor.setStatusMessage("Wrote the results to summary file "
-                                                    + itSummaryFile.getAbsolutePath());
-                                        } else
-                                            throw new Exception("Run PSF was not successful. " +
-                                                    "Could not find summary file " + itSummaryFile.getAbsolutePath());
-
-                                    } else {
-                                        throw new Exception("File " + itSummaryFile.getAbsolutePath() + " is in use.");
-                                    }
-                                }
-                            } else {
-                                throw new Exception("TMM Run PSF task not successful: problem with summary file");
-                            }
+                            IterationContext context = new IterationContext(CyManager.getCurrentNetwork(),
+                                    tmmPanel.getParentDir(), tmmPanel.getIterationTitle());
+                            context.setParsedFilesDirectory(parsedFilesDirectory);
+                            context.setSamples(samples);
+                            context.setFCFile(tmmPanel.getFCFile());
+                            context.setBootCycles(tmmPanel.getBootCycles());
+                            psfRunner = new PSFRunner(context);
+                            if (cancelled)
+                                psfRunner.cancel();
+                            File itSummaryFile = psfRunner.run(taskMonitor, pipelineStages);
+                            if (itSummaryFile != null && !cancelled) {
+                                tmmPanel.setSummaryFile(itSummaryFile);
+                                System.out.println("summary file size: " + itSummaryFile.length());
+                                taskMonitor.setStatusMessage("Wrote the results to summary file "
+                                        + itSummaryFile.getAbsolutePath());
+                            } else
+                                cancelled = true;
                         }
                         if(!cancelled)
                             tmmPanel.setRunPSFDone(true);
@@ -184,53 +202,84 @@ public class RunPipelineAction extends AbstractCyAction {
                         if (!tmmPanel.isRunPSFDone())
                             throw new Exception("Run PSF task was not completed successfully. Please, rerun it and try again with report generation");
 
-                        File reportDir = new File(iterationDir, iterationTitle + "_report");
-                        while (reportDir.exists()) {
-                            reportDir = new File(reportDir.getAbsolutePath() + "+");
-                        }
-                        reportDir.mkdir();
-
-                        GenerateReportAction generateReportAction;
-                        if (tmmPanel.isValidationMode()) {
-                            generateReportAction = new GenerateReportAction(
-                                    "Generating report action",
-                                    tmmPanel.getSummaryFile(),
-                                    reportDir,
-                                    tmmPanel.getTmmLabelsFile(),
-                                    tmmPanel.getIterationTitle(),
-                                    tmmPanel.getCommentText(),
-                                    tmmPanel.getBootCycles(),
-                                    parsedFilesDirectory,
-                                    true);
+                        String reportFingerprint = PipelineStages.fingerprint(tmmPanel.getSummaryFile(),
+                                tmmPanel.isValidationMode(),
+                                tmmPanel.isValidationMode() ? tmmPanel.getTmmLabelsFile() : tmmPanel.getGroupLabels(),
+                                tmmPanel.getIterationTitle(), tmmPanel.getCommentText(), tmmPanel.getBootCycles());
+                        File pdfFile = pipelineStages.getValidOutput(PipelineStages.REPORT, reportFingerprint);
+                        if (pdfFile != null) {
+                            taskMonitor.setStatusMessage("The report is up to date");
+                            tmmPanel.setReportFile(pdfFile);
                         } else {
-                            generateReportAction = new GenerateReportAction(
-                                    "Generate report action",
-                                    tmmPanel.getSummaryFile(),
-                                    reportDir,
-                                    tmmPanel.getGroupLabels(),
-                                    tmmPanel.getIterationTitle(),
-                                    tmmPanel.getCommentText(),
-                                    tmmPanel.getBootCycles(),
-                                    parsedFilesDirectory,
-                                    false);
+                            File reportDir = getFuture(reportDirFuture);
+                            reportDirFuture = null;
+                            GenerateReportAction generateReportAction;
+                            if (tmmPanel.isValidationMode()) {
+                                generateReportAction = new GenerateReportAction(
+                                        "Generating report action",
+                                        tmmPanel.getSummaryFile(),
+                                        reportDir,
+                                        tmmPanel.getTmmLabelsFile(),
+                                        tmmPanel.getIterationTitle(),
+                                        tmmPanel.getCommentText(),
+                                        tmmPanel.getBootCycles(),
+                                        parsedFilesDirectory,
+                                        true);
+                                if (tmmLabelsFuture != null)
+                                    generateReportAction.setTMMLabels(getFuture(tmmLabelsFuture));
+                            } else {
+                                generateReportAction = new GenerateReportAction(
+                                        "Generate report action",
+                                        tmmPanel.getSummaryFile(),
+                                        reportDir,
+                                        tmmPanel.getGroupLabels(),
+                                        tmmPanel.getIterationTitle(),
+                                        tmmPanel.getCommentText(),
+                                        tmmPanel.getBootCycles(),
+                                        parsedFilesDirectory,
+                                        false);
+                            }
+                            // the report is generated within this task, so that it is done when the task is
+                            generateReportAction.generateReport(taskMonitor);
+                            pdfFile = generateReportAction.getPdfFile();
+                            if (!pdfFile.exists())
+                                throw new Exception("The report was not written to " + pdfFile.getAbsolutePath());
+                            pipelineStages.record(PipelineStages.REPORT, reportFingerprint, pdfFile);
+                            tmmPanel.setReportFile(pdfFile);
                         }
-                        generateReportAction.actionPerformed(e);
-                        tmmPanel.setReportFile(generateReportAction.getPdfFile());
                         tmmPanel.setGenerateReportDone(true);
                         tmmPanel.enableButtons();
                     }
                 } catch (Exception e) {
                     throw new Exception("TMM exception: " + e.getMessage());
                 } finally {
-                    System.gc();
+                    // a prepared report directory that was not used is removed
+                    if (reportDirFuture != null) {
+                        try {
+                            reportDirFuture.get().delete();
+                        } catch (Exception e) {
+                            // not created
+                        }
+                    }
+                    if (sideExecutor != null)
+                        sideExecutor.shutdownNow();
                 }
             }
         }
 
+        private <T> T getFuture(Future<T> future) throws Exception {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                throw new Exception(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            }
+        }
+
         @Override
         public void cancel() {
             cancelled = true;
-            System.gc();
+            if (psfRunner != null)
+                psfRunner.cancel();
         }
 
 
@@ -3,6 +3,7 @@ package org.cytoscape.tmm.actions;
 import org.cytoscape.application.swing.AbstractCyAction;
 import org.cytoscape.tmm.TMMActivator;
 import org.cytoscape.tmm.gui.CyManager;
+import org.cytoscape.tmm.gui.MaterializedFCColumns;
 import org.cytoscape.tmm.gui.TMMPanel;
 import org.cytoscape.work.AbstractTask;
 import org.cytoscape.work.TaskIterator;
@@ -45,8 +46,18 @@ public class VizSampleAction extends AbstractCyAction {
 
         @Override
         public void run(TaskMonitor taskMonitor) throws Exception {
+            // the scores of the last PSF run are shown without running PSF again
+            if (TMMActivator.psfVisualizer.apply(CyManager.getCurrentNetwork(), tmmPanel.getSummaryFile(), sample)) {
+                taskMonitor.setStatusMessage("Showing the PSF scores of sample " + sample + " from the summary file");
+                return;
+            }
             if(!tmmPanel.isAddFCDone())
                 throw new Exception("Please, run Add/Update FC values before running Run PSF");
+            if (MaterializedFCColumns.isLazyMode()) {
+                taskMonitor.setStatusMessage("Materializing sample " + sample);
+                TMMActivator.materializedFCColumns.materialize(CyManager.getCurrentNetwork(),
+                        tmmPanel.getParsedFilesDirectory().getExpMatFileHandler(), sample);
+            }
             taskMonitor.setStatusMessage("Running PSF to visualize sample " + sample);
             Map<String, Object> args = new HashMap<>();
             args.put("edgeTypeColumnName", "type");
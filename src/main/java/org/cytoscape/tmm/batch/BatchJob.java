@@ -0,0 +1,133 @@
+package org.cytoscape.tmm.batch;
+
+import org.cytoscape.tmm.processing.IterationContext;
+
+import java.io.File;
+
+/**
+ * Public class BatchJob
+ * <p>
+ * One line of a batch manifest: the inputs of a TMM iteration, named as in the manifest,
+ * and the state of its run. The network is kept by name and resolved when the job starts,
+ * as networks may be loaded after the manifest is read.
+ */
+public class BatchJob {
+    public enum Status {PENDING, RUNNING, DONE, FAILED, CANCELLED}
+
+    private final String iterationTitle;
+    private final File expMatFile;
+    private final String networkName;
+    private final String geneIDName;
+    private final File parentDir;
+    private int bootCycles = 200;
+    private boolean validationMode = false;
+    private File labelsFile;
+    private String comment = "";
+
+    private volatile Status status = Status.PENDING;
+    private String error;
+    private long millis;
+    private IterationContext context;
+
+    public BatchJob(String iterationTitle, File expMatFile, String networkName, String geneIDName, File parentDir) {
+        this.iterationTitle = iterationTitle;
+        this.expMatFile = expMatFile;
+        this.networkName = networkName;
+        this.geneIDName = geneIDName;
+        this.parentDir = parentDir;
+    }
+
+    public String getIterationTitle() {
+        return iterationTitle;
+    }
+
+    public File getExpMatFile() {
+        return expMatFile;
+    }
+
+    public String getNetworkName() {
+        return networkName;
+    }
+
+    public String getGeneIDName() {
+        return geneIDName;
+    }
+
+    public File getParentDir() {
+        return parentDir;
+    }
+
+    public File getIterationDir() {
+        return new File(parentDir, iterationTitle);
+    }
+
+    public int getBootCycles() {
+        return bootCycles;
+    }
+
+    public void setBootCycles(int bootCycles) {
+        this.bootCycles = bootCycles;
+    }
+
+    public boolean isValidationMode() {
+        return validationMode;
+    }
+
+    public void setValidationMode(boolean validationMode) {
+        this.validationMode = validationMode;
+    }
+
+    /**
+     * Returns the TMM labels file in the validation mode or the group labels file in the assessment mode, may be null.
+     */
+    public File getLabelsFile() {
+        return labelsFile;
+    }
+
+    public void setLabelsFile(File labelsFile) {
+        this.labelsFile = labelsFile;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public void setComment(String comment) {
+        this.comment = comment;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public void setMillis(long millis) {
+        this.millis = millis;
+    }
+
+    /**
+     * Returns the context of the iteration once the job has started, or null.
+     */
+    public IterationContext getContext() {
+        return context;
+    }
+
+    public void setContext(IterationContext context) {
+        this.context = context;
+    }
+}
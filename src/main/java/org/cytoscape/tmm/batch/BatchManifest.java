@@ -0,0 +1,135 @@
+package org.cytoscape.tmm.batch;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Public class BatchManifest
+ * <p>
+ * Reads the manifest of a batch run: a tab delimited file with a header line and one job per line.
+ * The columns are named in the header and may come in any order:
+ * <p>
+ * Title  ExpMatFile  Network  GeneID  ParentDir  [BootCycles]  [Mode]  [LabelsFile]  [Comment]
+ * <p>
+ * Mode is "validation" or "assessment" (default). LabelsFile is the TMM labels file in the validation mode
+ * and the group labels file in the assessment mode. Relative paths are resolved against the directory
+ * of the manifest. Empty lines and lines starting with # are skipped.
+ */
+public class BatchManifest {
+    public static final String TITLE = "Title";
+    public static final String EXPMATFILE = "ExpMatFile";
+    public static final String NETWORK = "Network";
+    public static final String GENEID = "GeneID";
+    public static final String PARENTDIR = "ParentDir";
+    public static final String BOOTCYCLES = "BootCycles";
+    public static final String MODE = "Mode";
+    public static final String LABELSFILE = "LabelsFile";
+    public static final String COMMENT = "Comment";
+    public static final String VALIDATIONMODE = "validation";
+    public static final String ASSESSMENTMODE = "assessment";
+    private static final String[] REQUIREDCOLUMNS = new String[]{TITLE, EXPMATFILE, NETWORK, GENEID, PARENTDIR};
+
+    /**
+     * Reads the jobs of the manifest.
+     *
+     * @param manifestFile the manifest file
+     * @return the jobs, in the order of the manifest
+     * @throws Exception if the manifest is not valid
+     */
+    public static ArrayList<BatchJob> read(File manifestFile) throws Exception {
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new FileReader(manifestFile));
+        } catch (FileNotFoundException e) {
+            throw new Exception("Cannot open the batch manifest " + manifestFile.getAbsolutePath()
+                    + " for reading: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        }
+        File baseDir = manifestFile.getAbsoluteFile().getParentFile();
+        ArrayList<BatchJob> jobs = new ArrayList<>();
+        HashSet<String> iterationDirs = new HashSet<>();
+        int lineNum = 0;
+        try {
+            //columns: column name -> index in the line
+            HashMap<String, Integer> columns = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNum++;
+                if (line.trim().isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] tokens = line.split("\t", -1);
+                if (columns == null) {
+                    columns = new HashMap<>();
+                    for (int i = 0; i < tokens.length; i++)
+                        columns.put(tokens[i].trim(), i);
+                    for (String column : REQUIREDCOLUMNS)
+                        if (!columns.containsKey(column))
+                            throw new Exception("The header of the batch manifest did not contain the column "
+                                    + column);
+                    continue;
+                }
+                if (tokens.length != columns.size())
+                    throw new Exception("Column number mismatch: line " + lineNum + " did not contain "
+                            + columns.size() + " columns. Found " + tokens.length + " instead.");
+
+                String title = get(tokens, columns, TITLE);
+                String network = get(tokens, columns, NETWORK);
+                String geneID = get(tokens, columns, GENEID);
+                File expMatFile = resolve(baseDir, get(tokens, columns, EXPMATFILE));
+                File parentDir = resolve(baseDir, get(tokens, columns, PARENTDIR));
+                if (title.isEmpty() || network.isEmpty() || geneID.isEmpty()
+                        || expMatFile == null || parentDir == null)
+                    throw new Exception("Line " + lineNum + " did not contain all of the columns "
+                            + TITLE + ", " + EXPMATFILE + ", " + NETWORK + ", " + GENEID + ", " + PARENTDIR);
+                BatchJob job = new BatchJob(title, expMatFile, network, geneID, parentDir);
+                // each job writes to its own iteration directory
+                if (!iterationDirs.add(job.getIterationDir().getAbsolutePath()))
+                    throw new Exception("Line " + lineNum + ": the iteration directory "
+                            + job.getIterationDir().getAbsolutePath() + " is used by another job");
+
+                String bootCycles = get(tokens, columns, BOOTCYCLES);
+                if (!bootCycles.isEmpty()) {
+                    try {
+                        job.setBootCycles(Integer.parseInt(bootCycles));
+                    } catch (NumberFormatException e) {
+                        throw new Exception("Line " + lineNum + ": boot cycles should be an integer, found "
+                                + bootCycles + " instead");
+                    }
+                }
+                String mode = get(tokens, columns, MODE);
+                if (mode.equalsIgnoreCase(VALIDATIONMODE))
+                    job.setValidationMode(true);
+                else if (!mode.isEmpty() && !mode.equalsIgnoreCase(ASSESSMENTMODE))
+                    throw new Exception("Line " + lineNum + ": mode should be " + VALIDATIONMODE + " or "
+                            + ASSESSMENTMODE + ", found " + mode + " instead");
+                job.setLabelsFile(resolve(baseDir, get(tokens, columns, LABELSFILE)));
+                if (job.isValidationMode() && job.getLabelsFile() == null)
+                    throw new Exception("Line " + lineNum + ": the validation mode requires a TMM labels file");
+                job.setComment(get(tokens, columns, COMMENT));
+                jobs.add(job);
+            }
+        } catch (IOException e) {
+            throw new Exception("Problem reading line " + lineNum + " of the batch manifest "
+                    + manifestFile.getAbsolutePath() + ": "
+                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        } finally {
+            reader.close();
+        }
+        if (jobs.isEmpty())
+            throw new Exception("The batch manifest " + manifestFile.getAbsolutePath() + " did not contain any jobs");
+        return jobs;
+    }
+
+    private static String get(String[] tokens, HashMap<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        return index == null ? "" : tokens[index].trim();
+    }
+
+    private static File resolve(File baseDir, String path) {
+        if (path.isEmpty())
+            return null;
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(baseDir, path);
+    }
+}
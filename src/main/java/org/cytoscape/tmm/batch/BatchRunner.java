@@ -0,0 +1,206 @@
+package org.cytoscape.tmm.batch;
+
+import org.cytoscape.tmm.Enums.ETMMProps;
+import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.tmm.actions.PSFRunner;
+import org.cytoscape.tmm.actions.PipelineStages;
+import org.cytoscape.tmm.processing.IterationContext;
+import org.cytoscape.work.TaskMonitor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Public class BatchRunner
+ * <p>
+ * Runs the jobs of a batch manifest without the TMMPanel: each job is parsed, mapped to its network,
+ * run through PSF and reported in its own iteration directory, reading its inputs from an IterationContext.
+ * The jobs run concurrently on a pool of BatchThreads threads (TMM properties). Parsing and report
+ * generation overlap across jobs, while the FC mapping of a network and the PSF runs, which PSFC performs
+ * on the current network, are serialized. A failed job does not stop the others; the status and the
+ * timing of each job are written to the results file.
+ */
+public class BatchRunner {
+    public static final String RESULTSFILE = "tmm_batch_results.txt";
+    private static final int DEFAULTTHREADS = 2;
+
+    private final List<BatchJob> jobs;
+    private final int numThreads;
+    private final List<PSFRunner> psfRunners = new ArrayList<>();
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param jobs       the jobs to run
+     * @param numThreads the number of jobs run at the same time, 0 for BatchThreads of TMM properties
+     */
+    public BatchRunner(List<BatchJob> jobs, int numThreads) {
+        this.jobs = jobs;
+        this.numThreads = numThreads > 0 ? numThreads : getBatchThreads();
+    }
+
+    /**
+     * Returns the number of concurrent batch jobs from TMM properties, 2 by default.
+     */
+    public static int getBatchThreads() {
+        String property = (String) TMMActivator.getTMMProps().get(ETMMProps.BATCHTHREADS.getName());
+        try {
+            return Math.max(1, Integer.parseInt(property.trim()));
+        } catch (Exception e) {
+            return DEFAULTTHREADS;
+        }
+    }
+
+    /**
+     * Runs all jobs and waits for them to finish.
+     *
+     * @param taskMonitor the monitor of the batch task
+     * @return the number of failed jobs
+     */
+    public int run(final TaskMonitor taskMonitor) throws Exception {
+        final AtomicInteger finished = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(numThreads, jobs.size()));
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (final BatchJob job : jobs) {
+            futures.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    runJob(job, new JobTaskMonitor(taskMonitor, job.getIterationTitle()));
+                    taskMonitor.setProgress((double) finished.incrementAndGet() / jobs.size());
+                    return null;
+                }
+            }));
+        }
+        executorService.shutdown();
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executorService.shutdownNow();
+        }
+        int failed = 0;
+        for (BatchJob job : jobs)
+            if (job.getStatus() == BatchJob.Status.FAILED)
+                failed++;
+        return failed;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        synchronized (psfRunners) {
+            for (PSFRunner psfRunner : psfRunners)
+                psfRunner.cancel();
+        }
+    }
+
+    /**
+     * Writes the status, the timing and the outputs of the jobs to a tab delimited file.
+     */
+    public void writeResults(File resultsFile) throws Exception {
+        PrintWriter writer;
+        try {
+            writer = new PrintWriter(resultsFile);
+        } catch (FileNotFoundException e) {
+            throw new Exception("Could not write batch results to " + resultsFile.getAbsolutePath() + ": "
+                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        }
+        try {
+            writer.println("Title\tStatus\tMilliseconds\tIterationDir\tSummaryFile\tReportFile\tError");
+            for (BatchJob job : jobs) {
+                IterationContext context = job.getContext();
+                writer.println(job.getIterationTitle() + "\t" + job.getStatus() + "\t" + job.getMillis()
+                        + "\t" + job.getIterationDir().getAbsolutePath()
+                        + "\t" + (context == null || context.getSummaryFile() == null ? ""
+                        : context.getSummaryFile().getAbsolutePath())
+                        + "\t" + (context == null || context.getReportFile() == null ? ""
+                        : context.getReportFile().getAbsolutePath())
+                        + "\t" + (job.getError() == null ? "" : job.getError().replaceAll("\\s+", " ")));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void runJob(BatchJob job, TaskMonitor taskMonitor) {
+        if (cancelled) {
+            job.setStatus(BatchJob.Status.CANCELLED);
+            return;
+        }
+        job.setStatus(BatchJob.Status.RUNNING);
+        long start = System.currentTimeMillis();
+        try {
+            IterationContext context = IterationPipeline.createContext(job);
+            job.setContext(context);
+            PipelineStages pipelineStages = new PipelineStages(context.getIterationDir());
+
+            taskMonitor.setStatusMessage("Parsing input files");
+            IterationPipeline.parse(context, taskMonitor);
+            if (context.getSamples().size() < 2)
+                throw new Exception("PSF requires at least two samples, found " + context.getSamples().size());
+
+            taskMonitor.setStatusMessage("Mapping FC values to CyTable");
+            IterationPipeline.addFCValues(context, pipelineStages, taskMonitor);
+
+            if (cancelled)
+                throw new InterruptedException();
+            taskMonitor.setStatusMessage("Running PSF");
+            PSFRunner psfRunner = new PSFRunner(context);
+            synchronized (psfRunners) {
+                psfRunners.add(psfRunner);
+            }
+            if (cancelled || psfRunner.run(taskMonitor, pipelineStages) == null)
+                throw new InterruptedException();
+
+            taskMonitor.setStatusMessage("Generating report");
+            IterationPipeline.generateReport(context, pipelineStages, taskMonitor);
+            job.setStatus(BatchJob.Status.DONE);
+        } catch (InterruptedException e) {
+            job.setStatus(BatchJob.Status.CANCELLED);
+        } catch (Exception e) {
+            job.setStatus(BatchJob.Status.FAILED);
+            job.setError(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            System.out.println("TMM batch job " + job.getIterationTitle() + " failed: " + job.getError());
+        } finally {
+            job.setMillis(System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Forwards the status messages of a job to the batch task monitor, prefixed with the job title.
+     * The progress of the batch is the share of finished jobs, so the progress of a job is not forwarded.
+     */
+    private static class JobTaskMonitor implements TaskMonitor {
+        private final TaskMonitor taskMonitor;
+        private final String title;
+
+        JobTaskMonitor(TaskMonitor taskMonitor, String title) {
+            this.taskMonitor = taskMonitor;
+            this.title = title;
+        }
+
+        @Override
+        public void setTitle(String s) {
+        }
+
+        @Override
+        public void setProgress(double v) {
+        }
+
+        @Override
+        public void setStatusMessage(String s) {
+            taskMonitor.setStatusMessage(title + ": " + s);
+        }
+
+        @Override
+        public void showMessage(Level level, String s) {
+            taskMonitor.showMessage(level, title + ": " + s);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.cytoscape.tmm.batch;
+
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.tmm.actions.ExportNetworkAction;
+import org.cytoscape.tmm.actions.GenerateReportAction;
+import org.cytoscape.tmm.actions.ParseInputFilesAction;
+import org.cytoscape.tmm.actions.PipelineStages;
+import org.cytoscape.tmm.actions.RunPipelineAction;
+import org.cytoscape.tmm.gui.CyManager;
+import org.cytoscape.tmm.processing.ExpMatFileHandler;
+import org.cytoscape.tmm.processing.IterationContext;
+import org.cytoscape.tmm.processing.ParsedFilesDirectory;
+import org.cytoscape.tmm.reports.GroupLabels;
+import org.cytoscape.work.TaskMonitor;
+
+import java.io.File;
+
+/**
+ * Public class IterationPipeline
+ * <p>
+ * The stages of the TMM pipeline (parse, add FC, report) run on an IterationContext instead of the TMMPanel,
+ * for batch runs and TMM commands. PSF is run with the PSFRunner.
+ */
+public class IterationPipeline {
+
+    /**
+     * Returns the loaded network with the given name.
+     *
+     * @throws Exception if no such network is loaded
+     */
+    public static CyNetwork getNetwork(String networkName) throws Exception {
+        for (CyNetwork network : TMMActivator.networkManager.getNetworkSet()) {
+            if (networkName.equals(network.getRow(network).get(CyNetwork.NAME, String.class)))
+                return network;
+        }
+        throw new Exception("Network " + networkName + " is not loaded");
+    }
+
+    /**
+     * Creates the context of the iteration of the job, checking that its network and input files exist.
+     */
+    public static IterationContext createContext(BatchJob job) throws Exception {
+        CyNetwork network = getNetwork(job.getNetworkName());
+        if (!job.getExpMatFile().exists())
+            throw new Exception("Expression matrix file " + job.getExpMatFile().getAbsolutePath() + " does not exist");
+        if (job.getLabelsFile() != null && !job.getLabelsFile().exists())
+            throw new Exception("Labels file " + job.getLabelsFile().getAbsolutePath() + " does not exist");
+        IterationContext context = new IterationContext(network, job.getParentDir(), job.getIterationTitle());
+        context.setExpMatFile(job.getExpMatFile());
+        context.setGeneIDName(job.getGeneIDName());
+        context.setBootCycles(job.getBootCycles());
+        context.setValidationMode(job.isValidationMode());
+        if (job.isValidationMode())
+            context.setTmmLabelsFile(job.getLabelsFile());
+        else
+            context.setGroupLabelsFile(job.getLabelsFile());
+        context.setComment(job.getComment());
+        return context;
+    }
+
+    /**
+     * Exports the network and the node table to the iteration directory and parses the expression matrix,
+     * as the Parse input files action does for the panel.
+     */
+    public static void parse(IterationContext context, TaskMonitor taskMonitor) throws Exception {
+        CyNetwork network = context.getNetwork();
+        String iterationTitle = context.getIterationTitle();
+        File iterationDir = context.getIterationDir();
+        if (!iterationDir.isDirectory() && !iterationDir.mkdirs())
+            throw new Exception("Unable to create directory " + iterationDir.getAbsolutePath());
+
+        ParsedFilesDirectory parsedFilesDirectory = new ParsedFilesDirectory();
+        parsedFilesDirectory.setParentDir(context.getParentDir());
+        parsedFilesDirectory.setExpMatFile(context.getExpMatFile());
+        parsedFilesDirectory.setIterationTitle(iterationTitle);
+        parsedFilesDirectory.setIterationDir(iterationDir);
+
+        File netFile = new File(iterationDir, iterationTitle + "_network.xgmml");
+        File nodeTableFile = new File(iterationDir, "nodes_" + iterationTitle + ".csv");
+        synchronized (network) {
+            try {
+                new ExportNetworkAction(network, netFile.getAbsolutePath()).exportSynchronously();
+            } catch (Exception e) {
+                throw new Exception("Problem exporting network to file. Reason: "
+                        + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+            }
+            CyColumn column = network.getDefaultNodeTable().getColumn(context.getGeneIDName());
+            if (column == null || !column.getType().equals(String.class))
+                throw new Exception("Gene ID column not valid: " + context.getGeneIDName()
+                        + " should be a String column of the node table");
+            try {
+                CyManager.exportNodeNameEntrezTable(network, context.getGeneIDName(), nodeTableFile);
+            } catch (Exception e) {
+                throw new Exception("Problem exporting node table to file. Reason: "
+                        + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+            }
+        }
+        parsedFilesDirectory.setNetworkFile(netFile);
+        parsedFilesDirectory.setNodeTableFile(nodeTableFile);
+
+        File fcMatFile = new File(iterationDir, "fc_" + iterationTitle + ".txt");
+        ExpMatFileHandler handler = ParseInputFilesAction.createExpMatFileHandler(context.getExpMatFile(),
+                nodeTableFile, fcMatFile, network);
+        try {
+            handler.processExpMat();
+        } catch (Exception e) {
+            throw new Exception("Expression matrix file was not valid:\n " + e.getMessage());
+        }
+        ParseInputFilesAction.reportMatrixCache(handler, taskMonitor);
+        parsedFilesDirectory.setExpMatFileHandler(handler);
+        parsedFilesDirectory.setFcMatFile(fcMatFile);
+        context.setParsedFilesDirectory(parsedFilesDirectory);
+        context.setSamples(handler.getSamples());
+        context.setFCFile(handler.getFCFile());
+        if (!context.isValidationMode()) {
+            GroupLabels groupLabels = new GroupLabels(handler.getSamples());
+            if (context.getGroupLabelsFile() != null)
+                groupLabels.setGroupLabels(context.getGroupLabelsFile());
+            context.setGroupLabels(groupLabels);
+        }
+    }
+
+    /**
+     * Maps the FC values of the iteration to the node table of its network.
+     * The iterations of the same network are mapped one at a time.
+     */
+    public static void addFCValues(IterationContext context, PipelineStages pipelineStages,
+                                   TaskMonitor taskMonitor) throws Exception {
+        if (context.getParsedFilesDirectory() == null)
+            throw new Exception("The input files of iteration " + context.getIterationTitle() + " were not parsed");
+        synchronized (context.getNetwork()) {
+            RunPipelineAction.addFCValues(context.getNetwork(), context.getParsedFilesDirectory(),
+                    pipelineStages, taskMonitor);
+        }
+    }
+
+    /**
+     * Generates the report of the iteration in a new report directory, unless the report
+     * recorded in the pipeline stages is up to date, and sets the report file of the iteration.
+     */
+    public static void generateReport(IterationContext context, PipelineStages pipelineStages,
+                                      TaskMonitor taskMonitor) throws Exception {
+        if (context.getSummaryFile() == null)
+            throw new Exception("PSF was not run for iteration " + context.getIterationTitle());
+        String reportFingerprint = PipelineStages.fingerprint(context.getSummaryFile(),
+                context.isValidationMode(),
+                context.isValidationMode() ? context.getTmmLabelsFile() : context.getGroupLabels(),
+                context.getIterationTitle(), context.getComment(), context.getBootCycles());
+        File pdfFile = pipelineStages.getValidOutput(PipelineStages.REPORT, reportFingerprint);
+        if (pdfFile != null) {
+            taskMonitor.setStatusMessage("The report is up to date");
+            context.setReportFile(pdfFile);
+            return;
+        }
+        File reportDir = RunPipelineAction.createReportDir(context.getIterationDir(), context.getIterationTitle());
+        GenerateReportAction generateReportAction;
+        if (context.isValidationMode())
+            generateReportAction = new GenerateReportAction("TMM batch report",
+                    context.getSummaryFile(), reportDir, context.getTmmLabelsFile(),
+                    context.getIterationTitle(), context.getComment(), context.getBootCycles(),
+                    context.getParsedFilesDirectory(), true);
+        else
+            generateReportAction = new GenerateReportAction("TMM batch report",
+                    context.getSummaryFile(), reportDir, context.getGroupLabels(),
+                    context.getIterationTitle(), context.getComment(), context.getBootCycles(),
+                    context.getParsedFilesDirectory(), false);
+        generateReportAction.generateReport(taskMonitor);
+        pipelineStages.record(PipelineStages.REPORT, reportFingerprint, generateReportAction.getPdfFile());
+        context.setReportFile(generateReportAction.getPdfFile());
+    }
+}
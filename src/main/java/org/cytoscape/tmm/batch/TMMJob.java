@@ -0,0 +1,274 @@
+package org.cytoscape.tmm.batch;
+
+import org.cytoscape.tmm.actions.PSFRunner;
+import org.cytoscape.tmm.actions.PipelineStages;
+import org.cytoscape.tmm.processing.IterationContext;
+import org.cytoscape.work.TaskMonitor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+/**
+ * Public class TMMJob
+ * <p>
+ * A pipeline stage of an iteration submitted to the TMMJobQueue by a TMM command.
+ * The stages of an iteration run in the order of submission: the TMMJobQueue starts a job once the previous job
+ * of its iteration has finished, and the job fails if that job did not succeed. The job is the task monitor of its stage,
+ * keeping the last progress and status message, and records its queued and running times.
+ */
+public class TMMJob implements TaskMonitor {
+    public enum Kind {
+        PARSE("parse"),
+        ADDFC("add fc"),
+        RUNPSF("run psf"),
+        REPORT("report");
+
+        private String command;
+
+        Kind(String command) {
+            this.command = command;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+    }
+
+    public enum Status {QUEUED, RUNNING, DONE, FAILED, CANCELLED}
+
+    public static final String STATUSHEADER = "Job\tCommand\tIteration\tStatus\tProgress\tQueuedMs\tRunningMs\tMessage\tError";
+
+    private final long id;
+    private final Kind kind;
+    private final IterationContext context;
+    private final TMMJob previous;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile Status status = Status.QUEUED;
+    private volatile double progress = 0;
+    private volatile String statusMessage = "";
+    private volatile String error;
+    private final long submittedMillis = System.currentTimeMillis();
+    private volatile long startedMillis = -1;
+    private volatile long finishedMillis = -1;
+    private volatile PSFRunner psfRunner;
+    private Future<?> future;
+    private Runnable finishedListener;
+
+    /**
+     * @param id       the job ID
+     * @param kind     the pipeline stage
+     * @param context  the iteration
+     * @param previous the previous job of the iteration, or null
+     */
+    public TMMJob(long id, Kind kind, IterationContext context, TMMJob previous) {
+        this.id = id;
+        this.kind = kind;
+        this.context = context;
+        this.previous = previous;
+    }
+
+    /**
+     * Runs the stage. The previous job of the iteration must have finished.
+     */
+    public void run() {
+        try {
+            if (previous != null) {
+                if (previous.getStatus() != Status.DONE)
+                    throw new Exception("The previous job " + previous.getId() + " (" + previous.getKind().getCommand()
+                            + ") of iteration " + context.getIterationTitle() + " did not succeed");
+            }
+            synchronized (this) {
+                if (status != Status.QUEUED)
+                    return;
+                status = Status.RUNNING;
+                startedMillis = System.currentTimeMillis();
+            }
+            PipelineStages pipelineStages = new PipelineStages(context.getIterationDir());
+            switch (kind) {
+                case PARSE:
+                    setStatusMessage("Parsing input files");
+                    IterationPipeline.parse(context, this);
+                    break;
+                case ADDFC:
+                    setStatusMessage("Mapping FC values to CyTable");
+                    IterationPipeline.addFCValues(context, pipelineStages, this);
+                    break;
+                case RUNPSF:
+                    if (context.getSamples() == null || context.getSamples().size() < 2)
+                        throw new Exception("PSF requires at least two samples. Parse the input files first");
+                    setStatusMessage("Running PSF");
+                    psfRunner = new PSFRunner(context);
+                    if (status == Status.CANCELLED)
+                        psfRunner.cancel();
+                    if (psfRunner.run(this, pipelineStages) == null) {
+                        finish(Status.CANCELLED, null);
+                        return;
+                    }
+                    break;
+                case REPORT:
+                    setStatusMessage("Generating report");
+                    IterationPipeline.generateReport(context, pipelineStages, this);
+                    break;
+            }
+            progress = 1;
+            finish(Status.DONE, null);
+        } catch (InterruptedException e) {
+            finish(Status.CANCELLED, null);
+        } catch (Exception e) {
+            finish(Status.FAILED, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        } finally {
+            // e.g. after an Error: the jobs waiting for this one are released
+            finish(Status.CANCELLED, null);
+        }
+    }
+
+    /**
+     * Cancels the job. A queued job is removed from the queue; a running PSF run is stopped,
+     * other running stages are interrupted.
+     */
+    public void cancel() {
+        Future<?> future;
+        synchronized (this) {
+            if (status != Status.QUEUED && status != Status.RUNNING)
+                return;
+            future = this.future;
+        }
+        if (psfRunner != null)
+            psfRunner.cancel();
+        if (future != null)
+            future.cancel(true);
+        finish(Status.CANCELLED, null);
+    }
+
+    /**
+     * Waits until the job has finished, successfully or not.
+     */
+    public void awaitFinished() throws InterruptedException {
+        finished.await();
+    }
+
+    synchronized void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Runs the listener once the job has finished, on the thread finishing the job,
+     * or at once if the job has already finished.
+     */
+    void setFinishedListener(Runnable listener) {
+        synchronized (this) {
+            if (finished.getCount() != 0) {
+                finishedListener = listener;
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Sets the final status once; later calls are ignored.
+     */
+    private void finish(Status status, String error) {
+        Runnable listener;
+        synchronized (this) {
+            if (finished.getCount() == 0)
+                return;
+            this.status = status;
+            this.error = error;
+            finishedMillis = System.currentTimeMillis();
+            finished.countDown();
+            listener = finishedListener;
+            finishedListener = null;
+        }
+        // outside the lock: the listener may start the next job
+        if (listener != null)
+            listener.run();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the status of the previous job of the iteration, or null if there is none.
+     */
+    TMMJob.Status getPreviousStatus() {
+        return previous == null ? null : previous.getStatus();
+    }
+
+    public IterationContext getContext() {
+        return context;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isFinished() {
+        return finished.getCount() == 0;
+    }
+
+    public double getProgress() {
+        return progress;
+    }
+
+    public String getStatusMessage() {
+        return statusMessage;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Returns the time the job waited in the queue, in milliseconds.
+     */
+    public long getQueuedMillis() {
+        long end = startedMillis >= 0 ? startedMillis
+                : finishedMillis >= 0 ? finishedMillis : System.currentTimeMillis();
+        return end - submittedMillis;
+    }
+
+    /**
+     * Returns the time the job has been running, in milliseconds; 0 if it has not started.
+     */
+    public long getRunningMillis() {
+        if (startedMillis < 0)
+            return 0;
+        return (finishedMillis >= 0 ? finishedMillis : System.currentTimeMillis()) - startedMillis;
+    }
+
+    /**
+     * Describes the job as a tab delimited line with the columns of STATUSHEADER.
+     */
+    public String describe() {
+        return id + "\t" + kind.getCommand() + "\t" + context.getIterationTitle() + "\t" + status
+                + "\t" + Math.round(progress * 100) + "\t" + getQueuedMillis() + "\t" + getRunningMillis()
+                + "\t" + statusMessage.replaceAll("\\s+", " ")
+                + "\t" + (error == null ? "" : error.replaceAll("\\s+", " "));
+    }
+
+    @Override
+    public void setTitle(String s) {
+    }
+
+    @Override
+    public void setProgress(double v) {
+        progress = v;
+    }
+
+    @Override
+    public void setStatusMessage(String s) {
+        if (s != null)
+            statusMessage = s;
+    }
+
+    @Override
+    public void showMessage(Level level, String s) {
+        setStatusMessage(s);
+    }
+}
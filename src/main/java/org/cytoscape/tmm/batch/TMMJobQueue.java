@@ -0,0 +1,200 @@
+package org.cytoscape.tmm.batch;
+
+import org.cytoscape.tmm.Enums.ETMMProps;
+import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.tmm.processing.IterationContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Public class TMMJobQueue
+ * <p>
+ * Runs the TMMJobs submitted by the TMM commands on a pool of JobThreads threads,
+ * with at most JobQueueCapacity jobs waiting (TMM properties). A submission beyond the capacity is rejected,
+ * so that scripts are told to wait instead of piling up work. The iterations are registered by title
+ * with the parse command, and the jobs of an iteration run one after the other, in the order of submission,
+ * while the jobs of different iterations run concurrently. A job is handed to the pool only when the previous job
+ * of its iteration has finished, so that no pool thread is blocked waiting for it. Finished jobs are kept for status queries,
+ * up to MAXFINISHEDJOBS of them.
+ */
+public class TMMJobQueue {
+    private static final int DEFAULTTHREADS = 2;
+    private static final int DEFAULTCAPACITY = 64;
+    private static final int MAXFINISHEDJOBS = 1000;
+
+    private final ThreadPoolExecutor executor;
+    private final int capacity;
+    private long lastID = 0;
+    //jobs: job ID -> job, in the order of submission
+    private final LinkedHashMap<Long, TMMJob> jobs = new LinkedHashMap<>();
+    //iterations: iteration title -> context of the iteration
+    private final HashMap<String, IterationContext> iterations = new HashMap<>();
+    //lastJobs: iteration title -> the last job submitted for the iteration
+    private final HashMap<String, TMMJob> lastJobs = new HashMap<>();
+
+    public TMMJobQueue() {
+        int numThreads = getProperty(ETMMProps.JOBTHREADS, DEFAULTTHREADS);
+        capacity = getProperty(ETMMProps.JOBQUEUECAPACITY, DEFAULTCAPACITY);
+        // the capacity is checked on submission, counting the jobs waiting for their previous job too
+        executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int count = 0;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "TMM job " + (++count));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    private static int getProperty(ETMMProps prop, int defaultValue) {
+        String property = (String) TMMActivator.getTMMProps().get(prop.getName());
+        try {
+            return Math.max(1, Integer.parseInt(property.trim()));
+        } catch (Exception e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Registers the iteration and submits its parse job. An iteration with the same title is replaced,
+     * unless it still has unfinished jobs.
+     *
+     * @return the parse job
+     * @throws Exception if the iteration is busy or the queue is full
+     */
+    public synchronized TMMJob submitParse(IterationContext context) throws Exception {
+        TMMJob lastJob = lastJobs.get(context.getIterationTitle());
+        if (lastJob != null && !lastJob.isFinished())
+            throw new Exception("Iteration " + context.getIterationTitle() + " has unfinished jobs");
+        IterationContext replaced = iterations.put(context.getIterationTitle(), context);
+        lastJobs.remove(context.getIterationTitle());
+        try {
+            return submit(TMMJob.Kind.PARSE, context);
+        } catch (Exception e) {
+            if (replaced != null)
+                iterations.put(context.getIterationTitle(), replaced);
+            else
+                iterations.remove(context.getIterationTitle());
+            throw e;
+        }
+    }
+
+    /**
+     * Submits a stage of a registered iteration.
+     *
+     * @return the job
+     * @throws Exception if the iteration is not registered or the queue is full
+     */
+    public synchronized TMMJob submit(TMMJob.Kind kind, String iterationTitle) throws Exception {
+        IterationContext context = iterations.get(iterationTitle);
+        if (context == null)
+            throw new Exception("Unknown iteration " + iterationTitle + ". Submit it with the tmm parse command first");
+        return submit(kind, context);
+    }
+
+    private TMMJob submit(TMMJob.Kind kind, IterationContext context) throws Exception {
+        int waiting = 0;
+        for (TMMJob job : jobs.values())
+            if (job.getStatus() == TMMJob.Status.QUEUED)
+                waiting++;
+        if (waiting >= capacity)
+            throw new Exception("The TMM job queue is full: " + waiting
+                    + " jobs are waiting. Try again later or increase " + ETMMProps.JOBQUEUECAPACITY.getName());
+
+        TMMJob previous = lastJobs.get(context.getIterationTitle());
+        final TMMJob job = new TMMJob(lastID + 1, kind, context, previous);
+        lastID++;
+        jobs.put(job.getId(), job);
+        lastJobs.put(context.getIterationTitle(), job);
+        removeFinishedJobs();
+        if (previous == null)
+            start(job);
+        else
+            previous.setFinishedListener(new Runnable() {
+                @Override
+                public void run() {
+                    start(job);
+                }
+            });
+        return job;
+    }
+
+    /**
+     * Hands the job, whose previous job has finished, to the pool. If the previous job did not succeed,
+     * the job fails at once on the calling thread, without taking a pool thread.
+     */
+    private synchronized void start(final TMMJob job) {
+        if (job.isFinished())
+            return;
+        TMMJob.Status previousStatus = job.getPreviousStatus();
+        if (previousStatus != null && previousStatus != TMMJob.Status.DONE) {
+            job.run();
+            return;
+        }
+        try {
+            job.setFuture(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    job.run();
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Returns the job with the ID, or null.
+     */
+    public synchronized TMMJob getJob(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Returns the jobs, in the order of submission.
+     */
+    public synchronized ArrayList<TMMJob> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Cancels the job with the ID.
+     *
+     * @return false if there is no such job
+     */
+    public boolean cancel(long id) {
+        TMMJob job = getJob(id);
+        if (job == null)
+            return false;
+        job.cancel();
+        // cancelled jobs leave the queue at once
+        executor.purge();
+        return true;
+    }
+
+    private void removeFinishedJobs() {
+        int finished = 0;
+        for (TMMJob job : jobs.values())
+            if (job.isFinished())
+                finished++;
+        Iterator<TMMJob> iterator = jobs.values().iterator();
+        while (finished > MAXFINISHEDJOBS && iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+}
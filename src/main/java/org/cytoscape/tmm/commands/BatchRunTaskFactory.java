@@ -0,0 +1,63 @@
+package org.cytoscape.tmm.commands;
+
+import org.cytoscape.tmm.batch.BatchJob;
+import org.cytoscape.tmm.batch.BatchManifest;
+import org.cytoscape.tmm.batch.BatchRunner;
+import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.AbstractTaskFactory;
+import org.cytoscape.work.TaskIterator;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Public class BatchRunTaskFactory
+ * <p>
+ * The "tmm batch" command: runs the jobs of a batch manifest without the TMMPanel
+ * and writes the status of each job to tmm_batch_results.txt next to the manifest.
+ * The command can be run from a Cytoscape command script, e.g. cytoscape.sh -S script.txt.
+ */
+public class BatchRunTaskFactory extends AbstractTaskFactory {
+    public static final String COMMAND = "batch";
+    public static final String DESCRIPTION = "Run the TMM jobs of a batch manifest";
+
+    @Override
+    public TaskIterator createTaskIterator() {
+        return new TaskIterator(new BatchRunTask());
+    }
+
+    public static class BatchRunTask extends AbstractTask {
+        @Tunable(description = "Batch manifest file")
+        public String manifest = "";
+
+        @Tunable(description = "Number of jobs run at the same time (0 for BatchThreads of TMM properties)")
+        public int threads = 0;
+
+        private BatchRunner batchRunner;
+
+        @Override
+        public void run(TaskMonitor taskMonitor) throws Exception {
+            taskMonitor.setTitle("TMM batch");
+            File manifestFile = new File(manifest);
+            ArrayList<BatchJob> jobs = BatchManifest.read(manifestFile);
+            taskMonitor.setStatusMessage("Running " + jobs.size() + " TMM jobs");
+            batchRunner = new BatchRunner(jobs, threads);
+            int failed = batchRunner.run(taskMonitor);
+            File resultsFile = new File(manifestFile.getAbsoluteFile().getParentFile(), BatchRunner.RESULTSFILE);
+            batchRunner.writeResults(resultsFile);
+            if (failed > 0)
+                throw new Exception(failed + " of " + jobs.size() + " TMM jobs failed. See "
+                        + resultsFile.getAbsolutePath());
+            taskMonitor.setStatusMessage("TMM jobs finished. See " + resultsFile.getAbsolutePath());
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            if (batchRunner != null)
+                batchRunner.cancel();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.cytoscape.tmm.commands;
+
+import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.tmm.batch.TMMJob;
+import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.AbstractTaskFactory;
+import org.cytoscape.work.TaskIterator;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+
+/**
+ * Public class CancelJobTaskFactory
+ * <p>
+ * The "tmm cancel" command: cancels a queued or running TMM job. The later jobs of its iteration fail.
+ */
+public class CancelJobTaskFactory extends AbstractTaskFactory {
+    public static final String COMMAND = "cancel";
+    public static final String DESCRIPTION = "Cancel a queued or running TMM job";
+
+    @Override
+    public TaskIterator createTaskIterator() {
+        return new TaskIterator(new CancelJobTask());
+    }
+
+    public static class CancelJobTask extends AbstractTask {
+        @Tunable(description = "Job ID")
+        public String job = "";
+
+        @Override
+        public void run(TaskMonitor taskMonitor) throws Exception {
+            taskMonitor.setTitle("TMM");
+            long id = JobStatusTaskFactory.parseID(job);
+            if (!TMMActivator.tmmJobQueue.cancel(id))
+                throw new Exception("Unknown TMM job " + job);
+            TMMJob tmmJob = TMMActivator.tmmJobQueue.getJob(id);
+            taskMonitor.setStatusMessage("TMM job " + id + ": " + (tmmJob == null ? "" : tmmJob.getStatus()));
+        }
+    }
+}
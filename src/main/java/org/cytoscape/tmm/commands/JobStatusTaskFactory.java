@@ -0,0 +1,65 @@
+package org.cytoscape.tmm.commands;
+
+import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.tmm.batch.TMMJob;
+import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.AbstractTaskFactory;
+import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.TaskIterator;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+
+/**
+ * Public class JobStatusTaskFactory
+ * <p>
+ * The "tmm status" command: returns the status, progress, queued and running times of a TMM job,
+ * or of all jobs, as tab delimited lines with the header TMMJob.STATUSHEADER.
+ */
+public class JobStatusTaskFactory extends AbstractTaskFactory {
+    public static final String COMMAND = "status";
+    public static final String DESCRIPTION = "Return the status, progress and timings of TMM jobs";
+
+    @Override
+    public TaskIterator createTaskIterator() {
+        return new TaskIterator(new JobStatusTask());
+    }
+
+    public static class JobStatusTask extends AbstractTask implements ObservableTask {
+        @Tunable(description = "Job ID (all jobs if empty)")
+        public String job = "";
+
+        private String status;
+
+        @Override
+        public void run(TaskMonitor taskMonitor) throws Exception {
+            taskMonitor.setTitle("TMM");
+            StringBuilder builder = new StringBuilder(TMMJob.STATUSHEADER);
+            if (job.trim().isEmpty()) {
+                for (TMMJob tmmJob : TMMActivator.tmmJobQueue.getJobs())
+                    builder.append("\n").append(tmmJob.describe());
+            } else {
+                TMMJob tmmJob = TMMActivator.tmmJobQueue.getJob(JobStatusTaskFactory.parseID(job));
+                if (tmmJob == null)
+                    throw new Exception("Unknown TMM job " + job);
+                builder.append("\n").append(tmmJob.describe());
+            }
+            status = builder.toString();
+            taskMonitor.setStatusMessage(status);
+        }
+
+        @Override
+        public <R> R getResults(Class<? extends R> type) {
+            if (type.equals(String.class))
+                return (R) status;
+            return null;
+        }
+    }
+
+    static long parseID(String job) throws Exception {
+        try {
+            return Long.parseLong(job.trim());
+        } catch (NumberFormatException e) {
+            throw new Exception("The job ID should be an integer, found " + job + " instead");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.cytoscape.tmm.commands;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.tmm.gui.CyManager;
+import org.cytoscape.tmm.processing.ExpMatFileHandler;
+import org.cytoscape.tmm.processing.ParsedFilesDirectory;
+import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.AbstractTaskFactory;
+import org.cytoscape.work.TaskIterator;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+
+/**
+ * Public class MaterializeFCColumnsTaskFactory
+ * <p>
+ * The "tmm materialize" command: writes the FC values of the given samples
+ * to the default node table of the current network, in the lazy FC column mode.
+ */
+public class MaterializeFCColumnsTaskFactory extends AbstractTaskFactory {
+    public static final String COMMAND = "materialize";
+    public static final String DESCRIPTION = "Write the FC values of samples to the node table of the current network";
+
+    @Override
+    public TaskIterator createTaskIterator() {
+        return new TaskIterator(new MaterializeFCColumnsTask());
+    }
+
+    public static class MaterializeFCColumnsTask extends AbstractTask {
+        @Tunable(description = "Comma separated sample names")
+        public String samples = "";
+
+        @Override
+        public void run(TaskMonitor taskMonitor) throws Exception {
+            taskMonitor.setTitle("TMM");
+            ParsedFilesDirectory parsedFilesDirectory = TMMActivator.tmmPanel.getParsedFilesDirectory();
+            ExpMatFileHandler handler = parsedFilesDirectory == null ? null
+                    : parsedFilesDirectory.getExpMatFileHandler();
+            if (handler == null || handler.getFCMatrix() == null)
+                throw new Exception("No FC values found. Parse the input files before materializing samples");
+            CyNetwork network = CyManager.getCurrentNetwork();
+            String[] sampleNames = samples.split(",");
+            for (int s = 0; s < sampleNames.length; s++) {
+                String sample = sampleNames[s].trim();
+                if (sample.isEmpty())
+                    continue;
+                taskMonitor.setStatusMessage("Materializing sample " + sample);
+                TMMActivator.materializedFCColumns.materialize(network, handler, sample);
+                taskMonitor.setProgress((double) (s + 1) / sampleNames.length);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.cytoscape.tmm.commands;
+
+import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.tmm.batch.BatchJob;
+import org.cytoscape.tmm.batch.BatchManifest;
+import org.cytoscape.tmm.batch.IterationPipeline;
+import org.cytoscape.tmm.batch.TMMJob;
+import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.AbstractTaskFactory;
+import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.TaskIterator;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+
+import java.io.File;
+
+/**
+ * Public class ParseJobTaskFactory
+ * <p>
+ * The "tmm parse" command: registers an iteration with its inputs and queues the parsing
+ * of its input files. The command returns the job ID at once; the job is followed with "tmm status".
+ * The later stages of the iteration are queued with "tmm add fc", "tmm run psf" and "tmm report".
+ */
+public class ParseJobTaskFactory extends AbstractTaskFactory {
+    public static final String COMMAND = "parse";
+    public static final String DESCRIPTION = "Queue the parsing of the input files of a TMM iteration and return the job ID";
+
+    @Override
+    public TaskIterator createTaskIterator() {
+        return new TaskIterator(new ParseJobTask());
+    }
+
+    public static class ParseJobTask extends AbstractTask implements ObservableTask {
+        @Tunable(description = "Iteration title")
+        public String iteration = "";
+
+        @Tunable(description = "Network name")
+        public String network = "";
+
+        @Tunable(description = "Expression matrix file")
+        public String expMatFile = "";
+
+        @Tunable(description = "Gene ID column of the node table")
+        public String geneID = "";
+
+        @Tunable(description = "Parent directory of the iteration directory")
+        public String parentDir = "";
+
+        @Tunable(description = "Number of bootstrap cycles")
+        public int bootCycles = 200;
+
+        @Tunable(description = "Mode: validation or assessment")
+        public String mode = BatchManifest.ASSESSMENTMODE;
+
+        @Tunable(description = "TMM labels file (validation) or group labels file (assessment)")
+        public String labelsFile = "";
+
+        @Tunable(description = "Comment on the iteration")
+        public String comment = "";
+
+        private TMMJob job;
+
+        @Override
+        public void run(TaskMonitor taskMonitor) throws Exception {
+            taskMonitor.setTitle("TMM");
+            if (iteration.isEmpty() || network.isEmpty() || expMatFile.isEmpty()
+                    || geneID.isEmpty() || parentDir.isEmpty())
+                throw new Exception("The iteration, network, expMatFile, geneID and parentDir arguments are required");
+            BatchJob batchJob = new BatchJob(iteration, new File(expMatFile), network, geneID, new File(parentDir));
+            batchJob.setBootCycles(bootCycles);
+            if (mode.equalsIgnoreCase(BatchManifest.VALIDATIONMODE))
+                batchJob.setValidationMode(true);
+            else if (!mode.equalsIgnoreCase(BatchManifest.ASSESSMENTMODE))
+                throw new Exception("Mode should be " + BatchManifest.VALIDATIONMODE + " or "
+                        + BatchManifest.ASSESSMENTMODE + ", found " + mode + " instead");
+            if (!labelsFile.isEmpty())
+                batchJob.setLabelsFile(new File(labelsFile));
+            if (batchJob.isValidationMode() && batchJob.getLabelsFile() == null)
+                throw new Exception("The validation mode requires a TMM labels file");
+            batchJob.setComment(comment);
+            job = TMMActivator.tmmJobQueue.submitParse(IterationPipeline.createContext(batchJob));
+            taskMonitor.setStatusMessage("TMM job " + job.getId() + " queued");
+        }
+
+        @Override
+        public <R> R getResults(Class<? extends R> type) {
+            if (job != null && type.equals(String.class))
+                return (R) String.valueOf(job.getId());
+            return null;
+        }
+    }
+}
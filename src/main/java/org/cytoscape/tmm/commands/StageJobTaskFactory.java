@@ -0,0 +1,71 @@
+package org.cytoscape.tmm.commands;
+
+import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.tmm.batch.TMMJob;
+import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.AbstractTaskFactory;
+import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.TaskIterator;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+
+/**
+ * Public class StageJobTaskFactory
+ * <p>
+ * The "tmm add fc", "tmm run psf" and "tmm report" commands: queue a pipeline stage of an iteration
+ * registered with "tmm parse" and return the job ID at once. The stage runs after the jobs
+ * already queued for the iteration.
+ */
+public class StageJobTaskFactory extends AbstractTaskFactory {
+    private final TMMJob.Kind kind;
+
+    public StageJobTaskFactory(TMMJob.Kind kind) {
+        this.kind = kind;
+    }
+
+    public String getCommand() {
+        return kind.getCommand();
+    }
+
+    public String getDescription() {
+        switch (kind) {
+            case ADDFC:
+                return "Queue the mapping of the FC values of a TMM iteration to the node table and return the job ID";
+            case RUNPSF:
+                return "Queue the PSF run of a TMM iteration and return the job ID";
+            default:
+                return "Queue the report generation of a TMM iteration and return the job ID";
+        }
+    }
+
+    @Override
+    public TaskIterator createTaskIterator() {
+        return new TaskIterator(new StageJobTask(kind));
+    }
+
+    public static class StageJobTask extends AbstractTask implements ObservableTask {
+        @Tunable(description = "Iteration title, as given to tmm parse")
+        public String iteration = "";
+
+        private final TMMJob.Kind kind;
+        private TMMJob job;
+
+        public StageJobTask(TMMJob.Kind kind) {
+            this.kind = kind;
+        }
+
+        @Override
+        public void run(TaskMonitor taskMonitor) throws Exception {
+            taskMonitor.setTitle("TMM");
+            job = TMMActivator.tmmJobQueue.submit(kind, iteration);
+            taskMonitor.setStatusMessage("TMM job " + job.getId() + " queued");
+        }
+
+        @Override
+        public <R> R getResults(Class<? extends R> type) {
+            if (job != null && type.equals(String.class))
+                return (R) String.valueOf(job.getId());
+            return null;
+        }
+    }
+}
@@ -1,14 +1,21 @@
 package org.cytoscape.tmm.gui;
 
 import org.cytoscape.model.*;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
 import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.tmm.processing.FCMatrix;
 import org.cytoscape.view.model.CyNetworkView;
+import org.cytoscape.work.TaskMonitor;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -16,6 +23,9 @@ import java.util.Map;
  * Created by Lilit Nersisyan on 4/1/2017.
  */
 public class CyManager {
+    private static final int MAXEVENTRECORDS = 1 << 20;
+    private static final String FCCHECKSUMS = "TMM_FC_checksums";
+
     public static CyNetwork getCurrentNetwork() {
         return TMMActivator.cyApplicationManager.getCurrentNetwork();
     }
@@ -113,6 +123,186 @@ public class CyManager {
         }
     }
 
+    /**
+     * Populate the Double column of given attribute name with the values of an FC matrix column.
+     * The values are read from the column view by node ordinal, without creating a map.
+     * Nodes that were not found in the network (null CyNodes) are skipped.
+     *
+     * @param cyNetwork CyNetwork containing the CyNodes to be mapped.
+     * @param cyNodes   the CyNodes by node ordinal
+     * @param column    the FC values of the sample by node ordinal
+     * @param attrName  the name of the attribute column
+     * @throws Exception if a column of the same name but of another type exists
+     */
+    public static void setNodeAttributesFromColumn(CyNetwork cyNetwork, CyNode[] cyNodes,
+                                                   FCMatrix.Column column, String attrName) throws Exception {
+        CyTable nodeTable = cyNetwork.getDefaultNodeTable();
+        getOrCreateAttributeColumn(nodeTable, attrName, Double.class);
+        for (int i = 0; i < cyNodes.length; i++) {
+            if (cyNodes[i] == null)
+                continue;
+            CyRow row = nodeTable.getRow(cyNodes[i].getSUID());
+            row.set(attrName, DoubleFormatter.formatDouble(column.get(i)));
+        }
+    }
+
+    /**
+     * Populate the Double columns of the samples with the values of the FC matrix in bulk.
+     * <p>
+     * Only the differences from the previous load of the same matrix are written. A checksum of each
+     * sample column (of the node SUIDs and the FC values) is kept per matrix in the hidden attributes
+     * of the network: the columns with unchanged checksums are skipped, and in the other columns
+     * only the cells whose values differ are set. No columns are deleted, as the node table may hold
+     * the columns of other matrices or of the user; the checksums of the samples no longer present
+     * in the matrix are dropped.
+     * <p>
+     * The missing sample columns are created first, and the rows of the nodes are fetched once.
+     * Then the events of the node table are silenced while the values are written column by column,
+     * and the changed cells are announced at the end with batched RowsSetEvents
+     * (a single one unless there are more than MAXEVENTRECORDS changed cells).
+     * Nodes that were not found in the network (null CyNodes) are skipped.
+     *
+     * @param cyNetwork   CyNetwork containing the CyNodes to be mapped.
+     * @param cyNodes     the CyNodes by node ordinal
+     * @param fcMatrix    the FC matrix
+     * @param samples     the sample names by sample ordinal, used as column names
+     * @param matrixKey   the key of the matrix the checksums are kept under, e.g. the path of the expression matrix
+     * @param taskMonitor the monitor to report the progress to, or null
+     * @throws Exception if a column of the same name but of another type exists
+     */
+    public static void setNodeAttributesFromMatrix(CyNetwork cyNetwork, CyNode[] cyNodes, FCMatrix fcMatrix,
+                                                   List<String> samples, String matrixKey,
+                                                   TaskMonitor taskMonitor) throws Exception {
+        CyTable nodeTable = cyNetwork.getDefaultNodeTable();
+        ArrayList<String> otherEntries = new ArrayList<>();
+        HashMap<String, String> checksums = getFCChecksums(cyNetwork, matrixKey, otherEntries);
+        checksums.keySet().retainAll(new HashSet<>(samples));
+
+        ArrayList<Integer> changedSamples = new ArrayList<>();
+        for (int j = 0; j < samples.size(); j++) {
+            String sample = samples.get(j);
+            String checksum = getColumnChecksum(cyNodes, fcMatrix.getColumn(j));
+            if (checksum.equals(checksums.get(sample)) && nodeTable.getColumn(sample) != null)
+                continue;
+            getOrCreateAttributeColumn(nodeTable, sample, Double.class);
+            checksums.put(sample, checksum);
+            changedSamples.add(j);
+        }
+        CyRow[] rows = new CyRow[cyNodes.length];
+        if (!changedSamples.isEmpty())
+            for (int i = 0; i < cyNodes.length; i++)
+                if (cyNodes[i] != null)
+                    rows[i] = nodeTable.getRow(cyNodes[i].getSUID());
+
+        //changedCells: sample ordinal -> the node ordinals of the cells set
+        HashMap<Integer, BitSet> changedCells = new HashMap<>();
+        TMMActivator.cyEventHelper.silenceEventSource(nodeTable);
+        try {
+            for (int k = 0; k < changedSamples.size(); k++) {
+                int j = changedSamples.get(k);
+                String sample = samples.get(j);
+                FCMatrix.Column column = fcMatrix.getColumn(j);
+                BitSet cells = new BitSet(rows.length);
+                for (int i = 0; i < rows.length; i++) {
+                    if (rows[i] == null)
+                        continue;
+                    double value = DoubleFormatter.formatDouble(column.get(i));
+                    Double oldValue = rows[i].get(sample, Double.class);
+                    if (oldValue == null || Double.compare(oldValue, value) != 0) {
+                        rows[i].set(sample, value);
+                        cells.set(i);
+                    }
+                }
+                changedCells.put(j, cells);
+                if (taskMonitor != null)
+                    taskMonitor.setProgress((double) (k + 1) / changedSamples.size());
+            }
+        } finally {
+            TMMActivator.cyEventHelper.unsilenceEventSource(nodeTable);
+        }
+        // the checksums of other matrices no longer hold for the columns written over
+        HashSet<String> changedSampleNames = new HashSet<>();
+        for (int j : changedSamples)
+            changedSampleNames.add(samples.get(j));
+        for (int e = otherEntries.size() - 1; e >= 0; e--) {
+            String entry = otherEntries.get(e);
+            int tab = entry.lastIndexOf('\t');
+            if (tab > 0 && changedSampleNames.contains(entry.substring(entry.lastIndexOf('\t', tab - 1) + 1, tab)))
+                otherEntries.remove(e);
+        }
+        setFCChecksums(cyNetwork, matrixKey, checksums, otherEntries);
+
+        ArrayList<RowSetRecord> records = new ArrayList<>();
+        for (int j : changedSamples) {
+            String sample = samples.get(j);
+            BitSet cells = changedCells.get(j);
+            for (int i = cells.nextSetBit(0); i >= 0; i = cells.nextSetBit(i + 1)) {
+                Double value = rows[i].get(sample, Double.class);
+                records.add(new RowSetRecord(rows[i], sample, value, value));
+                if (records.size() == MAXEVENTRECORDS) {
+                    TMMActivator.cyEventHelper.fireEvent(new RowsSetEvent(nodeTable, records));
+                    records = new ArrayList<>();
+                }
+            }
+        }
+        if (!records.isEmpty())
+            TMMActivator.cyEventHelper.fireEvent(new RowsSetEvent(nodeTable, records));
+    }
+
+    /**
+     * Computes a 64 bit checksum of the node SUIDs and the FC values of a sample column.
+     */
+    private static String getColumnChecksum(CyNode[] cyNodes, FCMatrix.Column column) {
+        long checksum = 1125899906842597L;
+        for (int i = 0; i < cyNodes.length; i++) {
+            if (cyNodes[i] == null)
+                continue;
+            checksum = 31 * checksum + cyNodes[i].getSUID();
+            checksum = 31 * checksum + Double.doubleToLongBits(column.get(i));
+        }
+        return Long.toHexString(checksum);
+    }
+
+    /**
+     * Reads the checksums of the FC columns written to the node table of the network from a matrix,
+     * stored as "matrix\tsample\tchecksum" entries in the hidden attributes of the network.
+     *
+     * @param cyNetwork    the network
+     * @param matrixKey    the key of the matrix
+     * @param otherEntries the list to add the entries of the other matrices to
+     * @return sample -> checksum
+     */
+    private static HashMap<String, String> getFCChecksums(CyNetwork cyNetwork, String matrixKey,
+                                                          ArrayList<String> otherEntries) {
+        HashMap<String, String> checksums = new HashMap<>();
+        CyTable hiddenTable = cyNetwork.getTable(CyNetwork.class, CyNetwork.HIDDEN_ATTRS);
+        if (hiddenTable.getColumn(FCCHECKSUMS) == null)
+            return checksums;
+        List<String> entries = hiddenTable.getRow(cyNetwork.getSUID()).getList(FCCHECKSUMS, String.class);
+        if (entries == null)
+            return checksums;
+        String prefix = matrixKey + "\t";
+        for (String entry : entries) {
+            int tab = entry.lastIndexOf('\t');
+            if (entry.startsWith(prefix) && tab > prefix.length())
+                checksums.put(entry.substring(prefix.length(), tab), entry.substring(tab + 1));
+            else
+                otherEntries.add(entry);
+        }
+        return checksums;
+    }
+
+    private static void setFCChecksums(CyNetwork cyNetwork, String matrixKey, HashMap<String, String> checksums,
+                                       ArrayList<String> otherEntries) {
+        CyTable hiddenTable = cyNetwork.getTable(CyNetwork.class, CyNetwork.HIDDEN_ATTRS);
+        if (hiddenTable.getColumn(FCCHECKSUMS) == null)
+            hiddenTable.createListColumn(FCCHECKSUMS, String.class, false);
+        ArrayList<String> entries = new ArrayList<>(otherEntries);
+        for (Map.Entry<String, String> entry : checksums.entrySet())
+            entries.add(matrixKey + "\t" + entry.getKey() + "\t" + entry.getValue());
+        hiddenTable.getRow(cyNetwork.getSUID()).set(FCCHECKSUMS, entries);
+    }
+
     /**
      * Returns a CyColumn from the given CyTable with the given name.
      * If such a column does not exist, it is created.
@@ -127,29 +317,28 @@ public class CyManager {
      */
     public static CyColumn getOrCreateAttributeColumn(CyTable table,
                                                       String attrName, Class attrType) throws Exception {
-        Iterator<CyColumn> iterator = table.getColumns().iterator();
-
-        while (iterator.hasNext()) {
-            CyColumn column = iterator.next();
-            if (attrName.equals(column.getName()))
-                if (column.getType().equals(attrType))
-                    return column;
-                else {
-                    throw new Exception("The argument type conflicts with the type of column: "
-                            + column.getName());
-                }
+        CyColumn column = table.getColumn(attrName);
+        if (column != null) {
+            if (column.getType().equals(attrType))
+                return column;
+            else {
+                throw new Exception("The argument type conflicts with the type of column: "
+                        + column.getName());
+            }
         }
         table.createColumn(attrName, attrType, false);
         return table.getColumn(attrName);
     }
 
 
+    /**
+     * Returns the node of the network with the given name, looked up in the shared CyNodeIndex.
+     *
+     * @param name    the node name
+     * @param network the network
+     * @return the first node with the name, or null
+     */
     public static CyNode getCyNodeFromName(String name, CyNetwork network) {
-        CyTable nodeTable = network.getDefaultNodeTable();
-        for (CyNode cyNode : network.getNodeList()) {
-            if (nodeTable.getRow(cyNode.getSUID()).get("name", String.class).equals(name))
-                return cyNode;
-        }
-        return null;
+        return TMMActivator.cyNodeIndex.getNode(network, name);
     }
 }
@@ -0,0 +1,98 @@
+package org.cytoscape.tmm.gui;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.events.AboutToRemoveNodesEvent;
+import org.cytoscape.model.events.AboutToRemoveNodesListener;
+import org.cytoscape.model.events.AddedNodesEvent;
+import org.cytoscape.model.events.AddedNodesListener;
+import org.cytoscape.model.events.NetworkAboutToBeDestroyedEvent;
+import org.cytoscape.model.events.NetworkAboutToBeDestroyedListener;
+import org.cytoscape.model.events.RowsSetEvent;
+import org.cytoscape.model.events.RowsSetListener;
+import org.cytoscape.tmm.TMMActivator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Public class CyNodeIndex
+ * <p>
+ * Per-network indices of CyNodes by name.
+ * An index is built in one pass over the nodes at the first lookup, and dropped when the nodes
+ * of the network are added or removed, or when node names are set in the node table,
+ * so that the next lookup sees the current state of the network.
+ * As with a scan of the node list, the first node in the node list wins if names are duplicated.
+ */
+public class CyNodeIndex implements AddedNodesListener, AboutToRemoveNodesListener,
+        RowsSetListener, NetworkAboutToBeDestroyedListener {
+    //nameIndices: network SUID -> node name -> CyNode
+    private final HashMap<Long, HashMap<String, CyNode>> nameIndices = new HashMap<>();
+
+    /**
+     * Returns the node of the network with the given name.
+     *
+     * @param network the network
+     * @param name    the node name
+     * @return the first node with the name, or null
+     */
+    public synchronized CyNode getNode(CyNetwork network, String name) {
+        HashMap<String, CyNode> nameIndex = nameIndices.get(network.getSUID());
+        if (nameIndex == null) {
+            nameIndex = new HashMap<>();
+            CyTable nodeTable = network.getDefaultNodeTable();
+            for (CyNode cyNode : network.getNodeList()) {
+                String nodeName = nodeTable.getRow(cyNode.getSUID()).get(CyNetwork.NAME, String.class);
+                if (nodeName != null && !nameIndex.containsKey(nodeName))
+                    nameIndex.put(nodeName, cyNode);
+            }
+            nameIndices.put(network.getSUID(), nameIndex);
+        }
+        return nameIndex.get(name);
+    }
+
+    private synchronized void invalidate(Long networkSUID) {
+        nameIndices.remove(networkSUID);
+    }
+
+    @Override
+    public void handleEvent(AddedNodesEvent e) {
+        invalidate(e.getSource().getSUID());
+    }
+
+    @Override
+    public void handleEvent(AboutToRemoveNodesEvent e) {
+        invalidate(e.getSource().getSUID());
+    }
+
+    @Override
+    public void handleEvent(NetworkAboutToBeDestroyedEvent e) {
+        invalidate(e.getNetwork().getSUID());
+    }
+
+    /**
+     * Drops the index of a network if node names are set in its default node table.
+     * Updates of other columns, such as FC values, keep the indices.
+     */
+    @Override
+    public void handleEvent(RowsSetEvent e) {
+        CyTable table = e.getSource();
+        synchronized (this) {
+            if (nameIndices.isEmpty() || e.getColumnRecords(CyNetwork.NAME).isEmpty())
+                return;
+            for (Long networkSUID : new ArrayList<>(nameIndices.keySet())) {
+                if (isDefaultNodeTable(table, networkSUID))
+                    nameIndices.remove(networkSUID);
+            }
+        }
+    }
+
+    /**
+     * Networks not registered in the network manager are treated as matching, so their indices are dropped.
+     */
+    private boolean isDefaultNodeTable(CyTable table, Long networkSUID) {
+        CyNetwork network = TMMActivator.networkManager.getNetwork(networkSUID);
+        return network == null || network.getDefaultNodeTable() == table;
+    }
+}
@@ -10,16 +10,23 @@ import java.util.Locale;
  */
 public class DoubleFormatter {
     static int precision = 10000;
+    // the formatters of formatDouble(Double), created once per thread as DecimalFormat is not thread safe
+    private static final ThreadLocal<NumberFormat[]> formatters = new ThreadLocal<NumberFormat[]>() {
+        @Override
+        protected NumberFormat[] initialValue() {
+            DecimalFormatSymbols decimalSymbol = new DecimalFormatSymbols(Locale.getDefault());
+            decimalSymbol.setDecimalSeparator('.');
+            NumberFormat bigformatter = new DecimalFormat("##E0", decimalSymbol);
+            NumberFormat smallformatter = new DecimalFormat("0.##", decimalSymbol);
+            bigformatter.setGroupingUsed(false);
+            smallformatter.setGroupingUsed(false);
+            return new NumberFormat[]{bigformatter, smallformatter};
+        }
+    };
 
     public static double formatDouble(Double value){
-        DecimalFormatSymbols decimalSymbol = new DecimalFormatSymbols(Locale.getDefault());
-        decimalSymbol.setDecimalSeparator('.');
-        NumberFormat bigformatter = new DecimalFormat("##E0", decimalSymbol);
-        NumberFormat smallformatter = new DecimalFormat("0.##", decimalSymbol);
-
-        bigformatter.setGroupingUsed(false);
-
-        smallformatter.setGroupingUsed(false);
+        NumberFormat bigformatter = formatters.get()[0];
+        NumberFormat smallformatter = formatters.get()[1];
 
         if (Double.isInfinite(value))
             value = Double.POSITIVE_INFINITY;
@@ -0,0 +1,117 @@
+package org.cytoscape.tmm.gui;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.tmm.Enums.ETMMProps;
+import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.tmm.processing.ExpMatFileHandler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Public class MaterializedFCColumns
+ * <p>
+ * In the lazy FC column mode (LazyFCColumns=true in TMM properties) the FC values stay in the
+ * FC matrix of the ExpMatFileHandler, and a sample is written to the default node table as a column
+ * only when it is needed (sample visualization, or the "tmm materialize" command).
+ * The materialized columns of each network are kept in least recently used order, and the oldest ones
+ * are evicted once there are more than MaterializedFCColumns of them. Only the columns created here
+ * are deleted from the node table on eviction: a column that existed before, e.g. one of the user or
+ * of an eager load, is written to but kept.
+ */
+public class MaterializedFCColumns {
+    private static final int DEFAULTCAPACITY = 8;
+
+    //materialized: network SUID -> materialized sample -> whether its column was created here, in access order
+    private final HashMap<Long, LinkedHashMap<String, Boolean>> materialized = new HashMap<>();
+
+    /**
+     * Checks if the lazy FC column mode is enabled in TMM properties (disabled by default).
+     */
+    public static boolean isLazyMode() {
+        String property = (String) TMMActivator.getTMMProps().get(ETMMProps.LAZYFCCOLUMNS.getName());
+        return property != null && Boolean.parseBoolean(property.trim());
+    }
+
+    /**
+     * Returns the maximum number of materialized columns per network from TMM properties.
+     */
+    public static int getCapacity() {
+        String property = (String) TMMActivator.getTMMProps().get(ETMMProps.MATERIALIZEDCOLUMNS.getName());
+        try {
+            return Math.max(1, Integer.parseInt(property.trim()));
+        } catch (Exception e) {
+            return DEFAULTCAPACITY;
+        }
+    }
+
+    /**
+     * Writes the FC values of the sample to the node table of the network, unless the column is already
+     * materialized, and marks it as the most recently used. The least recently used columns are evicted.
+     *
+     * @param network the network
+     * @param handler the handler holding the FC matrix
+     * @param sample  the sample name
+     * @throws Exception if the sample is not in the FC matrix
+     */
+    public synchronized void materialize(CyNetwork network, ExpMatFileHandler handler,
+                                         String sample) throws Exception {
+        LinkedHashMap<String, Boolean> samples = getSamples(network);
+        CyTable nodeTable = network.getDefaultNodeTable();
+        Boolean created = samples.get(sample);
+        if (created == null || nodeTable.getColumn(sample) == null) {
+            boolean create = nodeTable.getColumn(sample) == null;
+            CyManager.setNodeAttributesFromColumn(network, handler.getCyNodes(),
+                    handler.getFCColumn(sample), sample);
+            samples.put(sample, create);
+        }
+        int capacity = getCapacity();
+        Iterator<Map.Entry<String, Boolean>> iterator = samples.entrySet().iterator();
+        while (samples.size() > capacity) {
+            Map.Entry<String, Boolean> eldest = iterator.next();
+            iterator.remove();
+            deleteCreatedColumn(nodeTable, eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * Brings the materialized columns of the network in line with a new FC matrix:
+     * the columns of samples still present are rewritten, the others are evicted.
+     *
+     * @param network the network
+     * @param handler the handler holding the new FC matrix
+     * @throws Exception
+     */
+    public synchronized void refresh(CyNetwork network, ExpMatFileHandler handler) throws Exception {
+        LinkedHashMap<String, Boolean> samples = getSamples(network);
+        CyTable nodeTable = network.getDefaultNodeTable();
+        for (String sample : new ArrayList<>(samples.keySet())) {
+            if (handler.getSamples().contains(sample)) {
+                CyManager.setNodeAttributesFromColumn(network, handler.getCyNodes(),
+                        handler.getFCColumn(sample), sample);
+            } else
+                deleteCreatedColumn(nodeTable, sample, samples.remove(sample));
+        }
+    }
+
+    /**
+     * Deletes the column of an evicted sample if it was created here.
+     */
+    private static void deleteCreatedColumn(CyTable nodeTable, String sample, boolean created) {
+        if (created && nodeTable.getColumn(sample) != null)
+            nodeTable.deleteColumn(sample);
+    }
+
+    private LinkedHashMap<String, Boolean> getSamples(CyNetwork network) {
+        LinkedHashMap<String, Boolean> samples = materialized.get(network.getSUID());
+        if (samples == null) {
+            samples = new LinkedHashMap<>(16, 0.75f, true);
+            materialized.put(network.getSUID(), samples);
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,108 @@
+package org.cytoscape.tmm.gui;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.tmm.TMMActivator;
+import org.cytoscape.tmm.reports.NodePSFIndex;
+import org.cytoscape.view.model.CyNetworkView;
+import org.cytoscape.view.presentation.property.BasicVisualLexicon;
+import org.cytoscape.view.vizmap.VisualStyle;
+import org.cytoscape.view.vizmap.mappings.BoundaryRangeValues;
+import org.cytoscape.view.vizmap.mappings.ContinuousMapping;
+
+import java.awt.*;
+import java.io.File;
+
+/**
+ * Public class PSFVisualizer
+ * <p>
+ * Shows the node-level PSF scores of a sample on the views of a network without running PSF:
+ * the scores are taken from the NodePSFIndex of the summary file, written to the PSFCOLUMN column
+ * of the node table and colored through the TMM_PSF visual style.
+ * The style, with a continuous node fill color mapping over the score range of all samples,
+ * is created once per summary file and reused for every sample.
+ */
+public class PSFVisualizer {
+    public static final String PSFCOLUMN = "TMM_PSF";
+    public static final String STYLETITLE = "TMM_PSF";
+
+    private VisualStyle visualStyle = null;
+    private NodePSFIndex styleIndex = null;
+
+    /**
+     * Applies the PSF scores of the sample to the network and its views.
+     *
+     * @param network     the network
+     * @param summaryFile the psf summary file, may be null
+     * @param sample      the sample name
+     * @return false if the summary file has no scores for the sample
+     * @throws Exception if the summary file cannot be read
+     */
+    public synchronized boolean apply(CyNetwork network, File summaryFile, String sample) throws Exception {
+        if (summaryFile == null || !summaryFile.exists())
+            return false;
+        NodePSFIndex index = NodePSFIndex.get(summaryFile);
+        double[] scores = index.getScores(sample);
+        if (scores == null)
+            return false;
+
+        String[] nodeNames = index.getNodeNames();
+        CyNode[] cyNodes = new CyNode[nodeNames.length];
+        boolean found = false;
+        for (int i = 0; i < nodeNames.length; i++) {
+            cyNodes[i] = TMMActivator.cyNodeIndex.getNode(network, nodeNames[i]);
+            found |= cyNodes[i] != null;
+        }
+        // the summary file is of another network
+        if (!found)
+            return false;
+
+        CyTable nodeTable = network.getDefaultNodeTable();
+        CyManager.getOrCreateAttributeColumn(nodeTable, PSFCOLUMN, Double.class);
+        for (int i = 0; i < cyNodes.length; i++) {
+            if (cyNodes[i] != null)
+                nodeTable.getRow(cyNodes[i].getSUID()).set(PSFCOLUMN, Double.isNaN(scores[i]) ? null : scores[i]);
+        }
+
+        VisualStyle style = getVisualStyle(index);
+        for (CyNetworkView view : TMMActivator.networkViewManager.getNetworkViews(network)) {
+            TMMActivator.visualMappingManager.setVisualStyle(style, view);
+            style.apply(view);
+            view.updateView();
+        }
+        return true;
+    }
+
+    private VisualStyle getVisualStyle(NodePSFIndex index) {
+        boolean registered = visualStyle != null
+                && TMMActivator.visualMappingManager.getAllVisualStyles().contains(visualStyle);
+        if (registered && styleIndex == index)
+            return visualStyle;
+        if (!registered) {
+            visualStyle = null;
+            for (VisualStyle style : TMMActivator.visualMappingManager.getAllVisualStyles())
+                if (STYLETITLE.equals(style.getTitle()))
+                    visualStyle = style;
+            if (visualStyle == null) {
+                visualStyle = TMMActivator.visualStyleFactory.createVisualStyle(
+                        TMMActivator.visualMappingManager.getDefaultVisualStyle());
+                visualStyle.setTitle(STYLETITLE);
+                TMMActivator.visualMappingManager.addVisualStyle(visualStyle);
+            }
+        }
+        // scores below 1 are colored blue and above 1 red
+        double[] range = index.getScoreRange();
+        double min = Math.min(range[0], 0.5);
+        double max = Math.max(range[1], 2);
+        ContinuousMapping<Double, Paint> mapping = (ContinuousMapping<Double, Paint>)
+                TMMActivator.vmfFactoryC.createVisualMappingFunction(PSFCOLUMN, Double.class,
+                        BasicVisualLexicon.NODE_FILL_COLOR);
+        mapping.addPoint(min, new BoundaryRangeValues<Paint>(Color.BLUE, Color.BLUE, Color.BLUE));
+        mapping.addPoint(1.0, new BoundaryRangeValues<Paint>(Color.WHITE, Color.WHITE, Color.WHITE));
+        mapping.addPoint(max, new BoundaryRangeValues<Paint>(Color.RED, Color.RED, Color.RED));
+        visualStyle.addVisualMappingFunction(mapping);
+        styleIndex = index;
+        return visualStyle;
+    }
+}
@@ -33,22 +33,22 @@ public class TMMPanel extends JPanel implements CytoPanelComponent {
     private File expMatFile = null;
     private File parentDir = null;
     private String iterationTitle = "Untitled_iteration";
-    private ArrayList<String> samples;
-    private File fcFile;
+    private volatile ArrayList<String> samples;
+    private volatile File fcFile;
     private int bootCycles;
-    private boolean runPSFDone;
-    private boolean addFCDone;
-    private boolean generateReportDone;
-    private File summaryFile;
-    private File reportFile;
+    private volatile boolean runPSFDone;
+    private volatile boolean addFCDone;
+    private volatile boolean generateReportDone;
+    private volatile File summaryFile;
+    private volatile File reportFile;
     private File tmmLabelsFile = null;
     private File groupLabelsFile = null;
     private File groupColorsFile = null;
     private boolean isGroupLabelsSet = false;
     private GroupLabels groupLabels = null;
     private ExpMatFileHandler expMatFileHandler;
-    private boolean expMatFileValid = false;
-    private ParsedFilesDirectory parsedFilesDirectory;
+    private volatile boolean expMatFileValid = false;
+    private volatile ParsedFilesDirectory parsedFilesDirectory;
     private boolean editingInput = true;
     private ImageIcon refreshIcon;
     private ImageIcon tmmLogo;
@@ -110,6 +110,17 @@ public class TMMPanel extends JPanel implements CytoPanelComponent {
                 message, "TMM message dialog", option);
     }
 
+    /**
+     * Runs the update of the components on the Event Dispatch Thread: at once if called from it,
+     * later otherwise, e.g. from the pipeline tasks.
+     */
+    private void runOnEDT(Runnable runnable) {
+        if (SwingUtilities.isEventDispatchThread())
+            runnable.run();
+        else
+            SwingUtilities.invokeLater(runnable);
+    }
+
     private int showConfirmDialog(String message, int option) {
         int answer = JOptionPane.showConfirmDialog(TMMActivator.cytoscapeDesktopService.getJFrame(),
                 message, "TMM message dialog", option);
@@ -233,40 +244,55 @@ public class TMMPanel extends JPanel implements CytoPanelComponent {
         return Integer.parseInt(jtxt_bootCycles.getText());
     }
 
-    public void setRunPSFDone(boolean runPSFDone) {
+    public void setRunPSFDone(final boolean runPSFDone) {
         this.runPSFDone = runPSFDone;
-        if (runPSFDone)
-            jb_runPSF.setBorder(BorderFactory.createLineBorder(myGreen));
-        else
-            jb_runPSF.setBorder(BorderFactory.createLineBorder(new Color(21, 140, 186)));
+        runOnEDT(new Runnable() {
+            @Override
+            public void run() {
+                if (runPSFDone)
+                    jb_runPSF.setBorder(BorderFactory.createLineBorder(myGreen));
+                else
+                    jb_runPSF.setBorder(BorderFactory.createLineBorder(new Color(21, 140, 186)));
+            }
+        });
     }
 
-    public void setAddFCDone(boolean addFCDone) {
+    public void setAddFCDone(final boolean addFCDone) {
         this.addFCDone = addFCDone;
-        if (addFCDone)
-            jb_addFC.setBorder(BorderFactory.createLineBorder(myGreen));
-        else
-            jb_addFC.setBorder(BorderFactory.createLineBorder(myBlue));
-//            jb_addFC.setBackground(new Color(21, 140, 186));
+        runOnEDT(new Runnable() {
+            @Override
+            public void run() {
+                if (addFCDone)
+                    jb_addFC.setBorder(BorderFactory.createLineBorder(myGreen));
+                else
+                    jb_addFC.setBorder(BorderFactory.createLineBorder(myBlue));
+//                    jb_addFC.setBackground(new Color(21, 140, 186));
+            }
+        });
     }
 
     public boolean isGenerateReportDone() {
         return generateReportDone;
     }
 
-    public void setGenerateReportDone(boolean generateReportDone) {
+    public void setGenerateReportDone(final boolean generateReportDone) {
         this.generateReportDone = generateReportDone;
-        if (generateReportDone) {
-            jb_generateReport.setBorder(BorderFactory.createLineBorder(myGreen));
-//            jb_generateReport.setBackground(new Color(0, 188, 49));
-            jb_runAll.setBorder(BorderFactory.createLineBorder(myGreen));
-//            jb_runAll.setBackground(new Color(0, 188, 49));
-        } else {
-            jb_generateReport.setBorder(BorderFactory.createLineBorder(myBlue));
-//            jb_generateReport.setBackground(new Color(21, 140, 186));
-            jb_runAll.setBorder(BorderFactory.createLineBorder(myBlue));
-//            jb_runAll.setBackground(new Color(21, 140, 186));
-        }
+        runOnEDT(new Runnable() {
+            @Override
+            public void run() {
+                if (generateReportDone) {
+                    jb_generateReport.setBorder(BorderFactory.createLineBorder(myGreen));
+//                    jb_generateReport.setBackground(new Color(0, 188, 49));
+                    jb_runAll.setBorder(BorderFactory.createLineBorder(myGreen));
+//                    jb_runAll.setBackground(new Color(0, 188, 49));
+                } else {
+                    jb_generateReport.setBorder(BorderFactory.createLineBorder(myBlue));
+//                    jb_generateReport.setBackground(new Color(21, 140, 186));
+                    jb_runAll.setBorder(BorderFactory.createLineBorder(myBlue));
+//                    jb_runAll.setBackground(new Color(21, 140, 186));
+                }
+            }
+        });
     }
 
     public boolean isRunPSFDone() {
@@ -278,6 +304,15 @@ public class TMMPanel extends JPanel implements CytoPanelComponent {
     }
 
     public void enableButtons() {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    enableButtons();
+                }
+            });
+            return;
+        }
         boolean enable = true;
         boolean inputsValid = true;
 
@@ -907,25 +942,23 @@ public class TMMPanel extends JPanel implements CytoPanelComponent {
         if (getCurrentNetwork() == null)
             showMessageDialog("No network loaded. Please, import a TMM network first. " +
                     "\n You may download it from the project webpage. ", JOptionPane.ERROR_MESSAGE);
-        ParseInputFilesAction parseInputFilesAction =
+        final ParseInputFilesAction parseInputFilesAction =
                 new ParseInputFilesAction("Parsing input files", this, e);
-        parseInputFilesAction.actionPerformed(e);
-        while (!parseInputFilesAction.isFinished()) {
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException e1) {
-                e1.printStackTrace();
+        // the inputs are validated by the parsing task; the panel is updated when it finishes
+        parseInputFilesAction.setOnFinished(new Runnable() {
+            @Override
+            public void run() {
+                if (!parseInputFilesAction.isAllValid()) {
+                    editingInput = true;
+                    showMessageDialog("One or more inputs (highlighted in red) were not valid\n\n" +
+                            "Hover over the buttons/labels to see the problem.", JOptionPane.ERROR_MESSAGE);
+                } else
+                    editingInput = false;
+                enableButtons();
             }
-        }
-
-        if (!parseInputFilesAction.isAllValid()) {
-            editingInput = true;
-            showMessageDialog("One or more inputs (highlighted in red) were not valid\n\n" +
-                    "Hover over the buttons/labels to see the problem.", JOptionPane.ERROR_MESSAGE);
-        } else
-            editingInput = false;
-        enableButtons();
-
+        });
+        jb_done.setEnabled(false);
+        parseInputFilesAction.actionPerformed(e);
     }
 
     private void jrb_predictionModeActionPerformed() {
@@ -1323,37 +1356,65 @@ public class TMMPanel extends JPanel implements CytoPanelComponent {
     }
 
 
-    private void jb_chooseTMMLabelsActionPerformed(ActionEvent e) {
+    private void jb_chooseTMMLabelsActionPerformed(final ActionEvent e) {
         if (samples == null) {
-            RunPipelineAction runPipelineAction = new RunPipelineAction("Parsing input files",
-                    this, false, false, false);
-            runPipelineAction.actionPerformed(e);
-            while (runPipelineAction.parsing()) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e1) {
-                    e1.printStackTrace();
+            // the samples are parsed first; the file is chosen when the parsing finishes
+            final ParseInputFilesAction parseInputFilesAction =
+                    new ParseInputFilesAction("Parsing input files", this, e);
+            parseInputFilesAction.setOnFinished(new Runnable() {
+                @Override
+                public void run() {
+                    if (samples == null)
+                        showMessageDialog("Could not parse the samples of the expression matrix. " +
+                                "Check the inputs and try again.", JOptionPane.ERROR_MESSAGE);
+                    else
+                        chooseTMMLabelsFile(e);
                 }
-            }
-        }
+            });
+            parseInputFilesAction.actionPerformed(e);
+        } else
+            chooseTMMLabelsFile(e);
+    }
+
+    /**
+     * Lets the user choose the TMM labels file and validates it against the samples off the Event Dispatch Thread.
+     */
+    private void chooseTMMLabelsFile(ActionEvent e) {
         OpenFileChooserAction openFileChooserAction =
                 new OpenFileChooserAction("Select TMM Labels file", false);
         openFileChooserAction.actionPerformed(e);
-        File chosenFile = openFileChooserAction.getSelectedFile();
+        final File chosenFile = openFileChooserAction.getSelectedFile();
         if (chosenFile == null)
             return;
-        String valid = TMMLabels.isLabelsFileValid(chosenFile, samples);
-        if (valid.equals("true")) {
-            tmmLabelsFile = chosenFile;
-            setTmmLabelsFile(tmmLabelsFile);
-            enableButtons();
-        } else {
-            showMessageDialog("TMM Labels file is not valid: \n"
-                            + valid + "\nFile:" + chosenFile.getAbsolutePath(),
-                    JOptionPane.ERROR_MESSAGE);
-            setTmmLabelsFile(null);
-            jl_tmmLabelsFile.setToolTipText("File was not valid: " + valid);
-        }
+        final ArrayList<String> chosenSamples = samples;
+        jb_chooseTMMLabels.setEnabled(false);
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() throws Exception {
+                return TMMLabels.isLabelsFileValid(chosenFile, chosenSamples);
+            }
+
+            @Override
+            protected void done() {
+                String valid;
+                try {
+                    valid = get();
+                } catch (Exception e1) {
+                    valid = String.valueOf(e1.getCause() != null ? e1.getCause().getMessage() : e1.getMessage());
+                }
+                if (valid.equals("true")) {
+                    tmmLabelsFile = chosenFile;
+                    setTmmLabelsFile(tmmLabelsFile);
+                } else {
+                    showMessageDialog("TMM Labels file is not valid: \n"
+                                    + valid + "\nFile:" + chosenFile.getAbsolutePath(),
+                            JOptionPane.ERROR_MESSAGE);
+                    setTmmLabelsFile(null);
+                    jl_tmmLabelsFile.setToolTipText("File was not valid: " + valid);
+                }
+                enableButtons();
+            }
+        }.execute();
     }
 
     private void jb_editTMMLabelsActionPerformed(ActionEvent e) {
@@ -0,0 +1,233 @@
+package org.cytoscape.tmm.processing;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Public class BgzfInputStream
+ * <p>
+ * Decompresses BGZF (blocked gzip, as produced by bgzip) files.
+ * Each BGZF block is an independent gzip member of at most 64KB, with its compressed size
+ * stored in the "BC" extra subfield. The compressed blocks are read sequentially,
+ * inflated in parallel on a thread pool, and handed out in the file order.
+ */
+public class BgzfInputStream extends InputStream {
+    private static final int HEADERSIZE = 12;
+    private static final int TRAILERSIZE = 8;
+    private static final int BLOCKSPERTHREAD = 4;
+
+    private final InputStream in;
+    private final ExecutorService executor;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int readAhead;
+    private final byte[] header = new byte[HEADERSIZE];
+    private byte[] current = new byte[0];
+    private int currentPosition = 0;
+    private boolean endOfInput = false;
+
+    /**
+     * @param file       the BGZF file
+     * @param numThreads the number of threads to inflate blocks with
+     * @throws IOException
+     */
+    public BgzfInputStream(File file, int numThreads) throws IOException {
+        if (numThreads < 1)
+            numThreads = Runtime.getRuntime().availableProcessors();
+        this.in = new BufferedInputStream(new FileInputStream(file), 1 << 20);
+        this.readAhead = numThreads * BLOCKSPERTHREAD;
+        this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TMM BGZF inflater");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Checks if the file starts with a gzip header carrying the BGZF "BC" extra subfield.
+     *
+     * @param file the file to check
+     * @return true if the file is BGZF compressed
+     * @throws IOException
+     */
+    public static boolean isBgzf(File file) throws IOException {
+        byte[] bytes = new byte[HEADERSIZE + 6];
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            int read = 0;
+            int n;
+            while (read < bytes.length && (n = stream.read(bytes, read, bytes.length - read)) > 0)
+                read += n;
+            if (read < bytes.length)
+                return false;
+        } finally {
+            stream.close();
+        }
+        return (bytes[0] & 0xff) == 0x1f && (bytes[1] & 0xff) == 0x8b && bytes[2] == 8
+                && (bytes[3] & 4) != 0 && unsignedShort(bytes, 10) >= 6
+                && bytes[12] == 'B' && bytes[13] == 'C' && unsignedShort(bytes, 14) == 2;
+    }
+
+    @Override
+    public int read() throws IOException {
+        // empty blocks, such as the end-of-file block, are skipped
+        while (currentPosition == current.length) {
+            if (!nextBlock())
+                return -1;
+        }
+        return current[currentPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (currentPosition == current.length) {
+            if (!nextBlock())
+                return -1;
+        }
+        int n = Math.min(len, current.length - currentPosition);
+        System.arraycopy(current, currentPosition, b, off, n);
+        currentPosition += n;
+        return n;
+    }
+
+    /**
+     * Submits compressed blocks for inflation until the read-ahead window is full,
+     * then takes the next inflated block in the file order.
+     *
+     * @return false if there are no more blocks
+     * @throws IOException
+     */
+    private boolean nextBlock() throws IOException {
+        while (!endOfInput && pending.size() < readAhead) {
+            Callable<byte[]> block = readCompressedBlock();
+            if (block == null)
+                endOfInput = true;
+            else
+                pending.add(executor.submit(block));
+        }
+        Future<byte[]> next = pending.poll();
+        if (next == null)
+            return false;
+        try {
+            current = next.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while inflating BGZF block", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not inflate BGZF block: "
+                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()), e);
+        }
+        currentPosition = 0;
+        return true;
+    }
+
+    /**
+     * Reads the next BGZF block from the file.
+     *
+     * @return a task inflating the block, or null at the end of the file
+     * @throws IOException if the block is not a valid BGZF block
+     */
+    private Callable<byte[]> readCompressedBlock() throws IOException {
+        int first = in.read();
+        if (first < 0)
+            return null;
+        header[0] = (byte) first;
+        readFully(header, 1, HEADERSIZE - 1);
+        if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8 || (header[3] & 4) == 0)
+            throw new IOException("Invalid BGZF block header");
+        int xlen = unsignedShort(header, 10);
+        byte[] extra = new byte[xlen];
+        readFully(extra, 0, xlen);
+        int blockSize = -1;
+        for (int i = 0; i + 4 <= xlen; ) {
+            int slen = unsignedShort(extra, i + 2);
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && slen == 2 && i + 6 <= xlen)
+                blockSize = unsignedShort(extra, i + 4) + 1;
+            i += 4 + slen;
+        }
+        if (blockSize < 0)
+            throw new IOException("BGZF block without BC subfield");
+        int remaining = blockSize - HEADERSIZE - xlen;
+        if (remaining < TRAILERSIZE)
+            throw new IOException("Invalid BGZF block size " + blockSize);
+        final byte[] data = new byte[remaining];
+        readFully(data, 0, remaining);
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return inflate(data);
+            }
+        };
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        int compressedSize = data.length - TRAILERSIZE;
+        long crc = unsignedInt(data, compressedSize);
+        int size = (int) unsignedInt(data, compressedSize + 4);
+        byte[] out = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, 0, compressedSize);
+            int n = 0;
+            while (n < size) {
+                int inflated = inflater.inflate(out, n, size - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("BGZF block ended after " + n + " of " + size + " bytes");
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF block: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(out, 0, size);
+        if (crc32.getValue() != crc)
+            throw new IOException("BGZF block CRC mismatch");
+        return out;
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(b, off, len);
+            if (n < 0)
+                throw new EOFException("Unexpected end of BGZF file");
+            off += n;
+            len -= n;
+        }
+    }
+
+    private static int unsignedShort(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8);
+    }
+
+    private static long unsignedInt(byte[] b, int i) {
+        return ((long) unsignedShort(b, i)) | ((long) unsignedShort(b, i + 2) << 16);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : pending)
+            future.cancel(true);
+        pending.clear();
+        executor.shutdownNow();
+        in.close();
+    }
+}
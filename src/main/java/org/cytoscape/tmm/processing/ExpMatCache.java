@@ -0,0 +1,491 @@
+package org.cytoscape.tmm.processing;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Public class ExpMatCache
+ * <p>
+ * Binary cache of a parsed expression matrix: the header, the sample names and,
+ * for every gene row of the matrix, its FC values (the values divided by the row mean).
+ * The file is keyed by the size, the modification time and a sampled CRC32 of the matrix,
+ * so that a changed matrix is parsed again.
+ * <p>
+ * Layout: a header (key, header line, samples), then row groups in the order of the matrix rows,
+ * then a footer with the header length and the offsets of the groups, and a trailer with the footer offset.
+ * Each row group holds the gene IDs, a flag per row (valid, contains NA, invalid),
+ * the error messages of the invalid rows and the FC values stored column by column.
+ * The values are memory-mapped on loading. The caches of a cache directory are bounded in size
+ * by evicting the least recently used ones.
+ */
+public class ExpMatCache {
+    public static final String EXTENSION = ".tmmcache";
+
+    private static final long MAGIC = 0x544D4D4341434831L; // TMMCACH1
+    private static final int VERSION = 1;
+    private static final int HASHWINDOWS = 16;
+    private static final int HASHWINDOWSIZE = 1 << 16;
+    private static final int TRAILERSIZE = 16;
+    private static final byte VALID = 0;
+    private static final byte NAFOUND = 1;
+    private static final byte INVALID = 2;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final File cacheFile;
+    private String headerLine;
+    private ArrayList<String> samples;
+    private ArrayList<RowGroup> groups = new ArrayList<>();
+    private boolean naWarning = false;
+
+    private ExpMatCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Returns the cache file of the matrix: a file in the cache directory named after the matrix
+     * and its path, or a file next to the matrix if the directory is null.
+     *
+     * @param expMatFile the expression matrix file
+     * @param cacheDir   the cache directory or null
+     * @return the cache file
+     */
+    public static File getCacheFile(File expMatFile, File cacheDir) {
+        if (cacheDir == null)
+            return new File(expMatFile.getAbsolutePath() + EXTENSION);
+        return new File(cacheDir, expMatFile.getName() + "_"
+                + Integer.toHexString(expMatFile.getAbsolutePath().hashCode()) + EXTENSION);
+    }
+
+    /**
+     * Loads the cache of the matrix.
+     *
+     * @param expMatFile the expression matrix file
+     * @param cacheFile  the cache file
+     * @return the cache, or null if there is no valid cache for the current content of the matrix
+     */
+    public static ExpMatCache open(File expMatFile, File cacheFile) {
+        if (!cacheFile.exists() || cacheFile.length() < TRAILERSIZE)
+            return null;
+        ExpMatCache cache = new ExpMatCache(cacheFile);
+        try {
+            if (!cache.load(expMatFile))
+                return null;
+        } catch (Exception e) {
+            System.out.println("Could not load expression matrix cache " + cacheFile.getAbsolutePath()
+                    + ": " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+            return null;
+        }
+        // the modification time of a cache is the time it was last used, for evict()
+        cacheFile.setLastModified(System.currentTimeMillis());
+        return cache;
+    }
+
+    /**
+     * Deletes the least recently used cache files of the directory, other than the kept one,
+     * until the cache files take at most maxBytes. The kept file is counted, but never deleted.
+     *
+     * @param cacheDir the cache directory
+     * @param maxBytes the size limit of the cache files in the directory
+     * @param keep     the cache file in use
+     * @return the size of the remaining cache files
+     */
+    public static long evict(File cacheDir, long maxBytes, File keep) {
+        File[] files = cacheDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(EXTENSION);
+            }
+        });
+        if (files == null)
+            return 0;
+        // oldest first; the times are read once, as deleting does not change them
+        final HashMap<File, Long> lastModified = new HashMap<>();
+        long total = 0;
+        for (File file : files) {
+            lastModified.put(file, file.lastModified());
+            total += file.length();
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(lastModified.get(f1), lastModified.get(f2));
+            }
+        });
+        for (File file : files) {
+            if (total <= maxBytes)
+                break;
+            if (file.getAbsoluteFile().equals(keep.getAbsoluteFile()))
+                continue;
+            long length = file.length();
+            if (file.delete())
+                total -= length;
+        }
+        return total;
+    }
+
+    private boolean load(File expMatFile) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(cacheFile, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long fileSize = channel.size();
+            ByteBuffer trailer = read(channel, fileSize - TRAILERSIZE, TRAILERSIZE);
+            long footerOffset = trailer.getLong();
+            if (trailer.getLong() != MAGIC || footerOffset < 0 || footerOffset > fileSize - TRAILERSIZE)
+                return false;
+
+            ByteBuffer footer = read(channel, footerOffset, (int) (fileSize - TRAILERSIZE - footerOffset));
+            int headerLength = footer.getInt();
+            ByteBuffer header = read(channel, 0, headerLength);
+            if (header.getLong() != MAGIC || header.getInt() != VERSION)
+                return false;
+            if (header.getLong() != expMatFile.length() || header.getLong() != expMatFile.lastModified()
+                    || header.getLong() != fingerprint(expMatFile))
+                return false;
+            headerLine = getString(header);
+            int numSamples = header.getInt();
+            samples = new ArrayList<>(numSamples);
+            for (int j = 0; j < numSamples; j++)
+                samples.add(getString(header));
+
+            int numGroups = footer.getInt();
+            for (int g = 0; g < numGroups; g++) {
+                long metaOffset = footer.getLong();
+                int metaLength = footer.getInt();
+                long dataOffset = footer.getLong();
+                int numRows = footer.getInt();
+                RowGroup group = new RowGroup(numRows);
+                ByteBuffer meta = read(channel, metaOffset, metaLength);
+                for (int r = 0; r < numRows; r++)
+                    group.genes[r] = getString(meta);
+                meta.get(group.flags);
+                for (int r = 0; r < numRows; r++)
+                    if (group.flags[r] == INVALID)
+                        group.errors.put(r, getString(meta));
+                if (numRows > 0)
+                    group.values = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset,
+                            (long) numRows * numSamples * 8).asDoubleBuffer();
+                groups.add(group);
+            }
+            return true;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    public String getHeaderLine() {
+        return headerLine;
+    }
+
+    public ArrayList<String> getSamples() {
+        return samples;
+    }
+
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    public boolean isNaWarning() {
+        return naWarning;
+    }
+
+    /**
+     * Returns the first column of the matrix: the first token of the header and the gene IDs of the rows.
+     * Rows with empty, "0" or "NA" IDs are not cached.
+     */
+    public ArrayList<String> getFirstColumn() {
+        ArrayList<String> firstColumn = new ArrayList<>();
+        int tab = headerLine.indexOf('\t');
+        firstColumn.add(tab < 0 ? headerLine : headerLine.substring(0, tab));
+        for (RowGroup group : groups)
+            for (String gene : group.genes)
+                firstColumn.add(gene);
+        return firstColumn;
+    }
+
+    /**
+     * Builds the FC matrix of the nodes from the cached rows, as ExpMatParser.readFCMatrix() would.
+     * The rows are replayed in the order of the matrix, and the error of the first invalid row
+     * mapped to a node is thrown.
+     *
+     * @param geneNodeIndices gene ID -> indices of the nodes (rows of the FC matrix) mapped to that gene
+     * @param numNodes        the number of nodes
+     * @param floatPrecision  whether the FC matrix should store the values as floats
+     * @return the FC matrix: nodes x samples
+     * @throws Exception the error of the first invalid row mapped to a node
+     */
+    public FCMatrix readFCMatrix(HashMap<String, ArrayList<Integer>> geneNodeIndices,
+                                 int numNodes, boolean floatPrecision) throws Exception {
+        int numSamples = samples.size();
+        FCMatrix fcMatrix = new FCMatrix(numNodes, numSamples, floatPrecision);
+        naWarning = false;
+        for (RowGroup group : groups) {
+            // the mapped rows are collected first and filled column by column, reading the mapped columns sequentially
+            ArrayList<Integer> rows = new ArrayList<>();
+            for (int r = 0; r < group.genes.length; r++) {
+                ArrayList<Integer> indices = geneNodeIndices.get(group.genes[r]);
+                if (indices == null)
+                    continue;
+                if (group.flags[r] == INVALID)
+                    throw new Exception(group.errors.get(r));
+                if (group.flags[r] == NAFOUND)
+                    naWarning = true;
+                rows.add(r);
+            }
+            int numRows = group.genes.length;
+            for (int j = 0; j < numSamples; j++) {
+                int columnStart = j * numRows;
+                for (int r : rows) {
+                    double value = group.values.get(columnStart + r);
+                    for (int i : geneNodeIndices.get(group.genes[r]))
+                        fcMatrix.set(i, j, value);
+                }
+            }
+        }
+        return fcMatrix;
+    }
+
+    /**
+     * Creates a writer of the cache of the matrix. The key of the matrix is computed at this point.
+     *
+     * @param cacheFile  the cache file
+     * @param expMatFile the expression matrix file
+     * @param headerLine the header line of the matrix
+     * @param samples    the sample names
+     * @return the writer
+     * @throws IOException
+     */
+    public static Writer create(File cacheFile, File expMatFile, String headerLine,
+                                ArrayList<String> samples) throws IOException {
+        return new Writer(cacheFile, expMatFile, headerLine, samples);
+    }
+
+    /**
+     * Computes a CRC32 of the size of the file and of evenly spaced windows of its content.
+     *
+     * @param file the file
+     * @return the fingerprint
+     * @throws IOException
+     */
+    public static long fingerprint(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            long size = randomAccessFile.length();
+            byte[] window = new byte[HASHWINDOWSIZE];
+            long step = Math.max(HASHWINDOWSIZE, size / HASHWINDOWS);
+            for (long offset = 0; offset < size; offset += step) {
+                randomAccessFile.seek(offset);
+                int n = (int) Math.min(HASHWINDOWSIZE, size - offset);
+                randomAccessFile.readFully(window, 0, n);
+                crc.update(window, 0, n);
+            }
+            if (size > HASHWINDOWSIZE) {
+                int n = HASHWINDOWSIZE;
+                randomAccessFile.seek(size - n);
+                randomAccessFile.readFully(window, 0, n);
+                crc.update(window, 0, n);
+            }
+            return crc.getValue() ^ (size << 32);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0)
+                throw new IOException("Unexpected end of cache file");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    private static class RowGroup {
+        private final String[] genes;
+        private final byte[] flags;
+        private final HashMap<Integer, String> errors = new HashMap<>();
+        private DoubleBuffer values;
+
+        private RowGroup(int numRows) {
+            genes = new String[numRows];
+            flags = new byte[numRows];
+        }
+    }
+
+    /**
+     * Writes the cache into a temporary file, which replaces the cache file on close().
+     * Row groups should be written in the order of the matrix rows.
+     */
+    public static class Writer {
+        private final File cacheFile;
+        private final File tempFile;
+        private final int numSamples;
+        private final RandomAccessFile randomAccessFile;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        private final ArrayList<long[]> groupOffsets = new ArrayList<>();
+        private final int headerLength;
+
+        private Writer(File cacheFile, File expMatFile, String headerLine,
+                       ArrayList<String> samples) throws IOException {
+            this.cacheFile = cacheFile;
+            File dir = cacheFile.getAbsoluteFile().getParentFile();
+            if (!dir.exists() && !dir.mkdirs())
+                throw new IOException("Could not create directory " + dir.getAbsolutePath());
+            this.tempFile = new File(dir, cacheFile.getName() + ".tmp");
+            this.numSamples = samples.size();
+            this.randomAccessFile = new RandomAccessFile(tempFile, "rw");
+            randomAccessFile.setLength(0);
+            this.channel = randomAccessFile.getChannel();
+            putLong(MAGIC);
+            putInt(VERSION);
+            putLong(expMatFile.length());
+            putLong(expMatFile.lastModified());
+            putLong(fingerprint(expMatFile));
+            putString(headerLine);
+            putInt(numSamples);
+            for (String sample : samples)
+                putString(sample);
+            headerLength = (int) position();
+        }
+
+        /**
+         * Writes a group of rows.
+         *
+         * @param genes  the gene IDs of the rows
+         * @param rowFC  the FC values of the rows, null for invalid rows
+         * @param errors the error messages of the invalid rows, null for valid rows
+         * @param rowNA  whether the rows contained NA values
+         * @throws IOException
+         */
+        public void writeGroup(ArrayList<String> genes, ArrayList<double[]> rowFC,
+                               ArrayList<String> errors, ArrayList<Boolean> rowNA) throws IOException {
+            int numRows = genes.size();
+            long metaOffset = position();
+            for (String gene : genes)
+                putString(gene);
+            for (int r = 0; r < numRows; r++)
+                put(rowFC.get(r) == null ? INVALID : (rowNA.get(r) ? NAFOUND : VALID));
+            for (int r = 0; r < numRows; r++)
+                if (rowFC.get(r) == null)
+                    putString(errors.get(r));
+            long metaLength = position() - metaOffset;
+            while (position() % 8 != 0)
+                put((byte) 0);
+            long dataOffset = position();
+            for (int j = 0; j < numSamples; j++) {
+                for (int r = 0; r < numRows; r++) {
+                    double[] fc = rowFC.get(r);
+                    putDouble(fc == null ? 0 : fc[j]);
+                }
+            }
+            groupOffsets.add(new long[]{metaOffset, metaLength, dataOffset, numRows});
+        }
+
+        /**
+         * Writes the footer and replaces the cache file with the written file.
+         *
+         * @throws IOException
+         */
+        public void close() throws IOException {
+            long footerOffset = position();
+            putInt(headerLength);
+            putInt(groupOffsets.size());
+            for (long[] offsets : groupOffsets) {
+                putLong(offsets[0]);
+                putInt((int) offsets[1]);
+                putLong(offsets[2]);
+                putInt((int) offsets[3]);
+            }
+            putLong(footerOffset);
+            putLong(MAGIC);
+            flush();
+            channel.force(false);
+            randomAccessFile.close();
+            if (cacheFile.exists() && !cacheFile.delete())
+                throw new IOException("Could not delete " + cacheFile.getAbsolutePath());
+            if (!tempFile.renameTo(cacheFile))
+                throw new IOException("Could not rename " + tempFile.getAbsolutePath()
+                        + " to " + cacheFile.getAbsolutePath());
+        }
+
+        /**
+         * Discards the written file.
+         */
+        public void abort() {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            tempFile.delete();
+        }
+
+        private long position() throws IOException {
+            return channel.position() + buffer.position();
+        }
+
+        private void ensure(int n) throws IOException {
+            if (buffer.remaining() < n)
+                flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        private void put(byte b) throws IOException {
+            ensure(1);
+            buffer.put(b);
+        }
+
+        private void putInt(int i) throws IOException {
+            ensure(4);
+            buffer.putInt(i);
+        }
+
+        private void putLong(long l) throws IOException {
+            ensure(8);
+            buffer.putLong(l);
+        }
+
+        private void putDouble(double d) throws IOException {
+            ensure(8);
+            buffer.putDouble(d);
+        }
+
+        private void putString(String s) throws IOException {
+            byte[] bytes = s.getBytes(CHARSET);
+            putInt(bytes.length);
+            int written = 0;
+            while (written < bytes.length) {
+                if (!buffer.hasRemaining())
+                    flush();
+                int n = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, n);
+                written += n;
+            }
+        }
+    }
+}
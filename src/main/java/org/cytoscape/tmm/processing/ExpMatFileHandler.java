@@ -18,21 +18,37 @@ public class ExpMatFileHandler {
     private final File expMatFile;
     private final File nodeTableFile;
     private String[] nodeTableHeader;
-    private double[][] fcMat;
+    private FCMatrix fcMatrix;
     private ArrayList<String> nodes;
-    private ArrayList<String> genes;
+    //geneNodeIndices: gene ID -> indices of the nodes (rows of fcMatrix) mapped to that gene
+    private HashMap<String, ArrayList<Integer>> geneNodeIndices;
     private int numSamples;
     private String headerLine;
     private ArrayList<String> samples;
+    //sampleIndices: sample name -> sample ordinal (column of fcMatrix), of the first column of the name
+    private HashMap<String, Integer> sampleIndices;
     private File fcMatFile;
-    private HashMap<String, HashMap<CyNode, Double>> samplesCyNodeFCValueMap;
+    //cyNodes: the CyNodes of the nodes, by node ordinal; resolved on first use
+    private CyNode[] cyNodes;
     private CyNetwork network;
+    private int numThreads = 1;
+    private boolean floatPrecision = false;
+    private File cacheFile;
+    private long cacheLimit = 0;
+    private boolean cacheWritten = false;
 
     public ExpMatFileHandler(File expMatFile, File nodeTableFile, File fcMatFile) {
+        this(expMatFile, nodeTableFile, fcMatFile, CyManager.getCurrentNetwork());
+    }
+
+    /**
+     * Creates a handler for the given network instead of the current one, e.g. in batch runs.
+     */
+    public ExpMatFileHandler(File expMatFile, File nodeTableFile, File fcMatFile, CyNetwork network) {
         this.expMatFile = expMatFile;
         this.nodeTableFile = nodeTableFile;
         this.fcMatFile = fcMatFile;
-        this.network = CyManager.getCurrentNetwork();
+        this.network = network;
     }
 
     /**
@@ -54,77 +70,29 @@ public class ExpMatFileHandler {
             throw new Exception("Exp Matrix file " + expMatFile.getAbsolutePath() + " does not exist");
         }
 
-        BufferedReader reader = new BufferedReader(new FileReader(expMatFile));
-        headerLine = reader.readLine();
-        String[] headerTokens = headerLine.split("\t");
-        if (headerTokens.length < 2)
-            throw new Exception("The exp mat file should contain at least two columns. " +
-                    "Only one token found in the header: " + headerTokens[0]
-                    + " . ExpMatfile: " + expMatFile.getAbsolutePath());
-
+        ExpMatParser parser = new ExpMatParser(expMatFile);
+        parser.setNumThreads(numThreads);
+        parser.setCacheFile(cacheFile);
+        parser.setFloatPrecision(floatPrecision);
+        parser.readHeader();
+        samples = parser.getSamples();
+        headerLine = parser.getHeaderLine();
+        numSamples = samples.size();
+        sampleIndices = new HashMap<>();
+        for (int j = numSamples - 1; j >= 0; j--)
+            sampleIndices.put(samples.get(j), j);
 
-        String header_geneID = headerTokens[0];
-        samples = new ArrayList<>();
-        for (int s = 1; s < headerTokens.length; s++) {
-            samples.add(headerTokens[s]);
-        }
-
-        numSamples = headerTokens.length - 1;
         boolean success = initFCMatFile();
         if (!success) {
             throw new Exception("A problem occured initiating the FC matrix");
         }
-        int n = 1;
-        boolean naWarning = false;
-        String line;
-        while ((line = reader.readLine()) != null) {
-            n++;
-            String[] tokens = line.split("\t");
-            if (tokens.length >= 1) {
-                String id = tokens[0];
-                if (genes.contains(id) && !id.equals("0") && !id.equals("NA") && !id.equals("")) {
-                    if (tokens.length != numSamples + 1)
-                        throw new Exception("Line " + n + " did not contain "
-                                + (numSamples + 1) + " elements. Expmatfile: " + expMatFile.getAbsolutePath());
-                    double sum = 0;
-                    ArrayList<Integer> indices = indicesOf(id, genes);
-                    for (int j = 0; j < numSamples; j++) {
-                        String t = tokens[j + 1];
-                        double value;
-                        try {
-                            if (t.equals("NA")) {
-                                value = 1;
-                                naWarning = true;
-                            } else
-                                value = Double.parseDouble(t);
-                        } catch (NumberFormatException e) {
-                            throw new NumberFormatException("Could not cast "
-                                    + t + " to double. File: " + expMatFile.getAbsolutePath()
-                                    + " . Line: " + n + ", element at: " + (j - 1));
-                        }
-                        if (value < 0)
-                            throw new Exception("Found a negative value " + value
-                                    + " at element" + j + 1 + ", at line: " + n + " in expMatFile: "
-                                    + expMatFile.getAbsolutePath());
-                        nodes.indexOf(id);
-                        for (int i : indices) {
-                            fcMat[i][j] = value;
-                        }
-                        sum += value;
-                    }
-                    double mean = sum / numSamples;
-                    for (int i : indices) {
-                        if (mean == 0) // this will be the case when all the values are 0
-                            for (int j = 0; j < numSamples; j++)
-                                fcMat[i][j] = 1;
-                        else
-                            for (int j = 0; j < numSamples; j++) {
-                                fcMat[i][j] = fcMat[i][j] / mean;
-                            }
-                    }
-                }
-            }
-        }
+        fcMatrix = parser.readFCMatrix(geneNodeIndices, nodes.size());
+        cyNodes = null;
+        cacheWritten = parser.isCacheWritten();
+        if (cacheWritten && cacheLimit > 0)
+            ExpMatCache.evict(cacheFile.getAbsoluteFile().getParentFile(), cacheLimit, cacheFile);
+        boolean naWarning = parser.isNaWarning();
+
         if (naWarning) {
             System.out.println("Warining: NAs found in expMatFile. Those were replaced with values of 1!");
             ;
@@ -138,36 +106,6 @@ public class ExpMatFileHandler {
             throw new Exception("Problem writing fc matrix to file: " + fcMatFile.getAbsolutePath()
                     + ". Reason: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
         }
-
-        // create CyNode-FC value map
-
-        samplesCyNodeFCValueMap = new HashMap<>();
-        for (int j = 0; j < fcMat[0].length; j++) {
-            String sample = samples.get(j);
-            HashMap<CyNode, Double> nodeFCValueMap = new HashMap<>();
-            for (int i = 0; i < fcMat.length; i++) {
-                String node = nodes.get(i);
-                CyNode cyNode = CyManager.getCyNodeFromName(node, CyManager.getCurrentNetwork());
-                nodeFCValueMap.put(cyNode, fcMat[i][j]);
-            }
-            samplesCyNodeFCValueMap.put(sample, nodeFCValueMap);
-        }
-
-    }
-
-    /**
-     * Finds all occurrences of an element in the list
-     *
-     * @param element
-     * @param list
-     * @return
-     */
-    private ArrayList<Integer> indicesOf(String element, ArrayList<String> list) {
-        ArrayList<Integer> indices = new ArrayList<>();
-        for (int i = 0; i < list.size(); i++)
-            if (list.get(i).equals(element))
-                indices.add(i);
-        return indices;
     }
 
     private void writeFCMatFile() throws Exception {
@@ -177,11 +115,11 @@ public class ExpMatFileHandler {
 
         PrintWriter writer = new PrintWriter(fcMatFile);
         writer.write(headerLine + "\n");
-        for (int i = 0; i < fcMat.length; i++) {
+        for (int i = 0; i < fcMatrix.getNumNodes(); i++) {
             writer.append(nodes.get(i));
-            for (int j = 0; j < fcMat[0].length; j++) {
+            for (int j = 0; j < fcMatrix.getNumSamples(); j++) {
                 writer.append("\t");
-                writer.append(fcMat[i][j] + "");
+                writer.append(fcMatrix.getString(i, j));
             }
             writer.append("\n");
         }
@@ -209,31 +147,106 @@ public class ExpMatFileHandler {
 
         int n = 1;
         nodes = new ArrayList<>();
-        genes = new ArrayList<String>();
+        geneNodeIndices = new HashMap<>();
         while ((line = reader.readLine()) != null) {
             n++;
             tokens = line.split(",");
             if (tokens.length != 3)
                 throw new Exception("Line " + n + " in node table file "
                         + nodeTableFile.getAbsolutePath() + " did not have three elements");
-            nodes.add(tokens[0]);
-            genes.add(tokens[1]);
-        }
-        fcMat = new double[n - 1][numSamples];
-        for (int i = 0; i < fcMat.length; i++) {
-            for (int j = 0; j < numSamples; j++) {
-                fcMat[i][j] = 1; //missing value
+            ArrayList<Integer> indices = geneNodeIndices.get(tokens[1]);
+            if (indices == null) {
+                indices = new ArrayList<>();
+                geneNodeIndices.put(tokens[1], indices);
             }
+            indices.add(nodes.size());
+            nodes.add(tokens[0]);
         }
+        reader.close();
         return true;
     }
 
+    /**
+     * Sets the number of threads used to parse the expression matrix.
+     * Values below 1 stand for the number of available processors.
+     *
+     * @param numThreads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Sets the file to cache the parsed expression matrix in. Null (default) disables caching.
+     *
+     * @param cacheFile
+     */
+    public void setCacheFile(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Sets the size limit of the cache files in the directory of the cache file, in bytes.
+     * When the cache is written, the least recently used other caches are deleted to keep within the limit.
+     * 0 (default) stands for no limit.
+     *
+     * @param cacheLimit
+     */
+    public void setCacheLimit(long cacheLimit) {
+        this.cacheLimit = cacheLimit;
+    }
+
+    /**
+     * Returns the cache file if it was written by processExpMat(), or null if it was loaded or caching is disabled.
+     */
+    public File getWrittenCacheFile() {
+        return cacheWritten ? cacheFile : null;
+    }
+
+    /**
+     * Sets whether the FC values should be kept in float precision (half of the memory).
+     * The FC file is then written with the rounded values too.
+     *
+     * @param floatPrecision
+     */
+    public void setFloatPrecision(boolean floatPrecision) {
+        this.floatPrecision = floatPrecision;
+    }
+
     public ArrayList<String> getSamples() {
         return samples;
     }
 
-    public HashMap<String, HashMap<CyNode, Double>> getSamplesCyNodeFCValueMap() {
-        return samplesCyNodeFCValueMap;
+    public FCMatrix getFCMatrix() {
+        return fcMatrix;
+    }
+
+    /**
+     * Returns a view of the FC values of the sample, indexed by node ordinal.
+     *
+     * @param sample the sample name
+     * @return the column view
+     * @throws Exception if the sample is not in the expression matrix
+     */
+    public FCMatrix.Column getFCColumn(String sample) throws Exception {
+        Integer j = sampleIndices == null ? null : sampleIndices.get(sample);
+        if (j == null)
+            throw new Exception("Sample " + sample + " not found in expMatFile " + expMatFile.getAbsolutePath());
+        return fcMatrix.getColumn(j);
+    }
+
+    /**
+     * Returns the CyNodes of the network, by node ordinal (the rows of the FC matrix).
+     * The CyNodes are looked up by name at the first call. Nodes not found in the network are null.
+     */
+    public CyNode[] getCyNodes() {
+        if (cyNodes == null) {
+            CyNode[] resolved = new CyNode[nodes.size()];
+            for (int i = 0; i < nodes.size(); i++)
+                resolved[i] = CyManager.getCyNodeFromName(nodes.get(i), network);
+            cyNodes = resolved;
+        }
+        return cyNodes;
     }
 
     public File getFCFile() {
@@ -241,18 +254,41 @@ public class ExpMatFileHandler {
     }
 
     public static ArrayList<String> getFirstColumn(File expMatFile) throws Exception {
+        return getFirstColumn(expMatFile, null);
+    }
+
+    /**
+     * Returns the first column of the expression matrix, from its cache if there is a valid one.
+     *
+     * @param expMatFile the expression matrix file
+     * @param cacheFile  the cache file of the matrix, or null
+     * @return the first column
+     * @throws Exception
+     */
+    public static ArrayList<String> getFirstColumn(File expMatFile, File cacheFile) throws Exception {
         if (expMatFile == null) {
             throw new Exception("Exp Matrix file not specified.");
         }
         if (!expMatFile.exists()) {
             throw new Exception("Exp Matrix file " + expMatFile.getAbsolutePath() + " does not exist");
         }
+        if (cacheFile != null) {
+            ExpMatCache cache = ExpMatCache.open(expMatFile, cacheFile);
+            if (cache != null)
+                return cache.getFirstColumn();
+        }
 
-        BufferedReader reader = new BufferedReader(new FileReader(expMatFile));
         ArrayList<String> samples = new ArrayList<>();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            samples.add(line.split("\t")[0]);
+        ExpMatTokenizer tokenizer = ExpMatTokenizer.open(expMatFile, 0);
+        try {
+            while (!tokenizer.atEnd()) {
+                int delimiter = tokenizer.readToken();
+                samples.add(tokenizer.tokenString());
+                if (delimiter == ExpMatTokenizer.TAB)
+                    tokenizer.skipLine();
+            }
+        } finally {
+            tokenizer.close();
         }
         return samples;
     }
@@ -0,0 +1,566 @@
+package org.cytoscape.tmm.processing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Public class ExpMatParser
+ * <p>
+ * Reads the header and the expression values of a tab delimited expression matrix
+ * and computes the FC matrix (the value of each gene divided by the mean of its row)
+ * for the nodes mapped to the genes of the matrix.
+ * <p>
+ * In parallel mode the rows following the header are split into line-aligned byte ranges,
+ * which are parsed on a fork-join pool into per-chunk partial results. The partial results
+ * are merged in the order of the chunks, so that the outcome does not depend on the number of threads.
+ * Gzip and BGZF compressed matrices cannot be split by byte ranges and are parsed as one chunk.
+ * <p>
+ * If a cache file is set, all the rows of the matrix are parsed once and stored in an ExpMatCache,
+ * from which the header and the FC matrix are read as long as the matrix does not change.
+ */
+public class ExpMatParser {
+    private static final long MINCHUNKSIZE = 1L << 22; // 4MB
+    private static final int CHUNKSPERTHREAD = 4;
+    private static final long MAXCACHECHUNKSIZE = 1L << 25; // 32MB
+    private static final int GROUPVALUES = 1 << 24; // values per cache row group when read sequentially
+
+    private final File expMatFile;
+    private int numThreads = 1;
+    private ArrayList<String> samples;
+    private String headerLine;
+    private long dataStart;
+    private boolean compressed = false;
+    private boolean naWarning = false;
+    private boolean floatPrecision = false;
+    private File cacheFile;
+    private ExpMatCache cache;
+    private boolean cacheWritten = false;
+
+    public ExpMatParser(File expMatFile) {
+        this.expMatFile = expMatFile;
+    }
+
+    /**
+     * Sets the number of threads for parsing. Values below 1 stand for the number of available processors.
+     *
+     * @param numThreads
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1)
+            numThreads = Runtime.getRuntime().availableProcessors();
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Sets whether the FC matrix should store the values as floats.
+     *
+     * @param floatPrecision
+     */
+    public void setFloatPrecision(boolean floatPrecision) {
+        this.floatPrecision = floatPrecision;
+    }
+
+    /**
+     * Sets the file to cache the parsed matrix in. Null (default) disables caching.
+     *
+     * @param cacheFile
+     */
+    public void setCacheFile(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Returns the loaded cache of the matrix, or null if the matrix was parsed from text without caching.
+     */
+    public ExpMatCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns true if the cache file was written by readFCMatrix(), rather than loaded.
+     */
+    public boolean isCacheWritten() {
+        return cacheWritten;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public ArrayList<String> getSamples() {
+        return samples;
+    }
+
+    public String getHeaderLine() {
+        return headerLine;
+    }
+
+    public boolean isNaWarning() {
+        return naWarning;
+    }
+
+    /**
+     * Reads the header line of the expression matrix and stores the sample names.
+     * Trailing empty tokens are dropped, as String.split() would do.
+     * If there is a valid cache of the matrix, the header is taken from it.
+     *
+     * @throws Exception if the file is empty or contains less than two columns
+     */
+    public void readHeader() throws Exception {
+        if (cacheFile != null) {
+            cache = ExpMatCache.open(expMatFile, cacheFile);
+            if (cache != null) {
+                samples = cache.getSamples();
+                headerLine = cache.getHeaderLine();
+                return;
+            }
+        }
+        ArrayList<String> headerTokens = new ArrayList<>();
+        compressed = ExpMatTokenizer.isCompressed(expMatFile);
+        ExpMatTokenizer tokenizer = ExpMatTokenizer.open(expMatFile, numThreads);
+        try {
+            if (tokenizer.atEnd())
+                throw new Exception("Exp Matrix file " + expMatFile.getAbsolutePath() + " is empty");
+            int delimiter;
+            do {
+                delimiter = tokenizer.readToken();
+                headerTokens.add(tokenizer.tokenString());
+            } while (delimiter == ExpMatTokenizer.TAB);
+            dataStart = tokenizer.getOffset();
+        } finally {
+            tokenizer.close();
+        }
+        while (!headerTokens.isEmpty() && headerTokens.get(headerTokens.size() - 1).equals(""))
+            headerTokens.remove(headerTokens.size() - 1);
+
+        if (headerTokens.size() < 2)
+            throw new Exception("The exp mat file should contain at least two columns. " +
+                    "Only one token found in the header: " + (headerTokens.isEmpty() ? "" : headerTokens.get(0))
+                    + " . ExpMatfile: " + expMatFile.getAbsolutePath());
+
+        samples = new ArrayList<>();
+        StringBuilder header = new StringBuilder(headerTokens.get(0));
+        for (int s = 1; s < headerTokens.size(); s++) {
+            samples.add(headerTokens.get(s));
+            header.append("\t").append(headerTokens.get(s));
+        }
+        headerLine = header.toString();
+    }
+
+    /**
+     * Reads the rows following the header and computes the FC matrix.
+     * The rows of nodes whose genes are not in the matrix are filled with 1 (missing value).
+     * Should be called after readHeader().
+     *
+     * @param geneNodeIndices gene ID -> indices of the nodes (rows of the FC matrix) mapped to that gene
+     * @param numNodes        the number of nodes
+     * @return the FC matrix: nodes x samples
+     * @throws Exception
+     */
+    public FCMatrix readFCMatrix(HashMap<String, ArrayList<Integer>> geneNodeIndices,
+                                   int numNodes) throws Exception {
+        if (cache == null && cacheFile != null) {
+            try {
+                writeCache();
+                cacheWritten = true;
+                cache = ExpMatCache.open(expMatFile, cacheFile);
+            } catch (Exception e) {
+                // the matrix is parsed without caching, reporting its errors as usual
+                System.out.println("Could not cache expression matrix to " + cacheFile.getAbsolutePath()
+                        + ": " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+            }
+        }
+        if (cache != null) {
+            FCMatrix fcMatrix = cache.readFCMatrix(geneNodeIndices, numNodes, floatPrecision);
+            naWarning = cache.isNaWarning();
+            return fcMatrix;
+        }
+
+        int numSamples = samples.size();
+        // compressed files are read as a single stream, with the threads inflating BGZF blocks
+        long fileEnd = compressed ? Long.MAX_VALUE : expMatFile.length();
+        int numChunks = 1;
+        if (numThreads > 1 && !compressed)
+            numChunks = (int) Math.max(1, Math.min((long) numThreads * CHUNKSPERTHREAD,
+                    (fileEnd - dataStart) / MINCHUNKSIZE));
+
+        ArrayList<ChunkResult> results = new ArrayList<>();
+        if (numChunks == 1) {
+            ChunkResult result = new ChunkResult(dataStart, fileEnd);
+            readChunk(result, geneNodeIndices, numSamples, null);
+            results.add(result);
+        } else {
+            ArrayList<ChunkTask> tasks = new ArrayList<>();
+            long chunkSize = (fileEnd - dataStart) / numChunks;
+            for (int c = 0; c < numChunks; c++) {
+                long start = dataStart + c * chunkSize;
+                long end = (c == numChunks - 1) ? fileEnd : start + chunkSize;
+                tasks.add(new ChunkTask(new ChunkResult(start, end), geneNodeIndices, numSamples));
+            }
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            boolean failed = false;
+            try {
+                List<Future<ChunkResult>> futures = pool.invokeAll(tasks);
+                for (Future<ChunkResult> future : futures) {
+                    try {
+                        results.add(future.get());
+                    } catch (ExecutionException e) {
+                        failed = true;
+                        break;
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+            if (failed) {
+                // re-read sequentially to report the first invalid line with its absolute line number
+                results.clear();
+                ChunkResult result = new ChunkResult(dataStart, fileEnd);
+                readChunk(result, geneNodeIndices, numSamples, null);
+                results.add(result);
+            }
+        }
+
+        // the rows of the nodes not found in the matrix keep the missing value of 1
+        FCMatrix fcMatrix = new FCMatrix(numNodes, numSamples, floatPrecision);
+        for (ChunkResult result : results) {
+            if (result.naWarning)
+                naWarning = true;
+            for (int r = 0; r < result.rowIndices.size(); r++) {
+                double[] fc = result.rowFC.get(r);
+                for (int i : result.rowIndices.get(r))
+                    fcMatrix.setRow(i, fc);
+            }
+        }
+        return fcMatrix;
+    }
+
+    /**
+     * Parses all the rows of the matrix and writes them to the cache file.
+     * The chunks are parsed in parallel with a bounded number of chunks in flight,
+     * and written as cache row groups in the order of the file.
+     *
+     * @throws Exception
+     */
+    private void writeCache() throws Exception {
+        int numSamples = samples.size();
+        long fileEnd = compressed ? Long.MAX_VALUE : expMatFile.length();
+        int numChunks = 1;
+        if (numThreads > 1 && !compressed)
+            numChunks = (int) Math.max(1, Math.max(Math.min((long) numThreads * CHUNKSPERTHREAD,
+                    (fileEnd - dataStart) / MINCHUNKSIZE), (fileEnd - dataStart) / MAXCACHECHUNKSIZE));
+        ExpMatCache.Writer writer = ExpMatCache.create(cacheFile, expMatFile, headerLine, samples);
+        boolean success = false;
+        try {
+            if (numChunks == 1) {
+                ChunkResult result = new ChunkResult(dataStart, fileEnd);
+                readChunk(result, null, numSamples, writer);
+                writer.writeGroup(result.rowGenes, result.rowFC, result.rowErrors, result.rowNA);
+            } else {
+                long chunkSize = (fileEnd - dataStart) / numChunks;
+                ForkJoinPool pool = new ForkJoinPool(numThreads);
+                ArrayDeque<Future<ChunkResult>> pending = new ArrayDeque<>();
+                try {
+                    int c = 0;
+                    // the number of the first line of the next chunk to be written
+                    int line = 2;
+                    while (c < numChunks || !pending.isEmpty()) {
+                        while (c < numChunks && pending.size() < numThreads * 2) {
+                            long start = dataStart + c * chunkSize;
+                            long end = (c == numChunks - 1) ? fileEnd : start + chunkSize;
+                            pending.add(pool.submit(new ChunkTask(new ChunkResult(start, end), null, numSamples)));
+                            c++;
+                        }
+                        ChunkResult result = pending.poll().get();
+                        if (result.start != dataStart)
+                            setErrorLines(result, line, numSamples);
+                        line += result.lineCount;
+                        writer.writeGroup(result.rowGenes, result.rowFC, result.rowErrors, result.rowNA);
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    throw new Exception(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+            writer.close();
+            success = true;
+        } finally {
+            if (!success)
+                writer.abort();
+        }
+    }
+
+    /**
+     * Parses the lines starting within the byte range of the chunk.
+     * A chunk not starting at the first data line skips the line it begins in,
+     * since that line belongs to the previous chunk.
+     * <p>
+     * If geneNodeIndices is null, all the rows are parsed for caching: the errors of invalid rows are
+     * stored with the rows instead of being thrown. When reading the whole file sequentially,
+     * the rows are then flushed to the cache writer in groups.
+     *
+     * @param result          the chunk to read and store the rows into
+     * @param geneNodeIndices gene ID -> node indices map, or null to parse all the rows
+     * @param numSamples      the number of samples
+     * @param writer          the cache writer to flush row groups to, or null
+     * @throws Exception
+     */
+    private void readChunk(ChunkResult result,
+                           HashMap<String, ArrayList<Integer>> geneNodeIndices,
+                           int numSamples, ExpMatCache.Writer writer) throws Exception {
+        int maxGroupRows = Math.max(1, GROUPVALUES / numSamples);
+        ExpMatTokenizer tokenizer;
+        if (compressed) {
+            tokenizer = ExpMatTokenizer.open(expMatFile, numThreads);
+            tokenizer.skipLine();
+        } else if (result.start == dataStart) {
+            tokenizer = new ExpMatTokenizer(expMatFile, result.start, expMatFile.length());
+            tokenizer.setLineNumber(2);
+        } else {
+            // the lines are numbered from the start of the chunk until the chunks before it are counted
+            tokenizer = new ExpMatTokenizer(expMatFile, result.start - 1, expMatFile.length());
+            tokenizer.skipLine();
+            tokenizer.setLineNumber(0);
+        }
+        int firstLine = tokenizer.getLineNumber();
+        try {
+            while (!tokenizer.atEnd() && tokenizer.getOffset() < result.end) {
+                long rowStart = tokenizer.getOffset();
+                int n = tokenizer.getLineNumber();
+                int delimiter = tokenizer.readToken();
+                boolean skip = tokenizer.getTokenLength() == 0 || tokenizer.tokenEquals("0")
+                        || tokenizer.tokenEquals("NA");
+                if (geneNodeIndices == null) {
+                    if (skip) {
+                        if (delimiter == ExpMatTokenizer.TAB)
+                            tokenizer.skipLine();
+                        continue;
+                    }
+                    result.rowGenes.add(tokenizer.tokenString());
+                    try {
+                        result.rowFC.add(parseRow(tokenizer, delimiter, n, numSamples, result));
+                        result.rowErrors.add(null);
+                        result.rowNA.add(result.rowHasNA);
+                    } catch (IOException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        result.rowFC.add(null);
+                        result.rowErrors.add(e.getMessage());
+                        result.rowNA.add(false);
+                        result.errorRows.put(result.rowErrors.size() - 1, new long[]{rowStart, n});
+                        if (tokenizer.getLineNumber() == n)
+                            tokenizer.skipLine();
+                    }
+                    if (writer != null && result.rowGenes.size() >= maxGroupRows) {
+                        writer.writeGroup(result.rowGenes, result.rowFC, result.rowErrors, result.rowNA);
+                        result.clearRows();
+                    }
+                    continue;
+                }
+                // rows of genes outside the network are skipped without tokenizing the rest of the line
+                ArrayList<Integer> indices = skip ? null : geneNodeIndices.get(tokenizer.tokenString());
+                if (indices == null) {
+                    if (delimiter == ExpMatTokenizer.TAB)
+                        tokenizer.skipLine();
+                    continue;
+                }
+                double[] values = parseRow(tokenizer, delimiter, n, numSamples, result);
+                if (result.rowHasNA)
+                    result.naWarning = true;
+                result.rowIndices.add(indices);
+                result.rowFC.add(values);
+            }
+            result.lineCount = tokenizer.getLineNumber() - firstLine;
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    /**
+     * Replaces the errors of the invalid rows of a chunk parsed with chunk-relative line numbers
+     * by the errors of the rows parsed again at their absolute line numbers.
+     *
+     * @param result     the chunk
+     * @param firstLine  the absolute number of the first line of the chunk
+     * @param numSamples the number of samples
+     * @throws IOException
+     */
+    private void setErrorLines(ChunkResult result, int firstLine, int numSamples) throws IOException {
+        for (int r : result.errorRows.keySet()) {
+            long rowStart = result.errorRows.get(r)[0];
+            int n = firstLine + (int) result.errorRows.get(r)[1];
+            ExpMatTokenizer tokenizer = new ExpMatTokenizer(expMatFile, rowStart, expMatFile.length());
+            tokenizer.setLineNumber(n);
+            try {
+                int delimiter = tokenizer.readToken();
+                parseRow(tokenizer, delimiter, n, numSamples, new ChunkResult(rowStart, rowStart));
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                result.rowErrors.set(r, e.getMessage());
+            } finally {
+                tokenizer.close();
+            }
+        }
+    }
+
+    /**
+     * Parses the expression values of a row following its gene ID and divides them by the row mean.
+     *
+     * @param tokenizer  the tokenizer positioned after the gene ID
+     * @param delimiter  the delimiter following the gene ID
+     * @param n          the line number
+     * @param numSamples the number of samples
+     * @param result     the chunk, whose rowHasNA is set if the row contained NAs
+     * @return the FC values of the row
+     * @throws Exception if the row is not valid
+     */
+    private double[] parseRow(ExpMatTokenizer tokenizer, int delimiter, int n,
+                              int numSamples, ChunkResult result) throws Exception {
+        result.rowHasNA = false;
+        double sum = 0;
+        double[] values = new double[numSamples];
+        for (int j = 0; j < numSamples; j++) {
+            if (delimiter != ExpMatTokenizer.TAB)
+                throw new Exception("Line " + n + " did not contain "
+                        + (numSamples + 1) + " elements. Expmatfile: " + expMatFile.getAbsolutePath());
+            delimiter = tokenizer.readToken();
+            double value;
+            try {
+                if (tokenizer.tokenEquals("NA")) {
+                    value = 1;
+                    result.rowHasNA = true;
+                } else
+                    value = tokenizer.tokenDouble();
+            } catch (NumberFormatException e) {
+                throw new NumberFormatException("Could not cast "
+                        + tokenizer.tokenString() + " to double. File: " + expMatFile.getAbsolutePath()
+                        + " . Line: " + n + ", element at: " + (j - 1));
+            }
+            if (value < 0)
+                throw new Exception("Found a negative value " + value
+                        + " at element" + j + 1 + ", at line: " + n + " in expMatFile: "
+                        + expMatFile.getAbsolutePath());
+            values[j] = value;
+            sum += value;
+        }
+        // trailing empty tokens are tolerated, as with String.split()
+        while (delimiter == ExpMatTokenizer.TAB) {
+            delimiter = tokenizer.readToken();
+            if (tokenizer.getTokenLength() > 0)
+                throw new Exception("Line " + n + " did not contain "
+                        + (numSamples + 1) + " elements. Expmatfile: " + expMatFile.getAbsolutePath());
+        }
+        double mean = sum / numSamples;
+        for (int j = 0; j < numSamples; j++) {
+            if (mean == 0) // this will be the case when all the values are 0
+                values[j] = 1;
+            else
+                values[j] = values[j] / mean;
+        }
+        return values;
+    }
+
+    /**
+     * The rows parsed from a byte range of the file, in the order of their appearance.
+     * When all the rows are parsed for caching, the gene IDs, errors and NA flags are stored instead of node indices.
+     */
+    private static class ChunkResult {
+        private final long start;
+        private final long end;
+        private ArrayList<ArrayList<Integer>> rowIndices = new ArrayList<>();
+        private ArrayList<double[]> rowFC = new ArrayList<>();
+        private ArrayList<String> rowGenes = new ArrayList<>();
+        private ArrayList<String> rowErrors = new ArrayList<>();
+        private ArrayList<Boolean> rowNA = new ArrayList<>();
+        //errorRows: row -> {byte offset of the row, line number of the row}, for the invalid rows
+        private HashMap<Integer, long[]> errorRows = new HashMap<>();
+        private int lineCount = 0;
+        private boolean rowHasNA = false;
+        private boolean naWarning = false;
+
+        private ChunkResult(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private void clearRows() {
+            rowFC.clear();
+            rowGenes.clear();
+            rowErrors.clear();
+            rowNA.clear();
+            errorRows.clear();
+        }
+    }
+
+    private class ChunkTask implements Callable<ChunkResult> {
+        private final ChunkResult result;
+        private final HashMap<String, ArrayList<Integer>> geneNodeIndices;
+        private final int numSamples;
+
+        private ChunkTask(ChunkResult result,
+                          HashMap<String, ArrayList<Integer>> geneNodeIndices, int numSamples) {
+            this.result = result;
+            this.geneNodeIndices = geneNodeIndices;
+            this.numSamples = numSamples;
+        }
+
+        @Override
+        public ChunkResult call() throws Exception {
+            readChunk(result, geneNodeIndices, numSamples, null);
+            return result;
+        }
+    }
+
+    /**
+     * Measures the parse time of an expression matrix with 1, 2, 4, 8 and 16 threads.
+     * All the genes of the matrix are treated as network nodes.
+     *
+     * @param args the path to the expression matrix file
+     */
+    public static void main(String[] args) throws Exception {
+        File expMatFile = new File(args[0]);
+        HashMap<String, ArrayList<Integer>> geneNodeIndices = new HashMap<>();
+        ExpMatTokenizer tokenizer = ExpMatTokenizer.open(expMatFile, 0);
+        tokenizer.skipLine();
+        while (!tokenizer.atEnd()) {
+            int delimiter = tokenizer.readToken();
+            String gene = tokenizer.tokenString();
+            if (!geneNodeIndices.containsKey(gene)) {
+                ArrayList<Integer> indices = new ArrayList<>();
+                indices.add(geneNodeIndices.size());
+                geneNodeIndices.put(gene, indices);
+            }
+            if (delimiter == ExpMatTokenizer.TAB)
+                tokenizer.skipLine();
+        }
+        tokenizer.close();
+
+        int[] threads = new int[]{1, 2, 4, 8, 16};
+        long baseline = 0;
+        for (int t : threads) {
+            ExpMatParser parser = new ExpMatParser(expMatFile);
+            parser.setNumThreads(t);
+            long start = System.nanoTime();
+            parser.readHeader();
+            FCMatrix fcMatrix = parser.readFCMatrix(geneNodeIndices, geneNodeIndices.size());
+            long time = (System.nanoTime() - start) / 1000000;
+            if (t == 1)
+                baseline = time;
+            System.out.println(t + " threads: " + time + " ms, speedup "
+                    + (time == 0 ? "-" : String.format("%.2f", (double) baseline / time))
+                    + ", " + fcMatrix.getNumNodes() + " x " + fcMatrix.getNumSamples());
+        }
+    }
+}
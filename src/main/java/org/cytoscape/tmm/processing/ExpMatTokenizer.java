@@ -0,0 +1,449 @@
+package org.cytoscape.tmm.processing;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Public class ExpMatTokenizer
+ * <p>
+ * Reads tab delimited expression matrix files token by token directly from bytes.
+ * The file is memory-mapped in regions, tab/newline boundaries are scanned in the
+ * mapped buffers, and numeric cells are parsed to double without creating
+ * intermediate Strings. Each token is copied into a reusable scratch array,
+ * which is only turned into a String when explicitly requested (gene IDs, header).
+ * Compressed files are read through a decompressing stream instead (see open()).
+ */
+public class ExpMatTokenizer implements Closeable {
+    public static final int TAB = '\t';
+    public static final int LF = '\n';
+    public static final int EOF = -1;
+
+    private static final int CR = '\r';
+    private static final long REGIONSIZE = 1L << 28; // 256MB per mapped region
+    private static final int STREAMBUFFERSIZE = 1 << 16;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final double[] POWERSOF10 = new double[23];
+    private static final long MAXEXACTMANTISSA = 1L << 53;
+
+    static {
+        POWERSOF10[0] = 1;
+        for (int i = 1; i < POWERSOF10.length; i++)
+            POWERSOF10[i] = POWERSOF10[i - 1] * 10;
+    }
+
+    private final File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private InputStream in;
+    private byte[] streamBuffer;
+    private long position;
+    private long end;
+    private ByteBuffer buffer;
+    private long bufferStart;
+
+    private byte[] token = new byte[64];
+    private int tokenLength = 0;
+    private int lineNumber = 1;
+
+    /**
+     * Maps the whole file for reading.
+     *
+     * @param file the expression matrix file
+     * @throws IOException
+     */
+    public ExpMatTokenizer(File file) throws IOException {
+        this(file, 0, file.length());
+    }
+
+    /**
+     * Maps the byte range [start, end) of the file for reading.
+     *
+     * @param file  the expression matrix file
+     * @param start the first byte to read
+     * @param end   the byte before which the reading stops
+     * @throws IOException
+     */
+    public ExpMatTokenizer(File file, long start, long end) throws IOException {
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "r");
+        this.channel = randomAccessFile.getChannel();
+        this.position = start;
+        this.end = Math.min(end, channel.size());
+        this.buffer = ByteBuffer.allocate(0);
+        this.bufferStart = start;
+    }
+
+    /**
+     * Reads the decompressed bytes of a compressed file from a stream.
+     * The offsets are then counted in the decompressed bytes.
+     *
+     * @param file the expression matrix file
+     * @param in   the stream of the decompressed bytes
+     */
+    protected ExpMatTokenizer(File file, InputStream in) {
+        this.file = file;
+        this.in = in;
+        this.streamBuffer = new byte[STREAMBUFFERSIZE];
+        this.position = 0;
+        this.end = Long.MAX_VALUE;
+        this.buffer = ByteBuffer.allocate(0);
+        this.bufferStart = 0;
+    }
+
+    /**
+     * Opens a tokenizer for the whole file. Gzip and BGZF (bgzip) compressed files are
+     * recognized by their magic bytes and decompressed while streaming, BGZF blocks
+     * being inflated in parallel. Other files are memory-mapped.
+     *
+     * @param file       the expression matrix file
+     * @param numThreads the number of threads to inflate BGZF blocks with, values below 1 stand for all processors
+     * @return the tokenizer
+     * @throws IOException
+     */
+    public static ExpMatTokenizer open(File file, int numThreads) throws IOException {
+        if (!isCompressed(file))
+            return new ExpMatTokenizer(file);
+        InputStream in;
+        if (BgzfInputStream.isBgzf(file))
+            in = new BgzfInputStream(file, numThreads);
+        else
+            in = new GZIPInputStream(new FileInputStream(file), STREAMBUFFERSIZE);
+        return new ExpMatTokenizer(file, in);
+    }
+
+    /**
+     * Checks if the file starts with the gzip magic bytes (0x1f 0x8b).
+     * Such files can only be read sequentially, from the beginning.
+     *
+     * @param file the file to check
+     * @return true if the file is gzip or BGZF compressed
+     * @throws IOException
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            return stream.read() == 0x1f && stream.read() == 0x8b;
+        } finally {
+            stream.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of the line the tokenizer is currently positioned on (1-based).
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Sets the number of the current line, e.g. when the tokenizer starts in the middle of the file.
+     */
+    public void setLineNumber(int lineNumber) {
+        this.lineNumber = lineNumber;
+    }
+
+    /**
+     * Returns the offset in the file of the next byte to be read.
+     */
+    public long getOffset() {
+        return bufferStart + buffer.position();
+    }
+
+    /**
+     * Returns the next buffer of bytes to be scanned, or null if there are no more bytes.
+     *
+     * @return the next buffer or null
+     * @throws IOException
+     */
+    protected ByteBuffer nextBuffer() throws IOException {
+        if (in != null) {
+            int n = in.read(streamBuffer);
+            if (n < 0)
+                return null;
+            bufferStart = position;
+            position += n;
+            return ByteBuffer.wrap(streamBuffer, 0, n);
+        }
+        if (position >= end)
+            return null;
+        long size = Math.min(REGIONSIZE, end - position);
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        bufferStart = position;
+        position += size;
+        return mapped;
+    }
+
+    private int read() throws IOException {
+        if (buffer.hasRemaining())
+            return buffer.get() & 0xff;
+        ByteBuffer next;
+        while ((next = nextBuffer()) != null) {
+            buffer = next;
+            if (buffer.hasRemaining())
+                return buffer.get() & 0xff;
+        }
+        return EOF;
+    }
+
+    /**
+     * Checks if all the bytes were consumed.
+     *
+     * @return true if there is nothing left to read
+     * @throws IOException
+     */
+    public boolean atEnd() throws IOException {
+        if (buffer.hasRemaining())
+            return false;
+        ByteBuffer next;
+        while ((next = nextBuffer()) != null) {
+            buffer = next;
+            if (buffer.hasRemaining())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next token (up to the next tab, line feed or the end of file) into the scratch array.
+     * Carriage returns are ignored.
+     *
+     * @return the delimiter that terminated the token: TAB, LF or EOF
+     * @throws IOException
+     */
+    public int readToken() throws IOException {
+        tokenLength = 0;
+        int b;
+        while (true) {
+            b = read();
+            if (b == TAB || b == EOF)
+                return b;
+            if (b == LF) {
+                lineNumber++;
+                return b;
+            }
+            if (b == CR)
+                continue;
+            if (tokenLength == token.length) {
+                byte[] grown = new byte[token.length * 2];
+                System.arraycopy(token, 0, grown, 0, tokenLength);
+                token = grown;
+            }
+            token[tokenLength++] = (byte) b;
+        }
+    }
+
+    /**
+     * Skips the rest of the current line.
+     *
+     * @return LF if a line end was found, EOF otherwise
+     * @throws IOException
+     */
+    public int skipLine() throws IOException {
+        int b;
+        while ((b = read()) != EOF) {
+            if (b == LF) {
+                lineNumber++;
+                return LF;
+            }
+        }
+        return EOF;
+    }
+
+    public int getTokenLength() {
+        return tokenLength;
+    }
+
+    public byte[] getTokenBytes() {
+        return token;
+    }
+
+    /**
+     * Returns the last read token as a String.
+     */
+    public String tokenString() {
+        return new String(token, 0, tokenLength, CHARSET);
+    }
+
+    /**
+     * Compares the last read token with an ASCII string without allocating.
+     */
+    public boolean tokenEquals(String s) {
+        if (s.length() != tokenLength)
+            return false;
+        for (int i = 0; i < tokenLength; i++)
+            if (token[i] != s.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Parses the last read token to double.
+     *
+     * @return the parsed value
+     * @throws NumberFormatException if the token is not a number
+     */
+    public double tokenDouble() throws NumberFormatException {
+        return parseDouble(token, 0, tokenLength);
+    }
+
+    /**
+     * Parses a decimal number from ASCII bytes. Plain decimal and scientific notations
+     * with at most 15 significant digits are converted exactly with the fast path
+     * (the mantissa and the power of 10 are both exactly representable as doubles).
+     * Any other input is handed to Double.parseDouble().
+     *
+     * @param bytes  the array holding the number
+     * @param offset the first byte of the number
+     * @param length the number of bytes
+     * @return the double value
+     * @throws NumberFormatException if the bytes do not represent a number
+     */
+    public static double parseDouble(byte[] bytes, int offset, int length) throws NumberFormatException {
+        int i = offset;
+        int last = offset + length;
+        boolean negative = false;
+        if (i < last && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < last; i++) {
+            byte c = bytes[i];
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && c == '0') {
+                    if (seenPoint)
+                        scale--;
+                    continue;
+                }
+                if (digits >= 15)
+                    return slowParseDouble(bytes, offset, length);
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (seenPoint)
+                    scale--;
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else
+                break;
+        }
+        if (!seenDigit)
+            return slowParseDouble(bytes, offset, length);
+        if (i < last) {
+            if (bytes[i] != 'e' && bytes[i] != 'E')
+                return slowParseDouble(bytes, offset, length);
+            i++;
+            boolean negativeExp = false;
+            if (i < last && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExp = bytes[i] == '-';
+                i++;
+            }
+            if (i == last)
+                return slowParseDouble(bytes, offset, length);
+            int exp = 0;
+            for (; i < last; i++) {
+                byte c = bytes[i];
+                if (c < '0' || c > '9' || exp > 1000)
+                    return slowParseDouble(bytes, offset, length);
+                exp = exp * 10 + (c - '0');
+            }
+            scale += negativeExp ? -exp : exp;
+        }
+        double value;
+        if (mantissa == 0)
+            value = 0;
+        else if (mantissa > MAXEXACTMANTISSA || scale < -22 || scale > 22)
+            return slowParseDouble(bytes, offset, length);
+        else if (scale < 0)
+            value = mantissa / POWERSOF10[-scale];
+        else
+            value = mantissa * POWERSOF10[scale];
+        return negative ? -value : value;
+    }
+
+    private static double slowParseDouble(byte[] bytes, int offset, int length) {
+        return Double.parseDouble(new String(bytes, offset, length, CHARSET));
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = ByteBuffer.allocate(0);
+        if (in != null)
+            in.close();
+        if (channel != null)
+            channel.close();
+        if (randomAccessFile != null)
+            randomAccessFile.close();
+    }
+
+    /**
+     * Compares the time of scanning all numeric cells of an expression matrix
+     * with the tokenizer and with BufferedReader + String.split + Double.parseDouble.
+     *
+     * @param args the path to the expression matrix file
+     */
+    public static void main(String[] args) throws Exception {
+        File expMatFile = new File(args[0]);
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            double sum = 0;
+            long cells = 0;
+            BufferedReader reader = new BufferedReader(new FileReader(expMatFile));
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.split("\t");
+                for (int j = 1; j < tokens.length; j++) {
+                    if (!tokens[j].equals("NA")) {
+                        sum += Double.parseDouble(tokens[j]);
+                        cells++;
+                    }
+                }
+            }
+            reader.close();
+            long readerTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            double tokenizerSum = 0;
+            long tokenizerCells = 0;
+            ExpMatTokenizer tokenizer = new ExpMatTokenizer(expMatFile);
+            tokenizer.skipLine();
+            while (!tokenizer.atEnd()) {
+                int delimiter = tokenizer.readToken();
+                while (delimiter == TAB) {
+                    delimiter = tokenizer.readToken();
+                    if (!tokenizer.tokenEquals("NA")) {
+                        tokenizerSum += tokenizer.tokenDouble();
+                        tokenizerCells++;
+                    }
+                }
+            }
+            tokenizer.close();
+            long tokenizerTime = System.nanoTime() - start;
+
+            System.out.println("Round " + (r + 1) + ": " + expMatFile.length() + " bytes");
+            System.out.println("BufferedReader: " + readerTime / 1000000 + " ms, "
+                    + cells + " cells, sum " + sum);
+            System.out.println("ExpMatTokenizer: " + tokenizerTime / 1000000 + " ms, "
+                    + tokenizerCells + " cells, sum " + tokenizerSum);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.cytoscape.tmm.processing;
+
+import java.util.Arrays;
+
+/**
+ * Public class FCMatrix
+ * <p>
+ * The FC values of the network nodes in the samples of the expression matrix,
+ * stored in a single primitive array indexed by node and sample ordinals.
+ * The values are laid out sample by sample, so that the column of a sample is contiguous.
+ * With float precision the matrix takes half of the memory, at the cost of rounding the values to float.
+ */
+public class FCMatrix {
+    private final int numNodes;
+    private final int numSamples;
+    private final boolean floatPrecision;
+    private double[] doubleValues;
+    private float[] floatValues;
+
+    /**
+     * Creates the matrix with all the values set to 1 (missing value).
+     *
+     * @param numNodes       the number of nodes
+     * @param numSamples     the number of samples
+     * @param floatPrecision whether to store the values as floats
+     */
+    public FCMatrix(int numNodes, int numSamples, boolean floatPrecision) {
+        long size = (long) numNodes * numSamples;
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("FC matrix of " + numNodes + " nodes and "
+                    + numSamples + " samples is too large");
+        this.numNodes = numNodes;
+        this.numSamples = numSamples;
+        this.floatPrecision = floatPrecision;
+        if (floatPrecision) {
+            floatValues = new float[(int) size];
+            Arrays.fill(floatValues, 1);
+        } else {
+            doubleValues = new double[(int) size];
+            Arrays.fill(doubleValues, 1);
+        }
+    }
+
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    public boolean isFloatPrecision() {
+        return floatPrecision;
+    }
+
+    public double get(int node, int sample) {
+        int index = sample * numNodes + node;
+        return floatPrecision ? floatValues[index] : doubleValues[index];
+    }
+
+    public void set(int node, int sample, double value) {
+        int index = sample * numNodes + node;
+        if (floatPrecision)
+            floatValues[index] = (float) value;
+        else
+            doubleValues[index] = value;
+    }
+
+    /**
+     * Sets the values of the node in all the samples.
+     *
+     * @param node   the node ordinal
+     * @param values the values by sample ordinal
+     */
+    public void setRow(int node, double[] values) {
+        for (int j = 0; j < numSamples; j++)
+            set(node, j, values[j]);
+    }
+
+    /**
+     * Returns the value as text, in the precision it is stored.
+     */
+    public String getString(int node, int sample) {
+        int index = sample * numNodes + node;
+        return floatPrecision ? Float.toString(floatValues[index]) : Double.toString(doubleValues[index]);
+    }
+
+    /**
+     * Returns a view of the values of a sample. The view does not copy the values.
+     *
+     * @param sample the sample ordinal
+     * @return the column view
+     */
+    public Column getColumn(int sample) {
+        if (sample < 0 || sample >= numSamples)
+            throw new IndexOutOfBoundsException("Sample " + sample + " of " + numSamples);
+        return new Column(sample);
+    }
+
+    /**
+     * The values of one sample, indexed by node ordinal.
+     */
+    public class Column {
+        private final int offset;
+
+        private Column(int sample) {
+            this.offset = sample * numNodes;
+        }
+
+        public int size() {
+            return numNodes;
+        }
+
+        public double get(int node) {
+            return floatPrecision ? floatValues[offset + node] : doubleValues[offset + node];
+        }
+    }
+}
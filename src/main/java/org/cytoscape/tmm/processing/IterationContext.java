@@ -0,0 +1,167 @@
+package org.cytoscape.tmm.processing;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.tmm.reports.GroupLabels;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Public class IterationContext
+ * <p>
+ * The inputs and outputs of one TMM iteration: the network, the expression matrix, the labels
+ * and the run options, together with the files produced by the pipeline stages.
+ * The pipeline reads its inputs from the context instead of the TMMPanel, so that several iterations,
+ * e.g. the jobs of a batch run, can be processed at the same time.
+ */
+public class IterationContext {
+    private final CyNetwork network;
+    private final File parentDir;
+    private final String iterationTitle;
+    private File expMatFile;
+    private String geneIDName;
+    private int bootCycles = 200;
+    private boolean validationMode = false;
+    private File tmmLabelsFile;
+    private File groupLabelsFile;
+    private GroupLabels groupLabels;
+    private String comment = "";
+    private ParsedFilesDirectory parsedFilesDirectory;
+    private ArrayList<String> samples;
+    private File fcFile;
+    private File summaryFile;
+    private File reportFile;
+
+    public IterationContext(CyNetwork network, File parentDir, String iterationTitle) {
+        this.network = network;
+        this.parentDir = parentDir;
+        this.iterationTitle = iterationTitle;
+    }
+
+    public CyNetwork getNetwork() {
+        return network;
+    }
+
+    public File getParentDir() {
+        return parentDir;
+    }
+
+    public String getIterationTitle() {
+        return iterationTitle;
+    }
+
+    public File getIterationDir() {
+        return new File(parentDir, iterationTitle);
+    }
+
+    public File getExpMatFile() {
+        return expMatFile;
+    }
+
+    public void setExpMatFile(File expMatFile) {
+        this.expMatFile = expMatFile;
+    }
+
+    public String getGeneIDName() {
+        return geneIDName;
+    }
+
+    public void setGeneIDName(String geneIDName) {
+        this.geneIDName = geneIDName;
+    }
+
+    public int getBootCycles() {
+        return bootCycles;
+    }
+
+    public void setBootCycles(int bootCycles) {
+        this.bootCycles = bootCycles;
+    }
+
+    public boolean isValidationMode() {
+        return validationMode;
+    }
+
+    public void setValidationMode(boolean validationMode) {
+        this.validationMode = validationMode;
+    }
+
+    public File getTmmLabelsFile() {
+        return tmmLabelsFile;
+    }
+
+    public void setTmmLabelsFile(File tmmLabelsFile) {
+        this.tmmLabelsFile = tmmLabelsFile;
+    }
+
+    public File getGroupLabelsFile() {
+        return groupLabelsFile;
+    }
+
+    public void setGroupLabelsFile(File groupLabelsFile) {
+        this.groupLabelsFile = groupLabelsFile;
+    }
+
+    public GroupLabels getGroupLabels() {
+        return groupLabels;
+    }
+
+    public void setGroupLabels(GroupLabels groupLabels) {
+        this.groupLabels = groupLabels;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public void setComment(String comment) {
+        this.comment = comment;
+    }
+
+    public ParsedFilesDirectory getParsedFilesDirectory() {
+        return parsedFilesDirectory;
+    }
+
+    public void setParsedFilesDirectory(ParsedFilesDirectory parsedFilesDirectory) {
+        this.parsedFilesDirectory = parsedFilesDirectory;
+    }
+
+    /**
+     * Returns the handler of the parsed expression matrix, or null if the input files were not parsed.
+     */
+    public ExpMatFileHandler getExpMatFileHandler() {
+        return parsedFilesDirectory == null ? null : parsedFilesDirectory.getExpMatFileHandler();
+    }
+
+    public ArrayList<String> getSamples() {
+        return samples;
+    }
+
+    public void setSamples(ArrayList<String> samples) {
+        this.samples = samples;
+    }
+
+    public File getFCFile() {
+        return fcFile;
+    }
+
+    public void setFCFile(File fcFile) {
+        this.fcFile = fcFile;
+    }
+
+    public File getSummaryFile() {
+        return summaryFile;
+    }
+
+    public void setSummaryFile(File summaryFile) {
+        this.summaryFile = summaryFile;
+    }
+
+    public File getReportFile() {
+        return reportFile;
+    }
+
+    public void setReportFile(File reportFile) {
+        this.reportFile = reportFile;
+    }
+}
@@ -0,0 +1,143 @@
+package org.cytoscape.tmm.processing;
+
+import org.cytoscape.tmm.reports.SummaryFileMerger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Public class PSFResultCache
+ * <p>
+ * Per-sample cache of PSF results in the iteration directory, for cohorts rerun as samples are added.
+ * The cache holds the psf summary file of the last run and, for each of its samples, a key made of
+ * a 64-bit hash of the FC vector of the sample and of the run settings (network, boot cycles...).
+ * As FC values are normalized by the row mean across samples, adding samples changes the FC vectors
+ * of the existing ones whenever a row mean changes, and their keys with them.
+ * On rerun only the samples without a matching key are sent to PSF, and the cached columns
+ * of the others are merged into the summary file.
+ */
+public class PSFResultCache {
+    public static final String SUMMARYFILE = "psf_summary.xls";
+    public static final String KEYSFILE = "psf_keys.txt";
+
+    private final File cacheDir;
+    //keys: sample name -> key of the cached result
+    private final HashMap<String, String> keys = new HashMap<>();
+
+    /**
+     * Opens the cache in the directory, loading the keys of the cached samples if any.
+     */
+    public PSFResultCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+        File keysFile = new File(cacheDir, KEYSFILE);
+        File summaryFile = getSummaryFile();
+        if (!keysFile.exists() || !summaryFile.exists())
+            return;
+        try {
+            HashSet<String> cachedSamples = new HashSet<>(SummaryFileMerger.getSamples(summaryFile));
+            BufferedReader reader = new BufferedReader(new FileReader(keysFile));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] tokens = line.split("\t");
+                    if (tokens.length == 2 && cachedSamples.contains(tokens[0]))
+                        keys.put(tokens[0], tokens[1]);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (Exception e) {
+            System.out.println("Could not read the PSF result cache in " + cacheDir.getAbsolutePath()
+                    + ": " + e.getMessage());
+            keys.clear();
+        }
+    }
+
+    /**
+     * Returns the key of a sample: the hash of its FC vector and of the run settings.
+     *
+     * @param column   the FC values of the sample
+     * @param settings a description of everything else the PSF result depends on
+     */
+    public static String getKey(FCMatrix.Column column, String settings) {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < settings.length(); i++) {
+            hash ^= settings.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        for (int node = 0; node < column.size(); node++) {
+            long bits = Double.doubleToLongBits(column.get(node));
+            for (int b = 0; b < 64; b += 8) {
+                hash ^= (bits >>> b) & 0xff;
+                hash *= 0x100000001b3L;
+            }
+        }
+        return Long.toHexString(hash) + "_" + column.size();
+    }
+
+    /**
+     * Returns the samples, in the given order, whose cached result has the given key.
+     *
+     * @param sampleKeys sample name -> current key
+     */
+    public ArrayList<String> getCachedSamples(List<String> samples, Map<String, String> sampleKeys) {
+        ArrayList<String> cachedSamples = new ArrayList<>();
+        for (String sample : samples) {
+            String key = keys.get(sample);
+            if (key != null && key.equals(sampleKeys.get(sample)))
+                cachedSamples.add(sample);
+        }
+        return cachedSamples;
+    }
+
+    public File getSummaryFile() {
+        return new File(cacheDir, SUMMARYFILE);
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Replaces the cache with the results of a run.
+     *
+     * @param summaryFile the summary file of the run
+     * @param sampleKeys  sample name -> key of the samples in the summary file
+     * @throws Exception
+     */
+    public void update(File summaryFile, Map<String, String> sampleKeys) throws Exception {
+        cacheDir.mkdirs();
+        File keysFile = new File(cacheDir, KEYSFILE);
+        // the keys are removed first, so that an interrupted update leaves no valid entries
+        keysFile.delete();
+        keys.clear();
+        try {
+            Files.copy(summaryFile.toPath(), getSummaryFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+            BufferedWriter writer = new BufferedWriter(new FileWriter(keysFile));
+            try {
+                for (String sample : SummaryFileMerger.getSamples(summaryFile)) {
+                    String key = sampleKeys.get(sample);
+                    if (key == null)
+                        continue;
+                    writer.write(sample + "\t" + key);
+                    writer.newLine();
+                    keys.put(sample, key);
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            keysFile.delete();
+            keys.clear();
+            throw new Exception("Could not update the PSF result cache in " + cacheDir.getAbsolutePath() + ": "
+                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        }
+    }
+}
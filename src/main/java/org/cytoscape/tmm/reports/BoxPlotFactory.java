@@ -35,43 +35,16 @@ public class BoxPlotFactory {
     public static String MD2 = "MD2";
     public static String p2 = "p2";
 
-    private ArrayList<String> samples;
-    private HashMap<String, HashMap<String, HashMap<String, Double>>> summaryMap;
-    private final HashMap<String, ArrayList<String>> labelSamplesMap;
-
-    private SummaryFileHandler summaryFileHandler;
-    private TMMLabels tmmLabels;
-    private GroupLabels groupLabels;
+    private final ReportModel reportModel;
     private HashMap<String, HashMap<String, Double>> boxplotStats; // tmmkey:stat:statValue
 
     /**
      * Basic constructor
      *
-     * @param summaryFileHandler
-     * @param tmmLabels
-     */
-    public BoxPlotFactory(SummaryFileHandler summaryFileHandler, TMMLabels tmmLabels) {
-        this.summaryFileHandler = summaryFileHandler;
-        this.tmmLabels = tmmLabels;
-        summaryMap = summaryFileHandler.getSummaryMap();
-        samples = summaryFileHandler.getSamples();
-        labelSamplesMap = tmmLabels.getLabelSamplesMap();
-        boxplotStats = new HashMap<>();
-    }
-
-
-    /**
-     * Basic constructor
-     *
-     * @param summaryFileHandler
-     * @param groupLabels
+     * @param reportModel the report data shared by the plot factories
      */
-    public BoxPlotFactory(SummaryFileHandler summaryFileHandler, GroupLabels groupLabels) {
-        this.summaryFileHandler = summaryFileHandler;
-        this.groupLabels = groupLabels;
-        summaryMap = summaryFileHandler.getSummaryMap();
-        samples = summaryFileHandler.getSamples();
-        labelSamplesMap = groupLabels.getGroupSamplesMap();
+    public BoxPlotFactory(ReportModel reportModel) {
+        this.reportModel = reportModel;
         boxplotStats = new HashMap<>();
     }
 
@@ -106,10 +79,10 @@ public class BoxPlotFactory {
         int n = dataset.getRowCount();
         for (int series = 0; series < n; series++) {
             Paint color;
-            if (tmmLabels != null)
-                color = tmmLabels.getLabelColor((String) dataset.getRowKey(series));
+            if (reportModel.isTMMLabeled())
+                color = reportModel.getTMMLabels().getLabelColor((String) dataset.getRowKey(series));
             else
-                color = groupLabels.getGroupColorsMap().get((String) dataset.getRowKey(series));
+                color = reportModel.getGroupLabels().getGroupColorsMap().get((String) dataset.getRowKey(series));
             renderer.setSeriesPaint(series, color);
         }
 
@@ -128,7 +101,7 @@ public class BoxPlotFactory {
             return boxplot;
 
         //If the tmmLabels == null, skip statistics yet
-        if (tmmLabels == null)
+        if (!reportModel.isTMMLabeled())
             return boxplot;
 
         // Statistics legends
@@ -168,7 +141,7 @@ public class BoxPlotFactory {
             double diff2 = Double.isNaN(test2[0]) ? Double.NaN : DoubleFormatter.formatDouble(test2[0]);
             double p2 = Double.isNaN(test2[1]) ? Double.NaN : DoubleFormatter.formatDouble(test2[1], 3);
             TextTitle legendText = new TextTitle(formatLegend(p, diff1, p1, diff2, p2,
-                    (tmmKey.equals(ALTKEY) ? tmmLabels.A : tmmLabels.T)));
+                    (tmmKey.equals(ALTKEY) ? TMMLabels.A : TMMLabels.T)));
             TextTitle legendTitle = new TextTitle("Statistics");
             legendTitle.setPosition(RectangleEdge.BOTTOM);
             legendTitle.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 11));
@@ -206,8 +179,7 @@ public class BoxPlotFactory {
 
     /**
      * Creates a boxandwhiskerCategeoryDataset for the given TMM.
-     * The the samples under a specific label are taken from the labelSamplesMap,
-     * while the PSF values for each sample are taken from summaryMap.
+     * The the samples under a specific label and their PSF values are taken from the reportModel.
      * Only the the labels for which PSF values are available will be in the final dataset.
      * The dataset only contains summary statistics for each label.
      *
@@ -218,17 +190,13 @@ public class BoxPlotFactory {
         DefaultBoxAndWhiskerCategoryDataset dataset
                 = new DefaultBoxAndWhiskerCategoryDataset();
 
-        for (String label : labelSamplesMap.keySet()) {
-            if (labelSamplesMap.get(label).size() > 0) {
-                List list = new ArrayList<>();
-                for (String sample : labelSamplesMap.get(label)) {
-                    if (summaryMap.get(tmmKey).get(SCORESKEY).containsKey(sample)) {
-                        double psf = summaryMap.get(tmmKey).get(SCORESKEY).get(sample);
-                        list.add(psf);
-                    }
-                }
-                if (list.size() > 0)
-                    dataset.add(list, label, label);
+        for (int l = 0; l < reportModel.getLabelCount(); l++) {
+            double[] scores = reportModel.getLabelScores(tmmKey, l);
+            if (scores.length > 0) {
+                List<Double> list = new ArrayList<>(scores.length);
+                for (double score : scores)
+                    list.add(score);
+                dataset.add(list, reportModel.getLabel(l), reportModel.getLabel(l));
             }
         }
         return dataset;
@@ -238,7 +206,7 @@ public class BoxPlotFactory {
      * Gathers data for the given TMM and calls the Stats.rankSum() test to generate
      * an overall significance value for boxplot differences, using Kruskal-Wallis rank sum test.
      * The categories (labels) are taken from the input dataset,
-     * while the respective sample names and PSF values are taken from the labelSamplesMap and summaryMap.
+     * while the respective PSF values are taken from the reportModel.
      *
      * @param dataset the BoxAndWhiskerCategoryDataset for which the value is generated
      * @param tmmkey  the TMM value
@@ -249,14 +217,9 @@ public class BoxPlotFactory {
         ArrayList<String> labelList = new ArrayList<>();
         for (Object row : dataset.getRowKeys()) {
             String label = (String) row;
-            ArrayList<String> samples = labelSamplesMap.get(label);
-            for (String sample : samples) {
-                if (summaryMap.get(tmmkey).get(SCORESKEY).containsKey(sample)) {
-                    double psf = summaryMap.get(tmmkey).get(SCORESKEY).get(sample);
-                    dataList.add(psf);
-                    labelList.add(label);
-                }
-
+            for (double score : getLabelScores(tmmkey, label)) {
+                dataList.add(score);
+                labelList.add(label);
             }
         }
         double[] data = new double[dataList.size()];
@@ -287,30 +250,8 @@ public class BoxPlotFactory {
      */
     private Double[] medDiff(BoxAndWhiskerCategoryDataset dataset,
                              String tmmkey, String l1, String l2) {
-        ArrayList<Double> dataList = new ArrayList<>();
-        ArrayList<String> labelList = new ArrayList<>();
-
-        String label = l1;
-        ArrayList<String> samples = labelSamplesMap.get(label);
-        double[] data1 = new double[samples.size()];
-        int i = 0;
-        for (String sample : samples) {
-            double psf = summaryMap.get(tmmkey).get(SCORESKEY).get(sample);
-            dataList.add(psf);
-            labelList.add(label);
-            data1[i++] = psf;
-        }
-
-        label = l2;
-        samples = labelSamplesMap.get(label);
-        double[] data2 = new double[samples.size()];
-        i = 0;
-        for (String sample : samples) {
-            double psf = summaryMap.get(tmmkey).get(SCORESKEY).get(sample);
-            dataList.add(psf);
-            labelList.add(label);
-            data2[i++] = psf;
-        }
+        double[] data1 = getLabelScores(tmmkey, l1);
+        double[] data2 = getLabelScores(tmmkey, l2);
         MannWhitneyMedianDifferenceCI mw = new MannWhitneyMedianDifferenceCI(data1, data2, 0.05);
         double diff = mw.getPointEstimate();
         MannWhitneyTest mwt = new MannWhitneyTest(data1, data2);
@@ -319,6 +260,13 @@ public class BoxPlotFactory {
         return new Double[]{diff, p};
     }
 
+    private double[] getLabelScores(String tmmkey, String label) {
+        for (int l = 0; l < reportModel.getLabelCount(); l++)
+            if (reportModel.getLabel(l).equals(label))
+                return reportModel.getLabelScores(tmmkey, l);
+        return new double[0];
+    }
+
     private String formatLegend(double p, double diff1, double p1, double diff2, double p2, String plotType) {
         int[] cols = new int[]{20, 15, 10, 10, 5};
         String row1Col1 = "Overall p value:";
@@ -0,0 +1,209 @@
+package org.cytoscape.tmm.reports;
+
+import com.itextpdf.text.Paragraph;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.plot.CrosshairState;
+import org.jfree.chart.plot.PlotRenderingInfo;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.XYItemRendererState;
+import org.jfree.data.xy.XYDataset;
+import org.jfree.ui.RectangleEdge;
+import org.jfree.util.ShapeUtilities;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Public class DensityScatterRenderer
+ * <p>
+ * A scatter renderer for large cohorts. Instead of writing one vector shape per sample to the PDF,
+ * the points are drawn on a raster image of the data area at print resolution, which is embedded once.
+ * The outliers, i.e. the points alone in their cell of a grid with cells of the point size,
+ * are still drawn as vectors, and only their item labels are placed.
+ */
+public class DensityScatterRenderer extends LabelPlacingRenderer {
+    public static final int DPI = 300;
+    private static final double CELLSIZE = 10;
+
+    //vectorItems: series -> item -> whether the item is drawn as a vector
+    private boolean[][] vectorItems;
+
+    /**
+     * Draws the points, except the outliers, on a raster image before the labels are placed and the items are drawn.
+     */
+    @Override
+    public XYItemRendererState initialise(Graphics2D g2, Rectangle2D dataArea, XYPlot plot,
+                                          XYDataset dataset, PlotRenderingInfo info) {
+        vectorItems = null;
+        if (dataset != null && dataArea.getWidth() >= 1 && dataArea.getHeight() >= 1)
+            drawRaster(g2, dataArea, plot, dataset);
+        return super.initialise(g2, dataArea, plot, dataset, info);
+    }
+
+    private void drawRaster(Graphics2D g2, Rectangle2D dataArea, XYPlot plot, XYDataset dataset) {
+        ValueAxis domainAxis = plot.getDomainAxis();
+        ValueAxis rangeAxis = plot.getRangeAxis();
+        RectangleEdge domainEdge = plot.getDomainAxisEdge();
+        RectangleEdge rangeEdge = plot.getRangeAxisEdge();
+        int columns = (int) Math.ceil(dataArea.getWidth() / CELLSIZE);
+        int rows = (int) Math.ceil(dataArea.getHeight() / CELLSIZE);
+        int seriesCount = dataset.getSeriesCount();
+
+        // cells of the points, -1 for points outside the data area
+        int[][] cells = new int[seriesCount][];
+        int[] cellCounts = new int[columns * rows];
+        for (int series = 0; series < seriesCount; series++) {
+            int itemCount = dataset.getItemCount(series);
+            cells[series] = new int[itemCount];
+            for (int item = 0; item < itemCount; item++) {
+                double x = domainAxis.valueToJava2D(dataset.getXValue(series, item), dataArea, domainEdge);
+                double y = rangeAxis.valueToJava2D(dataset.getYValue(series, item), dataArea, rangeEdge);
+                if (!dataArea.contains(x, y)) {
+                    cells[series][item] = -1;
+                    continue;
+                }
+                int column = Math.min(columns - 1, (int) ((x - dataArea.getX()) / CELLSIZE));
+                int row = Math.min(rows - 1, (int) ((y - dataArea.getY()) / CELLSIZE));
+                cells[series][item] = row * columns + column;
+                cellCounts[row * columns + column]++;
+            }
+        }
+
+        double scale = DPI / 72.;
+        BufferedImage image = new BufferedImage((int) Math.ceil(dataArea.getWidth() * scale),
+                (int) Math.ceil(dataArea.getHeight() * scale), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D imageGraphics = image.createGraphics();
+        imageGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        imageGraphics.scale(scale, scale);
+        imageGraphics.translate(-dataArea.getX(), -dataArea.getY());
+
+        vectorItems = new boolean[seriesCount][];
+        for (int series = 0; series < seriesCount; series++) {
+            int itemCount = dataset.getItemCount(series);
+            vectorItems[series] = new boolean[itemCount];
+            if (!isSeriesVisible(series))
+                continue;
+            imageGraphics.setPaint(lookupSeriesPaint(series));
+            for (int item = 0; item < itemCount; item++) {
+                int cell = cells[series][item];
+                // outside points are clipped, as by the vector renderer
+                if (cell < 0 || cellCounts[cell] == 1) {
+                    vectorItems[series][item] = true;
+                    continue;
+                }
+                double x = domainAxis.valueToJava2D(dataset.getXValue(series, item), dataArea, domainEdge);
+                double y = rangeAxis.valueToJava2D(dataset.getYValue(series, item), dataArea, rangeEdge);
+                imageGraphics.fill(ShapeUtilities.createTranslatedShape(getItemShape(series, item), x, y));
+            }
+        }
+        imageGraphics.dispose();
+
+        AffineTransform transform = AffineTransform.getTranslateInstance(dataArea.getX(), dataArea.getY());
+        transform.scale(1 / scale, 1 / scale);
+        g2.drawImage(image, transform, null);
+    }
+
+    @Override
+    protected boolean isLabelCandidate(int series, int item) {
+        return vectorItems == null || series >= vectorItems.length || item >= vectorItems[series].length
+                || vectorItems[series][item];
+    }
+
+    /**
+     * Draws the item as a vector shape, with its label, only if it is an outlier.
+     */
+    @Override
+    public void drawItem(Graphics2D g2, XYItemRendererState state, Rectangle2D dataArea, PlotRenderingInfo info,
+                         XYPlot plot, ValueAxis domainAxis, ValueAxis rangeAxis, XYDataset dataset,
+                         int series, int item, CrosshairState crosshairState, int pass) {
+        if (vectorItems != null && series < vectorItems.length && item < vectorItems[series].length
+                && !vectorItems[series][item])
+            return;
+        super.drawItem(g2, state, dataArea, info, plot, domainAxis, rangeAxis, dataset,
+                series, item, crosshairState, pass);
+    }
+
+    /**
+     * Returns true if the scatter plot of the dataset should be drawn with this renderer:
+     * if the number of points is above the density threshold, which is positive.
+     */
+    public static boolean isDense(XYDataset dataset, int densityThreshold) {
+        if (densityThreshold <= 0)
+            return false;
+        int count = 0;
+        for (int series = 0; series < dataset.getSeriesCount(); series++)
+            count += dataset.getItemCount(series);
+        return count > densityThreshold;
+    }
+
+    /**
+     * Writes the 2D plot and the volcano plots of synthetic cohorts of 1k, 10k and 100k samples to pdf files,
+     * with every point drawn as a vector shape and with this renderer, and prints the time and the pdf size.
+     * The optional arguments are the directory of the files (the temporary directory by default)
+     * and the density threshold (5000 by default).
+     */
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+        int densityThreshold = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int[] cohorts = new int[]{1000, 10000, 100000};
+        for (int n : cohorts) {
+            File summaryFile = new File(dir, "psf_summary_" + n + ".xls");
+            File tmmLabelsFile = new File(dir, "tmm_labels_" + n + ".txt");
+            writeCohort(summaryFile, tmmLabelsFile, n);
+            ReportModel reportModel = new ReportModel(new SummaryFileHandler(summaryFile), new TMMLabels(tmmLabelsFile));
+            for (int threshold : new int[]{0, densityThreshold}) {
+                File pdfFile = new File(dir, "report_" + n + (threshold == 0 ? "_vector" : "_density") + ".pdf");
+                long start = System.nanoTime();
+                TwoDPlotFactory twoDPlotFactory = new TwoDPlotFactory(reportModel);
+                twoDPlotFactory.setDensityThreshold(threshold);
+                VolcanoPlotFactory volcanoPlotFactory = new VolcanoPlotFactory(reportModel);
+                volcanoPlotFactory.setDensityThreshold(threshold);
+                ArrayList<JFreeChart> charts = new ArrayList<>();
+                charts.add(twoDPlotFactory.create2DPlot());
+                for (JFreeChart chart : volcanoPlotFactory.createVolcanoPlots())
+                    charts.add(chart);
+                PlotManager.writeChartAsPDF(pdfFile, new ArrayList<Paragraph>(), charts, 500, 500);
+                long time = (System.nanoTime() - start) / 1000000;
+                System.out.println(n + " samples, " + (threshold == 0 ? "vector" : "density") + ": "
+                        + time + " ms, " + (pdfFile.length() / 1024) + " KB");
+            }
+        }
+    }
+
+    /**
+     * Writes a summary file with the ALT and Telomerase rows of n samples, with log-normal scores and uniform p values,
+     * and a TMM labels file with random labels.
+     */
+    private static void writeCohort(File summaryFile, File tmmLabelsFile, int n) throws IOException {
+        Random random = new Random(n);
+        FileWriter summaryWriter = new FileWriter(summaryFile);
+        FileWriter labelsWriter = new FileWriter(tmmLabelsFile);
+        try {
+            summaryWriter.write("ID\tName");
+            labelsWriter.write("Sample\tALT\tTelomerase");
+            for (int i = 0; i < n; i++) {
+                summaryWriter.write("\t" + SummaryFileHandler.SCOREPATTERN + "S" + i + "\tpvalue.S" + i);
+                labelsWriter.write("\nS" + i + "\t" + (random.nextBoolean() ? "+" : "-")
+                        + "\t" + (random.nextBoolean() ? "+" : "-"));
+            }
+            String[] nodes = new String[]{SummaryFileHandler.ALTKEY, SummaryFileHandler.TELOMERASEKEY};
+            for (int node = 0; node < nodes.length; node++) {
+                summaryWriter.write("\n" + node + "\t" + nodes[node]);
+                for (int i = 0; i < n; i++)
+                    summaryWriter.write("\t" + Math.exp(random.nextGaussian())
+                            + "\t" + random.nextDouble());
+            }
+        } finally {
+            summaryWriter.close();
+            labelsWriter.close();
+        }
+    }
+}
@@ -27,7 +27,7 @@ public class GroupLabels {
     //sampleGroupLabelMap: sample -> group label
     private HashMap<String, String> sampleGroupLabelMap;
     //List of unique group names
-    private static ArrayList<String> groups;
+    private ArrayList<String> groups;
 
 
     public GroupLabels(ArrayList<String> samples) {
@@ -0,0 +1,107 @@
+package org.cytoscape.tmm.reports;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Public class LabelPlacer
+ * <p>
+ * Chooses the point labels to draw on a plot so that no two labels overlap.
+ * The labels are placed greedily in the order of their priority: a label is skipped
+ * if it overlaps a label placed before it. The placed labels are kept in a uniform grid
+ * over screen space, so that each label is compared with the labels in its cells only.
+ * Sorting the labels takes O(n log n), placing them O(n) for labels of similar size.
+ */
+public class LabelPlacer {
+    // the grid has at most this many cells per label
+    private static final int MAXCELLSPERLABEL = 4;
+
+    /**
+     * Places the labels.
+     *
+     * @param bounds     the screen bounds of the labels
+     * @param priorities the priorities of the labels; higher priority labels are placed first
+     * @return a boolean[] array, true for the labels to draw
+     */
+    public static boolean[] place(Rectangle2D[] bounds, final double[] priorities) {
+        int n = bounds.length;
+        boolean[] placed = new boolean[n];
+        if (n == 0)
+            return placed;
+
+        Rectangle2D area = (Rectangle2D) bounds[0].clone();
+        double width = 0;
+        double height = 0;
+        for (Rectangle2D b : bounds) {
+            area.add(b);
+            width += b.getWidth();
+            height = Math.max(height, b.getHeight());
+        }
+        // cells of the average label width and the largest label height,
+        // enlarged if the labels are spread over a large area
+        double cellWidth = Math.max(1, width / n);
+        double cellHeight = Math.max(1, height);
+        while ((area.getWidth() / cellWidth + 1) * (area.getHeight() / cellHeight + 1) > MAXCELLSPERLABEL * n + 16) {
+            cellWidth *= 2;
+            cellHeight *= 2;
+        }
+        int columns = (int) (area.getWidth() / cellWidth) + 1;
+        int rows = (int) (area.getHeight() / cellHeight) + 1;
+
+        //grid: cell -> bounds of the labels placed over the cell
+        ArrayList<ArrayList<Rectangle2D>> grid = new ArrayList<>(columns * rows);
+        for (int i = 0; i < columns * rows; i++)
+            grid.add(null);
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        // stable: labels of equal priority are placed in their order
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return Double.compare(priorities[i2], priorities[i1]);
+            }
+        });
+
+        for (int i : order) {
+            Rectangle2D b = bounds[i];
+            int column1 = (int) ((b.getMinX() - area.getMinX()) / cellWidth);
+            int column2 = Math.min(columns - 1, (int) ((b.getMaxX() - area.getMinX()) / cellWidth));
+            int row1 = (int) ((b.getMinY() - area.getMinY()) / cellHeight);
+            int row2 = Math.min(rows - 1, (int) ((b.getMaxY() - area.getMinY()) / cellHeight));
+
+            boolean overlaps = false;
+            for (int row = row1; row <= row2 && !overlaps; row++) {
+                for (int column = column1; column <= column2 && !overlaps; column++) {
+                    ArrayList<Rectangle2D> cell = grid.get(row * columns + column);
+                    if (cell == null)
+                        continue;
+                    for (Rectangle2D other : cell) {
+                        if (b.intersects(other)) {
+                            overlaps = true;
+                            break;
+                        }
+                    }
+                }
+            }
+            if (overlaps)
+                continue;
+
+            placed[i] = true;
+            for (int row = row1; row <= row2; row++) {
+                for (int column = column1; column <= column2; column++) {
+                    ArrayList<Rectangle2D> cell = grid.get(row * columns + column);
+                    if (cell == null) {
+                        cell = new ArrayList<>();
+                        grid.set(row * columns + column, cell);
+                    }
+                    cell.add(b);
+                }
+            }
+        }
+        return placed;
+    }
+}
@@ -0,0 +1,157 @@
+package org.cytoscape.tmm.reports;
+
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.labels.ItemLabelPosition;
+import org.jfree.chart.labels.XYItemLabelGenerator;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.plot.PlotRenderingInfo;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.XYItemRendererState;
+import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
+import org.jfree.data.xy.XYDataset;
+import org.jfree.text.TextUtilities;
+import org.jfree.ui.RectangleAnchor;
+import org.jfree.ui.RectangleEdge;
+
+import java.awt.*;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Public class LabelPlacingRenderer
+ * <p>
+ * A scatter renderer drawing only the item labels chosen by the LabelPlacer, so that the labels do not overlap.
+ * The labels of the priority samples (e.g. misclassified ones) are placed first,
+ * then the labels of the points far from the reference anchor of the data area.
+ */
+public class LabelPlacingRenderer extends XYLineAndShapeRenderer {
+    private RectangleAnchor referenceAnchor = RectangleAnchor.CENTER;
+    private HashSet<String> prioritySamples = new HashSet<>();
+
+    //placedLabels: series -> item -> whether the label of the item is drawn
+    private boolean[][] placedLabels;
+
+    public LabelPlacingRenderer() {
+        super(false, true);
+    }
+
+    /**
+     * Sets the point of the data area from which the distance of the points is measured:
+     * the labels of farther points are placed first. The center by default.
+     */
+    public void setReferenceAnchor(RectangleAnchor referenceAnchor) {
+        this.referenceAnchor = referenceAnchor;
+    }
+
+    /**
+     * Sets the samples, identified by their labels, whose labels are placed before all others.
+     */
+    public void setPrioritySamples(HashSet<String> prioritySamples) {
+        this.prioritySamples = prioritySamples;
+    }
+
+    /**
+     * Places the item labels before the items are drawn.
+     */
+    @Override
+    public XYItemRendererState initialise(Graphics2D g2, Rectangle2D dataArea, XYPlot plot,
+                                          XYDataset dataset, PlotRenderingInfo info) {
+        XYItemRendererState state = super.initialise(g2, dataArea, plot, dataset, info);
+        placedLabels = null;
+        if (dataset != null)
+            placeLabels(g2, dataArea, plot, dataset);
+        return state;
+    }
+
+    /**
+     * Returns true if the label of the item may be drawn. All items are candidates by default.
+     */
+    protected boolean isLabelCandidate(int series, int item) {
+        return true;
+    }
+
+    private void placeLabels(Graphics2D g2, Rectangle2D dataArea, XYPlot plot, XYDataset dataset) {
+        ValueAxis domainAxis = plot.getDomainAxis();
+        ValueAxis rangeAxis = plot.getRangeAxis();
+        RectangleEdge domainEdge = plot.getDomainAxisEdge();
+        RectangleEdge rangeEdge = plot.getRangeAxisEdge();
+        PlotOrientation orientation = plot.getOrientation();
+        Point2D reference = RectangleAnchor.coordinates(dataArea, referenceAnchor);
+        double maxDistance = Math.max(1, Math.hypot(dataArea.getWidth(), dataArea.getHeight()));
+        Font font = g2.getFont();
+
+        int seriesCount = dataset.getSeriesCount();
+        placedLabels = new boolean[seriesCount][];
+        ArrayList<Rectangle2D> bounds = new ArrayList<>();
+        ArrayList<Double> priorities = new ArrayList<>();
+        // the series and item of each label
+        ArrayList<int[]> labelItems = new ArrayList<>();
+        for (int series = 0; series < seriesCount; series++) {
+            int itemCount = dataset.getItemCount(series);
+            placedLabels[series] = new boolean[itemCount];
+            if (!isSeriesVisible(series))
+                continue;
+            for (int item = 0; item < itemCount; item++) {
+                if (!isItemLabelVisible(series, item) || !isLabelCandidate(series, item))
+                    continue;
+                XYItemLabelGenerator generator = getItemLabelGenerator(series, item);
+                if (generator == null)
+                    continue;
+                String label = generator.generateLabel(dataset, series, item);
+                if (label == null || label.isEmpty())
+                    continue;
+                double yValue = dataset.getYValue(series, item);
+                double x = domainAxis.valueToJava2D(dataset.getXValue(series, item), dataArea, domainEdge);
+                double y = rangeAxis.valueToJava2D(yValue, dataArea, rangeEdge);
+                if (!dataArea.contains(x, y))
+                    continue;
+                if (orientation == PlotOrientation.HORIZONTAL) {
+                    double t = x;
+                    x = y;
+                    y = t;
+                }
+
+                // the bounds of the label, as drawn by drawItemLabel
+                g2.setFont(getItemLabelFont(series, item));
+                ItemLabelPosition position = yValue < 0 ? getNegativeItemLabelPosition(series, item)
+                        : getPositiveItemLabelPosition(series, item);
+                Point2D anchorPoint = calculateLabelAnchorPoint(position.getItemLabelAnchor(), x, y, orientation);
+                Shape labelShape = TextUtilities.calculateRotatedStringBounds(label, g2,
+                        (float) anchorPoint.getX(), (float) anchorPoint.getY(),
+                        position.getTextAnchor(), position.getAngle(), position.getRotationAnchor());
+                if (labelShape == null)
+                    continue;
+
+                double priority = Point2D.distance(x, y, reference.getX(), reference.getY()) / maxDistance;
+                if (prioritySamples.contains(label))
+                    priority += 1;
+                bounds.add(labelShape.getBounds2D());
+                priorities.add(priority);
+                labelItems.add(new int[]{series, item});
+            }
+        }
+        g2.setFont(font);
+
+        double[] priorityArray = new double[priorities.size()];
+        for (int i = 0; i < priorityArray.length; i++)
+            priorityArray[i] = priorities.get(i);
+        boolean[] placed = LabelPlacer.place(bounds.toArray(new Rectangle2D[bounds.size()]), priorityArray);
+        for (int i = 0; i < placed.length; i++)
+            if (placed[i])
+                placedLabels[labelItems.get(i)[0]][labelItems.get(i)[1]] = true;
+    }
+
+    /**
+     * Draws the item label only if it was placed.
+     */
+    @Override
+    protected void drawItemLabel(Graphics2D g2, PlotOrientation orientation, XYDataset dataset,
+                                 int series, int item, double x, double y, boolean negative) {
+        if (placedLabels != null && series < placedLabels.length && item < placedLabels[series].length
+                && !placedLabels[series][item])
+            return;
+        super.drawItemLabel(g2, orientation, dataset, series, item, x, y, negative);
+    }
+}
@@ -0,0 +1,81 @@
+package org.cytoscape.tmm.reports;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Public class NodePSFIndex
+ * <p>
+ * The node-level PSF scores of all samples of a psf summary file, read through its SummaryRowIndex
+ * and kept as one array of scores per sample, in the order of the node rows of the file.
+ * The index of the last summary file is kept as long as its row index is, i.e. until the file changes,
+ * so that samples can be visualized without running PSF again.
+ */
+public class NodePSFIndex {
+    private static NodePSFIndex lastIndex = null;
+
+    private final SummaryRowIndex rowIndex;
+    private final String[] nodeNames;
+    private final double[][] scores;
+    private final double[] scoreRange = new double[]{Double.MAX_VALUE, -Double.MAX_VALUE};
+
+    private NodePSFIndex(SummaryRowIndex rowIndex) throws Exception {
+        this.rowIndex = rowIndex;
+        ArrayList<String> names = rowIndex.getNodeNames();
+        nodeNames = names.toArray(new String[names.size()]);
+        scores = new double[rowIndex.getSamples().size()][nodeNames.length];
+        for (int n = 0; n < nodeNames.length; n++) {
+            double[] row = rowIndex.readRow(nodeNames[n])[0];
+            for (int s = 0; s < row.length; s++) {
+                scores[s][n] = row[s];
+                if (Double.isNaN(row[s]))
+                    continue;
+                if (row[s] < scoreRange[0])
+                    scoreRange[0] = row[s];
+                if (row[s] > scoreRange[1])
+                    scoreRange[1] = row[s];
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the summary file, reading the file only if it was not indexed last or has changed.
+     *
+     * @param summaryFile the psf summary file
+     * @return the index
+     * @throws Exception if the file cannot be read
+     */
+    public static synchronized NodePSFIndex get(File summaryFile) throws Exception {
+        SummaryRowIndex rowIndex = SummaryRowIndex.get(summaryFile);
+        if (lastIndex == null || lastIndex.rowIndex != rowIndex)
+            lastIndex = new NodePSFIndex(rowIndex);
+        return lastIndex;
+    }
+
+    /**
+     * Returns the node names, in the order of the scores.
+     */
+    public String[] getNodeNames() {
+        return nodeNames;
+    }
+
+    /**
+     * Returns the node-level PSF scores of the sample, or null if the sample is not in the summary file.
+     * The array is shared and should not be modified.
+     */
+    public double[] getScores(String sample) {
+        int s = rowIndex.getSampleIndex(sample);
+        return s < 0 ? null : scores[s];
+    }
+
+    /**
+     * Returns the min-max range of the scores of all samples.
+     */
+    public double[] getScoreRange() {
+        return scoreRange;
+    }
+
+    public File getSummaryFile() {
+        return rowIndex.getSummaryFile();
+    }
+}
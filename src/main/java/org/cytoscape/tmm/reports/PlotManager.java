@@ -4,12 +4,14 @@ import com.itextpdf.awt.PdfGraphics2D;
 import com.itextpdf.text.*;
 import com.itextpdf.text.Rectangle;
 import com.itextpdf.text.pdf.PdfContentByte;
-import com.itextpdf.text.pdf.PdfTemplate;
+import com.itextpdf.text.pdf.PdfImportedPage;
+import com.itextpdf.text.pdf.PdfReader;
 import com.itextpdf.text.pdf.PdfWriter;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.labels.XYItemLabelGenerator;
 import org.jfree.chart.plot.ValueMarker;
 import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.XYItemRenderer;
 import org.jfree.data.xy.XYDataset;
 import org.jfree.ui.RectangleAnchor;
 import org.jfree.ui.RectangleInsets;
@@ -22,6 +24,12 @@ import java.io.*;
 import java.security.acl.Group;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by Lilit Nersisyan on 4/7/2017.
@@ -31,16 +39,32 @@ public class PlotManager {
                                        ArrayList<JFreeChart> charts,
                                        float width,
                                        float height) throws IOException {
+        writeChartAsPDF(out, firstPage, charts, width, height, 0);
+    }
+
+    /**
+     * Writes the first page and the charts, one chart per page, to the pdf file.
+     * As a PdfWriter may not be used by several threads, each chart is drawn concurrently into a pdf
+     * of its own in memory, and the pages of these are then imported by this thread in the order of the charts.
+     * If a chart cannot be drawn, the partially written file is deleted.
+     *
+     * @param numThreads the number of charts drawn at the same time, 0 for the number of available processors
+     */
+    public static void writeChartAsPDF(File out, ArrayList<Paragraph> firstPage,
+                                       ArrayList<JFreeChart> charts,
+                                       float width,
+                                       float height,
+                                       int numThreads) throws IOException {
         Rectangle pagesize = new Rectangle(PageSize.A4);
         Document document = new Document(pagesize, 50, 50, 50, 50);
+        FileOutputStream outputStream = new FileOutputStream(out);
+        boolean success = false;
         try {
-            PdfWriter writer = PdfWriter.getInstance(document, new FileOutputStream(out));
+            PdfWriter writer = PdfWriter.getInstance(document, outputStream);
             document.addAuthor("JFreeChart");
             document.addSubject("Demonstration");
             document.open();
             PdfContentByte cb = writer.getDirectContent();
-            PdfTemplate tp = cb.createTemplate(PageSize.A4.getWidth(), PageSize.A4.getHeight());
-            double y = 0;
 
            document.setPageSize(new Rectangle(0,0,width, height));
             document.newPage();
@@ -48,21 +72,91 @@ public class PlotManager {
                 document.add(paragraph);
             }
 
-
-            for (JFreeChart chart : charts) {
-                document.setPageSize(new Rectangle(0, 0, width, height));
-                document.newPage();
-                Graphics2D g2 = new PdfGraphics2D(cb, width, height);
-                double margin = 20;
-                Rectangle2D r2D = new Rectangle2D.Double(margin, margin, width - 2 * margin, height - 2 * margin);
-                chart.draw(g2, r2D);
-                g2.dispose();
+            ArrayList<Future<byte[]>> chartPDFs = drawCharts(charts, width, height, numThreads);
+            try {
+                for (int i = 0; i < chartPDFs.size(); i++) {
+                    byte[] chartPDF;
+                    try {
+                        chartPDF = chartPDFs.get(i).get();
+                    } catch (ExecutionException e) {
+                        throw new IOException("Could not draw chart " + (i + 1) + ": "
+                                + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+                    }
+                    chartPDFs.set(i, null);
+                    PdfReader reader = new PdfReader(chartPDF);
+                    document.setPageSize(new Rectangle(0, 0, width, height));
+                    document.newPage();
+                    PdfImportedPage page = writer.getImportedPage(reader, 1);
+                    cb.addTemplate(page, 0, 0);
+                    writer.freeReader(reader);
+                    reader.close();
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while drawing the charts");
+            } finally {
+                for (Future<byte[]> chartPDF : chartPDFs)
+                    if (chartPDF != null)
+                        chartPDF.cancel(true);
             }
+            document.close();
+            success = true;
+        } catch (DocumentException e) {
+            throw new IOException("Could not write the report " + out.getAbsolutePath() + ": "
+                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        } finally {
+            if (!success) {
+                // a partial report is not left on disk
+                try {
+                    if (document.isOpen())
+                        document.close();
+                } catch (RuntimeException e) {
+                    // e.g. a document without pages cannot be closed
+                }
+                outputStream.close();
+                out.delete();
+            }
+        }
+    }
 
-        } catch (DocumentException de) {
-            System.err.println(de.getMessage());
+    /**
+     * Starts drawing the charts, each into a pdf of its own, on at most numThreads threads.
+     *
+     * @return the pdfs of the charts, in the order of the charts
+     */
+    private static ArrayList<Future<byte[]>> drawCharts(final ArrayList<JFreeChart> charts,
+                                                       final float width, final float height, int numThreads) {
+        if (numThreads <= 0)
+            numThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, charts.size())));
+        ArrayList<Future<byte[]>> futures = new ArrayList<>();
+        for (final JFreeChart chart : charts) {
+            futures.add(executorService.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return drawChart(chart, width, height);
+                }
+            }));
         }
+        // the threads end once the charts are drawn
+        executorService.shutdown();
+        return futures;
+    }
+
+    /**
+     * Draws the chart on the single page of a pdf in memory.
+     */
+    private static byte[] drawChart(JFreeChart chart, float width, float height) throws DocumentException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Document document = new Document(new Rectangle(0, 0, width, height), 0, 0, 0, 0);
+        PdfWriter writer = PdfWriter.getInstance(document, out);
+        document.open();
+        Graphics2D g2 = new PdfGraphics2D(writer.getDirectContent(), width, height);
+        double margin = 20;
+        Rectangle2D r2D = new Rectangle2D.Double(margin, margin, width - 2 * margin, height - 2 * margin);
+        chart.draw(g2, r2D);
+        g2.dispose();
         document.close();
+        return out.toByteArray();
     }
 
     public static void renderBase(XYPlot plot) {
@@ -120,6 +214,19 @@ public class PlotManager {
 
 
 
+    /**
+     * Makes the labels of the specified samples be placed before the other labels of the plot,
+     * if the plot is drawn by a LabelPlacingRenderer.
+     *
+     * @param chart
+     * @param samples the samples, e.g. misclassified ones
+     */
+    public static void setPrioritySamples(JFreeChart chart, HashSet<String> samples) {
+        XYItemRenderer renderer = ((XYPlot) chart.getPlot()).getRenderer();
+        if (renderer instanceof LabelPlacingRenderer)
+            ((LabelPlacingRenderer) renderer).setPrioritySamples(samples);
+    }
+
     /**
      * Draws a gray line at the specified position on the y axis (if horizontal is true)
      * or the x axis (if horizontal is false)
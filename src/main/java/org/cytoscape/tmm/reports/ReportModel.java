@@ -0,0 +1,254 @@
+package org.cytoscape.tmm.reports;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.cytoscape.tmm.reports.SummaryFileHandler.ALTKEY;
+import static org.cytoscape.tmm.reports.SummaryFileHandler.TELOMERASEKEY;
+
+/**
+ * Public class ReportModel
+ * <p>
+ * The per-sample data of a report, built once from the summary file and the TMM or group labels,
+ * and shared by the plot factories. Holds the PSF scores and p values of both TMMs in primitive arrays
+ * by sample ordinal, together with their log transforms and -log2 p values, the label of each sample
+ * and the samples of each label. The model is not modified after construction, so the factories may
+ * read it concurrently; the charts see it through ReportXYDatasets, which do not copy the arrays.
+ */
+public class ReportModel {
+    public static final double LOGINCREMENT = 0.01;
+    private static final double MINPVALUE = 0.001;
+
+    private final String[] samples;
+    private final double[] altScores;
+    private final double[] altPValues;
+    private final double[] telomeraseScores;
+    private final double[] telomerasePValues;
+    private final double[] logAltScores;
+    private final double[] logTelomeraseScores;
+    private final double[] altLog2PValues;
+    private final double[] telomeraseLog2PValues;
+    private final double[] altRange;
+    private final double[] telomeraseRange;
+
+    private final TMMLabels tmmLabels;
+    private final GroupLabels groupLabels;
+    private final String[] labels;
+    //labelOrdinals: sample ordinal -> label ordinal, -1 if the sample has no label
+    private final int[] labelOrdinals;
+    //labelSamples: label ordinal -> sample ordinals, in the order of the points of the label series
+    private final int[][] labelSamples;
+
+    /**
+     * Constructor for TMM labeled samples. The labels are ALT, Telomerase, Normal and ALT+/Telomerase+,
+     * with the samples of each label in the order of the summary file.
+     *
+     * @param summaryFileHandler
+     * @param tmmLabels
+     * @throws Exception
+     */
+    public ReportModel(SummaryFileHandler summaryFileHandler, TMMLabels tmmLabels) throws Exception {
+        this(summaryFileHandler, tmmLabels, null,
+                new String[]{TMMLabels.A, TMMLabels.T, TMMLabels.N, TMMLabels.AT});
+    }
+
+    /**
+     * Constructor for estimation mode. The labels are the groups,
+     * with the samples of each group in the order of the group labels file.
+     *
+     * @param summaryFileHandler
+     * @param groupLabels
+     * @throws Exception
+     */
+    public ReportModel(SummaryFileHandler summaryFileHandler, GroupLabels groupLabels) throws Exception {
+        this(summaryFileHandler, null, groupLabels,
+                groupLabels.getGroups().toArray(new String[groupLabels.getGroups().size()]));
+    }
+
+    private ReportModel(SummaryFileHandler summaryFileHandler, TMMLabels tmmLabels, GroupLabels groupLabels,
+                        String[] labels) throws Exception {
+        this.tmmLabels = tmmLabels;
+        this.groupLabels = groupLabels;
+        this.labels = labels;
+
+        ArrayList<String> sampleList = summaryFileHandler.getSamples();
+        int n = sampleList.size();
+        samples = sampleList.toArray(new String[n]);
+        altScores = copy(summaryFileHandler.getScoreArray(ALTKEY), n, ALTKEY);
+        altPValues = copy(summaryFileHandler.getPValueArray(ALTKEY), n, ALTKEY);
+        telomeraseScores = copy(summaryFileHandler.getScoreArray(TELOMERASEKEY), n, TELOMERASEKEY);
+        telomerasePValues = copy(summaryFileHandler.getPValueArray(TELOMERASEKEY), n, TELOMERASEKEY);
+        altRange = summaryFileHandler.getPSFRange(ALTKEY).clone();
+        telomeraseRange = summaryFileHandler.getPSFRange(TELOMERASEKEY).clone();
+
+        logAltScores = new double[n];
+        logTelomeraseScores = new double[n];
+        altLog2PValues = new double[n];
+        telomeraseLog2PValues = new double[n];
+        for (int i = 0; i < n; i++) {
+            logAltScores[i] = Math.log(altScores[i] + LOGINCREMENT);
+            logTelomeraseScores[i] = Math.log(telomeraseScores[i] + LOGINCREMENT);
+            altLog2PValues[i] = getLog2PValue(altPValues[i]);
+            telomeraseLog2PValues[i] = getLog2PValue(telomerasePValues[i]);
+        }
+
+        labelOrdinals = new int[n];
+        labelSamples = new int[labels.length][];
+        if (tmmLabels != null) {
+            HashMap<String, Integer> labelIndices = new HashMap<>();
+            for (int l = 0; l < labels.length; l++)
+                labelIndices.put(labels[l], l);
+            int[] counts = new int[labels.length];
+            for (int i = 0; i < n; i++) {
+                Integer l = labelIndices.get(tmmLabels.getSampleTMMLabelMap().get(samples[i]));
+                labelOrdinals[i] = l == null ? -1 : l;
+                if (l != null)
+                    counts[l]++;
+            }
+            for (int l = 0; l < labels.length; l++)
+                labelSamples[l] = new int[counts[l]];
+            int[] filled = new int[labels.length];
+            for (int i = 0; i < n; i++)
+                if (labelOrdinals[i] >= 0)
+                    labelSamples[labelOrdinals[i]][filled[labelOrdinals[i]]++] = i;
+        } else {
+            HashMap<String, Integer> sampleIndices = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                sampleIndices.put(samples[i], i);
+                labelOrdinals[i] = -1;
+            }
+            for (int l = 0; l < labels.length; l++) {
+                ArrayList<String> groupSamples = groupLabels.getSamples(labels[l]);
+                labelSamples[l] = new int[groupSamples == null ? 0 : groupSamples.size()];
+                for (int j = 0; j < labelSamples[l].length; j++) {
+                    Integer i = sampleIndices.get(groupSamples.get(j));
+                    if (i == null)
+                        throw new Exception("Sample " + groupSamples.get(j) + " was not found in the summary file");
+                    labelSamples[l][j] = i;
+                    labelOrdinals[i] = l;
+                }
+            }
+        }
+    }
+
+    private static double[] copy(double[] values, int n, String tmmKey) throws Exception {
+        if (values == null || values.length != n)
+            throw new Exception("Summary map did not contain key " + tmmKey);
+        return values.clone();
+    }
+
+    private static double getLog2PValue(double pvalue) {
+        if (pvalue < MINPVALUE)
+            pvalue = MINPVALUE;
+        return -1 * Math.log(pvalue) / Math.log(2);
+    }
+
+    /**
+     * Returns true if the labels are TMM labels, and false if they are group labels.
+     */
+    public boolean isTMMLabeled() {
+        return tmmLabels != null;
+    }
+
+    public TMMLabels getTMMLabels() {
+        return tmmLabels;
+    }
+
+    public GroupLabels getGroupLabels() {
+        return groupLabels;
+    }
+
+    public int getSampleCount() {
+        return samples.length;
+    }
+
+    public String getSample(int i) {
+        return samples[i];
+    }
+
+    public double getScore(String tmmKey, int i) {
+        return getScores(tmmKey)[i];
+    }
+
+    public double getPValue(String tmmKey, int i) {
+        return tmmKey.equals(ALTKEY) ? altPValues[i] : telomerasePValues[i];
+    }
+
+    /**
+     * Returns the minimum and the maximum PSF scores of the TMM.
+     */
+    public double[] getScoreRange(String tmmKey) {
+        return tmmKey.equals(ALTKEY) ? altRange.clone() : telomeraseRange.clone();
+    }
+
+    /**
+     * Returns -log2 of the p value, with p values below 0.001 taken as 0.001.
+     */
+    public double getLog2PValue(String tmmKey, int i) {
+        return tmmKey.equals(ALTKEY) ? altLog2PValues[i] : telomeraseLog2PValues[i];
+    }
+
+    private double[] getScores(String tmmKey) {
+        return tmmKey.equals(ALTKEY) ? altScores : telomeraseScores;
+    }
+
+    public int getLabelCount() {
+        return labels.length;
+    }
+
+    public String getLabel(int l) {
+        return labels[l];
+    }
+
+    /**
+     * Returns the label ordinal of the sample, or -1 if the sample has no label.
+     */
+    public int getLabelOrdinal(int i) {
+        return labelOrdinals[i];
+    }
+
+    /**
+     * Returns the PSF scores of the TMM for the samples of the label, in the order of the label series.
+     */
+    public double[] getLabelScores(String tmmKey, int l) {
+        double[] scores = getScores(tmmKey);
+        double[] labelScores = new double[labelSamples[l].length];
+        for (int j = 0; j < labelScores.length; j++)
+            labelScores[j] = scores[labelSamples[l][j]];
+        return labelScores;
+    }
+
+    /**
+     * Returns the names of the samples of each label, in the order of the points of the label series.
+     * These are the point labels of the plots.
+     */
+    public HashMap<String, ArrayList<String>> getLabelSamplesMap() {
+        HashMap<String, ArrayList<String>> labelSamplesMap = new HashMap<>();
+        for (int l = 0; l < labels.length; l++) {
+            ArrayList<String> labelSampleNames = new ArrayList<>(labelSamples[l].length);
+            for (int i : labelSamples[l])
+                labelSampleNames.add(samples[i]);
+            labelSamplesMap.put(labels[l], labelSampleNames);
+        }
+        return labelSamplesMap;
+    }
+
+    /**
+     * Returns the dataset of the 2D plot: one series per label, with Telomerase scores on the x axis
+     * and ALT scores on the y axis, or their logs if logScale is true.
+     */
+    public ReportXYDataset create2DDataset(boolean logScale) {
+        return new ReportXYDataset(labels, labelSamples,
+                logScale ? logTelomeraseScores : telomeraseScores,
+                logScale ? logAltScores : altScores);
+    }
+
+    /**
+     * Returns the dataset of the volcano plot of the TMM: one series per label,
+     * with PSF scores on the x axis and -log2 p values on the y axis.
+     */
+    public ReportXYDataset createVolcanoDataset(String tmmKey) {
+        return new ReportXYDataset(labels, labelSamples, getScores(tmmKey),
+                tmmKey.equals(ALTKEY) ? altLog2PValues : telomeraseLog2PValues);
+    }
+}
@@ -0,0 +1,60 @@
+package org.cytoscape.tmm.reports;
+
+import org.jfree.data.xy.AbstractXYDataset;
+
+/**
+ * Public class ReportXYDataset
+ * <p>
+ * An XYDataset over the arrays of a ReportModel. The x and y values of a point are read
+ * from the arrays by the sample ordinal of the point, so that neither the values nor the
+ * points are copied, and each series holds the samples of a label.
+ */
+public class ReportXYDataset extends AbstractXYDataset {
+    private final String[] seriesKeys;
+    //seriesSamples: series -> item -> sample ordinal
+    private final int[][] seriesSamples;
+    private final double[] x;
+    private final double[] y;
+
+    ReportXYDataset(String[] seriesKeys, int[][] seriesSamples, double[] x, double[] y) {
+        this.seriesKeys = seriesKeys;
+        this.seriesSamples = seriesSamples;
+        this.x = x;
+        this.y = y;
+    }
+
+    @Override
+    public int getSeriesCount() {
+        return seriesKeys.length;
+    }
+
+    @Override
+    public Comparable getSeriesKey(int series) {
+        return seriesKeys[series];
+    }
+
+    @Override
+    public int getItemCount(int series) {
+        return seriesSamples[series].length;
+    }
+
+    @Override
+    public Number getX(int series, int item) {
+        return getXValue(series, item);
+    }
+
+    @Override
+    public double getXValue(int series, int item) {
+        return x[seriesSamples[series][item]];
+    }
+
+    @Override
+    public Number getY(int series, int item) {
+        return getYValue(series, item);
+    }
+
+    @Override
+    public double getYValue(int series, int item) {
+        return y[seriesSamples[series][item]];
+    }
+}
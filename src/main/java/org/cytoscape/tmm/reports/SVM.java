@@ -95,12 +95,8 @@ public class SVM {
     public ClassificationDataSet generateDataSet(SummaryFileHandler summaryFileHandler,
                                                  String tmmReference) throws Exception {
 
-        HashMap<String, HashMap<String, HashMap<String, Double>>> summaryMap =
-                summaryFileHandler.getSummaryMap();
-        HashMap<String, Double> altScores =
-                summaryMap.get(SummaryFileHandler.ALTKEY).get(SummaryFileHandler.SCORESKEY);
-        HashMap<String, Double> telomeraseScores =
-                summaryMap.get(SummaryFileHandler.TELOMERASEKEY).get(SummaryFileHandler.SCORESKEY);
+        double[] scores = summaryFileHandler.getScoreArray(tmmReference.equals(TMMLabels.A)
+                ? SummaryFileHandler.ALTKEY : SummaryFileHandler.TELOMERASEKEY);
 
         // 1 - means one dimension; new CategoricalData(2) means two categories
         CategoricalData[] categoricalDatas = new CategoricalData[1];
@@ -122,11 +118,7 @@ public class SVM {
 
         int ind = 0;
         for (String s : summaryFileHandler.getSamples()) {
-            double score;
-            if (tmmReference.equals(TMMLabels.A))
-                score = altScores.get(s);
-            else
-                score = telomeraseScores.get(s);
+            double score = scores[ind++];
             Vec vec = DenseVector.toDenseVec(score);
             String tmm = tmmLabels.getSampleTMMLabelMap().get(s);
             int cat;
@@ -386,17 +378,7 @@ public class SVM {
         for (int i = 0; i < summaryFileHandler.getSamples().size(); i++) {
             String sample = summaryFileHandler.getSamples().get(i);
             String tmm = tmmLabels.getSampleTMMLabelMap().get(sample);
-            String pred;
-            if (predictionTable[i][0])
-                if (predictionTable[i][1])
-                    pred = TMMLabels.AT;
-                else
-                    pred = TMMLabels.A;
-            else if (predictionTable[i][1])
-                pred = TMMLabels.T;
-            else
-                pred = TMMLabels.N;
-            if (tmm.equals(pred)){
+            if (tmm.equals(getPrediction(i))){
                 correct++;
             } else {
                 wrong++;
@@ -407,4 +389,29 @@ public class SVM {
         accuracy = ((double) correct) / (wrong + correct);
         return accuracy;
     }
+
+    /**
+     * Returns the samples whose predicted TMM differs from their TMM label.
+     */
+    public HashSet<String> getMisclassifiedSamples() {
+        HashSet<String> misclassified = new HashSet<>();
+        for (int i = 0; i < summaryFileHandler.getSamples().size(); i++) {
+            String sample = summaryFileHandler.getSamples().get(i);
+            if (!tmmLabels.getSampleTMMLabelMap().get(sample).equals(getPrediction(i)))
+                misclassified.add(sample);
+        }
+        return misclassified;
+    }
+
+    private String getPrediction(int i) {
+        if (predictionTable[i][0])
+            if (predictionTable[i][1])
+                return TMMLabels.AT;
+            else
+                return TMMLabels.A;
+        else if (predictionTable[i][1])
+            return TMMLabels.T;
+        else
+            return TMMLabels.N;
+    }
 }
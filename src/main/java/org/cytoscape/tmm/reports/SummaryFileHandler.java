@@ -10,9 +10,12 @@ import java.util.HashMap;
  * Created by Lilit Nersisyan on 4/10/2017.
  * Public class SummaryFileHandler
  * <p>
- * Reads psf summary file and stores the scores for TMM networks in a map.
- * The sample names are kept in a separate list (samples),
- * and their order is the same as in the score and pvalue maps of summaryMap.
+ * Reads psf summary file and stores the scores for TMM networks in columns:
+ * one array of PSF scores and one of p values per TMM network, indexed by the ordinal of the sample.
+ * The sample names are kept in a separate list (samples), in the order of the summary file,
+ * which is also the order of the values in the arrays. The nested map of the earlier versions
+ * is still available with getSummaryMap(). The ALT and Telomerase rows are read through the SummaryRowIndex
+ * of the file.
  */
 public class SummaryFileHandler {
 
@@ -30,9 +33,15 @@ public class SummaryFileHandler {
 
     private File summaryFile;
     private ArrayList<String> samples;
+    //sampleIndices: sample name -> ordinal of the sample in samples and in the value arrays
+    private HashMap<String, Integer> sampleIndices;
+    private double[] altScores;
+    private double[] altPValues;
+    private double[] telomeraseScores;
+    private double[] telomerasePValues;
 
-    //Summary map: tmmkey (ALT/Telomerase) -> scores/pval key -> sample name -> value
-    HashMap<String, HashMap<String, HashMap<String, Double>>> summaryMap;
+    //Summary map: tmmkey (ALT/Telomerase) -> scores/pval key -> sample name -> value; built on request
+    private HashMap<String, HashMap<String, HashMap<String, Double>>> summaryMap;
 
 
     public SummaryFileHandler(File summaryFile) throws Exception {
@@ -47,174 +56,130 @@ public class SummaryFileHandler {
     /**
      * Returns the map storing the PSF and p values of TMM networks in the form:
      * tmmkey (ALT/Telomerase) -> scores/pval key -> sample name -> value
+     * The map is a copy of the value arrays, built on the first call.
      * @return
      */
-    public HashMap<String, HashMap<String, HashMap<String, Double>>> getSummaryMap() {
+    public synchronized HashMap<String, HashMap<String, HashMap<String, Double>>> getSummaryMap() {
+        if (summaryMap == null) {
+            summaryMap = new HashMap<>();
+            summaryMap.put(ALTKEY, toMap(altScores, altPValues));
+            summaryMap.put(TELOMERASEKEY, toMap(telomeraseScores, telomerasePValues));
+        }
         return summaryMap;
     }
 
+    private HashMap<String, HashMap<String, Double>> toMap(double[] scores, double[] pValues) {
+        HashMap<String, Double> scoresMap = new HashMap<>();
+        HashMap<String, Double> pValuesMap = new HashMap<>();
+        for (int i = 0; i < samples.size(); i++) {
+            scoresMap.put(samples.get(i), scores[i]);
+            pValuesMap.put(samples.get(i), pValues[i]);
+        }
+        HashMap<String, HashMap<String, Double>> map = new HashMap<>();
+        map.put(SCORESKEY, scoresMap);
+        map.put(PVALUESKEY, pValuesMap);
+        return map;
+    }
+
     public ArrayList<String> getSamples(){
         return samples;
     }
 
-    private void generateSummaryMap() throws Exception {
-        BufferedReader reader;
-        try {
-            reader = new BufferedReader(new FileReader(summaryFile));
-        } catch (FileNotFoundException e) {
-            throw new Exception("Cannot open the summary file " + summaryFile.getAbsolutePath()
-                    + " for reading: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
-        }
-
-        String line;
-        try {
-            line = reader.readLine();
-        } catch (IOException e) {
-            throw new Exception("Problem reading line 1 of file " + summaryFile.getAbsolutePath()
-                    + ". Reason: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
-        }
-
-        if (line == null) {
-            throw new Exception("Summary file " + summaryFile.getAbsolutePath() + " is empty");
-        }
-
-        // read in samples -
-        // NOTE: the samples list generated here will later be sorted to agree with the order of samples in maps
-        String[] header = line.split("\t");
-        samples = new ArrayList<>();
-        for (int i = 2; i < header.length; i += 2) {
-            if (!header[i].contains(SCOREPATTERN))
-                throw new Exception("The header at column " + i + 1
-                        + " did not contain pattern \"" + SCOREPATTERN
-                        + "\" in file " + summaryFile.getAbsolutePath());
-            String sample = header[i].substring(SCOREPATTERN.length());
-            samples.add(sample);
-        }
-
-        // read the scores
-        int lineNum = 1;
-        summaryMap = new HashMap<>();
+    /**
+     * Returns the ordinal of the sample in the value arrays, or -1 if the summary file has no such sample.
+     */
+    public int getSampleIndex(String sample) {
+        Integer index = sampleIndices.get(sample);
+        return index == null ? -1 : index;
+    }
 
-        HashMap<String, HashMap<String, Double>> altMap = new HashMap<>();
-        altMap.put(SCORESKEY, new HashMap<String, Double>());
-        altMap.put(PVALUESKEY, new HashMap<String, Double>());
-        summaryMap.put(ALTKEY, altMap);
+    /**
+     * Returns the PSF scores of the specified TMM network, indexed by sample ordinal,
+     * or null if no such TMM exists. The array is not copied and should not be modified.
+     */
+    public double[] getScoreArray(String tmmKey) {
+        if (tmmKey.equals(ALTKEY))
+            return altScores;
+        else if (tmmKey.equals(TELOMERASEKEY))
+            return telomeraseScores;
+        else
+            return null;
+    }
 
-        HashMap<String, HashMap<String, Double>> telomeraseMap = new HashMap<>();
-        telomeraseMap.put(SCORESKEY, new HashMap<String, Double>());
-        telomeraseMap.put(PVALUESKEY, new HashMap<String, Double>());
-        summaryMap.put(TELOMERASEKEY, telomeraseMap);
+    /**
+     * Returns the p values of the specified TMM network, indexed by sample ordinal,
+     * or null if no such TMM exists. The array is not copied and should not be modified.
+     */
+    public double[] getPValueArray(String tmmKey) {
+        if (tmmKey.equals(ALTKEY))
+            return altPValues;
+        else if (tmmKey.equals(TELOMERASEKEY))
+            return telomerasePValues;
+        else
+            return null;
+    }
 
-        boolean altFound = false;
-        boolean telomeraseFound = false;
+    private void generateSummaryMap() throws Exception {
+        // the rows of the TMM targets are read at their offsets, instead of scanning the whole file
+        SummaryRowIndex index = SummaryRowIndex.get(summaryFile);
+        samples = new ArrayList<>(index.getSamples());
+        sampleIndices = new HashMap<>();
+        for (int i = 0; i < samples.size(); i++)
+            sampleIndices.put(samples.get(i), i);
+        if (samples.isEmpty())
+            throw new Exception("Summary file " + summaryFile.getAbsolutePath() + " did not contain any samples");
+
+        double[][] altRow = index.readRow(ALTKEY);
+        if (altRow == null)
+            throw new Exception("There was no node labeled \"" + ALTKEY + "\". Please, add it as the target of ALT network.");
+        double[][] telomeraseRow = index.readRow(TELOMERASEKEY);
+        if (telomeraseRow == null)
+            throw new Exception("There was no node labeled \"" + TELOMERASEKEY + "\". Please, add it as the target of Telomerase network.");
 
+        altScores = altRow[0];
+        altPValues = altRow[1];
+        telomeraseScores = telomeraseRow[0];
+        telomerasePValues = telomeraseRow[1];
         try {
-            while ((line = reader.readLine()) != null && (!telomeraseFound || !altFound)) {
-                lineNum++;
-                String[] tokens = line.split("\t");
-                if (tokens.length != 2 * samples.size() + 2)
-                    throw new Exception("Column number mismatch: line " + lineNum + " in file " +
-                            summaryFile.getAbsolutePath() + " did not contain "
-                            + 2 * samples.size() + 2 + "(2xsamples + 2) columns. Found "
-                            + tokens.length + " instead.");
-                String gene = tokens[1];
-                if (gene.equals(ALTKEY)) {
-                    try {
-                        populateScores(tokens, samples, lineNum, altMap,
-                                altPSFRange, altPvalRange);
-                    } catch (Exception e) {
-                        throw new Exception("Could not retrieve ALT scores: " + e.getMessage());
-                    }
-                    altFound = true;
-                }
-                if (gene.equals(TELOMERASEKEY)) {
-                    try {
-                        populateScores(tokens, samples, lineNum, telomeraseMap,
-                                telomerasePSFRange, telomerasePvalRange);
-                    } catch (Exception e) {
-                        throw new Exception("Could not retrieve Telomerase scores: " + e.getMessage());
-                    }
-                    telomeraseFound = true;
-                }
-            }
+            checkScores(ALTKEY, altScores, altPValues, altPSFRange, altPvalRange);
         } catch (Exception e) {
-            throw new Exception("Problem reading line " + lineNum + " from file "
-                    + summaryFile.getAbsolutePath() + ": "
-                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+            throw new Exception("Could not retrieve ALT scores: " + e.getMessage());
         }
-
-
-        if (!altFound) {
-            throw new Exception("There was no node labeled \"" + ALTKEY + "\". Please, add it as the target of ALT network.");
+        try {
+            checkScores(TELOMERASEKEY, telomeraseScores, telomerasePValues,
+                    telomerasePSFRange, telomerasePvalRange);
+        } catch (Exception e) {
+            throw new Exception("Could not retrieve Telomerase scores: " + e.getMessage());
         }
-        if (!telomeraseFound)
-            throw new Exception("There was no node labeled \"" + TELOMERASEKEY + "\". Please, add it as the target of Telomerase network.");
-
-        // to remove the following rows: there's no way the maps are empty if no exceptions were thrown
-        if (summaryMap.get(ALTKEY).get(SCORESKEY).size() == 0)
-            throw new Exception("Could not retrieve scores for the node " + ALTKEY + " . I have no idea why.");
-        if (summaryMap.get(ALTKEY).get(PVALUESKEY).size() == 0)
-            throw new Exception("Could not retrieve p values for the node " + ALTKEY + " . I have no idea why.");
-        if (summaryMap.get(TELOMERASEKEY).get(SCORESKEY).size() == 0)
-            throw new Exception("Could not retrieve scores for the node " + TELOMERASEKEY + " . I have no idea why.");
-        if (summaryMap.get(TELOMERASEKEY).get(PVALUESKEY).size() == 0)
-            throw new Exception("Could not retrieve p values for the node " + TELOMERASEKEY + " . I have no idea why.");
-
-
-        /// resort samples to have the same order as in the hashmap
-        samples = new ArrayList<>();
-        samples.addAll(summaryMap.get(ALTKEY).get(SCORESKEY).keySet());
-
     }
 
-    private void populateScores(String[] tokens, ArrayList<String> samples,
-                                int lineNum,
-                                HashMap<String, HashMap<String, Double>> map,
-                                double[] psfRange, double[] pvalRange) throws Exception {
-
-        HashMap<String, Double> scoresList = new HashMap<String, Double>();
-        HashMap<String, Double> pvaluesList = new HashMap<String, Double>();
-
-        for (int i = 0; i < samples.size(); i++) {
-            int j = i * 2 + 2;
-
-            try {
-                double score = Double.parseDouble(tokens[j]);
-                if (score < psfRange[0])
-                    psfRange[0] = score;
-                if (score > psfRange[1])
-                    psfRange[1] = score;
-                scoresList.put(samples.get(i), score);
-                if (score < 0)
-                    throw new Exception("psf scores should be >= 0. Found: "
-                            + score + " in line " + lineNum
-                            + " of file " + summaryFile.getAbsolutePath()
-                            + ". Please, make sure you don't have negative FC values.");
-            } catch (NumberFormatException e) {
-                throw new Exception("Could not convert " + tokens[j]
-                        + " to double. Line: " + lineNum + " in file: "
-                        + summaryFile.getAbsolutePath());
-            }
-
-            try {
-                double pvalue = Double.parseDouble(tokens[j + 1]);
-                if (pvalue < pvalRange[0])
-                    pvalRange[0] = pvalue;
-                if (pvalue > pvalRange[1])
-                    pvalRange[1] = pvalue;
-                pvaluesList.put(samples.get(i), pvalue);
-                if (pvalue < 0 || pvalue > 1)
-                    throw new Exception("p value should be in the range [0,1]. Found: "
-                            + pvalue + " in line " + lineNum + " of file " + summaryFile.getAbsolutePath());
-            } catch (NumberFormatException e) {
-                throw new Exception("Could not convert " + tokens[j]
-                        + " to double. Line: " + lineNum + " in file: "
-                        + summaryFile.getAbsolutePath());
-            }
-
+    /**
+     * Checks the scores and p values of a node row and extends the min-max ranges.
+     */
+    private void checkScores(String node, double[] scores, double[] pvalues,
+                             double[] psfRange, double[] pvalRange) throws Exception {
+        for (int i = 0; i < scores.length; i++) {
+            double score = scores[i];
+            if (score < psfRange[0])
+                psfRange[0] = score;
+            if (score > psfRange[1])
+                psfRange[1] = score;
+            if (score < 0)
+                throw new Exception("psf scores should be >= 0. Found: "
+                        + score + " for node " + node + " and sample " + samples.get(i)
+                        + " of file " + summaryFile.getAbsolutePath()
+                        + ". Please, make sure you don't have negative FC values.");
+
+            double pvalue = pvalues[i];
+            if (pvalue < pvalRange[0])
+                pvalRange[0] = pvalue;
+            if (pvalue > pvalRange[1])
+                pvalRange[1] = pvalue;
+            if (pvalue < 0 || pvalue > 1)
+                throw new Exception("p value should be in the range [0,1]. Found: "
+                        + pvalue + " for node " + node + " and sample " + samples.get(i)
+                        + " of file " + summaryFile.getAbsolutePath());
         }
-        map.put(SCORESKEY, scoresList);
-        map.put(PVALUESKEY, pvaluesList);
     }
 
     /**
@@ -239,29 +204,24 @@ public class SummaryFileHandler {
      * @throws Exception
      */
     public HashMap<String, Double> getScores(String tmmKey) throws Exception {
-        HashMap<String, Double> scores = null;
-        try {
-            scores = summaryMap.get(tmmKey).get(SCORESKEY);
-        } catch (Exception e) {
+        HashMap<String, HashMap<String, Double>> tmmMap = getSummaryMap().get(tmmKey);
+        if (tmmMap == null)
             throw new Exception("Summary map did not contain key " + tmmKey);
-        }
-        if (scores.size() != samples.size())
-            throw new Exception("scores for " + tmmKey + " did not contain " + samples.size()
-                    + " elements" + scores.size());
-        return scores;
+        return tmmMap.get(SCORESKEY);
     }
 
     public void printSummaryMap() {
         System.out.println("Summary map\n");
-        for (String tmm : summaryMap.keySet()) {
+        for (String tmm : new String[]{ALTKEY, TELOMERASEKEY}) {
             System.out.println("TMM: " + tmm);
-            for (String scoreType : summaryMap.get(tmm).keySet()) {
-                System.out.println("Value: " + scoreType);
-                for (String sample : summaryMap.get(tmm).get(scoreType).keySet()) {
-                    System.out.println("Sample: " + sample + " Value: "
-                            + summaryMap.get(tmm).get(scoreType).get(sample));
-                }
-            }
+            System.out.println("Value: " + SCORESKEY);
+            double[] scores = getScoreArray(tmm);
+            for (int i = 0; i < samples.size(); i++)
+                System.out.println("Sample: " + samples.get(i) + " Value: " + scores[i]);
+            System.out.println("Value: " + PVALUESKEY);
+            double[] pvalues = getPValueArray(tmm);
+            for (int i = 0; i < samples.size(); i++)
+                System.out.println("Sample: " + samples.get(i) + " Value: " + pvalues[i]);
         }
 
         System.out.println("\nSamples\n");
@@ -271,16 +231,16 @@ public class SummaryFileHandler {
     }
 
     public String niceSummaryMap(){
-        String niceMap = "";
+        StringBuilder niceMap = new StringBuilder();
         String header = "Sample\tALT_PSF\tALT_pValue\tTelomerase_PSF\tTelomerase_pValue" + System.lineSeparator();
-        niceMap += header;
-        for(String sample : samples){
-            niceMap += sample + "\t";
-            niceMap += summaryMap.get(ALTKEY).get(SCORESKEY).get(sample) + "\t";
-            niceMap += summaryMap.get(ALTKEY).get(PVALUESKEY).get(sample) + "\t";
-            niceMap += summaryMap.get(TELOMERASEKEY).get(SCORESKEY).get(sample) + "\t";
-            niceMap += summaryMap.get(TELOMERASEKEY).get(PVALUESKEY).get(sample) + System.lineSeparator();
+        niceMap.append(header);
+        for (int i = 0; i < samples.size(); i++) {
+            niceMap.append(samples.get(i)).append("\t");
+            niceMap.append(altScores[i]).append("\t");
+            niceMap.append(altPValues[i]).append("\t");
+            niceMap.append(telomeraseScores[i]).append("\t");
+            niceMap.append(telomerasePValues[i]).append(System.lineSeparator());
         }
-        return niceMap;
+        return niceMap.toString();
     }
 }
@@ -0,0 +1,219 @@
+package org.cytoscape.tmm.reports;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Public class SummaryFileMerger
+ * <p>
+ * Merges psf summary files computed for different samples of the same network into one summary file.
+ * A summary file has two node columns (ID and name) followed by a score and a p value column per sample,
+ * with headers starting with SummaryFileHandler.SCOREPATTERN for the scores.
+ * The rows follow the order of the first file. When a sample is present in several files, its columns
+ * are taken from the last one, so that a summary can be patched with the results of a rerun.
+ * The merged file is written to a temporary file next to it, which replaces it only once complete,
+ * so that a summary file merged over itself is not lost if the merge fails.
+ */
+public class SummaryFileMerger {
+
+    private static class Summary {
+        File file;
+        String[] header;
+        //sampleColumns: sample name -> index of the score column
+        HashMap<String, Integer> sampleColumns = new HashMap<>();
+        //rows: node key (ID and name) -> tokens
+        HashMap<String, String[]> rows = new HashMap<>();
+        ArrayList<String> keys = new ArrayList<>();
+    }
+
+    /**
+     * Merges the summary files, writing the columns of the samples in the given order.
+     *
+     * @param summaryFiles the summary files
+     * @param samples      the samples in the order of the merged file
+     * @param mergedFile   the file to write, may be one of the summary files
+     * @throws Exception if a file cannot be read, a sample is missing, or the files have different nodes
+     */
+    public static void merge(List<File> summaryFiles, List<String> samples, File mergedFile) throws Exception {
+        if (summaryFiles.isEmpty())
+            throw new Exception("No summary files to merge");
+        ArrayList<Summary> summaries = new ArrayList<>();
+        for (File summaryFile : summaryFiles)
+            summaries.add(read(summaryFile));
+
+        Summary[] sampleSummaries = new Summary[samples.size()];
+        for (int s = 0; s < samples.size(); s++) {
+            for (Summary summary : summaries)
+                if (summary.sampleColumns.containsKey(samples.get(s)))
+                    sampleSummaries[s] = summary;
+            if (sampleSummaries[s] == null)
+                throw new Exception("Sample " + samples.get(s) + " was not found in the summary files");
+        }
+
+        Summary first = summaries.get(0);
+        StringBuilder builder = new StringBuilder();
+        File tmpFile = new File(mergedFile.getAbsolutePath() + ".tmp");
+        BufferedWriter writer;
+        try {
+            writer = new BufferedWriter(new FileWriter(tmpFile));
+        } catch (IOException e) {
+            throw new Exception("Cannot write to the summary file " + tmpFile.getAbsolutePath() + ": "
+                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        }
+        boolean success = false;
+        try {
+            builder.append(first.header[0]).append("\t").append(first.header[1]);
+            for (int s = 0; s < samples.size(); s++) {
+                int j = sampleSummaries[s].sampleColumns.get(samples.get(s));
+                builder.append("\t").append(sampleSummaries[s].header[j])
+                        .append("\t").append(sampleSummaries[s].header[j + 1]);
+            }
+            writer.write(builder.toString());
+            writer.write(System.lineSeparator());
+            for (String key : first.keys) {
+                builder.setLength(0);
+                builder.append(key);
+                for (int s = 0; s < samples.size(); s++) {
+                    String[] tokens = sampleSummaries[s].rows.get(key);
+                    if (tokens == null)
+                        throw new Exception("Node " + key.replace("\t", " ") + " was not found in the summary file "
+                                + sampleSummaries[s].file.getAbsolutePath());
+                    int j = sampleSummaries[s].sampleColumns.get(samples.get(s));
+                    builder.append("\t").append(tokens[j]).append("\t").append(tokens[j + 1]);
+                }
+                writer.write(builder.toString());
+                writer.write(System.lineSeparator());
+            }
+            writer.close();
+            replace(tmpFile, mergedFile);
+            success = true;
+        } catch (IOException e) {
+            throw new Exception("Cannot write to the summary file " + mergedFile.getAbsolutePath() + ": "
+                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        } finally {
+            if (!success) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Moves the written file over the target, atomically where the file system supports it.
+     */
+    private static void replace(File tmpFile, File target) throws IOException {
+        try {
+            Files.move(tmpFile.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns the samples of a summary file in the order of its columns.
+     */
+    public static ArrayList<String> getSamples(File summaryFile) throws Exception {
+        Summary summary = read(summaryFile);
+        ArrayList<String> samples = new ArrayList<>();
+        for (int i = 2; i + 1 < summary.header.length; i += 2)
+            samples.add(summary.header[i].substring(SummaryFileHandler.SCOREPATTERN.length()));
+        return samples;
+    }
+
+    private static Summary read(File summaryFile) throws Exception {
+        Summary summary = new Summary();
+        summary.file = summaryFile;
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new FileReader(summaryFile));
+        } catch (FileNotFoundException e) {
+            throw new Exception("Cannot open the summary file " + summaryFile.getAbsolutePath()
+                    + " for reading: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        }
+        try {
+            String line = reader.readLine();
+            if (line == null)
+                throw new Exception("Summary file " + summaryFile.getAbsolutePath() + " is empty");
+            summary.header = line.split("\t", -1);
+            for (int i = 2; i + 1 < summary.header.length; i += 2) {
+                if (!summary.header[i].startsWith(SummaryFileHandler.SCOREPATTERN))
+                    throw new Exception("The header at column " + (i + 1)
+                            + " did not contain pattern \"" + SummaryFileHandler.SCOREPATTERN
+                            + "\" in file " + summaryFile.getAbsolutePath());
+                summary.sampleColumns.put(summary.header[i].substring(SummaryFileHandler.SCOREPATTERN.length()), i);
+            }
+            int lineNum = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNum++;
+                if (line.isEmpty())
+                    continue;
+                String[] tokens = line.split("\t", -1);
+                if (tokens.length != summary.header.length)
+                    throw new Exception("Column number mismatch: line " + lineNum + " in file "
+                            + summaryFile.getAbsolutePath() + " did not contain " + summary.header.length
+                            + " columns. Found " + tokens.length + " instead.");
+                String key = tokens[0] + "\t" + tokens[1];
+                if (summary.rows.put(key, tokens) == null)
+                    summary.keys.add(key);
+            }
+        } catch (IOException e) {
+            throw new Exception("Problem reading the summary file " + summaryFile.getAbsolutePath() + ": "
+                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        } finally {
+            reader.close();
+        }
+        return summary;
+    }
+
+    /**
+     * Measures the time of merging a summary file of the given number of nodes and samples
+     * split into 1, 2, 4, ... files.
+     * Usage: SummaryFileMerger [nodes] [samples] [maxFiles]
+     */
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int numSamples = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int maxFiles = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        File dir = new File(System.getProperty("java.io.tmpdir"), "tmm_merge_benchmark");
+        dir.mkdirs();
+        ArrayList<String> samples = new ArrayList<>();
+        for (int s = 0; s < numSamples; s++)
+            samples.add("S" + s);
+        for (int numFiles = 1; numFiles <= maxFiles && numFiles <= numSamples; numFiles *= 2) {
+            ArrayList<File> files = new ArrayList<>();
+            for (int k = 0; k < numFiles; k++) {
+                File file = new File(dir, "summary_" + k + ".xls");
+                BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+                writer.write("ID\tName");
+                for (int s = k; s < numSamples; s += numFiles)
+                    writer.write("\tscore." + samples.get(s) + "\tpvalue." + samples.get(s));
+                writer.newLine();
+                for (int n = 0; n < nodes; n++) {
+                    writer.write(n + "\tnode" + n);
+                    for (int s = k; s < numSamples; s += numFiles)
+                        writer.write("\t" + (n + s) * 0.001 + "\t0.5");
+                    writer.newLine();
+                }
+                writer.close();
+                files.add(file);
+            }
+            long start = System.currentTimeMillis();
+            merge(files, samples, new File(dir, "merged.xls"));
+            System.out.println(numFiles + " files: merged in " + (System.currentTimeMillis() - start) + " ms");
+            for (File file : files)
+                file.delete();
+        }
+        new File(dir, "merged.xls").delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,421 @@
+package org.cytoscape.tmm.reports;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Public class SummaryRowIndex
+ * <p>
+ * Random access to the node rows of a psf summary file. The file is scanned once to record
+ * the byte offset and length of each node row, and the index is stored beside the summary file
+ * (psf_summary.xls.idx), so that later readers of the same file skip the scan. A node row is then
+ * read with a positioned read and its score and p value pairs are parsed directly into arrays,
+ * without splitting the line. The stored index is rebuilt when the summary file changes: as file times
+ * may have a resolution of a second, the index also keeps a checksum of the header and of the first
+ * and the last node rows, and a row read is checked to be the row of the node.
+ * If a node name appears more than once, the first row is indexed.
+ */
+public class SummaryRowIndex {
+    public static final String INDEXEXTENSION = ".idx";
+    private static final int VERSION = 2;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static SummaryRowIndex lastIndex = null;
+
+    private final File summaryFile;
+    private final long lastModified;
+    private final long length;
+    private final ArrayList<String> samples = new ArrayList<>();
+    //sampleIndices: sample name -> ordinal of the sample in the header
+    private final HashMap<String, Integer> sampleIndices = new HashMap<>();
+    private final ArrayList<String> nodeNames = new ArrayList<>();
+    //rowIndices: node name -> index of the node row in offsets and lengths
+    private final HashMap<String, Integer> rowIndices = new HashMap<>();
+    private long[] offsets;
+    private int[] lengths;
+    private int headerLength;
+    //fingerprint: checksum of the header and of the first and last node rows
+    private long fingerprint;
+
+    private SummaryRowIndex(File summaryFile) {
+        this.summaryFile = summaryFile;
+        this.lastModified = summaryFile.lastModified();
+        this.length = summaryFile.length();
+    }
+
+    /**
+     * Returns the index of the summary file: the index kept from the last call or stored beside the file
+     * if it is up to date, or a new index otherwise, which is then stored beside the file.
+     *
+     * @param summaryFile the psf summary file
+     * @return the index
+     * @throws Exception if the summary file cannot be read
+     */
+    public static synchronized SummaryRowIndex get(File summaryFile) throws Exception {
+        if (lastIndex != null && lastIndex.summaryFile.equals(summaryFile) && lastIndex.isUpToDate(true))
+            return lastIndex;
+        SummaryRowIndex index = new SummaryRowIndex(summaryFile);
+        File indexFile = getIndexFile(summaryFile);
+        if (!index.readIndex(indexFile)) {
+            index.build();
+            index.fingerprint = index.computeFingerprint();
+            index.writeIndex(indexFile);
+        }
+        lastIndex = index;
+        return index;
+    }
+
+    /**
+     * Returns the file the index of the summary file is stored in.
+     */
+    public static File getIndexFile(File summaryFile) {
+        return new File(summaryFile.getAbsolutePath() + INDEXEXTENSION);
+    }
+
+    /**
+     * Returns true if the summary file has the length and the modification time it had when indexed,
+     * and if checkContent is true, the same header and first and last node rows.
+     */
+    private boolean isUpToDate(boolean checkContent) {
+        if (summaryFile.lastModified() != lastModified || summaryFile.length() != length)
+            return false;
+        if (!checkContent)
+            return true;
+        try {
+            return computeFingerprint() == fingerprint;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Computes the checksum of the header and of the first and the last node rows of the summary file.
+     */
+    private long computeFingerprint() throws Exception {
+        CRC32 crc = new CRC32();
+        RandomAccessFile file;
+        try {
+            file = new RandomAccessFile(summaryFile, "r");
+        } catch (FileNotFoundException e) {
+            throw new Exception("Cannot open the summary file " + summaryFile.getAbsolutePath()
+                    + " for reading: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        }
+        try {
+            updateChecksum(crc, file, 0, headerLength);
+            if (offsets.length > 0) {
+                updateChecksum(crc, file, offsets[0], lengths[0]);
+                updateChecksum(crc, file, offsets[offsets.length - 1], lengths[offsets.length - 1]);
+            }
+        } catch (IOException e) {
+            throw new Exception("Problem reading the summary file " + summaryFile.getAbsolutePath() + ": "
+                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        } finally {
+            file.close();
+        }
+        return crc.getValue();
+    }
+
+    private static void updateChecksum(CRC32 crc, RandomAccessFile file, long offset, int length) throws IOException {
+        byte[] buffer = new byte[Math.min(length, 1 << 16)];
+        file.seek(offset);
+        while (length > 0) {
+            int read = Math.min(length, buffer.length);
+            file.readFully(buffer, 0, read);
+            crc.update(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    /**
+     * Scans the summary file and records the offset and length of each node row.
+     */
+    private void build() throws Exception {
+        InputStream inputStream;
+        try {
+            inputStream = new FileInputStream(summaryFile);
+        } catch (FileNotFoundException e) {
+            throw new Exception("Cannot open the summary file " + summaryFile.getAbsolutePath()
+                    + " for reading: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        }
+        ArrayList<Long> rowOffsets = new ArrayList<>();
+        ArrayList<Integer> rowLengths = new ArrayList<>();
+        try {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            ByteArrayOutputStream name = new ByteArrayOutputStream();
+            long position = 0;
+            long lineStart = 0;
+            int lineNum = 1;
+            int tabs = 0;
+            int lineLength = 0;
+            byte[] buffer = new byte[1 << 16];
+            int read = 0;
+            int i = 0;
+            int b;
+            while (true) {
+                if (i == read && read != -1) {
+                    read = inputStream.read(buffer);
+                    i = 0;
+                }
+                b = read == -1 ? -1 : buffer[i++] & 0xff;
+                if (b == '\n' || b == -1) {
+                    if (lineNum == 1) {
+                        if (header.size() == 0)
+                            throw new Exception("Summary file " + summaryFile.getAbsolutePath() + " is empty");
+                        headerLength = lineLength;
+                        readSamples(new String(header.toByteArray(), CHARSET));
+                    } else if (lineLength > 0) {
+                        String nodeName = new String(name.toByteArray(), CHARSET);
+                        if (!rowIndices.containsKey(nodeName)) {
+                            rowIndices.put(nodeName, nodeNames.size());
+                            nodeNames.add(nodeName);
+                            rowOffsets.add(lineStart);
+                            rowLengths.add(lineLength);
+                        }
+                    }
+                    if (b == -1)
+                        break;
+                    position++;
+                    lineStart = position;
+                    lineNum++;
+                    tabs = 0;
+                    lineLength = 0;
+                    name.reset();
+                    continue;
+                }
+                position++;
+                if (b == '\r')
+                    continue;
+                lineLength = (int) (position - lineStart);
+                if (lineNum == 1)
+                    header.write(b);
+                else if (b == '\t')
+                    tabs++;
+                else if (tabs == 1)
+                    name.write(b);
+            }
+        } catch (IOException e) {
+            throw new Exception("Problem reading the summary file " + summaryFile.getAbsolutePath() + ": "
+                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        } finally {
+            inputStream.close();
+        }
+        offsets = new long[rowOffsets.size()];
+        lengths = new int[rowLengths.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = rowOffsets.get(i);
+            lengths[i] = rowLengths.get(i);
+        }
+    }
+
+    private void readSamples(String headerLine) throws Exception {
+        String[] header = headerLine.split("\t", -1);
+        for (int i = 2; i + 1 < header.length; i += 2) {
+            if (!header[i].startsWith(SummaryFileHandler.SCOREPATTERN))
+                throw new Exception("The header at column " + (i + 1)
+                        + " did not contain pattern \"" + SummaryFileHandler.SCOREPATTERN
+                        + "\" in file " + summaryFile.getAbsolutePath());
+            String sample = header[i].substring(SummaryFileHandler.SCOREPATTERN.length());
+            if (sampleIndices.put(sample, samples.size()) != null)
+                throw new Exception("Sample " + sample + " appears more than once in the header of file "
+                        + summaryFile.getAbsolutePath());
+            samples.add(sample);
+        }
+    }
+
+    /**
+     * Reads the index stored beside the summary file.
+     *
+     * @return false if there is no stored index or it does not match the summary file
+     */
+    private boolean readIndex(File indexFile) {
+        if (!indexFile.exists())
+            return false;
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16));
+            if (inputStream.readInt() != VERSION || inputStream.readLong() != length
+                    || inputStream.readLong() != lastModified)
+                return false;
+            headerLength = inputStream.readInt();
+            fingerprint = inputStream.readLong();
+            int numSamples = inputStream.readInt();
+            for (int s = 0; s < numSamples; s++) {
+                String sample = inputStream.readUTF();
+                sampleIndices.put(sample, s);
+                samples.add(sample);
+            }
+            int numRows = inputStream.readInt();
+            offsets = new long[numRows];
+            lengths = new int[numRows];
+            for (int n = 0; n < numRows; n++) {
+                String nodeName = inputStream.readUTF();
+                rowIndices.put(nodeName, n);
+                nodeNames.add(nodeName);
+                offsets[n] = inputStream.readLong();
+                lengths[n] = inputStream.readInt();
+            }
+            // the summary file may have been rewritten within the resolution of the file time
+            if (computeFingerprint() == fingerprint)
+                return true;
+        } catch (Exception e) {
+            // a damaged index is rebuilt
+        } finally {
+            if (inputStream != null)
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+        }
+        samples.clear();
+        sampleIndices.clear();
+        nodeNames.clear();
+        rowIndices.clear();
+        return false;
+    }
+
+    /**
+     * Stores the index beside the summary file. The index is written to a temporary file first,
+     * so that concurrent readers never see a partial index. Failing to store it is not an error:
+     * the index is then rebuilt by the next reader.
+     */
+    private void writeIndex(File indexFile) {
+        File tmpFile = new File(indexFile.getAbsolutePath() + ".tmp" + Thread.currentThread().getId());
+        DataOutputStream outputStream = null;
+        try {
+            outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+            outputStream.writeInt(VERSION);
+            outputStream.writeLong(length);
+            outputStream.writeLong(lastModified);
+            outputStream.writeInt(headerLength);
+            outputStream.writeLong(fingerprint);
+            outputStream.writeInt(samples.size());
+            for (String sample : samples)
+                outputStream.writeUTF(sample);
+            outputStream.writeInt(nodeNames.size());
+            for (int n = 0; n < nodeNames.size(); n++) {
+                outputStream.writeUTF(nodeNames.get(n));
+                outputStream.writeLong(offsets[n]);
+                outputStream.writeInt(lengths[n]);
+            }
+            outputStream.close();
+            outputStream = null;
+            if (!tmpFile.renameTo(indexFile)) {
+                indexFile.delete();
+                if (!tmpFile.renameTo(indexFile))
+                    tmpFile.delete();
+            }
+        } catch (IOException e) {
+            tmpFile.delete();
+        } finally {
+            if (outputStream != null)
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+        }
+    }
+
+    /**
+     * Returns the samples, in the order of the summary file and of the arrays returned by readRow.
+     */
+    public ArrayList<String> getSamples() {
+        return samples;
+    }
+
+    /**
+     * Returns the ordinal of the sample, or -1 if the summary file has no such sample.
+     */
+    public int getSampleIndex(String sample) {
+        Integer index = sampleIndices.get(sample);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the node names, in the order of the rows of the summary file.
+     */
+    public ArrayList<String> getNodeNames() {
+        return nodeNames;
+    }
+
+    public boolean containsNode(String nodeName) {
+        return rowIndices.containsKey(nodeName);
+    }
+
+    public File getSummaryFile() {
+        return summaryFile;
+    }
+
+    /**
+     * Reads the row of the node from the summary file.
+     *
+     * @param nodeName the name of the node
+     * @return the scores (first array) and p values (second array) of the node by sample ordinal,
+     * or null if the summary file has no such node
+     * @throws Exception if the summary file has changed since indexing or the row is not valid
+     */
+    public double[][] readRow(String nodeName) throws Exception {
+        Integer n = rowIndices.get(nodeName);
+        if (n == null)
+            return null;
+        if (!isUpToDate(false))
+            throw new Exception("Summary file " + summaryFile.getAbsolutePath() + " has changed since it was indexed");
+        byte[] row = new byte[lengths[n]];
+        RandomAccessFile file = new RandomAccessFile(summaryFile, "r");
+        try {
+            file.seek(offsets[n]);
+            file.readFully(row);
+        } catch (IOException e) {
+            throw new Exception("Problem reading the row of node " + nodeName + " from file "
+                    + summaryFile.getAbsolutePath() + ": "
+                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        } finally {
+            file.close();
+        }
+        double[] scores = new double[samples.size()];
+        double[] pvalues = new double[samples.size()];
+        parseRow(row, nodeName, scores, pvalues);
+        return new double[][]{scores, pvalues};
+    }
+
+    /**
+     * Parses the score and p value pairs of a row, starting from the third column, into the arrays.
+     * The second column must be the node name, or else the row is not the indexed one.
+     */
+    private void parseRow(byte[] row, String nodeName, double[] scores, double[] pvalues) throws Exception {
+        int numColumns = 2 * samples.size() + 2;
+        int column = 0;
+        int start = 0;
+        for (int i = 0; i <= row.length; i++) {
+            if (i < row.length && row[i] != '\t')
+                continue;
+            if (column == 1 && !new String(row, start, i - start, CHARSET).equals(nodeName))
+                throw new Exception("Summary file " + summaryFile.getAbsolutePath()
+                        + " has changed since it was indexed: the row of node " + nodeName + " was not found");
+            if (column >= 2 && column < numColumns) {
+                String token = new String(row, start, i - start, CHARSET);
+                double value;
+                try {
+                    value = Double.parseDouble(token);
+                } catch (NumberFormatException e) {
+                    throw new Exception("Could not convert " + token + " to double. Node: " + nodeName
+                            + " in file: " + summaryFile.getAbsolutePath());
+                }
+                int s = (column - 2) / 2;
+                if (column % 2 == 0)
+                    scores[s] = value;
+                else
+                    pvalues[s] = value;
+            }
+            column++;
+            start = i + 1;
+        }
+        if (column != numColumns)
+            throw new Exception("Column number mismatch: the row of node " + nodeName + " in file "
+                    + summaryFile.getAbsolutePath() + " did not contain " + numColumns
+                    + " (2xsamples + 2) columns. Found " + column + " instead.");
+    }
+}
@@ -29,12 +29,13 @@ public class Test {
             e.printStackTrace();
         }
         summaryFileHandler.printSummaryMap();
-        VolcanoPlotFactory volcanoPlotFactory = null;
+        ReportModel reportModel = null;
         try {
-            volcanoPlotFactory = new VolcanoPlotFactory(summaryFileHandler, new TMMLabels(tmmLabelsFile));
+            reportModel = new ReportModel(summaryFileHandler, tmmLabels);
         } catch (Exception e) {
             e.printStackTrace();
         }
+        VolcanoPlotFactory volcanoPlotFactory = new VolcanoPlotFactory(reportModel);
 
 
         JFreeChart[] volcanoCharts = null;
@@ -44,7 +45,7 @@ public class Test {
             e.printStackTrace();
         }
 
-        BoxPlotFactory boxPlotFactory = new BoxPlotFactory(summaryFileHandler, tmmLabels);
+        BoxPlotFactory boxPlotFactory = new BoxPlotFactory(reportModel);
 
         JFreeChart[] boxplots = null;
         try {
@@ -60,7 +61,7 @@ public class Test {
         TwoDPlotFactory twoDPlotFactory = null;
 
         try {
-            twoDPlotFactory = new TwoDPlotFactory(summaryFileHandler, tmmLabels);
+            twoDPlotFactory = new TwoDPlotFactory(reportModel);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -7,8 +7,6 @@ import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.title.TextTitle;
 import org.jfree.data.xy.XYDataset;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 import org.jfree.ui.HorizontalAlignment;
 import org.jfree.ui.RectangleEdge;
 
@@ -30,56 +28,25 @@ import static org.cytoscape.tmm.reports.SummaryFileHandler.TELOMERASEKEY;
 
 public class TwoDPlotFactory {
 
-    private String SCORESKEY = "scores";
-    public Double LOGINCREMENT = 0.01;
-    private boolean labeled = false;
+    public Double LOGINCREMENT = ReportModel.LOGINCREMENT;
     private boolean logScale = false;
 
     private double[] domainRange = new double[]{0, 0};
     private double[] rangeRange = new double[]{0, 0};
 
-    private ArrayList<String> samples;
-    private HashMap<String, Integer> seriesIndex = new HashMap<>();
-    private HashMap<String, HashMap<String, HashMap<String, Double>>> summaryMap;
-    private HashMap<String, ArrayList<String>> seriesLabels = new HashMap<>();
-    private ArrayList<String> baseLabels = new ArrayList<>();
-
-    private final SummaryFileHandler summaryFileHandler;
-    private TMMLabels tmmLabels;
-    private GroupLabels groupLabels;
+    private final ReportModel reportModel;
     private double accuracy;
     private boolean drawPointLabels = true;
+    private int densityThreshold = 0;
 
 
     /**
-     * Constructor for estimation mode.
-     *
-     * @param summaryFileHandler
-     * @param groupLabels        Grouplabels class object
-     * @throws Exception
-     */
-    public TwoDPlotFactory(SummaryFileHandler summaryFileHandler, GroupLabels groupLabels) {
-        this.summaryFileHandler = summaryFileHandler;
-        summaryMap = summaryFileHandler.getSummaryMap();
-        samples = summaryFileHandler.getSamples();
-        this.groupLabels = groupLabels;
-    }
-
-
-    /**
-     * Constructor for TMM labeled samples
+     * Constructor for both TMM labeled samples and estimation mode, depending on the labels of the report model.
      *
-     * @param summaryFileHandler
-     * @param tmmLabels
-     * @throws Exception
+     * @param reportModel the report data shared by the plot factories
      */
-    public TwoDPlotFactory(SummaryFileHandler summaryFileHandler, TMMLabels tmmLabels) {
-        this.summaryFileHandler = summaryFileHandler;
-        this.tmmLabels = tmmLabels;
-        labeled = true;
-
-        summaryMap = summaryFileHandler.getSummaryMap();
-        samples = summaryFileHandler.getSamples();
+    public TwoDPlotFactory(ReportModel reportModel) {
+        this.reportModel = reportModel;
     }
 
 
@@ -93,6 +60,16 @@ public class TwoDPlotFactory {
         this.drawPointLabels = drawPointLabels;
     }
 
+    /**
+     * Above the density threshold number of points, the scatter plot is drawn by a DensityScatterRenderer.
+     * 0 (default) stands for drawing every point as a vector shape.
+     *
+     * @param densityThreshold
+     */
+    public void setDensityThreshold(int densityThreshold) {
+        this.densityThreshold = densityThreshold;
+    }
+
     /**
      * Creates a 2D scatter plot.
      * The X axis represents Telomerase PSF scores, the Y axis - ALT PSF scores
@@ -102,12 +79,8 @@ public class TwoDPlotFactory {
      */
     public JFreeChart create2DPlot() throws Exception {
 
-        XYDataset dataset = null;
-        try {
-            dataset = createDataset();
-        } catch (Exception e) {
-            throw new Exception("Problem creating dataset: " + e.getMessage());
-        }
+        // one series per label, read from the report model
+        XYDataset dataset = reportModel.create2DDataset(logScale);
 
         String chartTitle = "TMM scores 2D plot";
         if(drawPointLabels){
@@ -123,224 +96,34 @@ public class TwoDPlotFactory {
                 PlotOrientation.VERTICAL, true, false, false);
 
         XYPlot plot = (XYPlot) tmm2Dchart.getPlot();
+        if (DensityScatterRenderer.isDense(dataset, densityThreshold))
+            plot.setRenderer(new DensityScatterRenderer());
+        else
+            plot.setRenderer(new LabelPlacingRenderer());
         renderPlot(plot);
 
         return tmm2Dchart;
     }
 
 
-    /**
-     * Reads the PSF scores from the summarfilehandler. If labeled, reads the TMM labels from tmmLabels.
-     * Creates an XYDataset with single series in the non-labeled case,
-     * and with multiple series in case of TMM labels (one serie for each TMM).
-     *
-     * @return
-     * @throws Exception
-     */
-    private XYDataset createDataset() throws Exception {
-        try {
-            if (labeled)
-                return createLabeledDataset();
-            return createGroupLabeledDataset();
-        } catch (Exception e) {
-            throw e;
-        }
-    }
-
-    /**
-     * Reads the PSF scores from the summarfilehandler.
-     * Creates an XYDataset with single series for all samples.
-     *
-     * @return
-     * @throws Exception
-     */
-    private XYDataset createGroupLabeledDataset() throws Exception {
-        XYSeriesCollection tmmDataset = null;
-
-        try {
-            tmmDataset = new XYSeriesCollection();
-            int i = 0;
-            for (String group : groupLabels.getGroups()) {
-                XYSeries series = getGroup2DSeries(group);
-                tmmDataset.addSeries(series);
-                seriesIndex.put(group, i++);
-            }
-        } catch (Exception e) {
-            throw new Exception("Problem generating the 2D TMM dataset: "
-                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
-        }
-
-        return tmmDataset;
-    }
-
-    /**
-     * Reads the PSF scores from the summarfilehandler and TMM labels from tmmLabels.
-     * Creates an XYDataset with multiple series - one for each TMM label.
-     *
-     * @return
-     * @throws Exception
-     */
-    private XYDataset createLabeledDataset() throws Exception {
-        XYSeriesCollection tmmDataset = null;
-
-        try {
-            int i = 0;
-            tmmDataset = new XYSeriesCollection();
-            XYSeries ASeries = get2DSeries(TMMLabels.A);
-            tmmDataset.addSeries(ASeries);
-            seriesIndex.put(TMMLabels.A, i++);
-
-            XYSeries TSeries = get2DSeries(TMMLabels.T);
-            tmmDataset.addSeries(TSeries);
-            seriesIndex.put(TMMLabels.T, i++);
-
-            XYSeries NSeries = get2DSeries(TMMLabels.N);
-            tmmDataset.addSeries(NSeries);
-            seriesIndex.put(TMMLabels.N, i++);
-
-            XYSeries ATSeries = get2DSeries(TMMLabels.AT);
-            tmmDataset.addSeries(ATSeries);
-            seriesIndex.put(TMMLabels.AT, i);
-        } catch (Exception e) {
-            throw new Exception("Problem generating the 2D TMM dataset: "
-                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
-        }
-        return tmmDataset;
-    }
-
-
-    /**
-     * Create a single series of points with(telomerase score, ALT score) coordinates.
-     *
-     * @return
-     * @throws Exception
-     */
-    private XYSeries get2DSeries() throws Exception {
-        XYSeries series = new XYSeries("Uknown TMM", false);
-        HashMap<String, Double> altScores = summaryMap.get(ALTKEY).get(SCORESKEY);
-        HashMap<String, Double> telomeraseScores = summaryMap.get(TELOMERASEKEY).get(SCORESKEY);
-
-        if (altScores.size() != samples.size())
-            throw new Exception("scores for " + ALTKEY + " did not contain " + samples.size()
-                    + " elements" + altScores.size());
-        if (telomeraseScores.size() != samples.size())
-            throw new Exception("p values for " + TELOMERASEKEY + " did not contain " + samples.size()
-                    + " elements. Actual size: " + telomeraseScores.size());
-
-        for (String s : samples) {
-            double altScore = altScores.get(s);
-            double telomeraseScore = telomeraseScores.get(s);
-            series.add(telomeraseScore, altScore);
-        }
-        return series;
-    }
-
-
-    /**
-     * Create a single series of points with(telomerase score, ALT score) coordinates
-     * for samples belonging to the specified group label.
-     *
-     * @return
-     * @throws Exception
-     */
-    private XYSeries getGroup2DSeries(String groupLabel) throws Exception {
-        XYSeries series = new XYSeries(groupLabel, false);
-        HashMap<String, Double> altScores = summaryMap.get(ALTKEY).get(SCORESKEY);
-        HashMap<String, Double> telomeraseScores = summaryMap.get(TELOMERASEKEY).get(SCORESKEY);
-
-        if (altScores.size() != samples.size())
-            throw new Exception("scores for " + ALTKEY + " did not contain " + samples.size()
-                    + " elements" + altScores.size());
-        if (telomeraseScores.size() != samples.size())
-            throw new Exception("p values for " + TELOMERASEKEY + " did not contain " + samples.size()
-                    + " elements. Actual size: " + telomeraseScores.size());
-
-        ArrayList<String> labels = new ArrayList<>();
-
-        for (String s : groupLabels.getSamples(groupLabel)) {
-            series.add(logScale ? Math.log(telomeraseScores.get(s) + LOGINCREMENT) : telomeraseScores.get(s),
-                    logScale ? Math.log(altScores.get(s) + LOGINCREMENT) : altScores.get(s));
-            labels.add(s);
-        }
-        seriesLabels.put(groupLabel, labels);
-        return series;
-    }
-
-    /**
-     * Create a single series of points with(telomerase score, ALT score) coordinates for the specified TMM label.
-     * Populates the seriesLabels map with the list of sample names for the specified TMM.
-     * This map will be used for labeling the points on the 2D plot.
-     *
-     * @param seriesKey the TMM label
-     * @return
-     * @throws Exception
-     */
-    private XYSeries get2DSeries(String seriesKey) throws Exception {
-        XYSeries series = new XYSeries(seriesKey, false);
-        HashMap<String, Double> altScores = summaryMap.get(ALTKEY).get(SCORESKEY);
-        HashMap<String, Double> telomeraseScores = summaryMap.get(TELOMERASEKEY).get(SCORESKEY);
-
-        if (altScores.size() != samples.size())
-            throw new Exception("scores for " + ALTKEY + " did not contain " + samples.size()
-                    + " elements" + altScores.size());
-        if (telomeraseScores.size() != samples.size())
-            throw new Exception("p values for " + TELOMERASEKEY + " did not contain " + samples.size()
-                    + " elements. Actual size: " + telomeraseScores.size());
-
-        ArrayList<String> labels = new ArrayList<>();
-
-        for (String s : samples) {
-            if (tmmLabels.getSamples(seriesKey).contains(s)) {
-                series.add(logScale ? Math.log(telomeraseScores.get(s) + LOGINCREMENT) : telomeraseScores.get(s),
-                        logScale ? Math.log(altScores.get(s) + LOGINCREMENT) : altScores.get(s));
-                labels.add(s);
-            }
-        }
-        seriesLabels.put(seriesKey, labels);
-        return series;
-    }
-
     private void renderPlot(XYPlot plot) {
         PlotManager.renderBase(plot);
-        if (drawPointLabels) {
-            if (!labeled)
-//                PlotManager.setBaseItemLabels(plot, samples);
-                PlotManager.setSeriesItemLabels(plot,
-                        groupLabels.getGroupSamplesMap(),
-                        groupLabels.getGroupColorsMap());
-            else {
-                PlotManager.setSeriesItemLabels(plot, seriesLabels, tmmLabels);
-            }
-        } else {
-//            if (!labeled) {
-            if (false) { // will be removed from tmm_0.5 if works
-                ArrayList<String> noSamples = new ArrayList<>();
-                for (String s : samples)
-                    noSamples.add("");
-                PlotManager.setBaseItemLabels(plot, noSamples);
-
-            } else {
-                HashMap<String, ArrayList<String>> seriesNoLabels = new HashMap<>();
-                for (String tmmk : seriesLabels.keySet()) {
-                    ArrayList<String> nolabarray = new ArrayList<>();
-                    ArrayList<String> labarray = seriesLabels.get(tmmk);
-                    for (String v : labarray) {
-                        nolabarray.add("");
-                    }
-                    seriesNoLabels.put(tmmk, nolabarray);
-                }
-                if (tmmLabels == null)
-                    PlotManager.setSeriesItemLabels(plot, seriesNoLabels, groupLabels);
-                else
-                    PlotManager.setSeriesItemLabels(plot, seriesNoLabels, tmmLabels);
-            }
+        HashMap<String, ArrayList<String>> seriesLabels = reportModel.getLabelSamplesMap();
+        if (!drawPointLabels) {
+            for (ArrayList<String> labels : seriesLabels.values())
+                for (int i = 0; i < labels.size(); i++)
+                    labels.set(i, "");
         }
+        if (reportModel.isTMMLabeled())
+            PlotManager.setSeriesItemLabels(plot, seriesLabels, reportModel.getTMMLabels());
+        else
+            PlotManager.setSeriesItemLabels(plot, seriesLabels, reportModel.getGroupLabels());
 
 //        domainRange[1] = summaryFileHandler.getPSFRange(TELOMERASEKEY)[1];
 //        rangeRange[1] = summaryFileHandler.getPSFRange(ALTKEY)[1];
         //tmm0.2
-        domainRange = summaryFileHandler.getPSFRange(TELOMERASEKEY);
-        rangeRange = summaryFileHandler.getPSFRange(ALTKEY);
+        domainRange = reportModel.getScoreRange(TELOMERASEKEY);
+        rangeRange = reportModel.getScoreRange(ALTKEY);
 
         double xmin, xmax, ymin, ymax;
 
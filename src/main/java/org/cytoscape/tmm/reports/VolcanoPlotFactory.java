@@ -6,12 +6,10 @@ import org.jfree.chart.labels.XYItemLabelGenerator;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.data.xy.XYDataset;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
+import org.jfree.ui.RectangleAnchor;
 
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 /**
  * Created by Lilit Nersisyan on 4/7/2017.
@@ -22,64 +20,42 @@ import java.util.HashMap;
  */
 public class VolcanoPlotFactory {
 
-    private String SCORESKEY = "scores";
-    private String PVALUESKEY = "pvalues";
     private String ALTKEY = "ALT";
     private String TELOMERASEKEY = "Telomerase";
 
-    private boolean labeled = false;
-
-    private ArrayList<String> samples;
-    private HashMap<String, HashMap<String, HashMap<String, Double>>> summaryMap;
-    private HashMap<String, ArrayList<String>> seriesLabels = new HashMap<>();
-
-    private SummaryFileHandler summaryFileHandler;
-    private TMMLabels tmmLabels;
-    private GroupLabels groupLabels;
+    private final ReportModel reportModel;
+    private int densityThreshold = 0;
 
     /**
-     * Constructor for estimation mode
+     * Constructor for both TMM labeled samples and estimation mode, depending on the labels of the report model.
      *
-     * @param summaryFileHandler
-     * @param groupLabels        GroupLabels class object containing group labels and colors
+     * @param reportModel the report data shared by the plot factories
      */
-    public VolcanoPlotFactory(SummaryFileHandler summaryFileHandler, GroupLabels groupLabels) {
-        this.summaryFileHandler = summaryFileHandler;
-        summaryMap = summaryFileHandler.getSummaryMap();
-        samples = summaryFileHandler.getSamples();
-        this.groupLabels = groupLabels;
+    public VolcanoPlotFactory(ReportModel reportModel) {
+        this.reportModel = reportModel;
     }
 
     /**
-     * Constructor for TMM labeled samples
+     * Above the density threshold number of points, the scatter plot is drawn by a DensityScatterRenderer.
+     * 0 (default) stands for drawing every point as a vector shape.
      *
-     * @param summaryFileHandler
-     * @param tmmLabels
+     * @param densityThreshold
      */
-    public VolcanoPlotFactory(SummaryFileHandler summaryFileHandler,
-                              TMMLabels tmmLabels) {
-
-        this.summaryFileHandler = summaryFileHandler;
-        summaryMap = summaryFileHandler.getSummaryMap();
-        samples = summaryFileHandler.getSamples();
-        this.tmmLabels = tmmLabels;
-        labeled = true;
+    public void setDensityThreshold(int densityThreshold) {
+        this.densityThreshold = densityThreshold;
     }
 
     /**
-     * Creates two volcano plots from PSF scores and p values stored summaryMap from the summaryHanlder.
+     * Creates two volcano plots from PSF scores and p values stored in the summaryHanlder.
      *
      * @return returns an array of two charts: one for ALT, the other for Telomerase TMMs
      * @throws Exception
      */
     public JFreeChart[] createVolcanoPlots() throws Exception {
 
-        XYDataset[] datasets = null;
-        try {
-            datasets = createDatasets();
-        } catch (Exception e) {
-            throw new Exception("Problem creating datasets for volcano plots: " + e.getMessage());
-        }
+        // one series per label, read from the report model
+        XYDataset[] datasets = new XYDataset[]{reportModel.createVolcanoDataset(ALTKEY),
+                reportModel.createVolcanoDataset(TELOMERASEKEY)};
 
         JFreeChart altChart = ChartFactory.createScatterPlot(
                 "ALT volcano plot",
@@ -92,254 +68,38 @@ public class VolcanoPlotFactory {
                 PlotOrientation.VERTICAL, true, false, false);
 
         XYPlot altPlot = (XYPlot) altChart.getPlot();
+        altPlot.setRenderer(createRenderer(datasets[0]));
         renderPlot(altPlot, ALTKEY);
 
         XYPlot telomerasePlot = (XYPlot) telomeraseChart.getPlot();
+        telomerasePlot.setRenderer(createRenderer(datasets[1]));
         renderPlot(telomerasePlot, TELOMERASEKEY);
 
         return new JFreeChart[]{altChart, telomeraseChart};
     }
 
     /**
-     * Checks if samples are TMM labeled and returns datasets respectively.
-     *
-     * @return
-     * @throws Exception
+     * Returns the renderer of a volcano plot. The labels of the points far from the bottom center,
+     * i.e. of the samples with extreme scores or low p values, are placed first.
      */
-    private XYDataset[] createDatasets() throws Exception {
-        try {
-            if (!labeled) {
-                return createGroupLabeledDatasets();
-            } else {
-                return createTMMLabeledDatasets();
-            }
-        } catch (Exception e) {
-            throw e;
-        }
+    private LabelPlacingRenderer createRenderer(XYDataset dataset) {
+        LabelPlacingRenderer renderer;
+        if (DensityScatterRenderer.isDense(dataset, densityThreshold))
+            renderer = new DensityScatterRenderer();
+        else
+            renderer = new LabelPlacingRenderer();
+        renderer.setReferenceAnchor(RectangleAnchor.BOTTOM);
+        return renderer;
     }
 
-    /**
-     * Creates ALT and telomerase datasets, each containing a single series of non-labeled sample points.
-     *
-     * @return an array of XYDatasets, the first being the ALT and the second being the Telomerase dataset
-     * @throws Exception
-     */
-    private XYDataset[] createNonLabeledDatasets() throws Exception {
-        XYSeriesCollection altDataset = null;
-        XYSeriesCollection telomeraseDataset = null;
-
-        try {
-            altDataset = new XYSeriesCollection();
-            telomeraseDataset = new XYSeriesCollection();
-
-            XYSeries altSeries = getTMMLabeledSeries(ALTKEY);
-            XYSeries telomeraseSeries = getTMMLabeledSeries(TELOMERASEKEY);
-
-            altDataset.addSeries(altSeries);
-            telomeraseDataset.addSeries(telomeraseSeries);
-        } catch (Exception e) {
-            throw new Exception("Problem generating the datasets: "
-                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
-        }
-
-        return new XYSeriesCollection[]{altDataset, telomeraseDataset};
-    }
-
-    /**
-     * Creates ALT and telomerase datasets, each containing a series of group-labeled sample points.
-     *
-     * @return an array of XYDatasets, the first being the ALT and the second being the Telomerase dataset
-     * @throws Exception
-     */
-    private XYDataset[] createGroupLabeledDatasets() throws Exception {
-        XYSeriesCollection altDataset = null;
-        XYSeriesCollection telomeraseDataset = null;
-        try {
-
-            altDataset = new XYSeriesCollection();
-            for (String groupLabel : groupLabels.getGroups()) {
-                XYSeries series = getGroupLabeledSeries(ALTKEY, groupLabel);
-                altDataset.addSeries(series);
-            }
-
-            telomeraseDataset = new XYSeriesCollection();
-            for (String groupLabel : groupLabels.getGroups()) {
-                XYSeries series = getGroupLabeledSeries(TELOMERASEKEY, groupLabel);
-                telomeraseDataset.addSeries(series);
-            }
-
-        } catch (Exception e) {
-            throw new Exception("Problem generating the 2D Group labeled TMM dataset: "
-                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
-        }
-
-        return new XYSeriesCollection[]{altDataset, telomeraseDataset};
-
-    }
-
-    /**
-     * Returns ALT and Telomerase datasets, each containing multiple series of points, one serie per each TMM label
-     *
-     * @return
-     * @throws Exception
-     */
-    private XYDataset[] createTMMLabeledDatasets() throws Exception {
-        XYSeriesCollection altDataset = null;
-        XYSeriesCollection telomeraseDataset = null;
-        try {
-            String[] seriesKeys = new String[]{TMMLabels.A, TMMLabels.T, TMMLabels.N, TMMLabels.AT};
-
-            altDataset = new XYSeriesCollection();
-            for (String seriesKey : seriesKeys) {
-                XYSeries series = getTMMLabeledSeries(ALTKEY, seriesKey);
-                altDataset.addSeries(series);
-            }
-
-            telomeraseDataset = new XYSeriesCollection();
-            for (String seriesKey : seriesKeys) {
-                XYSeries series = getTMMLabeledSeries(TELOMERASEKEY, seriesKey);
-                telomeraseDataset.addSeries(series);
-            }
-
-        } catch (Exception e) {
-            throw new Exception("Problem generating the 2D TMM dataset: "
-                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
-        }
-        return new XYSeriesCollection[]{altDataset, telomeraseDataset};
-    }
-
-
-    /**
-     * Reads the summary map and returns a single series of psf scores and p values.
-     *
-     * @param tmmKey
-     * @return
-     * @throws Exception
-     */
-    private XYSeries getTMMLabeledSeries(String tmmKey) throws Exception {
-        XYSeries series = new XYSeries("Unknown TMM", false);
-        HashMap<String, Double> scores = getScores(tmmKey);
-        HashMap<String, Double> pvalues = getPvalues(tmmKey);
-
-        for (String s : samples) {
-            double score = scores.get(s);
-            double pvalue = pvalues.get(s);
-            double y = getLog2Pvalue(pvalue);
-            series.add(score, y);
-        }
-        return series;
-    }
-
-    /**
-     * Returns a series of points with psf scores and p values for the specified tmm
-     * and the samples with the specified TMM annotation.
-     *
-     * @param tmmKey    the TMM network key
-     * @param seriesKey the TMM annotation of the samples
-     * @return XYSeries containing samples with the specified TMM annotation, each sample with psf scores and p values from the specified TMM network
-     * @throws Exception
-     */
-    private XYSeries getTMMLabeledSeries(String tmmKey, String seriesKey) throws Exception {
-        XYSeries series = new XYSeries(seriesKey, false);
-        HashMap<String, Double> scores = getScores(tmmKey);
-        HashMap<String, Double> pvalues = getPvalues(tmmKey);
-
-        ArrayList<String> labels = new ArrayList<>();
-
-        for (String s : samples) {
-            if (tmmLabels.getSamples(seriesKey).contains(s)) {
-                double score = scores.get(s);
-                double pvalue = pvalues.get(s);
-                double y = getLog2Pvalue(pvalue);
-                series.add(score, y);
-                labels.add(s);
-            }
-        }
-        seriesLabels.put(seriesKey, labels);
-        return series;
-    }
-
-    /**
-     * Returns a series of points with psf scores and p values for the specified tmm
-     * and the samples with the specified Group label annotation.
-     *
-     * @param tmmKey     the TMM network key
-     * @param groupLabel the group label annotation of the samples
-     * @return XYSeries containing samples from the specified group label annotation,
-     * each sample with psf scores and p values from the specified TMM network
-     * @throws Exception
-     */
-    private XYSeries getGroupLabeledSeries(String tmmKey, String groupLabel) throws Exception {
-        XYSeries series = new XYSeries(groupLabel, false);
-        HashMap<String, Double> scores = getScores(tmmKey);
-        HashMap<String, Double> pvalues = getPvalues(tmmKey);
-
-        ArrayList<String> labels = new ArrayList<>();
-
-        for (String s : groupLabels.getSamples(groupLabel)) {
-            double score = scores.get(s);
-            double pvalue = pvalues.get(s);
-            double y = getLog2Pvalue(pvalue);
-            series.add(score, y);
-            labels.add(s);
-        }
-        seriesLabels.put(groupLabel, labels);
-        return series;
-    }
-
-    /**
-     * Retrieves psf scores for the specified TMM network from the summaryMap.
-     *
-     * @param tmmKey
-     * @return
-     * @throws Exception
-     */
-    private HashMap<String, Double> getScores(String tmmKey) throws Exception {
-        HashMap<String, Double> scores = null;
-        try {
-            scores = summaryMap.get(tmmKey).get(SCORESKEY);
-        } catch (Exception e) {
-            throw new Exception("Summary map did not contain key " + tmmKey);
-        }
-        if (scores.size() != samples.size())
-            throw new Exception("scores for " + tmmKey + " did not contain " + samples.size()
-                    + " elements" + scores.size());
-        return scores;
-    }
-
-    /**
-     * Retrieves psf score p values for the specified TMM network from the summaryMap.
-     *
-     * @param tmmKey
-     * @return
-     * @throws Exception
-     */
-    private HashMap<String, Double> getPvalues(String tmmKey) throws Exception {
-        HashMap<String, Double> pvalues = null;
-        try {
-            pvalues = summaryMap.get(tmmKey).get(PVALUESKEY);
-        } catch (Exception e) {
-            throw new Exception("Summary map did not contain key " + tmmKey);
-        }
-        if (pvalues.size() != samples.size())
-            throw new Exception("p values for " + tmmKey + " did not contain " + samples.size()
-                    + " elements. Actual size: " + pvalues.size());
-        return pvalues;
-    }
-
-
     private void renderPlot(XYPlot plot, String tmmkey) {
         PlotManager.renderBase(plot);
-        if (!labeled)
-//            PlotManager.setBaseItemLabels(plot, samples);
-            PlotManager.setSeriesItemLabels(plot,
-                    groupLabels.getGroupSamplesMap(),
-                    groupLabels.getGroupColorsMap());
-        else {
-            PlotManager.setSeriesItemLabels(plot, seriesLabels, tmmLabels);
-        }
+        if (reportModel.isTMMLabeled())
+            PlotManager.setSeriesItemLabels(plot, reportModel.getLabelSamplesMap(), reportModel.getTMMLabels());
+        else
+            PlotManager.setSeriesItemLabels(plot, reportModel.getLabelSamplesMap(), reportModel.getGroupLabels());
 
-        double[] domainRange = summaryFileHandler.getPSFRange(tmmkey);
+        double[] domainRange = reportModel.getScoreRange(tmmkey);
         plot.getDomainAxis().setRange(domainRange[0] - 0.5, domainRange[1] + 0.5);
         plot.getRangeAxis().setRange(0, 11);
 
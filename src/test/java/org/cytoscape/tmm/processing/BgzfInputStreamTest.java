@@ -0,0 +1,220 @@
+package org.cytoscape.tmm.processing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Public class BgzfInputStreamTest
+ * <p>
+ * Reads gzip and BGZF compressed expression matrices and compares them with the uncompressed ones.
+ */
+public class BgzfInputStreamTest {
+    private static final int BLOCKSIZE = 0xff00;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("bgzf", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    private static byte[] createMatrix(int numRows, int numSamples) throws IOException {
+        Random random = new Random(1);
+        StringBuilder content = new StringBuilder("Gene");
+        for (int j = 0; j < numSamples; j++)
+            content.append("\tS").append(j);
+        for (int i = 0; i < numRows; i++) {
+            content.append("\nG").append(i);
+            for (int j = 0; j < numSamples; j++)
+                content.append('\t').append(random.nextInt(100000) / 100.);
+        }
+        return content.toString().getBytes("UTF-8");
+    }
+
+    private File write(String name, byte[] bytes) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+    }
+
+    private static void writeInt(OutputStream out, long value) throws IOException {
+        writeShort(out, (int) (value & 0xffff));
+        writeShort(out, (int) ((value >> 16) & 0xffff));
+    }
+
+    /**
+     * Compresses the bytes into BGZF blocks as bgzip does, followed by the empty end-of-file block.
+     */
+    private static byte[] bgzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] deflated = new byte[2 * BLOCKSIZE];
+        for (int offset = 0; offset < bytes.length; offset += BLOCKSIZE) {
+            int length = Math.min(BLOCKSIZE, bytes.length - offset);
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(bytes, offset, length);
+            deflater.finish();
+            int deflatedLength = deflater.deflate(deflated);
+            deflater.end();
+            CRC32 crc = new CRC32();
+            crc.update(bytes, offset, length);
+
+            out.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff});
+            writeShort(out, 6);
+            out.write(new byte[]{'B', 'C'});
+            writeShort(out, 2);
+            writeShort(out, 12 + 6 + deflatedLength + 8 - 1);
+            out.write(deflated, 0, deflatedLength);
+            writeInt(out, crc.getValue());
+            writeInt(out, length);
+        }
+        out.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+                0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(ExpMatTokenizer tokenizer) throws IOException {
+        StringBuilder content = new StringBuilder();
+        int delimiter;
+        do {
+            delimiter = tokenizer.readToken();
+            content.append(tokenizer.tokenString());
+            if (delimiter != ExpMatTokenizer.EOF)
+                content.append((char) delimiter);
+        } while (delimiter != ExpMatTokenizer.EOF);
+        return content.toString().getBytes("UTF-8");
+    }
+
+    @Test
+    public void testDetection() throws Exception {
+        byte[] bytes = createMatrix(10, 3);
+        File plain = write("expmat.txt", bytes);
+        File gzipped = write("expmat.txt.gz", gzip(bytes));
+        File bgzipped = write("expmat.txt.bgz", bgzip(bytes));
+        assertFalse(ExpMatTokenizer.isCompressed(plain));
+        assertTrue(ExpMatTokenizer.isCompressed(gzipped));
+        assertTrue(ExpMatTokenizer.isCompressed(bgzipped));
+        assertFalse(BgzfInputStream.isBgzf(plain));
+        assertFalse(BgzfInputStream.isBgzf(gzipped));
+        assertTrue(BgzfInputStream.isBgzf(bgzipped));
+    }
+
+    @Test
+    public void testTokenizer() throws Exception {
+        // many blocks, with tokens split across block boundaries
+        byte[] bytes = createMatrix(20000, 10);
+        File bgzipped = write("expmat.txt.bgz", bgzip(bytes));
+        File gzipped = write("expmat.txt.gz", gzip(bytes));
+        for (int t = 1; t <= 4; t *= 2) {
+            ExpMatTokenizer tokenizer = ExpMatTokenizer.open(bgzipped, t);
+            try {
+                assertEquals(new String(bytes, "UTF-8"), new String(readAll(tokenizer), "UTF-8"));
+                assertEquals(bytes.length, tokenizer.getOffset());
+            } finally {
+                tokenizer.close();
+            }
+        }
+        ExpMatTokenizer tokenizer = ExpMatTokenizer.open(gzipped, 1);
+        try {
+            assertEquals(new String(bytes, "UTF-8"), new String(readAll(tokenizer), "UTF-8"));
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    @Test
+    public void testParser() throws Exception {
+        byte[] bytes = createMatrix(20000, 10);
+        File plain = write("expmat.txt", bytes);
+        File bgzipped = write("expmat.txt.bgz", bgzip(bytes));
+        HashMap<String, ArrayList<Integer>> geneNodeIndices = new HashMap<>();
+        for (int i = 0; i < 20000; i += 3) {
+            ArrayList<Integer> indices = new ArrayList<>();
+            indices.add(geneNodeIndices.size());
+            geneNodeIndices.put("G" + i, indices);
+        }
+
+        ExpMatParser parser = new ExpMatParser(plain);
+        parser.readHeader();
+        FCMatrix expected = parser.readFCMatrix(geneNodeIndices, geneNodeIndices.size());
+        parser = new ExpMatParser(bgzipped);
+        parser.setNumThreads(4);
+        parser.readHeader();
+        assertEquals(10, parser.getSamples().size());
+        FCMatrix fcMatrix = parser.readFCMatrix(geneNodeIndices, geneNodeIndices.size());
+        for (int i = 0; i < expected.getNumNodes(); i++)
+            for (int j = 0; j < 10; j++)
+                assertEquals(expected.get(i, j), fcMatrix.get(i, j), 0);
+    }
+
+    @Test
+    public void testSingleByteRead() throws Exception {
+        byte[] bytes = createMatrix(2000, 10);
+        File bgzipped = write("expmat.txt.bgz", bgzip(bytes));
+        BgzfInputStream stream = new BgzfInputStream(bgzipped, 2);
+        try {
+            for (int i = 0; i < bytes.length; i++)
+                assertEquals("Byte " + i, bytes[i] & 0xff, stream.read());
+            // past the empty end-of-file block
+            assertEquals(-1, stream.read());
+            assertEquals(-1, stream.read());
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptBlock() throws Exception {
+        byte[] compressed = bgzip(createMatrix(1000, 10));
+        // the CRC of the first block
+        int crcOffset = 18 + (((compressed[16] & 0xff) | ((compressed[17] & 0xff) << 8)) + 1 - 18 - 8);
+        compressed[crcOffset] ^= 1;
+        ExpMatTokenizer tokenizer = ExpMatTokenizer.open(write("expmat.txt.bgz", compressed), 2);
+        try {
+            readAll(tokenizer);
+        } finally {
+            tokenizer.close();
+        }
+    }
+}
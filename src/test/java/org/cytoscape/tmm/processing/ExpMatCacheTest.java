@@ -0,0 +1,197 @@
+package org.cytoscape.tmm.processing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Public class ExpMatCacheTest
+ * <p>
+ * Parses expression matrices with a cache file and reads them back from the cache.
+ */
+public class ExpMatCacheTest {
+    private static final int NUMSAMPLES = 20;
+    private static final int NUMROWS = 80000;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("expmatcache", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    /**
+     * Writes a matrix of NUMROWS genes, large enough to be split into several chunks.
+     * The row with the given index, if not negative, contains an invalid value.
+     */
+    private File writeMatrix(String name, int invalidRow) throws IOException {
+        File file = new File(dir, name);
+        Random random = new Random(1);
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write("Gene");
+            for (int j = 0; j < NUMSAMPLES; j++)
+                writer.write("\tS" + j);
+            for (int i = 0; i < NUMROWS; i++) {
+                writer.write("\nG" + i);
+                for (int j = 0; j < NUMSAMPLES; j++)
+                    writer.write("\t" + (i == invalidRow && j == 3 ? "abc" : random.nextInt(100000) / 100.));
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static HashMap<String, ArrayList<Integer>> getGeneNodeIndices() {
+        HashMap<String, ArrayList<Integer>> geneNodeIndices = new HashMap<>();
+        for (int i = 0; i < NUMROWS; i += 7) {
+            ArrayList<Integer> indices = new ArrayList<>();
+            indices.add(geneNodeIndices.size());
+            geneNodeIndices.put("G" + i, indices);
+        }
+        return geneNodeIndices;
+    }
+
+    private static FCMatrix read(File expMatFile, File cacheFile, int numThreads,
+                                 HashMap<String, ArrayList<Integer>> geneNodeIndices) throws Exception {
+        ExpMatParser parser = new ExpMatParser(expMatFile);
+        parser.setNumThreads(numThreads);
+        parser.setCacheFile(cacheFile);
+        parser.readHeader();
+        assertEquals(NUMSAMPLES, parser.getSamples().size());
+        return parser.readFCMatrix(geneNodeIndices, geneNodeIndices.size() + 1);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File expMatFile = writeMatrix("expmat.txt", -1);
+        File cacheFile = ExpMatCache.getCacheFile(expMatFile, dir);
+        HashMap<String, ArrayList<Integer>> geneNodeIndices = getGeneNodeIndices();
+
+        FCMatrix expected = read(expMatFile, null, 1, geneNodeIndices);
+        FCMatrix written = read(expMatFile, cacheFile, 4, geneNodeIndices);
+        assertTrue(cacheFile.exists());
+        ExpMatCache cache = ExpMatCache.open(expMatFile, cacheFile);
+        assertNotNull(cache);
+        assertEquals(NUMROWS + 1, cache.getFirstColumn().size());
+        FCMatrix cached = cache.readFCMatrix(geneNodeIndices, geneNodeIndices.size() + 1, false);
+
+        for (int i = 0; i < expected.getNumNodes(); i++) {
+            for (int j = 0; j < NUMSAMPLES; j++) {
+                assertEquals(expected.get(i, j), written.get(i, j), 0);
+                assertEquals(expected.get(i, j), cached.get(i, j), 0);
+            }
+        }
+        // the node not mapped to a gene keeps the missing value
+        assertEquals(1, cached.get(geneNodeIndices.size(), 0), 0);
+    }
+
+    @Test
+    public void testChangedMatrix() throws Exception {
+        File expMatFile = writeMatrix("expmat.txt", -1);
+        File cacheFile = ExpMatCache.getCacheFile(expMatFile, dir);
+        read(expMatFile, cacheFile, 4, getGeneNodeIndices());
+        assertNotNull(ExpMatCache.open(expMatFile, cacheFile));
+
+        FileWriter writer = new FileWriter(expMatFile, true);
+        writer.write("\nG" + NUMROWS);
+        for (int j = 0; j < NUMSAMPLES; j++)
+            writer.write("\t1");
+        writer.close();
+        assertNull(ExpMatCache.open(expMatFile, cacheFile));
+    }
+
+    @Test
+    public void testErrorLine() throws Exception {
+        // the invalid row is in the last chunk: its error should give the line number in the file
+        int invalidRow = NUMROWS - 10;
+        File expMatFile = writeMatrix("expmat.txt", invalidRow);
+        File cacheFile = ExpMatCache.getCacheFile(expMatFile, dir);
+        HashMap<String, ArrayList<Integer>> geneNodeIndices = new HashMap<>();
+        ArrayList<Integer> indices = new ArrayList<>();
+        indices.add(0);
+        geneNodeIndices.put("G" + invalidRow, indices);
+
+        String sequentialError = null;
+        try {
+            read(expMatFile, null, 1, geneNodeIndices);
+        } catch (Exception e) {
+            sequentialError = e.getMessage();
+        }
+        assertNotNull(sequentialError);
+        assertTrue(sequentialError, sequentialError.contains("Line: " + (invalidRow + 2) + ","));
+
+        for (int t = 0; t < 2; t++) {
+            // written to the cache, then read from it
+            try {
+                read(expMatFile, cacheFile, 4, geneNodeIndices);
+                fail("The invalid row was not reported");
+            } catch (Exception e) {
+                assertEquals(sequentialError, e.getMessage());
+            }
+            assertTrue(cacheFile.exists());
+        }
+    }
+
+    private File writeBytes(String name, int length, long lastModified) throws IOException {
+        File file = new File(dir, name);
+        FileWriter writer = new FileWriter(file);
+        try {
+            for (int i = 0; i < length; i++)
+                writer.write('x');
+        } finally {
+            writer.close();
+        }
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        long now = System.currentTimeMillis();
+        File oldest = writeBytes("a" + ExpMatCache.EXTENSION, 100, now - 30000);
+        File older = writeBytes("b" + ExpMatCache.EXTENSION, 100, now - 20000);
+        File recent = writeBytes("c" + ExpMatCache.EXTENSION, 100, now - 10000);
+        File other = writeBytes("d.txt", 1000, now - 40000);
+        // the kept file is the oldest of all, but in use
+        File kept = writeBytes("e" + ExpMatCache.EXTENSION, 100, now - 50000);
+
+        assertEquals(300, ExpMatCache.evict(dir, 350, kept));
+        assertFalse(oldest.exists());
+        assertTrue(older.exists() && recent.exists() && kept.exists() && other.exists());
+
+        // a kept file above the limit removes all other caches
+        assertEquals(100, ExpMatCache.evict(dir, 50, kept));
+        assertFalse(older.exists() || recent.exists());
+        assertTrue(kept.exists() && other.exists());
+    }
+
+    @Test
+    public void testOpenMarksUse() throws Exception {
+        File expMatFile = writeMatrix("expmat.txt", -1);
+        File cacheFile = ExpMatCache.getCacheFile(expMatFile, dir);
+        read(expMatFile, cacheFile, 2, getGeneNodeIndices());
+        assertTrue(cacheFile.setLastModified(System.currentTimeMillis() - 60000));
+        assertNotNull(ExpMatCache.open(expMatFile, cacheFile));
+        assertTrue(System.currentTimeMillis() - cacheFile.lastModified() < 30000);
+    }
+}
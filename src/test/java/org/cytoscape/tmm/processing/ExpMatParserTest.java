@@ -0,0 +1,155 @@
+package org.cytoscape.tmm.processing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Public class ExpMatParserTest
+ * <p>
+ * Parses expression matrices sequentially and in parallel chunks.
+ */
+public class ExpMatParserTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("expmat", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void write(String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static HashMap<String, ArrayList<Integer>> map(String... genes) {
+        HashMap<String, ArrayList<Integer>> geneNodeIndices = new HashMap<>();
+        for (int i = 0; i < genes.length; i++) {
+            if (!geneNodeIndices.containsKey(genes[i]))
+                geneNodeIndices.put(genes[i], new ArrayList<Integer>());
+            geneNodeIndices.get(genes[i]).add(i);
+        }
+        return geneNodeIndices;
+    }
+
+    private FCMatrix read(int numThreads, HashMap<String, ArrayList<Integer>> geneNodeIndices,
+                          int numNodes) throws Exception {
+        ExpMatParser parser = new ExpMatParser(file);
+        parser.setNumThreads(numThreads);
+        parser.readHeader();
+        return parser.readFCMatrix(geneNodeIndices, numNodes);
+    }
+
+    @Test
+    public void testHeader() throws Exception {
+        write("Gene\tS1\tS2\t\t\nG1\t1\t2\n");
+        ExpMatParser parser = new ExpMatParser(file);
+        parser.readHeader();
+        assertEquals(2, parser.getSamples().size());
+        assertEquals("S2", parser.getSamples().get(1));
+        assertEquals("Gene\tS1\tS2", parser.getHeaderLine());
+    }
+
+    @Test(expected = Exception.class)
+    public void testOneColumnHeader() throws Exception {
+        write("Gene\nG1\n");
+        new ExpMatParser(file).readHeader();
+    }
+
+    @Test
+    public void testFCValues() throws Exception {
+        write("Gene\tS1\tS2\tS3\nG1\t1\t2\t3\nG2\t0\t0\t0\nG3\tNA\t4\t2\t\nNA\t5\t5\t5\n");
+        // two nodes are mapped to G1, and G4 is not in the matrix
+        ExpMatParser parser = new ExpMatParser(file);
+        parser.readHeader();
+        FCMatrix fcMatrix = parser.readFCMatrix(map("G1", "G2", "G3", "G4", "G1"), 5);
+        assertEquals(0.5, fcMatrix.get(0, 0), 1e-12);
+        assertEquals(1.5, fcMatrix.get(0, 2), 1e-12);
+        assertEquals(1.5, fcMatrix.get(4, 2), 1e-12);
+        // all zero rows get FC 1
+        assertEquals(1, fcMatrix.get(1, 1), 0);
+        // NA is taken as 1
+        assertEquals(3. / 7, fcMatrix.get(2, 0), 1e-12);
+        assertTrue(parser.isNaWarning());
+        assertEquals(1, fcMatrix.get(3, 0), 0);
+    }
+
+    @Test
+    public void testInvalidRows() throws Exception {
+        String[] rows = new String[]{"G1\t1", "G1\t1\t2\t3", "G1\tx\t2", "G1\t-1\t2"};
+        for (String row : rows) {
+            write("Gene\tS1\tS2\nG0\t1\t1\n" + row + "\n");
+            try {
+                read(1, map("G1"), 1);
+                fail("Parsed " + row);
+            } catch (Exception e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("3"));
+            }
+            // rows of genes outside the network are not checked
+            read(1, map("G2"), 1);
+        }
+    }
+
+    @Test
+    public void testChunkBoundaries() throws Exception {
+        // rows of varying lengths, so that the chunk boundaries fall at all positions of the lines
+        int numSamples = 10;
+        int numRows = 150000;
+        Random random = new Random(1);
+        StringBuilder content = new StringBuilder("Gene");
+        for (int j = 0; j < numSamples; j++)
+            content.append("\tS").append(j);
+        String[] genes = new String[numRows];
+        for (int i = 0; i < numRows; i++) {
+            genes[i] = "G" + i;
+            content.append(random.nextInt(2) == 0 ? "\r\n" : "\n").append(genes[i]);
+            for (int j = 0; j < numSamples; j++)
+                content.append('\t').append(random.nextInt(1 + random.nextInt(1000000)));
+        }
+        write(content.toString());
+        assertTrue(file.length() > 8 << 20);
+
+        HashMap<String, ArrayList<Integer>> geneNodeIndices = map(genes);
+        FCMatrix expected = read(1, geneNodeIndices, numRows);
+        for (int t = 2; t <= 8; t *= 2) {
+            FCMatrix fcMatrix = read(t, geneNodeIndices, numRows);
+            for (int i = 0; i < numRows; i++)
+                for (int j = 0; j < numSamples; j++)
+                    assertEquals(expected.get(i, j), fcMatrix.get(i, j), 0);
+        }
+    }
+
+    @Test
+    public void testParallelErrorLine() throws Exception {
+        int numRows = 500000;
+        StringBuilder content = new StringBuilder("Gene\tS1\tS2\tS3");
+        for (int i = 0; i < numRows; i++)
+            content.append("\nG").append(i).append(i == numRows - 5 ? "\t1\t2" : "\t1.25\t2.5\t3.75");
+        write(content.toString());
+        assertTrue(file.length() > 8 << 20);
+        try {
+            read(4, map("G" + (numRows - 5)), 1);
+            fail("The invalid row was not reported");
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line " + (numRows - 3) + " "));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.cytoscape.tmm.processing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Public class ExpMatTokenizerTest
+ * <p>
+ * Tokenizes small expression matrix files and compares the parsed numbers with Double.parseDouble().
+ */
+public class ExpMatTokenizerTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("expmat", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void write(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testTokens() throws Exception {
+        write("Gene\tS1\tS2\r\nG1\t1.5\tNA\r\n\tx\n");
+        ExpMatTokenizer tokenizer = new ExpMatTokenizer(file);
+        try {
+            assertEquals(1, tokenizer.getLineNumber());
+            assertEquals(ExpMatTokenizer.TAB, tokenizer.readToken());
+            assertEquals("Gene", tokenizer.tokenString());
+            assertEquals(ExpMatTokenizer.TAB, tokenizer.readToken());
+            assertTrue(tokenizer.tokenEquals("S1"));
+            // the carriage return is not part of the token
+            assertEquals(ExpMatTokenizer.LF, tokenizer.readToken());
+            assertEquals("S2", tokenizer.tokenString());
+            assertEquals(2, tokenizer.getLineNumber());
+
+            assertEquals(ExpMatTokenizer.TAB, tokenizer.readToken());
+            assertEquals("G1", tokenizer.tokenString());
+            assertEquals(ExpMatTokenizer.TAB, tokenizer.readToken());
+            assertEquals(1.5, tokenizer.tokenDouble(), 0);
+            assertEquals(ExpMatTokenizer.LF, tokenizer.readToken());
+            assertTrue(tokenizer.tokenEquals("NA"));
+            assertFalse(tokenizer.tokenEquals("N"));
+
+            assertEquals(ExpMatTokenizer.TAB, tokenizer.readToken());
+            assertEquals(0, tokenizer.getTokenLength());
+            assertEquals(ExpMatTokenizer.LF, tokenizer.skipLine());
+            assertEquals(4, tokenizer.getLineNumber());
+            assertTrue(tokenizer.atEnd());
+            assertEquals(ExpMatTokenizer.EOF, tokenizer.readToken());
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    @Test
+    public void testNoFinalLineEnd() throws Exception {
+        write("a\tb\nc");
+        ExpMatTokenizer tokenizer = new ExpMatTokenizer(file);
+        try {
+            tokenizer.skipLine();
+            assertEquals(ExpMatTokenizer.EOF, tokenizer.readToken());
+            assertEquals("c", tokenizer.tokenString());
+            assertEquals(2, tokenizer.getLineNumber());
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    @Test
+    public void testByteRange() throws Exception {
+        write("Gene\tS1\nG1\t1\nG2\t2\n");
+        // the range starts in the middle of the second line
+        ExpMatTokenizer tokenizer = new ExpMatTokenizer(file, 11, 13);
+        try {
+            assertEquals(11, tokenizer.getOffset());
+            assertEquals(ExpMatTokenizer.LF, tokenizer.readToken());
+            assertEquals("1", tokenizer.tokenString());
+            assertEquals(13, tokenizer.getOffset());
+            assertTrue(tokenizer.atEnd());
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    @Test
+    public void testLongToken() throws Exception {
+        StringBuilder gene = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            gene.append('g');
+        write(gene + "\t1\n");
+        ExpMatTokenizer tokenizer = new ExpMatTokenizer(file);
+        try {
+            tokenizer.readToken();
+            assertEquals(gene.toString(), tokenizer.tokenString());
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    @Test
+    public void testParseDouble() {
+        String[] numbers = new String[]{"0", "-0", "1", "+2", "0.5", ".5", "5.", "007.250", "-12.75",
+                "1e3", "1E-3", "2.5e+10", "123456789012345", "1234567890123456789", "0.1234567890123456789",
+                "1e-300", "1e300", "4.9e-324", "NaN", "Infinity", "-Infinity", "0x1p3"};
+        for (String number : numbers) {
+            byte[] bytes = number.getBytes();
+            assertEquals(number, Double.parseDouble(number),
+                    ExpMatTokenizer.parseDouble(bytes, 0, bytes.length), 0);
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            String number;
+            switch (i % 3) {
+                case 0:
+                    number = Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(20) - 10));
+                    break;
+                case 1:
+                    number = String.format("%.4f", random.nextDouble() * 1000);
+                    break;
+                default:
+                    number = Double.toString(random.nextGaussian());
+            }
+            byte[] bytes = number.getBytes();
+            assertEquals(number, Double.parseDouble(number),
+                    ExpMatTokenizer.parseDouble(bytes, 0, bytes.length), 0);
+        }
+    }
+
+    @Test
+    public void testInvalidNumbers() {
+        String[] invalid = new String[]{"", "-", "abc", "1.2.3", "1e", "1e+", "--1"};
+        for (String number : invalid) {
+            byte[] bytes = number.getBytes();
+            try {
+                ExpMatTokenizer.parseDouble(bytes, 0, bytes.length);
+                fail("Parsed " + number);
+            } catch (NumberFormatException e) {
+                // expected
+            }
+        }
+    }
+}
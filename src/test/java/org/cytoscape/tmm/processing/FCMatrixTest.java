@@ -0,0 +1,64 @@
+package org.cytoscape.tmm.processing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Public class FCMatrixTest
+ */
+public class FCMatrixTest {
+
+    @Test
+    public void testMissingValues() {
+        for (boolean floatPrecision : new boolean[]{false, true}) {
+            FCMatrix fcMatrix = new FCMatrix(3, 2, floatPrecision);
+            assertEquals(3, fcMatrix.getNumNodes());
+            assertEquals(2, fcMatrix.getNumSamples());
+            assertEquals(floatPrecision, fcMatrix.isFloatPrecision());
+            for (int i = 0; i < 3; i++)
+                for (int j = 0; j < 2; j++)
+                    assertEquals(1, fcMatrix.get(i, j), 0);
+        }
+    }
+
+    @Test
+    public void testSetAndColumns() {
+        FCMatrix fcMatrix = new FCMatrix(3, 4, false);
+        fcMatrix.setRow(1, new double[]{0.1, 0.2, 0.3, 0.4});
+        fcMatrix.set(2, 3, 2.5);
+        assertEquals(0.3, fcMatrix.get(1, 2), 0);
+        assertEquals(2.5, fcMatrix.get(2, 3), 0);
+        assertEquals(1, fcMatrix.get(0, 3), 0);
+        assertEquals("0.3", fcMatrix.getString(1, 2));
+
+        FCMatrix.Column column = fcMatrix.getColumn(3);
+        assertEquals(3, column.size());
+        assertEquals(1, column.get(0), 0);
+        assertEquals(0.4, column.get(1), 0);
+        assertEquals(2.5, column.get(2), 0);
+        // the column is a view of the matrix
+        fcMatrix.set(0, 3, 7);
+        assertEquals(7, column.get(0), 0);
+    }
+
+    @Test
+    public void testFloatPrecision() {
+        FCMatrix fcMatrix = new FCMatrix(2, 2, true);
+        fcMatrix.set(0, 1, 0.1);
+        assertEquals((float) 0.1, fcMatrix.get(0, 1), 0);
+        assertEquals(0.1, fcMatrix.get(0, 1), 1e-7);
+        assertEquals(Float.toString(0.1f), fcMatrix.getString(0, 1));
+        assertEquals((float) 0.1, fcMatrix.getColumn(1).get(0), 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testColumnOutOfBounds() {
+        new FCMatrix(2, 2, false).getColumn(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLarge() {
+        new FCMatrix(100000, 100000, true);
+    }
+}
@@ -0,0 +1,84 @@
+package org.cytoscape.tmm.reports;
+
+import org.junit.Test;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Public class LabelPlacerTest
+ */
+public class LabelPlacerTest {
+
+    private static Rectangle2D label(double x, double y) {
+        return new Rectangle2D.Double(x, y, 40, 10);
+    }
+
+    private static void assertNoOverlaps(Rectangle2D[] bounds, boolean[] placed) {
+        for (int i = 0; i < bounds.length; i++)
+            for (int j = i + 1; j < bounds.length; j++)
+                if (placed[i] && placed[j])
+                    assertFalse("Labels " + i + " and " + j + " overlap", bounds[i].intersects(bounds[j]));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, LabelPlacer.place(new Rectangle2D[0], new double[0]).length);
+    }
+
+    @Test
+    public void testSeparateLabels() {
+        Rectangle2D[] bounds = new Rectangle2D[]{label(0, 0), label(100, 0), label(0, 100), label(1000, 1000)};
+        assertArrayEquals(new boolean[]{true, true, true, true},
+                LabelPlacer.place(bounds, new double[]{0, 0, 0, 0}));
+    }
+
+    @Test
+    public void testPriority() {
+        // the second label overlaps both others, which do not overlap each other
+        Rectangle2D[] bounds = new Rectangle2D[]{label(0, 0), label(30, 0), label(60, 0)};
+        assertArrayEquals(new boolean[]{true, false, true},
+                LabelPlacer.place(bounds, new double[]{0, 0, 0}));
+        assertArrayEquals(new boolean[]{false, true, false},
+                LabelPlacer.place(bounds, new double[]{0, 1, 0}));
+        // equal priorities: the labels are placed in their order
+        assertArrayEquals(new boolean[]{true, false, false},
+                LabelPlacer.place(new Rectangle2D[]{bounds[1], bounds[0], bounds[2]}, new double[]{0, 0, 0}));
+    }
+
+    @Test
+    public void testSameBounds() {
+        Rectangle2D[] bounds = new Rectangle2D[]{label(5, 5), label(5, 5), label(5, 5)};
+        assertArrayEquals(new boolean[]{false, false, true},
+                LabelPlacer.place(bounds, new double[]{0.1, 0.2, 0.3}));
+    }
+
+    @Test
+    public void testRandomLabels() {
+        Random random = new Random(1);
+        int n = 5000;
+        Rectangle2D[] bounds = new Rectangle2D[n];
+        double[] priorities = new double[n];
+        for (int i = 0; i < n; i++) {
+            // mostly a dense cluster, with a few labels far away and some wide ones
+            double spread = i % 100 == 0 ? 100000 : 500;
+            bounds[i] = new Rectangle2D.Double(random.nextGaussian() * spread, random.nextGaussian() * spread,
+                    i % 10 == 0 ? 200 : 20 + random.nextInt(40), 8 + random.nextInt(4));
+            priorities[i] = random.nextDouble();
+        }
+        boolean[] placed = LabelPlacer.place(bounds, priorities);
+        assertNoOverlaps(bounds, placed);
+
+        // greedy: a label left out overlaps a placed label of higher or equal priority
+        for (int i = 0; i < n; i++) {
+            if (placed[i])
+                continue;
+            boolean blocked = false;
+            for (int j = 0; j < n && !blocked; j++)
+                blocked = placed[j] && priorities[j] >= priorities[i] && bounds[i].intersects(bounds[j]);
+            assertTrue("Label " + i + " was left out without overlapping a placed label", blocked);
+        }
+    }
+}
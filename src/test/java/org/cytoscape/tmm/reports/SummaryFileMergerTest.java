@@ -0,0 +1,160 @@
+package org.cytoscape.tmm.reports;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Public class SummaryFileMergerTest
+ */
+public class SummaryFileMergerTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("summarymerger", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    /**
+     * Writes a summary file of the nodes with a score and a p value column per sample.
+     * The score of a node in a sample is the node ordinal plus the given offset.
+     */
+    private File write(String name, String[] nodes, List<String> samples, double offset) throws IOException {
+        File file = new File(dir, name);
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write("ID\tName");
+            for (String sample : samples)
+                writer.write("\t" + SummaryFileHandler.SCOREPATTERN + sample + "\tpvalue." + sample);
+            for (int n = 0; n < nodes.length; n++) {
+                writer.write(System.lineSeparator() + n + "\t" + nodes[n]);
+                for (String sample : samples)
+                    writer.write("\t" + (n + offset) + "\t" + sample);
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static ArrayList<String[]> read(File file) throws IOException {
+        ArrayList<String[]> rows = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null)
+                rows.add(line.split("\t", -1));
+        } finally {
+            reader.close();
+        }
+        return rows;
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        String[] nodes = new String[]{"ALT", "Telomerase", "TERT"};
+        File file1 = write("summary1.xls", nodes, Arrays.asList("S1", "S3"), 0);
+        File file2 = write("summary2.xls", nodes, Arrays.asList("S2"), 10);
+        File merged = new File(dir, "merged.xls");
+        SummaryFileMerger.merge(Arrays.asList(file1, file2), Arrays.asList("S1", "S2", "S3"), merged);
+
+        assertEquals(Arrays.asList("S1", "S2", "S3"), SummaryFileMerger.getSamples(merged));
+        ArrayList<String[]> rows = read(merged);
+        assertEquals(4, rows.size());
+        assertArrayEquals(new String[]{"ID", "Name", "score.S1", "pvalue.S1", "score.S2", "pvalue.S2",
+                "score.S3", "pvalue.S3"}, rows.get(0));
+        assertArrayEquals(new String[]{"2", "TERT", "2.0", "S1", "12.0", "S2", "2.0", "S3"}, rows.get(3));
+    }
+
+    @Test
+    public void testPatch() throws Exception {
+        String[] nodes = new String[]{"ALT", "Telomerase"};
+        File summary = write("summary.xls", nodes, Arrays.asList("S1", "S2", "S3"), 0);
+        File rerun = write("rerun.xls", nodes, Arrays.asList("S2"), 100);
+        File merged = new File(dir, "merged.xls");
+        // the columns of a sample are taken from the last file containing it
+        SummaryFileMerger.merge(Arrays.asList(summary, rerun), Arrays.asList("S1", "S2", "S3"), merged);
+        ArrayList<String[]> rows = read(merged);
+        assertArrayEquals(new String[]{"1", "Telomerase", "1.0", "S1", "101.0", "S2", "1.0", "S3"}, rows.get(2));
+    }
+
+    @Test
+    public void testMergeInPlace() throws Exception {
+        String[] nodes = new String[]{"ALT", "Telomerase"};
+        File summary = write("summary.xls", nodes, Arrays.asList("S1", "S2"), 0);
+        File rerun = write("rerun.xls", nodes, Arrays.asList("S1"), 100);
+        SummaryFileMerger.merge(Arrays.asList(summary, rerun), Arrays.asList("S1", "S2"), summary);
+        ArrayList<String[]> rows = read(summary);
+        assertArrayEquals(new String[]{"0", "ALT", "100.0", "S1", "0.0", "S2"}, rows.get(1));
+        assertEquals(2, dir.listFiles().length);
+    }
+
+    @Test
+    public void testFailedMergeInPlace() throws Exception {
+        File summary = write("summary.xls", new String[]{"ALT", "TERT"}, Arrays.asList("S1", "S2"), 0);
+        File rerun = write("rerun.xls", new String[]{"ALT"}, Arrays.asList("S1"), 100);
+        ArrayList<String[]> rows = read(summary);
+        try {
+            SummaryFileMerger.merge(Arrays.asList(summary, rerun), Arrays.asList("S1", "S2"), summary);
+            fail("Merged a file without the node TERT");
+        } catch (Exception e) {
+            // expected
+        }
+        // the summary file is left as it was, and the temporary file is removed
+        ArrayList<String[]> after = read(summary);
+        assertEquals(rows.size(), after.size());
+        for (int r = 0; r < rows.size(); r++)
+            assertArrayEquals(rows.get(r), after.get(r));
+        assertEquals(2, dir.listFiles().length);
+    }
+
+    @Test
+    public void testSubset() throws Exception {
+        File summary = write("summary.xls", new String[]{"ALT"}, Arrays.asList("S1", "S2", "S3"), 0);
+        File merged = new File(dir, "merged.xls");
+        SummaryFileMerger.merge(Arrays.asList(summary), Arrays.asList("S3", "S1"), merged);
+        assertEquals(Arrays.asList("S3", "S1"), SummaryFileMerger.getSamples(merged));
+    }
+
+    @Test(expected = Exception.class)
+    public void testMissingSample() throws Exception {
+        File summary = write("summary.xls", new String[]{"ALT"}, Arrays.asList("S1"), 0);
+        SummaryFileMerger.merge(Arrays.asList(summary), Arrays.asList("S1", "S2"), new File(dir, "merged.xls"));
+    }
+
+    @Test(expected = Exception.class)
+    public void testMissingNode() throws Exception {
+        File file1 = write("summary1.xls", new String[]{"ALT", "TERT"}, Arrays.asList("S1"), 0);
+        File file2 = write("summary2.xls", new String[]{"ALT"}, Arrays.asList("S2"), 0);
+        SummaryFileMerger.merge(Arrays.asList(file1, file2), Arrays.asList("S1", "S2"), new File(dir, "merged.xls"));
+    }
+
+    @Test(expected = Exception.class)
+    public void testInvalidHeader() throws Exception {
+        File file = new File(dir, "summary.xls");
+        FileWriter writer = new FileWriter(file);
+        writer.write("ID\tName\tS1\tpvalue.S1\n0\tALT\t1\t0.5\n");
+        writer.close();
+        SummaryFileMerger.getSamples(file);
+    }
+}
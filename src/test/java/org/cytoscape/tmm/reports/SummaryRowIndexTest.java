@@ -0,0 +1,159 @@
+package org.cytoscape.tmm.reports;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Public class SummaryRowIndexTest
+ */
+public class SummaryRowIndexTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("summaryrowindex", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    /**
+     * Writes a summary file with the rows, each given as node name followed by score and p value pairs.
+     */
+    private File write(String name, String[] samples, String[]... rows) throws IOException {
+        File file = new File(dir, name);
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write("ID\tName");
+            for (String sample : samples)
+                writer.write("\t" + SummaryFileHandler.SCOREPATTERN + sample + "\tpvalue." + sample);
+            for (int n = 0; n < rows.length; n++) {
+                writer.write("\n" + n);
+                for (String value : rows[n])
+                    writer.write("\t" + value);
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testReadRow() throws Exception {
+        File file = write("psf_summary.xls", new String[]{"S1", "S2"},
+                new String[]{"ALT", "1.5", "0.01", "2.5", "0.02"},
+                new String[]{"Telomerase", "3.5", "0.03", "4.5", "0.04"});
+        SummaryRowIndex index = SummaryRowIndex.get(file);
+        assertEquals(Arrays.asList("S1", "S2"), index.getSamples());
+        assertEquals(1, index.getSampleIndex("S2"));
+        assertEquals(-1, index.getSampleIndex("S3"));
+        assertEquals(Arrays.asList("ALT", "Telomerase"), index.getNodeNames());
+
+        double[][] row = index.readRow("Telomerase");
+        assertArrayEquals(new double[]{3.5, 4.5}, row[0], 0);
+        assertArrayEquals(new double[]{0.03, 0.04}, row[1], 0);
+        assertNull(index.readRow("TERT"));
+        assertTrue(SummaryRowIndex.getIndexFile(file).exists());
+    }
+
+    @Test
+    public void testDuplicateNode() throws Exception {
+        File file = write("psf_summary.xls", new String[]{"S1"},
+                new String[]{"ALT", "1", "0.1"},
+                new String[]{"ALT", "2", "0.2"},
+                new String[]{"TERT", "3", "0.3"});
+        SummaryRowIndex index = SummaryRowIndex.get(file);
+        assertEquals(Arrays.asList("ALT", "TERT"), index.getNodeNames());
+        assertArrayEquals(new double[]{1}, index.readRow("ALT")[0], 0);
+        assertArrayEquals(new double[]{3}, index.readRow("TERT")[0], 0);
+    }
+
+    @Test
+    public void testStoredIndex() throws Exception {
+        File file = write("psf_summary.xls", new String[]{"S1"},
+                new String[]{"ALT", "1", "0.1"});
+        File other = write("other.xls", new String[]{"S1"},
+                new String[]{"TERT", "2", "0.2"});
+        SummaryRowIndex.get(file);
+        File indexFile = SummaryRowIndex.getIndexFile(file);
+        long indexModified = indexFile.lastModified() - 10000;
+        assertTrue(indexFile.setLastModified(indexModified));
+
+        // the stored index is read, not rebuilt, once the kept index is of another file
+        SummaryRowIndex.get(other);
+        SummaryRowIndex index = SummaryRowIndex.get(file);
+        assertEquals(indexModified, indexFile.lastModified());
+        assertArrayEquals(new double[]{1}, index.readRow("ALT")[0], 0);
+    }
+
+    @Test
+    public void testChangeWithinFileTimeResolution() throws Exception {
+        String[] samples = new String[]{"S1"};
+        File file = write("psf_summary.xls", samples,
+                new String[]{"ALT", "1", "0.1"},
+                new String[]{"TERT", "2", "0.2"});
+        long lastModified = file.lastModified();
+        File other = write("other.xls", samples,
+                new String[]{"TERT", "2", "0.2"});
+        SummaryRowIndex index = SummaryRowIndex.get(file);
+
+        // same length and time, different content: the kept index is replaced
+        write("psf_summary.xls", samples,
+                new String[]{"ALT", "5", "0.5"},
+                new String[]{"TERT", "2", "0.2"});
+        assertTrue(file.setLastModified(lastModified));
+        SummaryRowIndex changed = SummaryRowIndex.get(file);
+        assertNotSame(index, changed);
+        assertArrayEquals(new double[]{5}, changed.readRow("ALT")[0], 0);
+
+        // and the stored index is rebuilt
+        write("psf_summary.xls", samples,
+                new String[]{"ALT", "1", "0.1"},
+                new String[]{"TERT", "7", "0.7"});
+        assertTrue(file.setLastModified(lastModified));
+        SummaryRowIndex.get(other);
+        assertArrayEquals(new double[]{7}, SummaryRowIndex.get(file).readRow("TERT")[0], 0);
+    }
+
+    @Test
+    public void testRowsSwapped() throws Exception {
+        String[] samples = new String[]{"S1"};
+        File file = write("psf_summary.xls", samples,
+                new String[]{"ALT", "1", "0.1"},
+                new String[]{"N1", "2", "0.2"},
+                new String[]{"N2", "3", "0.3"},
+                new String[]{"TERT", "4", "0.4"});
+        long lastModified = file.lastModified();
+        SummaryRowIndex index = SummaryRowIndex.get(file);
+
+        // rows of the same length swapped in the middle of the file, which the fingerprint does not cover
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write("ID\tName\t" + SummaryFileHandler.SCOREPATTERN + "S1\tpvalue.S1"
+                    + "\n0\tALT\t1\t0.1\n2\tN2\t3\t0.3\n1\tN1\t2\t0.2\n3\tTERT\t4\t0.4");
+        } finally {
+            writer.close();
+        }
+        assertTrue(file.setLastModified(lastModified));
+        try {
+            index.readRow("N1");
+            fail("The row of another node was read");
+        } catch (Exception e) {
+            assertTrue(e.getMessage().contains("has changed"));
+        }
+    }
+}